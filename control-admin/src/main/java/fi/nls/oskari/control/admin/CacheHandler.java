@@ -3,6 +3,7 @@ package fi.nls.oskari.control.admin;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.CacheStats;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
@@ -56,6 +57,22 @@ public class CacheHandler extends RestActionHandler {
         JSONHelper.putValue(json, "limit", cache.getLimit());
         JSONHelper.putValue(json, "expiration", cache.getExpiration() / 1000);
         JSONHelper.putValue(json, "secondsToExpire", cache.getTimeToExpirationMs() / 1000);
+        JSONHelper.putValue(json, "stats", getStatsJSON(cache.getStats()));
+        return json;
+    }
+
+    private JSONObject getStatsJSON(CacheStats stats) {
+        final JSONObject json = new JSONObject();
+        JSONHelper.putValue(json, "hits", stats.getHits());
+        JSONHelper.putValue(json, "misses", stats.getMisses());
+        JSONHelper.putValue(json, "hitRatio", stats.getHitRatio());
+        JSONHelper.putValue(json, "evictions", stats.getEvictions());
+        JSONHelper.putValue(json, "expirations", stats.getExpirations());
+        JSONHelper.putValue(json, "loads", stats.getLoads());
+        JSONHelper.putValue(json, "loadTimeMsMean", stats.getAverageLoadTimeMs());
+        if (stats.isBytesEstimated()) {
+            JSONHelper.putValue(json, "estimatedBytes", stats.getEstimatedBytes());
+        }
         return json;
     }
 
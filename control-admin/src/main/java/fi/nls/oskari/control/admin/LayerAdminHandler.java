@@ -1,11 +1,14 @@
 package fi.nls.oskari.control.admin;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.FileTileCache;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.control.layer.GetLayerTileHandler;
 import fi.nls.oskari.control.layer.GetMapLayerGroupsHandler;
 import org.oskari.user.User;
 import fi.nls.oskari.domain.map.DataProvider;
@@ -36,6 +39,7 @@ import org.oskari.log.AuditLog;
 
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.stream.Collectors;
 
 @OskariActionRoute("LayerAdmin")
 public class LayerAdminHandler extends AbstractLayerAdminHandler {
@@ -48,6 +52,8 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
     private static final String KEY_UPDATE_CAPA_FAIL = "updateCapabilitiesFail";
     private static final String KEY_PERMISSIONS_FAIL = "insertPermissionsFail";
     private static final String ERROR_NO_LAYER_WITH_ID = "layer_not_found";
+    // in-memory cache of GetWFSVectorTileHandler (control-mvt), looked up by name as admin doesn't depend on it
+    private static final String MVT_TILE_CACHE = "org.oskari.control.mvt.GetWFSVectorTileHandler";
     private OskariLayerService mapLayerService;
     private DataProviderService dataProviderService;
 
@@ -66,8 +72,31 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
         super.init();
     }
 
-    private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+    private void flushLayerListCache(OskariLayer layer) {
+        GetMapLayerGroupsHandler.flushLayer(layer.getId());
+        if (layer.isSublayer()) {
+            // parent layer JSON includes the sublayers
+            GetMapLayerGroupsHandler.flushLayer(layer.getParentId());
+        }
+    }
+
+    private void flushLayerTiles(int layerId) {
+        FileTileCache.flushLayer(Integer.toString(layerId));
+        GetLayerTileHandler.flushLayerTiles(layerId);
+        flushVectorTiles(layerId);
+    }
+
+    private void flushVectorTiles(int layerId) {
+        if (!CacheManager.getCacheNames().contains(MVT_TILE_CACHE)) {
+            // vector tiles haven't been requested
+            return;
+        }
+        Cache<?> cache = CacheManager.getCache(MVT_TILE_CACHE);
+        String prefix = "WFS_" + layerId + "_";
+        cache.getKeys().stream()
+                .filter(key -> key.startsWith(prefix))
+                .collect(Collectors.toList())
+                .forEach(cache::remove);
     }
 
     private VectorStyleService getVectorStyleService() {
@@ -126,7 +155,10 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
             // NOTE! only tell if permissions failed, this probably needs some refactoring to be useful
             output.setWarn(KEY_PERMISSIONS_FAIL);
         }
-        flushLayerListCache();
+        flushLayerListCache(ml);
+        if (isExisting) {
+            flushLayerTiles(result.id);
+        }
         writeResponse(params, output);
     }
 
@@ -136,7 +168,7 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
         final OskariLayer ml = getMapLayer(params.getUser(), id);
         MapLayerAdminOutput output = getLayerForEdit(params.getUser(), ml);
         try {
-            cleanupLayerReferences(id);
+            List<OskariLayer> modified = cleanupLayerReferences(id);
             mapLayerService.delete(id);
 
             MapLayerPermissionsHelper.removePermissions(id);
@@ -149,7 +181,9 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
                     .deleted(AuditLog.ResourceType.MAPLAYER);
 
             writeResponse(params, output);
-            flushLayerListCache();
+            flushLayerListCache(ml);
+            modified.forEach(this::flushLayerListCache);
+            flushLayerTiles(id);
         } catch (Exception e) {
             throw new ActionException("Couldn't delete map layer - id:" + id, e);
         }
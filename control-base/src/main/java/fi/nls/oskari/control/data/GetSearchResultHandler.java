@@ -1,10 +1,13 @@
 package fi.nls.oskari.control.data;
 
+import com.codahale.metrics.MetricRegistry;
+import fi.mml.portti.service.search.ChannelSearchListener;
 import fi.mml.portti.service.search.SearchCriteria;
 import fi.mml.portti.service.search.SearchService;
 import fi.mml.portti.service.search.SearchServiceImpl;
 import fi.nls.oskari.SearchWorker;
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionControl;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
 import fi.nls.oskari.control.ActionParameters;
@@ -19,6 +22,7 @@ import org.json.JSONObject;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @OskariActionRoute("GetSearchResult")
 public class GetSearchResultHandler extends ActionHandler {
@@ -29,13 +33,39 @@ public class GetSearchResultHandler extends ActionHandler {
     private static final String PARAM_CHANNELIDS_KEY = "channels";
     private static final String PARAM_AUTOCOMPLETE = "autocomplete";
     private static final SearchService searchService = new SearchServiceImpl();
+    private static final boolean GATHER_METRICS = PropertyUtil.getOptional("GetSearchResult.metrics", true);
+    private static final String METRICS_PREFIX = "Oskari.Search";
+
+    // listener is static so this records metrics for searches made from other handlers as well
+    private static final ChannelSearchListener METRICS_LISTENER = new ChannelSearchListener() {
+        @Override
+        public void searchCompleted(String channelId, long durationMs, boolean success) {
+            MetricRegistry metrics = ActionControl.getMetrics();
+            metrics.timer(MetricRegistry.name(METRICS_PREFIX, channelId)).update(durationMs, TimeUnit.MILLISECONDS);
+            if (!success) {
+                metrics.meter(MetricRegistry.name(METRICS_PREFIX, channelId, "failed")).mark();
+            }
+        }
+
+        @Override
+        public void searchSkipped(String channelId) {
+            ActionControl.getMetrics().meter(MetricRegistry.name(METRICS_PREFIX, channelId, "skipped")).mark();
+        }
+    };
 
     private String[] channels = new String[0];
 
     public void init() {
         channels = PropertyUtil.getCommaSeparatedList("actionhandler.GetSearchResult.channels");
+        if (GATHER_METRICS) {
+            // registering the same listener again is a no-op so init() can be called more than once
+            SearchServiceImpl.addChannelSearchListener(METRICS_LISTENER);
+        }
     }
 
+    public void teardown() {
+        SearchServiceImpl.removeChannelSearchListener(METRICS_LISTENER);
+    }
 
     public void handleAction(final ActionParameters params) throws ActionException {
         final String search = params.getHttpParam(PARAM_SEARCH_KEY, params.getHttpParam(PARAM_SEARCH_KEY_ALT));
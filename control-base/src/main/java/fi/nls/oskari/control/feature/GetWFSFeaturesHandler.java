@@ -1,17 +1,15 @@
 package fi.nls.oskari.control.feature;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.Optional;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
-import org.geotools.geojson.feature.FeatureJSON;
-import org.geotools.geojson.geom.GeometryJSON;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.oskari.geojson.GeoJSONStreamWriter;
 import org.oskari.service.user.UserLayerService;
 import org.oskari.service.wfs.client.OskariWFSClient;
 
@@ -37,11 +35,6 @@ public class GetWFSFeaturesHandler extends AbstractWFSFeaturesHandler {
     private static final byte[] EMPTY_GEOJSON_FEATURE_COLLECTION =
             "{\"type\": \"FeatureCollection\", \"features\": []}".getBytes(StandardCharsets.UTF_8);
 
-    // For WGS84: 11.132mm precision at equator, more precise elsewhere, max error 5.5mm
-    private static final int NUM_DECIMAL_PLACES_DEGREE = 7;
-    // For metric projections: 10mm precision, max error 5mm
-    private static final int NUM_DECIMAL_PLACES_OTHER = 2;
-
     @Override
     public void handleAction(ActionParameters params) throws ActionException {
         String id = params.getRequiredParam(ActionConstants.PARAM_ID);
@@ -67,12 +60,10 @@ public class GetWFSFeaturesHandler extends AbstractWFSFeaturesHandler {
             return;
         }
 
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            OutputStreamWriter writer = new OutputStreamWriter(baos, StandardCharsets.UTF_8);
-            int decimals = getNumDecimals(targetCRS);
-            new FeatureJSON(new GeometryJSON(decimals)).writeFeatureCollection(fc, writer);
-            ResponseHelper.writeResponse(params, 200, GEOJSON_CONTENT_TYPE, baos);
+        int decimals = GeoJSONStreamWriter.getNumDecimals(targetCRS);
+        try (OutputStream out = ResponseHelper.getOutputStream(params, 200, GEOJSON_CONTENT_TYPE);
+                GeoJSONStreamWriter writer = new GeoJSONStreamWriter(out, decimals)) {
+            writer.writeFeatureCollection(fc);
         } catch (IOException e) {
             throw new ActionCommonException(ERR_GEOJSON_ENCODE_FAIL, e);
         }
@@ -110,20 +101,4 @@ public class GetWFSFeaturesHandler extends AbstractWFSFeaturesHandler {
         }
     }
 
-    /**
-     * Get number of decimal places to use (maximum) when writing out the GeoJSON response.
-     * The goal is to reduce the size of the actual response thereby reducing the amount
-     * of memory and network used to serve the response while maintaining a precision that
-     * still far exceedes the needs for our purposes
-     *
-     * @returns number of decimal places to use, the number depends on the unit of measure
-     * of the axes of the coordinate system:
-     * - NUM_DECIMAL_PLACES_DEGREE for degrees
-     * - NUM_DECIMAL_PLACES_OTHER for others (metres, feet, what have you)
-     */
-    private int getNumDecimals(CoordinateReferenceSystem crs) {
-        boolean degrees = "°".equals(crs.getCoordinateSystem().getAxis(0).getUnit().toString());
-        return degrees ? NUM_DECIMAL_PLACES_DEGREE : NUM_DECIMAL_PLACES_OTHER;
-    }
-
 }
@@ -5,7 +5,6 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 
-import fi.nls.oskari.cache.CacheManager;
 
 import org.json.JSONObject;
 import org.oskari.log.AuditLog;
@@ -130,7 +129,8 @@ public class DataProviderHandler extends RestActionHandler {
     }
 
     private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+        // provider names are included in layer JSON
+        GetMapLayerGroupsHandler.flushAll();
     }
 
     @Override
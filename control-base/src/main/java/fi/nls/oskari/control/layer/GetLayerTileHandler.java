@@ -5,6 +5,7 @@ import com.codahale.metrics.Timer;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.SegmentedLRUCache;
 import fi.nls.oskari.control.ActionCommonException;
 import fi.nls.oskari.control.ActionControl;
 import fi.nls.oskari.control.ActionException;
@@ -17,8 +18,10 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.layer.formatters.LayerJSONFormatterVectorTile;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.service.capabilities.CapabilitiesConstants;
+import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.OskariHttpClient;
 import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.ResponseHelper;
 import jakarta.servlet.http.HttpServletRequest;
@@ -32,13 +35,24 @@ import org.oskari.permissions.PermissionService;
 import org.oskari.service.user.LayerAccessHandler;
 import org.oskari.service.util.ServiceFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static fi.nls.oskari.control.ActionConstants.KEY_ID;
 import static fi.nls.oskari.map.layer.formatters.LayerJSONFormatter.KEY_GLOBAL_LEGEND;
@@ -54,15 +68,54 @@ public class GetLayerTileHandler extends ActionHandler {
     private static final List<String> RESERVED_PARAMETERS = Arrays.asList(new String[]{KEY_ID, ActionControl.PARAM_ROUTE, LEGEND});
     private static final int TIMEOUT_CONNECTION = PropertyUtil.getOptional("GetLayerTile.timeout.connection", 1000);
     private static final int TIMEOUT_READ = PropertyUtil.getOptional("GetLayerTile.timeout.read", 5000);
+    // time limit for reading the whole response so a slow service doesn't hold the request thread
+    private static final Duration TIMEOUT_BODY = Duration.ofMillis(PropertyUtil.getOptional("GetLayerTile.timeout.body", 30000));
     private static final boolean GATHER_METRICS = PropertyUtil.getOptional("GetLayerTile.metrics", true);
     private static final String METRICS_PREFIX = "Oskari.GetLayerTile";
     private static final String TEXT_CONTENT_TYPE_PREFIX = "text/";
     private static final String APPLICATION_JSON_CONTENT_TYPE = "application/json";
     private static final String APPLICATION_XML_CONTENT_TYPE = "application/xml";
     private static final int ERRORMESSAGE_MAX_LENGTH = 1000;
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CONTENT_LENGTH = "Content-Length";
+    private static final List<String> CONDITIONAL_REQUEST_HEADERS = Arrays.asList("If-None-Match", "If-Modified-Since");
+    private static final List<String> PASSTHROUGH_RESPONSE_HEADERS = Arrays.asList("ETag", "Last-Modified", "Expires");
+    // Optional cache for proxied tiles. Layers opt in with attribute tileCacheTTL (seconds)
+    public static final String TILE_CACHE_NAME = GetLayerTileHandler.class.getSimpleName() + "_tiles";
+    private static final String ATTR_TILE_CACHE_TTL = "tileCacheTTL";
+    private static final String PROPERTY_TILE_CACHE_MAX_BYTES = "GetLayerTile.cache.maxbytes";
+    private static final long DEFAULT_TILE_CACHE_MAX_BYTES = 64L * 1024L * 1024L;
+    private static final int MAX_CACHED_TILE_BYTES = 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
     private PermissionHelper permissionHelper;
     private Collection<LayerAccessHandler> layerAccessHandlers;
     private Cache<String> cache_WMTS_URL;
+    private SegmentedLRUCache<ProxiedTile> tileCache;
+
+    /**
+     * Proxied tile kept in memory with the headers needed to respond with it
+     */
+    private static class ProxiedTile {
+        private final byte[] data;
+        private final String contentType;
+        private final String etag;
+        private final String cacheControl;
+        private final long expires;
+
+        private ProxiedTile(byte[] data, String contentType, String etag, String cacheControl, long expires) {
+            this.data = data;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.cacheControl = cacheControl;
+            this.expires = expires;
+        }
+
+        private boolean isExpired() {
+            return expires < System.currentTimeMillis();
+        }
+    }
 
     // WMTS rest layers params
     private static final String KEY_STYLE = "STYLE";
@@ -80,6 +133,20 @@ public class GetLayerTileHandler extends ActionHandler {
         Map<String, LayerAccessHandler> handlerComponents = OskariComponentManager.getComponentsOfType(LayerAccessHandler.class);
         this.layerAccessHandlers = handlerComponents.values();
         cache_WMTS_URL = CacheManager.getCache(GetLayerTileHandler.class.getSimpleName() + "_WMTS_URL");
+        tileCache = getTileCache();
+    }
+
+    private static SegmentedLRUCache<ProxiedTile> getTileCache() {
+        return CacheManager.getCache(TILE_CACHE_NAME, () -> {
+            SegmentedLRUCache<ProxiedTile> cache = new SegmentedLRUCache<>();
+            // tiles expire individually based on layer TTL and Cache-Control of the service
+            cache.setExpiration(TimeUnit.DAYS.toMillis(1));
+            cache.setLimit(Integer.MAX_VALUE);
+            // weight in bytes, also used for the estimatedBytes statistic
+            cache.setWeigher(tile -> tile.data.length);
+            cache.setMaxWeight(ConversionHelper.getLong(PropertyUtil.getOptional(PROPERTY_TILE_CACHE_MAX_BYTES), DEFAULT_TILE_CACHE_MAX_BYTES));
+            return cache;
+        });
     }
 
     /**
@@ -111,46 +178,56 @@ public class GetLayerTileHandler extends ActionHandler {
             return;
         }
 
+        layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
+
         final MetricRegistry metrics = ActionControl.getMetrics();
 
+        // The user has passed the permission check for the layer at this point and the service is always called
+        // with the layer credentials so the same tiles can be served to any user that has access to the layer
+        final long tileCacheTTL = doOutPut ? 0 : getTileCacheTTL(layer);
+        final String tileCacheKey = tileCacheTTL > 0 ? getTileCacheKey(layerId, url) : null;
+        if (tileCacheKey != null) {
+            ProxiedTile cached = tileCache.get(tileCacheKey);
+            if (cached != null && !cached.isExpired()) {
+                if (GATHER_METRICS) {
+                    metrics.meter(METRICS_PREFIX + "." + layerId + ".cached").mark();
+                }
+                writeCachedTile(params, cached);
+                return;
+            }
+        }
+
         Timer.Context actionTimer = null;
         if (GATHER_METRICS) {
             final com.codahale.metrics.Timer timer = metrics.timer(METRICS_PREFIX + "." + layerId);
             actionTimer = timer.time();
         }
-        // TODO: we should handle redirects here or in IOHelper or start using a lib that handles 301/302 properly
-        HttpURLConnection con = getConnection(url, layer);
-
-        layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
-
+        HttpRequest tileRequest = getRequest(url, layer, postParams, params.getRequest());
+        HttpResponse<InputStream> serviceResponse = null;
         try {
-            con.setRequestMethod(httpMethod);
-            con.setDoOutput(doOutPut);
-            con.setConnectTimeout(TIMEOUT_CONNECTION);
-            con.setReadTimeout(TIMEOUT_READ);
-            con.setDoInput(true);
-            con.setFollowRedirects(true);
-            con.setUseCaches(false);
-            // tell the service who is making the requests
-            IOHelper.addIdentifierHeaders(con);
-            con.connect();
-
-            if (doOutPut) {
-                IOHelper.writeToConnection(con, postParams);
-            }
+            serviceResponse = OskariHttpClient.send(tileRequest);
 
-            final int responseCode = con.getResponseCode();
+            final int responseCode = serviceResponse.statusCode();
             if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
                 // prevent excessive logging by handling a common case where service responds with 404
                 params.getResponse().sendError(HttpServletResponse.SC_NOT_FOUND);
                 LOG.debug("URL reported 404:", url);
                 return;
             }
-            final String contentType = con.getContentType().toLowerCase();
+            final HttpServletResponse response = params.getResponse();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                copyResponseHeaders(serviceResponse, response, false);
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            final String contentType = getHeader(serviceResponse, IOHelper.HEADER_CONTENTTYPE, "").toLowerCase();
             if(responseCode != HttpURLConnection.HTTP_OK || !isContentTypeOK(contentType)) {
                 LOG.warn("URL", url, "returned HTTP response code", responseCode,
-                        "with message", con.getResponseMessage(), "and content-type:", contentType);
-                String msg = IOHelper.readString(con);
+                        "with content-type:", contentType);
+                String msg;
+                try (InputStream in = OskariHttpClient.getDecodedInputStream(serviceResponse, TIMEOUT_BODY)) {
+                    msg = IOHelper.readString(in);
+                }
 
                 // if response type is not something textual, i.e. json / xml we probably do not want to log the content.
                 if (isContentTypeHumanReadable(contentType)) {
@@ -166,13 +243,22 @@ public class GetLayerTileHandler extends ActionHandler {
                 throw new ActionParamsException("Problematic response from actual service");
             }
 
-            // read the image tile
-            final byte[] presponse = IOHelper.readBytes(con);
-            final HttpServletResponse response = params.getResponse();
+            // stream the tile to the client instead of reading it to memory first
             response.setContentType(contentType);
-            response.getOutputStream().write(presponse, 0, presponse.length);
-            response.getOutputStream().flush();
-            response.getOutputStream().close();
+            // Content-Length doesn't match if we need to decode the response
+            boolean passContentLength = !IOHelper.ENCODING_GZIP.equals(getHeader(serviceResponse, HEADER_CONTENT_ENCODING, null));
+            copyResponseHeaders(serviceResponse, response, passContentLength);
+            long ttl = tileCacheKey == null ? 0 : getTTL(tileCacheTTL, getHeader(serviceResponse, HEADER_CACHE_CONTROL, null));
+            byte[] copy;
+            try (InputStream in = OskariHttpClient.getDecodedInputStream(serviceResponse, TIMEOUT_BODY)) {
+                OutputStream out = response.getOutputStream();
+                copy = writeTile(in, out, ttl > 0);
+                out.flush();
+            }
+            if (copy != null) {
+                tileCache.put(tileCacheKey, new ProxiedTile(copy, contentType, getHeader(serviceResponse, "ETag", null),
+                        response.getHeader(HEADER_CACHE_CONTROL), System.currentTimeMillis() + ttl));
+            }
         } catch(ActionException e) {
             // just throw it as is if we already handled it
             throw e;
@@ -183,10 +269,147 @@ public class GetLayerTileHandler extends ActionHandler {
             if (actionTimer != null) {
                 actionTimer.stop();
             }
-            if (con != null) {
-                con.disconnect();
+            if (serviceResponse != null) {
+                // no-op if the body was already read, otherwise releases the connection
+                OskariHttpClient.discard(serviceResponse);
+            }
+        }
+    }
+
+    /**
+     * Streams the tile to the client
+     * @param keepCopy true to collect the tile to memory while writing it (for caching)
+     * @return the tile as bytes or null if a copy wasn't requested or the tile was too large to cache
+     */
+    private byte[] writeTile(InputStream in, OutputStream out, boolean keepCopy) throws IOException {
+        ByteArrayOutputStream copy = keepCopy ? new ByteArrayOutputStream() : null;
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer, 0, BUFFER_SIZE)) != -1) {
+            out.write(buffer, 0, read);
+            if (copy == null) {
+                continue;
+            }
+            if (copy.size() + read > MAX_CACHED_TILE_BYTES) {
+                copy = null;
+            } else {
+                copy.write(buffer, 0, read);
             }
         }
+        return copy == null ? null : copy.toByteArray();
+    }
+
+    private void writeCachedTile(ActionParameters params, ProxiedTile tile) {
+        final HttpServletResponse response = params.getResponse();
+        if (tile.cacheControl != null) {
+            response.setHeader(HEADER_CACHE_CONTROL, tile.cacheControl);
+        }
+        if (tile.etag != null) {
+            response.setHeader("ETag", tile.etag);
+            if (ResponseHelper.isNotModified(params, tile.etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+        }
+        ResponseHelper.writeResponse(params, HttpServletResponse.SC_OK, tile.contentType, tile.data);
+    }
+
+    /**
+     * @return time-to-live in ms for cached tiles of the layer, 0 if tiles of the layer are not cached
+     */
+    private long getTileCacheTTL(OskariLayer layer) {
+        int ttl = layer.getAttributes().optInt(ATTR_TILE_CACHE_TTL, 0);
+        return ttl > 0 ? TimeUnit.SECONDS.toMillis(ttl) : 0;
+    }
+
+    /**
+     * Layer TTL limited by the Cache-Control header of the service
+     * @return 0 if the service doesn't allow caching the tile
+     */
+    protected static long getTTL(long layerTTL, String cacheControl) {
+        if (cacheControl == null) {
+            return layerTTL;
+        }
+        String value = cacheControl.toLowerCase();
+        if (value.contains("no-store") || value.contains("no-cache")) {
+            return 0;
+        }
+        Matcher m = MAX_AGE.matcher(value);
+        if (m.find()) {
+            return Math.min(layerTTL, TimeUnit.SECONDS.toMillis(Long.parseLong(m.group(1))));
+        }
+        return layerTTL;
+    }
+
+    /**
+     * Key starts with the layer id so tiles can be flushed per layer. Query parameters are sorted
+     * and parameter names uppercased so the same tile requested with parameters in different order
+     * or case is only cached once.
+     */
+    protected static String getTileCacheKey(int layerId, String url) {
+        int queryStart = url.indexOf('?');
+        if (queryStart == -1) {
+            return layerId + "/" + url;
+        }
+        String query = url.substring(queryStart + 1);
+        String params = Arrays.stream(query.split("&"))
+                .filter(param -> !param.isEmpty())
+                .map(param -> {
+                    int i = param.indexOf('=');
+                    return i == -1 ? param.toUpperCase() : param.substring(0, i).toUpperCase() + param.substring(i);
+                })
+                .sorted()
+                .collect(Collectors.joining("&"));
+        return layerId + "/" + url.substring(0, queryStart) + "?" + params;
+    }
+
+    /**
+     * Removes cached proxied tiles of the layer. Should be called when a layer is modified.
+     * @param layerId
+     */
+    public static void flushLayerTiles(int layerId) {
+        SegmentedLRUCache<ProxiedTile> cache = getTileCache();
+        String prefix = layerId + "/";
+        cache.getKeys().stream()
+                .filter(key -> key.startsWith(prefix))
+                .forEach(cache::remove);
+    }
+
+    /**
+     * Passes conditional request headers from the browser to the service
+     */
+    private void copyConditionalHeaders(HttpServletRequest request, HttpRequest.Builder builder) {
+        for (String header : CONDITIONAL_REQUEST_HEADERS) {
+            String value = request.getHeader(header);
+            if (value != null) {
+                builder.setHeader(header, value);
+            }
+        }
+    }
+
+    /**
+     * Passes caching related headers from the service to the browser
+     */
+    private void copyResponseHeaders(HttpResponse<?> serviceResponse, HttpServletResponse response, boolean includeContentLength) {
+        for (String header : PASSTHROUGH_RESPONSE_HEADERS) {
+            String value = getHeader(serviceResponse, header, null);
+            if (value != null) {
+                response.setHeader(header, value);
+            }
+        }
+        String cacheControl = getHeader(serviceResponse, HEADER_CACHE_CONTROL, null);
+        if (cacheControl != null) {
+            // tiles are served after a permission check so shared caches shouldn't store them
+            response.setHeader(HEADER_CACHE_CONTROL, cacheControl.replaceAll("\\bpublic\\b", "private"));
+        }
+        long contentLength = serviceResponse.headers().firstValueAsLong(HEADER_CONTENT_LENGTH).orElse(-1);
+        if (includeContentLength && contentLength >= 0) {
+            response.setContentLengthLong(contentLength);
+        }
+    }
+
+    private static String getHeader(HttpResponse<?> response, String name, String defaultValue) {
+        return response.headers().firstValue(name).orElse(defaultValue);
     }
 
     private boolean isContentTypeHumanReadable(String contentType) {
@@ -247,7 +470,7 @@ public class GetLayerTileHandler extends ActionHandler {
             // empty means we parsed and there was no resource url
             return resourceUrl;
         }
-        LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
+        LayerCapabilitiesWMTS caps = CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS);
         ResourceUrl url = caps.getResourceUrl("tile");
         String valueToCache = "";
         if (url != null) {
@@ -317,20 +540,30 @@ public class GetLayerTileHandler extends ActionHandler {
         return lurl;
     }
     /**
-     * Creates connection
+     * Creates the request to the service
      * @param url URL (with params) to call
      * @param layer layer
-     * @return connection
+     * @param postParams form parameters to POST, null for GET
+     * @param request request from the browser
+     * @return request to send
      * @throws ActionException
      */
-    private HttpURLConnection getConnection(final String url, final OskariLayer layer)
+    private HttpRequest getRequest(final String url, final OskariLayer layer, String postParams, HttpServletRequest request)
             throws ActionException {
         try {
             final String username = layer.getUsername();
             final String password = layer.getPassword();
             String urlWithExtraParams = IOHelper.constructUrl(url, JSONHelper.getObjectAsMap(layer.getParams()));
             LOG.debug("Getting layer tile from url:", urlWithExtraParams);
-            return IOHelper.getConnection(urlWithExtraParams, username, password);
+            HttpRequest.Builder builder = OskariHttpClient.newRequest(urlWithExtraParams, username, password)
+                    .timeout(Duration.ofMillis(TIMEOUT_CONNECTION + TIMEOUT_READ));
+            // let the service tell if the browser already has the current version of the tile
+            copyConditionalHeaders(request, builder);
+            if (postParams != null) {
+                builder.header(IOHelper.HEADER_CONTENTTYPE, IOHelper.CONTENTTYPE_FORM_URLENCODED)
+                        .POST(HttpRequest.BodyPublishers.ofString(postParams));
+            }
+            return builder.build();
         } catch (Exception e) {
             throw new ActionException("Couldn't get connection to service", e);
         }
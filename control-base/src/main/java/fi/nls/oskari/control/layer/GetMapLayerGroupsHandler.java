@@ -7,6 +7,7 @@ import static fi.nls.oskari.control.ActionConstants.PARAM_ID;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import fi.nls.oskari.cache.Cache;
@@ -22,6 +23,7 @@ import fi.nls.oskari.util.JSONHelper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.oskari.permissions.model.PermissionSet;
 
 import org.oskari.service.maplayer.OskariMapLayerGroupService;
 import fi.mml.map.mapwindow.util.OskariLayerWorker;
@@ -59,7 +61,24 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
             OskariLayer.TYPE_ARCGIS93,
             OskariLayer.TYPE_VECTOR_TILE);
 
+    private static final String KEY_ALL_LAYERS = "all";
+    private static final int LAYER_JSON_CACHE_LIMIT = 50000;
+
+    private static final LayerJSONFormatter FORMATTER = new LayerJSONFormatter();
+
+    // full responses per roles/lang/crs
     private static final Cache<String> cache = CacheManager.getCache(CACHE_NAME);
+    // layers read from the database, shared by all users
+    private static final Cache<List<OskariLayer>> layerCache = CacheManager.getCache(CACHE_NAME + "_layers");
+    // layer JSON without permissions per layer/lang/crs, shared by all users
+    private static final Cache<String> layerJSONCache = CacheManager.getCache(CACHE_NAME + "_json", () -> {
+        Cache<String> c = new Cache<>();
+        c.setLimit(LAYER_JSON_CACHE_LIMIT);
+        return c;
+    });
+    // keys of proxied layer JSON in layerJSONCache so requests don't need to list all the cached keys
+    private static final Set<String> proxiedJSONKeys = ConcurrentHashMap.newKeySet();
+    private static volatile long proxiedJSONFlush;
 
     private OskariLayerService layerService;
     private OskariMapLayerGroupService groupService;
@@ -141,29 +160,182 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
 
         // Get all layers instead of using OskariLayerWorker.getLayersForUser() so we don't check permissions twice
         List<OskariLayer> layers = getLayers(requestedIds);
-        if (forceProxy) {
-            layers.stream()
-                    .filter(layer -> PROXY_LYR_TYPES.contains(layer.getType()))
-                    .forEach(layer -> layer.addAttribute("forceProxy", true));
-        }
 
         int[] sortedLayerIds = layers.stream().mapToInt(OskariLayer::getId).toArray();
         Arrays.sort(sortedLayerIds);
+
+        PermissionSet permissions = OskariLayerWorker.getPermissionSet(layers, user);
+        List<OskariLayer> permitted = OskariLayerWorker.filterLayersWithResources(layers, permissions, user, isPublished);
+        Map<Integer, OskariLayer> proxiedLayers = forceProxy
+                ? getProxiedLayers(permitted, lang, crs, isSecure)
+                : Collections.emptyMap();
+        Set<Integer> providerIds = new HashSet<>();
+        StringBuilder layersJSON = new StringBuilder("[");
+        int count = 0;
+        for (OskariLayer layer : permitted) {
+            String json = getLayerJSON(layer, lang, crs, forceProxy, isSecure, proxiedLayers);
+            if (json == null) {
+                continue;
+            }
+            if (count++ > 0) {
+                layersJSON.append(',');
+            }
+            JSONObject layerPermissions = OskariLayerWorker.getPermissions(user, OskariLayerWorker.getPermissionKey(layer), permissions);
+            layersJSON.append(withPermissions(json, layerPermissions));
+            if (layer.getGroup() != null) {
+                providerIds.add(layer.getGroup().getId());
+            }
+        }
+        layersJSON.append(']');
+        LOG.debug("Returning", count, "/", layers.size(), "layers");
+
         try {
-            // getListOfMapLayers checks permissions
-            JSONObject response = OskariLayerWorker.getListOfMapLayers(layers, user, lang, crs, isPublished, isSecure);
+            JSONObject response = new JSONObject();
             response.put(KEY_GROUPS, getGroupJSON(groupsByParentId, linksByGroupId, sortedLayerIds, -1, lang));
-            response.put(KEY_PROVIDERS, getProvidersJSON(lang, getProviderIds(response, user)));
-            return response.toString();
+            response.put(KEY_PROVIDERS, getProvidersJSON(lang, getProviderIds(providerIds, user)));
+            // layer JSON is already serialized so append the rest of the response to it
+            String rest = response.toString();
+            StringBuilder result = new StringBuilder(layersJSON.length() + rest.length() + 16);
+            result.append("{\"").append(OskariLayerWorker.KEY_LAYERS).append("\":").append(layersJSON);
+            if (rest.length() > 2) {
+                result.append(',').append(rest, 1, rest.length());
+            } else {
+                result.append('}');
+            }
+            return result.toString();
         } catch (JSONException e) {
             throw new ActionException("Failed to add groups", e);
         }
     }
 
+    /**
+     * Adds permissions to serialized layer JSON
+     * @param layerJSON JSON object serialized as String
+     * @param permissions
+     * @return layer JSON with permissions
+     */
+    protected static String withPermissions(String layerJSON, JSONObject permissions) {
+        StringBuilder json = new StringBuilder(layerJSON.length() + 64);
+        json.append(layerJSON, 0, layerJSON.lastIndexOf('}'));
+        if (json.length() > 1) {
+            json.append(',');
+        }
+        return json.append("\"permissions\":").append(permissions).append('}').toString();
+    }
+
+    /**
+     * Returns layer JSON without permissions. The JSON only depends on the layer so it's cached
+     * for all users. Cached JSON needs to be flushed with flushLayer() when the layer is modified.
+     */
+    private String getLayerJSON(OskariLayer layer, String lang, String crs, boolean forceProxy, boolean isSecure,
+                                Map<Integer, OskariLayer> proxiedLayers) {
+        String cacheKey = getLayerCacheKey(layer.getId(), lang, crs, forceProxy, isSecure);
+        String json = layerJSONCache.get(cacheKey);
+        if (json != null) {
+            return json;
+        }
+        try {
+            JSONObject layerJson = FORMATTER.getJSON(getLayerToFormat(layer, forceProxy, proxiedLayers), lang, isSecure, crs);
+            if (layerJson == null) {
+                return null;
+            }
+            // FIXME: formats isn't used by the frontend, see OskariLayerWorker
+            layerJson.remove("formats");
+            json = layerJson.toString();
+            layerJSONCache.put(cacheKey, json);
+            if (forceProxy) {
+                proxiedJSONKeys.add(cacheKey);
+            }
+            return json;
+        } catch (Exception ex) {
+            LOG.error(ex);
+        }
+        return null;
+    }
+
+    private OskariLayer getLayerToFormat(OskariLayer layer, boolean forceProxy, Map<Integer, OskariLayer> proxiedLayers) {
+        if (!forceProxy || !PROXY_LYR_TYPES.contains(layer.getType())) {
+            return layer;
+        }
+        OskariLayer proxied = proxiedLayers.get(layer.getId());
+        if (proxied != null) {
+            return proxied;
+        }
+        // JSON was evicted from cache after the proxied layers were loaded
+        return loadProxiedLayers(Collections.singletonList(layer.getId())).getOrDefault(layer.getId(), layer);
+    }
+
+    /**
+     * Layers are cached and shared between requests so they can't be modified to force proxy.
+     * Loads copies of the layers that need to be proxied with one query. Layers that already have
+     * JSON cached are skipped. Layers with JSON evicted from the cache are loaded one by one
+     * in getLayerToFormat().
+     */
+    private Map<Integer, OskariLayer> getProxiedLayers(List<OskariLayer> layers, String lang, String crs, boolean isSecure) {
+        long lastFlush = layerJSONCache.getLastFlush();
+        if (proxiedJSONFlush != lastFlush) {
+            // the cache has expired since the keys were added
+            proxiedJSONKeys.clear();
+            proxiedJSONFlush = lastFlush;
+        }
+        List<Integer> ids = layers.stream()
+                .filter(layer -> PROXY_LYR_TYPES.contains(layer.getType()))
+                .map(OskariLayer::getId)
+                .filter(id -> !proxiedJSONKeys.contains(getLayerCacheKey(id, lang, crs, true, isSecure)))
+                .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return loadProxiedLayers(ids);
+    }
+
+    private Map<Integer, OskariLayer> loadProxiedLayers(List<Integer> ids) {
+        Map<Integer, OskariLayer> proxied = new HashMap<>(ids.size());
+        for (OskariLayer copy : layerService.findByIdList(ids)) {
+            copy.addAttribute("forceProxy", true);
+            proxied.put(copy.getId(), copy);
+        }
+        return proxied;
+    }
+
+    private List<OskariLayer> getAllLayers() {
+        List<OskariLayer> layers = layerCache.get(KEY_ALL_LAYERS);
+        if (layers == null) {
+            layers = Collections.unmodifiableList(layerService.findAll());
+            layerCache.put(KEY_ALL_LAYERS, layers);
+        }
+        return layers;
+    }
+
+    /**
+     * Flushes cached JSON for the layer and the layer listings. Call when a layer is added, modified or removed.
+     * @param layerId
+     */
+    public static void flushLayer(int layerId) {
+        String prefix = layerId + "_";
+        layerJSONCache.getKeys().stream()
+                .filter(key -> key.startsWith(prefix))
+                .forEach(layerJSONCache::remove);
+        proxiedJSONKeys.removeIf(key -> key.startsWith(prefix));
+        layerCache.flush(true);
+        cache.flush(true);
+    }
+
+    /**
+     * Flushes all cached layer JSON and the layer listings. Call when something that is
+     * included in all layers JSON is modified (like data providers).
+     */
+    public static void flushAll() {
+        layerJSONCache.flush(true);
+        proxiedJSONKeys.clear();
+        layerCache.flush(true);
+        cache.flush(true);
+    }
+
     private List<OskariLayer> getLayers(String requestedLayers) {
         if (requestedLayers == null || requestedLayers.isEmpty()) {
             // nothing requested/default -> return all
-            return layerService.findAll();
+            return getAllLayers();
         }
         // partial list requested
         List<Integer> idList = new ArrayList<>();
@@ -218,21 +390,14 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
     }
 
     /**
-     * Constructs a set of dataprovider ids that are used in the layers that will be returned to the user.
-     * FIXME: This is terrible (looping through layers as json). We need to refactor how we write this stuff for the frontend...
-     * @param response
-     * @return
+     * Returns the set of dataprovider ids that are used in the layers that will be returned to the user.
+     * Admin gets all providers.
      */
-    private Set<Integer> getProviderIds(JSONObject response, User user) {
+    private Set<Integer> getProviderIds(Set<Integer> providerIds, User user) {
         if (user != null && user.isAdmin()) {
             // don't filter providers based on layers, given them all for admin so editing works
             return null;
         }
-        Set<Integer> providerIds = new HashSet<>();
-        JSONArray layers = response.optJSONArray(OskariLayerWorker.KEY_LAYERS);
-        for (int i = 0; i < layers.length(); i++) {
-            providerIds.add(layers.optJSONObject(i).optInt(LayerJSONFormatter.KEY_DATA_PROVIDER_ID, -1));
-        }
         return providerIds;
     }
     /**
@@ -283,6 +448,15 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
                 + getUserRolesKey(user);
     }
 
+    private static String getLayerCacheKey(int layerId, String lang, String crs, boolean forceProxy, boolean isSecure) {
+        // starts with layer id so flushLayer() can find the keys
+        return layerId + "_"
+                + lang + "_"
+                + crs + "_"
+                + forceProxy + "_"
+                + isSecure;
+    }
+
     private String getUserRolesKey(User user) {
         return user.getRoles().stream()
                 .map(r -> Long.toString(r.getId()))
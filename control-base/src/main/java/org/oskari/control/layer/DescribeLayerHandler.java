@@ -118,7 +118,7 @@ public class DescribeLayerHandler extends RestActionHandler {
     private void setDetailsForWFS (LayerExtendedOutput output, OskariLayer layer, String lang) {
         // UserDataLayers are handled in frontend by WFS plugin and embedded myplaces is using WFS type
         // so LayerJSONFormatterUSERDATA gathers values from options and attributes in same way than this
-        LayerCapabilitiesWFS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), layer.getType());
+        LayerCapabilitiesWFS caps = CapabilitiesService.fromLayer(layer, layer.getType());
         WFSLayerAttributes attr = new WFSLayerAttributes(layer.getAttributes());
         WFSLayerOptions opts = new WFSLayerOptions(layer.getOptions());
         output.properties = getProperties(caps, attr, lang);
@@ -235,12 +235,12 @@ public class DescribeLayerHandler extends RestActionHandler {
             return JSONHelper.getObjectAsMap(layer.getCapabilities());
         }
         try {
-            String capsJSON = layer.getCapabilities().toString();
-            LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
+            LayerCapabilitiesWMTS caps = CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS);
             TileMatrixLink link = determineTileMatrix(caps, crs);
 
-            // Make a copy so we don't mutate layer in cache
-            JSONObject modifiedCapabilities = new JSONObject(capsJSON);
+            // Make a shallow copy so we don't mutate layer in cache, nested values are only read
+            JSONObject capabilities = layer.getCapabilities();
+            JSONObject modifiedCapabilities = new JSONObject(capabilities, JSONObject.getNames(capabilities));
             // remove "tileMatrixLinks" (with all matrices) that is replaced with "tileMatrixSet" (just for current projection)
             modifiedCapabilities.remove("tileMatrixLinks");
             modifiedCapabilities.put("tileMatrixSet", link.getTileMatrixSet().getAsJSON());
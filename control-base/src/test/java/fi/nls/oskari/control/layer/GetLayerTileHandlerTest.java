@@ -0,0 +1,33 @@
+package fi.nls.oskari.control.layer;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class GetLayerTileHandlerTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void testTileCacheKeyIsNormalized() {
+        String a = GetLayerTileHandler.getTileCacheKey(1, "https://example.com/wms?service=WMS&LAYERS=foo&bbox=1,2,3,4");
+        String b = GetLayerTileHandler.getTileCacheKey(1, "https://example.com/wms?BBOX=1,2,3,4&layers=foo&SERVICE=WMS&");
+        Assertions.assertEquals(a, b);
+        Assertions.assertEquals("1/https://example.com/wms?BBOX=1,2,3,4&LAYERS=foo&SERVICE=WMS", a);
+        Assertions.assertNotEquals(a, GetLayerTileHandler.getTileCacheKey(2, "https://example.com/wms?service=WMS&LAYERS=foo&bbox=1,2,3,4"));
+        Assertions.assertNotEquals(a, GetLayerTileHandler.getTileCacheKey(1, "https://example.com/wms?service=WMS&LAYERS=FOO&bbox=1,2,3,4"),
+                "Parameter values should be case-sensitive");
+        Assertions.assertEquals("1/https://example.com/tiles/1/2/3.png", GetLayerTileHandler.getTileCacheKey(1, "https://example.com/tiles/1/2/3.png"));
+    }
+
+    @Test
+    public void testTTLHonorsCacheControl() {
+        Assertions.assertEquals(HOUR, GetLayerTileHandler.getTTL(HOUR, null));
+        Assertions.assertEquals(HOUR, GetLayerTileHandler.getTTL(HOUR, "public"));
+        Assertions.assertEquals(60_000, GetLayerTileHandler.getTTL(HOUR, "public, max-age=60"));
+        Assertions.assertEquals(HOUR, GetLayerTileHandler.getTTL(HOUR, "max-age=86400"));
+        Assertions.assertEquals(0, GetLayerTileHandler.getTTL(HOUR, "no-store"));
+        Assertions.assertEquals(0, GetLayerTileHandler.getTTL(HOUR, "No-Cache"));
+    }
+}
@@ -0,0 +1,22 @@
+package fi.nls.oskari.control.layer;
+
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class GetMapLayerGroupsHandlerTest {
+
+    @Test
+    public void testWithPermissions() throws Exception {
+        JSONObject permissions = new JSONObject();
+        permissions.put("publish", true);
+
+        String json = GetMapLayerGroupsHandler.withPermissions("{\"id\":1,\"options\":{\"a\":\"}\"}}", permissions);
+        JSONObject layer = new JSONObject(json);
+        Assertions.assertEquals(1, layer.getInt("id"));
+        Assertions.assertEquals("}", layer.getJSONObject("options").getString("a"));
+        Assertions.assertTrue(layer.getJSONObject("permissions").getBoolean("publish"));
+
+        Assertions.assertEquals("{\"permissions\":{}}", GetMapLayerGroupsHandler.withPermissions("{}", new JSONObject()));
+    }
+}
@@ -1,8 +1,15 @@
 package org.oskari.control.mvt;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import fi.nls.oskari.control.feature.AbstractWFSFeaturesHandler;
 import fi.nls.oskari.control.view.modifier.bundle.BundleHandler;
@@ -30,6 +37,7 @@ import org.locationtech.jts.geom.Point;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.cache.ComputeOnceCache;
+import fi.nls.oskari.cache.FileTileCache;
 import fi.nls.oskari.control.ActionCommonException;
 import fi.nls.oskari.control.ActionConstants;
 import fi.nls.oskari.control.ActionException;
@@ -37,14 +45,22 @@ import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
 
 import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.ResponseHelper;
 import org.oskari.service.mvt.WFSTileGridProperties;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 @OskariActionRoute("GetWFSVectorTile")
 public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
+    private static final Logger LOG = LogFactory.getLogger(GetWFSVectorTileHandler.class);
+
     protected static final String MVT_CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
     protected static final String PARAM_Z = "z";
     protected static final String PARAM_X = "x";
@@ -68,20 +84,41 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
     private static final int TILE_BUFFER = 256;
     private static final int TILE_BUFFER_POINT = 1024;
 
+    // LayerAdminHandler looks up the cache by name to flush tiles of modified layers (keys start with "WFS_[id]_")
+    private static final String TILE_CACHE_NAME = GetWFSVectorTileHandler.class.getName();
     private static final int CACHE_LIMIT = 256;
     private static final long CACHE_EXPIRATION = TimeUnit.MINUTES.toMillis(5);
 
-    private ComputeOnceCache<byte[]> tileCache;
+    // Max time to wait for all the WFS requests needed for a single tile
+    private static final String PROPERTY_TILE_TIMEOUT = "oskari.wfs.mvt.tile.timeoutms";
+    private static final long DEFAULT_TILE_TIMEOUT_MS = 20000L;
+    protected static final String ERR_TILE_TIMEOUT = "Loading features for tile timed out";
+
+    // Optional second tier cache on disk. Like proxied tiles layers opt in with attribute tileCacheTTL (seconds).
+    // A default TTL for all WFS layers can be configured with oskari.wfs.mvt.tilecache.ttl (0 disables)
+    private static final String FILE_CACHE_NAME = "mvt";
+    private static final String PROPERTY_FILE_CACHE_TTL = "oskari.wfs.mvt.tilecache.ttl";
+    private static final String ATTR_FILE_CACHE_TTL = "tileCacheTTL";
+    private static final int DEFAULT_FILE_CACHE_TTL_SECONDS = 0;
+    private static final String HEADER_ETAG = "ETag";
+
+    private ComputeOnceCache<EncodedTile> tileCache;
+    private FileTileCache fileCache;
+    private int defaultFileCacheTTL;
     private WFSTileGridProperties tileGridProperties;
     private Map<String, Integer> cacheZLevels;
+    private long tileTimeoutMs;
 
     @Override
     public void init() {
         super.init();
-        tileCache = CacheManager.getCache(getClass().getName(),
+        tileCache = CacheManager.getCache(TILE_CACHE_NAME,
                 () -> new ComputeOnceCache<>(CACHE_LIMIT, CACHE_EXPIRATION));
+        fileCache = FileTileCache.getCache(FILE_CACHE_NAME);
+        defaultFileCacheTTL = PropertyUtil.getOptional(PROPERTY_FILE_CACHE_TTL, DEFAULT_FILE_CACHE_TTL_SECONDS);
         tileGridProperties = new WFSTileGridProperties();
         cacheZLevels = new HashMap<>();
+        tileTimeoutMs = PropertyUtil.getOptional(PROPERTY_TILE_TIMEOUT, (int) DEFAULT_TILE_TIMEOUT_MS);
         final Map<String, BundleHandler> handlers = ViewModifierManager.getModifiersOfType(BundleHandler.class);
         MapfullHandler mapfullHandler = (MapfullHandler)handlers.get("mapfull");
         WFSVectorLayerPluginViewModifier pluginHandler = new WFSVectorLayerPluginViewModifier();
@@ -119,20 +156,70 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         }
 
         final String cacheKey = getCacheKey(id, srs, z, x, y);
-        final byte[] resp;
+        final boolean isUserContent = contentProcessor.isPresent() && contentProcessor.get().isUserContentLayer(id);
+        final long fileCacheTTL = isUserContent ? 0 : getFileCacheTTL(layer);
+        final String tileKey = getFileCacheKey(srs, z, x, y);
+        EncodedTile resp = null;
+        FileTileCache.Tile cached = fileCacheTTL > 0 ? fileCache.get(id, tileKey, fileCacheTTL) : null;
         try {
-            if (contentProcessor.isPresent() && contentProcessor.get().isUserContentLayer(id)) {
+            if (isUserContent) {
                 // Don't cache user content tiles
-                resp = createTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor);
-            } else {
-                resp = tileCache.get(cacheKey, __ -> createTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor));
+                resp = createUserContentTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor.get());
+            } else if (cached == null) {
+                // tiles missing features of failed or timed out requests are served but not cached
+                resp = tileCache.get(cacheKey, __ -> createTile(id, layer, crs, grid, targetZ, z, x, y, contentProcessor),
+                        EncodedTile::isComplete);
+                if (fileCacheTTL > 0 && resp.isComplete()) {
+                    cached = fileCache.put(id, tileKey, resp.getData());
+                }
             }
         } catch (Exception e) {
             throw new ActionCommonException(e.getMessage(), e);
         }
         params.getResponse().addHeader("Access-Control-Allow-Origin", "*");
         params.getResponse().addHeader("Content-Encoding", "gzip");
-        ResponseHelper.writeResponse(params, 200, MVT_CONTENT_TYPE, resp);
+        if (cached == null) {
+            if (!resp.isComplete()) {
+                params.getResponse().setHeader("Cache-Control", "no-store");
+            }
+            ResponseHelper.writeResponse(params, 200, MVT_CONTENT_TYPE, resp.getData());
+            return;
+        }
+        writeCachedTile(params, cached);
+    }
+
+    private long getFileCacheTTL(OskariLayer layer) {
+        if (!fileCache.isEnabled()) {
+            return 0;
+        }
+        int ttl = layer.getAttributes().optInt(ATTR_FILE_CACHE_TTL, defaultFileCacheTTL);
+        return TimeUnit.SECONDS.toMillis(ttl);
+    }
+
+    private String getFileCacheKey(String srs, int z, int x, int y) {
+        return String.join("/", srs, Integer.toString(z), Integer.toString(x), y + ".mvt.gz");
+    }
+
+    /**
+     * Writes the tile straight from the disk to the response or responds with 304 Not Modified
+     * if the client already has the tile
+     */
+    private void writeCachedTile(ActionParameters params, FileTileCache.Tile tile) {
+        final HttpServletResponse response = params.getResponse();
+        final String etag = tile.getETag();
+        response.setHeader(HEADER_ETAG, etag);
+        if (ResponseHelper.isNotModified(params, etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType(MVT_CONTENT_TYPE);
+        response.setContentLengthLong(tile.getSize());
+        try (OutputStream out = response.getOutputStream()) {
+            tile.writeTo(out);
+        } catch (IOException e) {
+            LOG.info("Couldn't write tile:", e.getMessage());
+        }
     }
 
     private void setGridToModifiers (WFSVectorLayerPluginViewModifier handler, String srsName, WFSTileGrid grid) {
@@ -204,19 +291,16 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
     /**
      * Creates the actual MVT tile
-     * @return an MVT tile as a GZipped byte array
-     * @throws ActionException
+     * @return an MVT tile as a GZipped byte array, incomplete if features of some of the loaded tiles are missing
      */
-    private byte[] createTile(String id, OskariLayer layer, CoordinateReferenceSystem crs,
+    private EncodedTile createTile(String id, OskariLayer layer, CoordinateReferenceSystem crs,
             WFSTileGrid grid, int targetZ, int z, int x, int y,
             Optional<UserLayerService> contentProcessor) {
         List<TileCoord> tilesToLoad = getTilesToLoad(targetZ, z, x, y);
-
+        List<SimpleFeatureCollection> loaded = loadFeatures(id, layer, crs, grid, tilesToLoad, contentProcessor);
+        // DefaultFeatureCollection is keyed by feature id so features found on multiple tiles are only added once
         DefaultFeatureCollection sfc = new DefaultFeatureCollection();
-        for (TileCoord tile : tilesToLoad) {
-            SimpleFeatureCollection tileFeatures = getFeatures(id, layer, crs, grid, tile, contentProcessor);
-            sfc.addAll(tileFeatures);
-        }
+        loaded.forEach(sfc::addAll);
 
         String mvtLayer = layer.getName();
         double[] bbox = grid.getTileExtent(new TileCoord(z, x, y));
@@ -224,6 +308,27 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         int buffer = isOnlyPointFeatures(sfc) ? TILE_BUFFER_POINT : TILE_BUFFER;
 
         byte[] encoded = SimpleFeaturesMVTEncoder.encodeToByteArray(sfc, mvtLayer, bbox, extent, buffer);
+        return new EncodedTile(gzip(encoded), loaded.size() == tilesToLoad.size());
+    }
+
+    /**
+     * Lets the user content service create the tile (PostGIS ST_AsMVT) if it can,
+     * otherwise loads the features and encodes the tile like for other layers
+     * @return an MVT tile as a GZipped byte array
+     */
+    private EncodedTile createUserContentTile(String id, OskariLayer layer, CoordinateReferenceSystem crs,
+            WFSTileGrid grid, int targetZ, int z, int x, int y,
+            UserLayerService processor) throws ServiceException {
+        double[] bbox = grid.getTileExtent(new TileCoord(z, x, y));
+        Optional<byte[]> tile = processor.getMVT(id, layer.getName(), bbox, crs,
+                TILE_EXTENT, TILE_BUFFER, TILE_BUFFER_POINT);
+        if (!tile.isPresent()) {
+            return createTile(id, layer, crs, grid, targetZ, z, x, y, Optional.of(processor));
+        }
+        return new EncodedTile(gzip(tile.get()), true);
+    }
+
+    private static byte[] gzip(byte[] encoded) {
         try {
             return IOHelper.gzip(encoded).toByteArray();
         } catch (IOException e) {
@@ -281,13 +386,78 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         return wfsTiles;
     }
 
-    private SimpleFeatureCollection getFeatures(String id, OskariLayer layer,
-            CoordinateReferenceSystem crs, WFSTileGrid grid, TileCoord tile,
+    /**
+     * Requests features for all the tiles in parallel (limited by the concurrent requests limit of the WFS client)
+     * and waits for all of them to complete or the tile timeout to pass. The timeout includes the time spent
+     * waiting for the limit when starting the requests.
+     * @return features of the tiles that were loaded in time, fewer than tiles if some of them
+     * failed or timed out. Fails only if none of the tiles could be loaded.
+     */
+    private List<SimpleFeatureCollection> loadFeatures(String id, OskariLayer layer,
+            CoordinateReferenceSystem crs, WFSTileGrid grid, List<TileCoord> tiles,
             Optional<UserLayerService> processor) {
+        // The WFS client shares the requests between callers, cancelling a copy doesn't affect the others
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(tileTimeoutMs);
+        List<CompletableFuture<SimpleFeatureCollection>> requests = new ArrayList<>(tiles.size());
+        for (TileCoord tile : tiles) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                // the rest are handled as timed out
+                break;
+            }
+            requests.add(getFeatures(id, layer, crs, grid, tile, processor, Duration.ofNanos(remaining)).copy());
+        }
+        try {
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0]))
+                    .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // use what we got
+        } catch (InterruptedException e) {
+            requests.forEach(r -> r.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new ServiceRuntimeException(ERR_TILE_TIMEOUT, e);
+        }
+        // stop waiting for the ones still running
+        requests.forEach(r -> r.cancel(true));
+
+        List<SimpleFeatureCollection> loaded = new ArrayList<>(requests.size());
+        Throwable error = null;
+        for (CompletableFuture<SimpleFeatureCollection> request : requests) {
+            try {
+                loaded.add(request.join());
+            } catch (CancellationException e) {
+                // timed out
+            } catch (CompletionException e) {
+                error = e.getCause();
+            }
+        }
+        if (loaded.isEmpty()) {
+            if (error == null) {
+                throw new ServiceRuntimeException(ERR_TILE_TIMEOUT);
+            }
+            if (error instanceof ServiceRuntimeException) {
+                throw (ServiceRuntimeException) error;
+            }
+            if (error.getCause() instanceof ServiceRuntimeException) {
+                // CompletionException from a dependent stage
+                throw (ServiceRuntimeException) error.getCause();
+            }
+            throw new ServiceRuntimeException("Failed to get features", error);
+        }
+        if (loaded.size() < tiles.size()) {
+            LOG.info("Loaded features for", loaded.size(), "/", tiles.size(), "tiles of layer:", id,
+                    error != null ? error.getMessage() : ERR_TILE_TIMEOUT);
+        }
+        return loaded;
+    }
+
+    private CompletableFuture<SimpleFeatureCollection> getFeatures(String id, OskariLayer layer,
+            CoordinateReferenceSystem crs, WFSTileGrid grid, TileCoord tile,
+            Optional<UserLayerService> processor, Duration maxWait) {
         double[] box = grid.getTileExtent(tile);
         Envelope envelope = new Envelope(box[0], box[2], box[1], box[3]);
         ReferencedEnvelope bbox = new ReferencedEnvelope(envelope, crs);
-        return featureClient.getFeatures(id, layer, bbox, crs, processor);
+        return featureClient.getFeaturesAsync(id, layer, bbox, crs, processor, maxWait);
     }
 
     private boolean isOnlyPointFeatures(SimpleFeatureCollection sfc) {
@@ -322,4 +492,25 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
         return true;
     }
 
+    /**
+     * GZipped MVT tile. Incomplete if it's missing features of some of the loaded tiles (failed or timed out).
+     */
+    private static class EncodedTile {
+        private final byte[] data;
+        private final boolean complete;
+
+        EncodedTile(byte[] data, boolean complete) {
+            this.data = data;
+            this.complete = complete;
+        }
+
+        byte[] getData() {
+            return data;
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+    }
+
 }
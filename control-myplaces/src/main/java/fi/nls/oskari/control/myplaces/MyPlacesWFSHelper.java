@@ -38,6 +38,9 @@ import org.oskari.service.user.UserLayerService;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+
+import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
 
 @Oskari
 public class MyPlacesWFSHelper extends UserLayerService {
@@ -225,4 +228,10 @@ public class MyPlacesWFSHelper extends UserLayerService {
         SimpleFeatureCollection featureCollection = featureService.getFeatures(categoryId, bbox, crs);
         return featureCollection != null ? featureCollection : new EmptyFeatureCollection(null);
     }
+
+    @Override
+    public Optional<byte[]> getMVT(String layerId, String mvtLayer, double[] bbox, CoordinateReferenceSystem crs,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        return featureService.getMVT(parseId(layerId), mvtLayer, bbox, getSRID(CRS.toSRS(crs)), extent, buffer, pointBuffer);
+    }
 }
@@ -14,6 +14,7 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.myplaces.MyPlacesService;
 import fi.nls.oskari.myplaces.service.MyPlacesFeaturesService;
+import fi.nls.oskari.myplaces.service.MyPlacesFeaturesService.FeatureCollectionWriter;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.IOHelper;
@@ -28,8 +29,10 @@ import org.oskari.myplaces.service.mybatis.MyPlacesFeaturesServiceMybatisImpl;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 
 @OskariActionRoute("MyPlacesFeatures")
 public class MyPlacesFeaturesHandler extends RestActionHandler {
@@ -61,13 +64,24 @@ public class MyPlacesFeaturesHandler extends RestActionHandler {
         final String crs = params.getHttpParam(PARAM_CRS, "EPSG:3067");
         final String layerId = params.getHttpParam(PARAM_LAYER_ID);
 
+        final Optional<FeatureCollectionWriter> features;
         try {
-            final JSONObject featureCollection = getFeatures(user, layerId, crs);
-            ResponseHelper.writeResponse(params, featureCollection != null ? featureCollection : createEmptyFeatureCollection());
+            features = getFeatures(user, layerId, crs);
         } catch (ServiceException e) {
             LOG.warn(e);
             throw new ActionException("Failed to get features");
         }
+        if (features.isEmpty()) {
+            ResponseHelper.writeResponse(params, createEmptyFeatureCollection());
+            return;
+        }
+        // the response is opened only after the features have been fetched successfully
+        try (OutputStream out = ResponseHelper.getOutputStream(params, 200, ResponseHelper.CONTENT_TYPE_JSON_UTF8)) {
+            features.get().writeTo(out);
+        } catch (IOException e) {
+            LOG.warn(e);
+            throw new ActionException("Failed to write features");
+        }
     }
 
     private JSONObject createEmptyFeatureCollection() throws ActionException{
@@ -82,13 +96,17 @@ public class MyPlacesFeaturesHandler extends RestActionHandler {
         }
 
     }
-    protected JSONObject getFeatures (User user, String layerId, String crs) throws ActionDeniedException, ServiceException {
+
+    /**
+     * Features are fetched here but written to the response afterwards feature by feature
+     * @return empty if there are no features
+     */
+    protected Optional<FeatureCollectionWriter> getFeatures(User user, String layerId, String crs)
+            throws ActionDeniedException, ServiceException {
         if (layerId == null || layerId.isEmpty()) {
             LOG.debug("Get MyPlaces by user uuid, uuid:", user.getUuid(),
                     "crs:", crs);
-
-            JSONObject features = featureService.getFeaturesByUserId(user.getUuid(), crs);
-            return features;
+            return featureService.getFeatureWriterByUserId(user.getUuid(), crs);
         }
         LOG.debug("Get MyPlaces by layer id, uuid:", user.getUuid(),
                 "layerId:", layerId, "crs:", crs);
@@ -97,8 +115,9 @@ public class MyPlacesFeaturesHandler extends RestActionHandler {
             throw new ActionDeniedException(
                     "Tried to GET features from category: " + categoryId);
         }
-        return featureService.getFeaturesByCategoryId(categoryId, crs);
+        return featureService.getFeatureWriterByCategoryId(categoryId, crs);
     }
+
     protected String getLayerName (String layerId) {
         long categoryId = Long.parseLong(layerId);
         MyPlaceCategory category = service.findCategory(categoryId);
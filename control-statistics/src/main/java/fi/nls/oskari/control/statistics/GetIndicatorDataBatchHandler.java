@@ -0,0 +1,225 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.control.ActionCommonException;
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionHandler;
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.control.statistics.data.*;
+import fi.nls.oskari.control.statistics.plugins.*;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.util.ResponseHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch version of GetIndicatorData for fetching data for multiple selector combinations of an indicator
+ * (f.ex. all the years of a time series) with one request.
+ *
+ * Takes the same parameters as GetIndicatorData except "selectors" is a JSON array of selector objects.
+ * Response is a JSON array in the same order as the selectors:
+ * [{ "selectors": {...}, "values": { "[region id]": value, ... } }, ...]
+ *
+ * Cached values are read with one Redis round trip and values that are not cached are requested
+ * from the datasource concurrently. Identical selectors are fetched only once.
+ *
+ * Configuration:
+ * - actionhandler.GetIndicatorDataBatch.maxSize max number of selectors in a request (default 100)
+ * - actionhandler.GetIndicatorDataBatch.threads number of concurrent datasource requests (default 4)
+ * - actionhandler.GetIndicatorDataBatch.queue max number of queued datasource requests (default 200),
+ *   requests are rejected when the queue is full
+ * - actionhandler.GetIndicatorDataBatch.timeoutms max time to wait for the datasource (default 60000)
+ */
+@OskariActionRoute("GetIndicatorDataBatch")
+public class GetIndicatorDataBatchHandler extends ActionHandler {
+
+    private final static String PARAM_LAYER_ID = "regionset";
+    private final static String PARAM_SELECTORS = "selectors";
+    private final static String KEY_SELECTORS = "selectors";
+    private final static String KEY_VALUES = "values";
+    private final static String PROPERTY_PREFIX = "actionhandler.GetIndicatorDataBatch.";
+
+    private StatisticalDatasourcePluginManager pluginManager;
+    private int maxBatchSize;
+    private long timeoutMs;
+    private ExecutorService executor;
+
+    public void setPluginManager(StatisticalDatasourcePluginManager pluginManager) {
+        this.pluginManager = pluginManager;
+    }
+
+    @Override
+    public void init() {
+        if (pluginManager == null) {
+            setPluginManager(StatisticalDatasourcePluginManager.getInstance());
+        }
+        maxBatchSize = PropertyUtil.getOptional(PROPERTY_PREFIX + "maxSize", 100);
+        timeoutMs = PropertyUtil.getOptional(PROPERTY_PREFIX + "timeoutms", 60000);
+        int threads = PropertyUtil.getOptional(PROPERTY_PREFIX + "threads", 4);
+        int queueSize = PropertyUtil.getOptional(PROPERTY_PREFIX + "queue", 200);
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize), r -> {
+                    Thread t = new Thread(r, "indicator-data-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+    }
+
+    @Override
+    public void teardown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void handleAction(ActionParameters params) throws ActionException {
+        final long pluginId = params.getRequiredParamLong(StatisticsHelper.PARAM_DATASOURCE_ID);
+        final String indicatorId = params.getRequiredParam(StatisticsHelper.PARAM_INDICATOR_ID);
+        final long layerId = params.getRequiredParamLong(PARAM_LAYER_ID);
+        final List<JSONObject> selectors = getSelectors(params.getRequiredParam(PARAM_SELECTORS));
+
+        StatisticalDatasourcePlugin plugin = pluginManager.getPlugin(pluginId);
+        if (plugin == null) {
+            throw new ActionParamsException("No such datasource: " + pluginId);
+        }
+        StatisticalIndicator indicator = plugin.getIndicator(params.getUser(), indicatorId);
+        if (indicator == null) {
+            // indicator can be null if user doesn't have permission to it
+            throw new ActionParamsException("No such indicator: " + indicatorId + " on datasource: " + pluginId);
+        }
+        StatisticalIndicatorLayer layer = indicator.getLayer(layerId);
+        if (layer == null) {
+            throw new ActionParamsException("No such regionset: " + layerId);
+        }
+
+        List<String> cacheKeys = new ArrayList<>(selectors.size());
+        // identical selectors have the same cache key and are fetched only once
+        Map<String, JSONObject> uniqueSelectors = new LinkedHashMap<>();
+        for (JSONObject selectorJSON : selectors) {
+            String cacheKey = StatisticsHelper.getIndicatorDataCacheKey(pluginId, indicatorId, layerId, selectorJSON);
+            cacheKeys.add(cacheKey);
+            uniqueSelectors.putIfAbsent(cacheKey, selectorJSON);
+        }
+        List<String> uniqueKeys = new ArrayList<>(uniqueSelectors.keySet());
+        Map<String, IndicatorValueColumns> data = new HashMap<>(uniqueKeys.size());
+        if (plugin.canCache()) {
+            List<IndicatorValueColumns> cached = StatisticsHelper.getDataFromCache(uniqueKeys, layerId);
+            for (int i = 0; i < uniqueKeys.size(); i++) {
+                if (cached.get(i) != null) {
+                    data.put(uniqueKeys.get(i), cached.get(i));
+                }
+            }
+        }
+
+        Map<String, CompletableFuture<IndicatorValueColumns>> requests = new LinkedHashMap<>();
+        Map<String, IndicatorValueColumns> fetched = new HashMap<>();
+        try {
+            for (String cacheKey : uniqueKeys) {
+                if (data.containsKey(cacheKey)) {
+                    continue;
+                }
+                StatisticalIndicatorDataModel model = StatisticsHelper.getIndicatorDataModel(uniqueSelectors.get(cacheKey));
+                requests.put(cacheKey, CompletableFuture.supplyAsync(() -> IndicatorValueColumns.from(layerId,
+                        plugin.getIndicatorValues(indicator, model, layer)), executor));
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            for (Map.Entry<String, CompletableFuture<IndicatorValueColumns>> request : requests.entrySet()) {
+                IndicatorValueColumns values = getResult(request.getValue(), deadline);
+                data.put(request.getKey(), values);
+                fetched.put(request.getKey(), values);
+            }
+        } catch (RejectedExecutionException e) {
+            throw new ActionCommonException("Too many requests for indicator data, try again later");
+        } finally {
+            // requests still queued are skipped if one of them failed or timed out
+            requests.values().forEach(r -> r.cancel(true));
+        }
+        if (plugin.canCache()) {
+            StatisticsHelper.putDataToCache(fetched);
+        }
+        List<IndicatorValueColumns> values = new ArrayList<>(cacheKeys.size());
+        cacheKeys.forEach(key -> values.add(data.get(key)));
+        ResponseHelper.writeResponse(params, toJSON(selectors, values));
+    }
+
+    private List<JSONObject> getSelectors(String param) throws ActionException {
+        JSONArray json;
+        try {
+            json = new JSONArray(param);
+        } catch (JSONException e) {
+            throw new ActionParamsException("Invalid parameter value for key: "
+                    + PARAM_SELECTORS + " - expected JSON array");
+        }
+        if (json.length() > maxBatchSize) {
+            throw new ActionParamsException("Too many selectors, max: " + maxBatchSize);
+        }
+        List<JSONObject> selectors = new ArrayList<>(json.length());
+        for (int i = 0; i < json.length(); i++) {
+            JSONObject selector = json.optJSONObject(i);
+            if (selector == null) {
+                throw new ActionParamsException("Invalid parameter value for key: "
+                        + PARAM_SELECTORS + " - expected JSON objects in array");
+            }
+            selectors.add(selector);
+        }
+        return selectors;
+    }
+
+    private IndicatorValueColumns getResult(CompletableFuture<IndicatorValueColumns> request, long deadline) throws ActionException {
+        try {
+            return request.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new ActionCommonException("Timed out getting indicator data");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ActionException("Interrupted while getting indicator data", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof APIException) {
+                APIException cause = (APIException) e.getCause();
+                if (cause.getCause() instanceof IOException) {
+                    throw new ActionParamsException(cause.getMessage());
+                }
+                throw new ActionException(cause.getMessage(), cause);
+            }
+            throw new ActionException("Error getting indicator data", e);
+        }
+    }
+
+    private JSONArray toJSON(List<JSONObject> selectors, List<IndicatorValueColumns> data) throws ActionException {
+        try {
+            JSONArray response = new JSONArray();
+            for (int i = 0; i < selectors.size(); i++) {
+                JSONObject item = new JSONObject();
+                item.put(KEY_SELECTORS, selectors.get(i));
+                item.put(KEY_VALUES, data.get(i).toJSON());
+                response.put(item);
+            }
+            return response;
+        } catch (JSONException e) {
+            throw new ActionException("Something went wrong in serializing indicator data", e);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package fi.nls.oskari.control.statistics;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
 import fi.nls.oskari.control.ActionParameters;
@@ -9,7 +8,6 @@ import fi.nls.oskari.control.ActionParamsException;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.*;
 import org.oskari.user.User;
-import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.ResponseHelper;
 
 import org.json.JSONException;
@@ -17,7 +15,6 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * This ActionHandler retrieves data for an indicator for the frontend
@@ -69,9 +66,9 @@ public class GetIndicatorDataHandler extends ActionHandler {
 
         String cacheKey = StatisticsHelper.getIndicatorDataCacheKey(pluginId, indicatorId, layerId, selectorJSON);
         if (plugin.canCache()) {
-            JSONObject cached = getFromCache(cacheKey);
+            IndicatorValueColumns cached = StatisticsHelper.getDataFromCache(cacheKey, layerId);
             if (cached != null) {
-                return cached;
+                return toJSON(cached);
             }
         }
 
@@ -83,13 +80,11 @@ public class GetIndicatorDataHandler extends ActionHandler {
         StatisticalIndicatorDataModel selectors = StatisticsHelper.getIndicatorDataModel(selectorJSON);
         try {
             Map<String, IndicatorValue> values = plugin.getIndicatorValues(indicator, selectors, layer);
-            JSONObject response = toJSON(values);
-
+            IndicatorValueColumns data = IndicatorValueColumns.from(layerId, values);
             if (plugin.canCache()) {
-                JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
+                StatisticsHelper.putDataToCache(cacheKey, data);
             }
-
-            return response;
+            return toJSON(data);
         } catch (APIException e) {
             if (e.getCause() instanceof IOException) {
                 throw new ActionParamsException(e.getMessage());
@@ -99,19 +94,9 @@ public class GetIndicatorDataHandler extends ActionHandler {
         }
     }
 
-    private JSONObject getFromCache(String cacheKey) {
-        String cachedData = JedisManager.get(cacheKey);
-        return JSONHelper.createJSONObject(cachedData);
-    }
-
-
-    private JSONObject toJSON(Map<String, IndicatorValue> values) throws ActionException {
+    private JSONObject toJSON(IndicatorValueColumns values) throws ActionException {
         try {
-            JSONObject json = new JSONObject();
-            for (Entry<String, IndicatorValue> entry : values.entrySet()) {
-                entry.getValue().putToJSONObject(json, entry.getKey());
-            }
-            return json;
+            return values.toJSON();
         } catch (JSONException e) {
             throw new ActionException("Something went wrong in serializing indicator data", e);
         }
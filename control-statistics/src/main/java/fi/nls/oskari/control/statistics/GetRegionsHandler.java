@@ -7,6 +7,7 @@ import fi.nls.oskari.control.statistics.db.RegionSet;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.ResponseHelper;
 import org.json.JSONArray;
@@ -32,12 +33,17 @@ import java.util.List;
          },
          "geojson" : { ... }
      }, ...]
+ * Optional parameter "resolution" (map units per pixel) returns geometries simplified for that resolution.
+ * The resolution is snapped to one of the fixed tolerances of RegionSetHelper.getSimplificationLevel()
+ * so each regionset has at most 9 cached levels per SRS. Resolutions below the smallest tolerance
+ * return the full resolution geometries.
  */
 @OskariActionRoute("GetRegions")
 public class GetRegionsHandler extends ActionHandler {
 
     private static final String CACHE_KEY_PREFIX = "oskari:stats:regionset:";
     private static final String KEY_REGIONS = "regions";
+    private static final String PARAM_RESOLUTION = "resolution";
 
     private RegionSetService service;
 
@@ -55,7 +61,8 @@ public class GetRegionsHandler extends ActionHandler {
     public void handleAction(ActionParameters ap) throws ActionException {
         final int layerId = ap.getRequiredParamInt("regionset");
         final String srs = ap.getRequiredParam(ActionConstants.PARAM_SRS);
-        JSONObject response = getRegionInfoJSON(layerId, srs);
+        final double resolution = ConversionHelper.getDouble(ap.getHttpParam(PARAM_RESOLUTION), 0);
+        JSONObject response = getRegionInfoJSON(layerId, srs, resolution);
         ResponseHelper.writeResponse(ap, response);
     }
 
@@ -65,16 +72,30 @@ public class GetRegionsHandler extends ActionHandler {
      * @throws ActionException
      */
     public JSONObject getRegionInfoJSON(long layerId, final String srs) throws ActionException {
+        return getRegionInfoJSON(layerId, srs, 0);
+    }
+
+    /**
+     * @param resolution map resolution to simplify the geometries for, 0 for full resolution geometries
+     */
+    public JSONObject getRegionInfoJSON(long layerId, final String srs, double resolution) throws ActionException {
         final RegionSet regionset = service.getRegionSet(layerId);
 
         if (regionset == null) {
             throw new ActionParamsException("Regionset not found");
         }
-        return requestRegionInfoJSON(layerId, regionset, srs);
+        return requestRegionInfoJSON(layerId, regionset, srs, RegionSetHelper.getSimplificationLevel(resolution, srs));
     }
 
     public JSONObject requestRegionInfoJSON(long id, RegionSet regionset, final String srs) throws ActionException {
-        final String cacheKey = CACHE_KEY_PREFIX + id + ":" + srs;
+        return requestRegionInfoJSON(id, regionset, srs, 0);
+    }
+
+    public JSONObject requestRegionInfoJSON(long id, RegionSet regionset, final String srs, double tolerance) throws ActionException {
+        String cacheKey = CACHE_KEY_PREFIX + id + ":" + srs;
+        if (tolerance > 0) {
+            cacheKey += ":" + tolerance;
+        }
         final String cachedData = JedisManager.get(cacheKey);
         if (cachedData != null && !cachedData.isEmpty()) {
             try {
@@ -88,7 +109,7 @@ public class GetRegionsHandler extends ActionHandler {
         JSONHelper.putValue(response, KEY_REGIONS, regions);
 
         try {
-            final List<Region> result = RegionSetHelper.getRegions(regionset, srs);
+            final List<Region> result = RegionSetHelper.getRegions(regionset, srs, tolerance);
             for (Region region : result) {
                 regions.put(region.toJSON());
             }
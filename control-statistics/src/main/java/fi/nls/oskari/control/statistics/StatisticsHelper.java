@@ -1,14 +1,20 @@
 package fi.nls.oskari.control.statistics;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.util.CacheKeys;
+import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -30,6 +36,13 @@ public class StatisticsHelper {
     public static final String PARAM_REGIONSET = "regionset";
     private static final String CACHE_KEY_METADATA = "metadata";
     private static final String CACHE_KEY_DATA = "data";
+    // in-memory cache in front of Redis for indicator data, the statsgrid UI requests
+    // several years/selectors of the same indicator in a row when classifying
+    private static final Cache<IndicatorValueColumns> DATA_CACHE = CacheManager.getCache(StatisticsHelper.class.getName() + ".data");
+    static {
+        DATA_CACHE.setExpiration(PropertyUtil.getOptional("statistics.data.cache.seconds", 300) * 1000L);
+        DATA_CACHE.setLimit(5000);
+    }
 
     public static String getIndicatorMetadataCacheKey(long datasourceId, String indicatorId) {
         return CacheKeys.buildCacheKey(datasourceId, CACHE_KEY_METADATA, indicatorId);
@@ -58,6 +71,73 @@ public class StatisticsHelper {
     public static void flushDataFromCache(long pluginId, String indicatorId, long layerId, JSONObject selectorJSON) {
         String cacheKey = getIndicatorDataCacheKey(pluginId, indicatorId, layerId, selectorJSON);
         JedisManager.del(cacheKey);
+        DATA_CACHE.remove(cacheKey);
+    }
+
+    /**
+     * Returns indicator data from the in-memory cache or Redis
+     * @return null if not cached
+     */
+    public static IndicatorValueColumns getDataFromCache(String cacheKey, long layerId) {
+        IndicatorValueColumns data = DATA_CACHE.get(cacheKey);
+        if (data != null) {
+            return data;
+        }
+        data = IndicatorValueColumns.fromBytes(layerId, JedisManager.get(cacheKey.getBytes(StandardCharsets.UTF_8)));
+        if (data != null) {
+            DATA_CACHE.put(cacheKey, data);
+        }
+        return data;
+    }
+
+    /**
+     * Batch version of getDataFromCache(String, long). Values missing from the in-memory cache are read from Redis
+     * with a single MGET.
+     * @return cached data in the same order as the keys with null for values that are not cached
+     */
+    public static List<IndicatorValueColumns> getDataFromCache(List<String> cacheKeys, long layerId) {
+        List<IndicatorValueColumns> result = new ArrayList<>(cacheKeys.size());
+        List<Integer> misses = new ArrayList<>();
+        for (int i = 0; i < cacheKeys.size(); i++) {
+            IndicatorValueColumns data = DATA_CACHE.get(cacheKeys.get(i));
+            if (data == null) {
+                misses.add(i);
+            }
+            result.add(data);
+        }
+        if (misses.isEmpty()) {
+            return result;
+        }
+        byte[][] keys = misses.stream()
+                .map(i -> cacheKeys.get(i).getBytes(StandardCharsets.UTF_8))
+                .toArray(byte[][]::new);
+        List<byte[]> cached = JedisManager.mget(keys);
+        for (int i = 0; i < misses.size(); i++) {
+            IndicatorValueColumns data = IndicatorValueColumns.fromBytes(layerId, cached.get(i));
+            if (data != null) {
+                int index = misses.get(i);
+                DATA_CACHE.put(cacheKeys.get(index), data);
+                result.set(index, data);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Batch version of putDataToCache(String, IndicatorValueColumns), values are written to Redis with pipelining.
+     */
+    public static void putDataToCache(Map<String, IndicatorValueColumns> data) {
+        Map<byte[], byte[]> values = new HashMap<>(data.size());
+        data.forEach((cacheKey, value) -> {
+            values.put(cacheKey.getBytes(StandardCharsets.UTF_8), value.toBytes());
+            DATA_CACHE.put(cacheKey, value);
+        });
+        JedisManager.msetex(values, JedisManager.EXPIRY_TIME_DAY);
+    }
+
+    public static void putDataToCache(String cacheKey, IndicatorValueColumns data) {
+        JedisManager.setex(cacheKey.getBytes(StandardCharsets.UTF_8), JedisManager.EXPIRY_TIME_DAY, data.toBytes());
+        DATA_CACHE.put(cacheKey, data);
     }
 
     public static StatisticalIndicatorDataModel getIndicatorDataModel(JSONObject selectorJSON) {
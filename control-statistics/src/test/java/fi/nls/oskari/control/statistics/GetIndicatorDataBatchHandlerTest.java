@@ -0,0 +1,140 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.control.ActionException;
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.control.statistics.data.IndicatorValue;
+import fi.nls.oskari.control.statistics.data.IndicatorValueColumns;
+import fi.nls.oskari.control.statistics.data.IndicatorValueInteger;
+import fi.nls.oskari.control.statistics.data.StatisticalIndicator;
+import fi.nls.oskari.control.statistics.data.StatisticalIndicatorDataModel;
+import fi.nls.oskari.control.statistics.data.StatisticalIndicatorLayer;
+import fi.nls.oskari.control.statistics.plugins.StatisticalDatasourcePlugin;
+import fi.nls.oskari.control.statistics.plugins.StatisticalDatasourcePluginManager;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.test.control.JSONActionRouteTest;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.oskari.user.User;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GetIndicatorDataBatchHandlerTest extends JSONActionRouteTest {
+
+    private static final long DATASOURCE_ID = 1;
+    private static final long REGIONSET_ID = 2;
+
+    private GetIndicatorDataBatchHandler handler;
+
+    @AfterEach
+    public void teardown() {
+        if (handler != null) {
+            handler.teardown();
+        }
+        PropertyUtil.clearProperties();
+    }
+
+    /**
+     * Plugin returns the value of the "year" selector for region "r1" after waiting for delayMs
+     */
+    private StatisticalDatasourcePlugin initHandler(String indicatorId, boolean canCache, long delayMs) {
+        StatisticalIndicator indicator = new StatisticalIndicator();
+        indicator.setId(indicatorId);
+        indicator.addLayer(new StatisticalIndicatorLayer(REGIONSET_ID, indicatorId));
+        StatisticalDatasourcePlugin plugin = mock(StatisticalDatasourcePlugin.class);
+        when(plugin.getIndicator(any(User.class), eq(indicatorId))).thenReturn(indicator);
+        when(plugin.canCache()).thenReturn(canCache);
+        when(plugin.getIndicatorValues(any(), any(), any())).thenAnswer(invocation -> {
+            if (delayMs > 0) {
+                Thread.sleep(delayMs);
+            }
+            StatisticalIndicatorDataModel model = invocation.getArgument(1);
+            long year = Long.parseLong(model.getDimension("year").getValue());
+            return Collections.singletonMap("r1", new IndicatorValueInteger(year));
+        });
+        StatisticalDatasourcePluginManager manager = mock(StatisticalDatasourcePluginManager.class);
+        when(manager.getPlugin(DATASOURCE_ID)).thenReturn(plugin);
+
+        handler = new GetIndicatorDataBatchHandler();
+        handler.setPluginManager(manager);
+        handler.init();
+        return plugin;
+    }
+
+    private Map<String, String> getParams(String indicatorId, String selectors) {
+        Map<String, String> params = new HashMap<>();
+        params.put(StatisticsHelper.PARAM_DATASOURCE_ID, Long.toString(DATASOURCE_ID));
+        params.put(StatisticsHelper.PARAM_INDICATOR_ID, indicatorId);
+        params.put("regionset", Long.toString(REGIONSET_ID));
+        params.put("selectors", selectors);
+        return params;
+    }
+
+    @Test
+    public void testOrderAndDuplicates() throws Exception {
+        StatisticalDatasourcePlugin plugin = initHandler("order", false, 0);
+        String selectors = "[{\"year\":\"2021\"},{\"year\":\"2020\"},{\"year\":\"2021\"}]";
+        handler.handleAction(createActionParams(getParams("order", selectors)));
+
+        JSONArray response = getResponseJSONArray();
+        Assertions.assertEquals(3, response.length());
+        long[] expected = { 2021, 2020, 2021 };
+        for (int i = 0; i < expected.length; i++) {
+            JSONObject item = response.getJSONObject(i);
+            Assertions.assertEquals(Long.toString(expected[i]), item.getJSONObject("selectors").getString("year"));
+            Assertions.assertEquals(expected[i], item.getJSONObject("values").getLong("r1"), "Values should be in the order of selectors");
+        }
+        // identical selectors are fetched once
+        verify(plugin, times(2)).getIndicatorValues(any(), any(), any());
+    }
+
+    @Test
+    public void testCachedValuesAreNotFetched() throws Exception {
+        String indicatorId = "cached";
+        JSONObject cachedSelector = new JSONObject("{\"year\":\"2019\"}");
+        Map<String, IndicatorValue> cachedValues = Collections.singletonMap("r1", new IndicatorValueInteger(1L));
+        StatisticsHelper.putDataToCache(
+                StatisticsHelper.getIndicatorDataCacheKey(DATASOURCE_ID, indicatorId, REGIONSET_ID, cachedSelector),
+                IndicatorValueColumns.from(REGIONSET_ID, cachedValues));
+
+        StatisticalDatasourcePlugin plugin = initHandler(indicatorId, true, 0);
+        String selectors = "[{\"year\":\"2019\"},{\"year\":\"2020\"}]";
+        handler.handleAction(createActionParams(getParams(indicatorId, selectors)));
+
+        JSONArray response = getResponseJSONArray();
+        Assertions.assertEquals(1, response.getJSONObject(0).getJSONObject("values").getLong("r1"), "Should get cached value");
+        Assertions.assertEquals(2020, response.getJSONObject(1).getJSONObject("values").getLong("r1"));
+        verify(plugin, times(1)).getIndicatorValues(any(), any(), any());
+    }
+
+    @Test
+    public void testTooManySelectors() throws Exception {
+        PropertyUtil.addProperty("actionhandler.GetIndicatorDataBatch.maxSize", "2");
+        initHandler("max", false, 0);
+        String selectors = "[{\"year\":\"2019\"},{\"year\":\"2020\"},{\"year\":\"2021\"}]";
+        Assertions.assertThrows(ActionParamsException.class,
+                () -> handler.handleAction(createActionParams(getParams("max", selectors))));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        PropertyUtil.addProperty("actionhandler.GetIndicatorDataBatch.timeoutms", "100");
+        initHandler("slow", false, 2000);
+        String selectors = "[{\"year\":\"2019\"}]";
+        long start = System.currentTimeMillis();
+        Assertions.assertThrows(ActionException.class,
+                () -> handler.handleAction(createActionParams(getParams("slow", selectors))));
+        Assertions.assertTrue(System.currentTimeMillis() - start < 1000, "Should stop waiting after the timeout");
+    }
+}
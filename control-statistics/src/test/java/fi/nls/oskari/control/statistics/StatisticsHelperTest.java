@@ -1,10 +1,18 @@
 package fi.nls.oskari.control.statistics;
 
+import fi.nls.oskari.control.statistics.data.IndicatorValueColumns;
+import fi.nls.oskari.control.statistics.data.IndicatorValueInteger;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class StatisticsHelperTest {
 
     @Test
@@ -19,4 +27,20 @@ public class StatisticsHelperTest {
         Assertions.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testBatchCache() {
+        long layerId = 1850L;
+        String key1 = "StatisticsHelperTest:batch:1";
+        String key2 = "StatisticsHelperTest:batch:2";
+        String key3 = "StatisticsHelperTest:batch:3";
+        IndicatorValueColumns value1 = IndicatorValueColumns.from(layerId, Collections.singletonMap("r1", new IndicatorValueInteger(1L)));
+        IndicatorValueColumns value3 = IndicatorValueColumns.from(layerId, Collections.singletonMap("r1", new IndicatorValueInteger(3L)));
+        Map<String, IndicatorValueColumns> data = new HashMap<>();
+        data.put(key1, value1);
+        data.put(key3, value3);
+        StatisticsHelper.putDataToCache(data);
+
+        List<IndicatorValueColumns> cached = StatisticsHelper.getDataFromCache(Arrays.asList(key3, key2, key1), layerId);
+        Assertions.assertEquals(Arrays.asList(value3, null, value1), cached, "Should get values in the order of keys");
+    }
 }
@@ -39,7 +39,6 @@ import org.oskari.map.userlayer.service.UserLayerException;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.domain.map.userlayer.UserLayer;
-import fi.nls.oskari.domain.map.userlayer.UserLayerData;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.service.ServiceException;
@@ -63,6 +62,9 @@ import fi.nls.oskari.util.ResponseHelper;
  * (both use EPSG:4326,lon,lat coordinates). For MIF and SHP we try to detect the coordinate
  * reference system automatically. If the detection fails (for example there's no .prj file
  * in the SHP case) we use client submitted value ('sourceEpsg' parameter) as a fallback.
+ *
+ * SHP, MIF and GPKG features are read, reprojected and stored in batches one by one while the
+ * file is open so the size of the upload ('userlayer.max.filesize.mb') isn't limited by the heap.
  */
 @OskariActionRoute("CreateUserLayer")
 public class CreateUserLayerHandler extends RestActionHandler {
@@ -124,8 +126,6 @@ public class CreateUserLayerHandler extends RestActionHandler {
 
         String sourceEPSG = params.getHttpParam(PARAM_SOURCE_EPSG_KEY);
         List<FileItem> fileItems = getFileItems(params.getRequest());
-        SimpleFeatureCollection fc;
-        Map<String, String> formParams;
         Set<String> validFiles = new HashSet<>();
         FileItem zipFile = null;
         try {
@@ -138,10 +138,12 @@ public class CreateUserLayerHandler extends RestActionHandler {
             log.debug("Using value from field:", zipFile.getFieldName(), "as the zip file");
             Charset cs = determineCharsetForZipFileNames(zipFile);
             validFiles = checkZip(zipFile, cs);
-            fc = parseFeatures(zipFile, cs, validFiles, sourceCRS, targetCRS);
-            formParams = getFormParams(fileItems);
+            Map<String, String> formParams = getFormParams(fileItems);
             log.debug("Parsed form parameters:", formParams);
-            UserLayer userLayer = store(fc, params.getUser().getUuid(), formParams);
+            String uuid = params.getUser().getUuid();
+            // features are stored while the file is being parsed
+            UserLayer userLayer = parseFeatures(zipFile, cs, validFiles, sourceCRS, targetCRS,
+                    fc -> store(fc, uuid, formParams));
 
             AuditLog.user(params.getClientIp(), params.getUser())
                     .withParam("filename", zipFile.getName())
@@ -300,10 +302,11 @@ public class CreateUserLayerHandler extends RestActionHandler {
                         f -> new String(f.get(), StandardCharsets.UTF_8)));
     }
 
-    private SimpleFeatureCollection parseFeatures(FileItem zipFile,
+    private <T> T parseFeatures(FileItem zipFile,
             Charset cs, Set<String> validFiles,
             CoordinateReferenceSystem sourceCRS,
-            CoordinateReferenceSystem targetCRS) throws UserLayerException, ActionParamsException {
+            CoordinateReferenceSystem targetCRS,
+            FeatureCollectionParser.FeatureCollectionHandler<T> handler) throws UserLayerException, ActionParamsException {
         File dir = null;
         FeatureCollectionParser parser = null;
         try {
@@ -317,7 +320,7 @@ public class CreateUserLayerHandler extends RestActionHandler {
 
             File mainFile = unZip(zipFile, cs, validFiles, dir);
             parser = getParser(mainFile);
-            return parser.parse(mainFile, sourceCRS, targetCRS);
+            return parser.parse(mainFile, sourceCRS, targetCRS, handler);
         }catch (UserLayerException e) {
             if (parser != null) {
                 e.addContent(UserLayerException.InfoType.PARSER, parser.getSuffix().toLowerCase());
@@ -420,17 +423,15 @@ public class CreateUserLayerHandler extends RestActionHandler {
     private UserLayer store(SimpleFeatureCollection fc, String uuid, Map<String, String> formParams)
             throws UserLayerException {
             UserLayer userLayer = createUserLayer(fc, uuid, formParams);
-            List<UserLayerData> userLayerDataList = UserLayerDataService.createUserLayerData(fc, uuid);
-            userLayer.setFeatures_count(userLayerDataList.size());
-            userLayer.setFeatures_skipped(fc.size() - userLayerDataList.size());
-            userLayerService.insertUserLayerAndData(userLayer, userLayerDataList);
+            // reads the features one by one and sets the extent and counts
+            userLayerService.insertUserLayerAndData(userLayer, fc);
             return userLayer;
     }
 
     private UserLayer createUserLayer(SimpleFeatureCollection fc, String uuid, Map<String, String> formParams) {
         JSONObject locale = JSONHelper.createJSONObject(formParams.get(KEY_LOCALE));
         JSONObject style = JSONHelper.createJSONObject(formParams.get(KEY_STYLE));
-        return UserLayerDataService.createUserLayer(fc, uuid, locale, style);
+        return UserLayerDataService.createUserLayer(fc.getSchema(), uuid, locale, style);
     }
 
     private void writeResponse(ActionParameters params, UserLayer ulayer) {
@@ -34,8 +34,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
+import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
+
 @Oskari
 public class UserLayerWFSHelper extends UserLayerService {
 
@@ -168,4 +171,10 @@ public class UserLayerWFSHelper extends UserLayerService {
             throw new ServiceException("Failed to get features. ", e);
         }
     }
+
+    @Override
+    public Optional<byte[]> getMVT(String layerId, String mvtLayer, double[] bbox, CoordinateReferenceSystem crs,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        return service.getMVT(parseId(layerId), mvtLayer, bbox, getSRID(CRS.toSRS(crs)), extent, buffer, pointBuffer);
+    }
 }
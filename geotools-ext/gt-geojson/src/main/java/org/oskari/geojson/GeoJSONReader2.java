@@ -101,7 +101,7 @@ public class GeoJSONReader2 {
     }
 
     @SuppressWarnings("unchecked")
-    private static SimpleFeature toFeature(Map<String, Object> json, SimpleFeatureBuilder builder,
+    static SimpleFeature toFeature(Map<String, Object> json, SimpleFeatureBuilder builder,
             MathTransform transform) throws MismatchedDimensionException, TransformException {
         if (!GeoJSON.FEATURE.equals(GeoJSONUtil.getString(json, GeoJSON.TYPE))) {
             throw new IllegalArgumentException("type was not " + GeoJSON.FEATURE);
@@ -30,14 +30,7 @@ public class GeoJSONSchemaDetector {
         // FIXME: This creates a side-effect by modifying the input as well as returning the SimpleFeatureType.
         // Might cause problems later on...
 
-        // Map feature.geometry fields to JTS Geometries
-        replaceGeometry(json, GeoJSONReader2::toGeometry);
-
-        if (ignoreGeometriesUnderProperties) {
-            replaceMapProperties(json, propertyValue -> isGeometry(propertyValue) ? null : propertyValue);
-        } else {
-            replaceMapProperties(json, propertyValue -> propertyToGeometry(propertyValue).orElse(propertyValue));
-        }
+        toGeometries(json, ignoreGeometriesUnderProperties);
 
         Map<String, Class<?>> bindings = new HashMap<>();
         String type = GeoJSONUtil.getString(json, GeoJSON.TYPE);
@@ -82,6 +75,20 @@ public class GeoJSONSchemaDetector {
         return sftb.buildFeatureType();
     }
 
+    /**
+     * Map feature.geometry fields to JTS Geometries and handle geometries under properties
+     * the same way getSchema() does. Used for features that were not part of schema detection.
+     */
+    static void toGeometries(Map<String, Object> json, boolean ignoreGeometriesUnderProperties) {
+        replaceGeometry(json, GeoJSONReader2::toGeometry);
+
+        if (ignoreGeometriesUnderProperties) {
+            replaceMapProperties(json, propertyValue -> isGeometry(propertyValue) ? null : propertyValue);
+        } else {
+            replaceMapProperties(json, propertyValue -> propertyToGeometry(propertyValue).orElse(propertyValue));
+        }
+    }
+
     /**
      * Try to convert Map<String, Object> representing GeoJSON Geometry to JTS Geometry
      * @param maybeGeometry JSON Object under that might be GeoJSON Geometry
@@ -0,0 +1,152 @@
+package org.oskari.geojson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.geometry.MismatchedDimensionException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.api.referencing.operation.TransformException;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.store.EmptyFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads a GeoJSON FeatureCollection from an InputStream feature by feature using Jackson's token stream.
+ * Unlike parsing the whole document to a Map<String, Object> with GeoJSONReader2 only a single feature
+ * is kept as a Map at a time (plus the ones used for schema detection). The schema is detected from the
+ * first features of the collection so properties that only appear in later features are not included.
+ * For invalid input we throw IllegalArgumentExceptions
+ */
+public class GeoJSONStreamReader {
+
+    public static final int DEFAULT_SCHEMA_SAMPLE_SIZE = 100;
+
+    private static final ObjectMapper OM = new ObjectMapper();
+    private static final TypeReference<HashMap<String, Object>> TYPE_REF = new TypeReference<HashMap<String, Object>>() {};
+
+    public static SimpleFeatureCollection toFeatureCollection(InputStream in,
+            CoordinateReferenceSystem crs, boolean ignoreGeometriesUnderProperties) throws IOException {
+        return toFeatureCollection(in, crs, ignoreGeometriesUnderProperties, DEFAULT_SCHEMA_SAMPLE_SIZE);
+    }
+
+    /**
+     * @param in stream to read, not closed by this method
+     * @param crs used for geometry attributes of the detected schema
+     * @param ignoreGeometriesUnderProperties see GeoJSONSchemaDetector
+     * @param schemaSampleSize number of features used for detecting the schema
+     */
+    public static SimpleFeatureCollection toFeatureCollection(InputStream in,
+            CoordinateReferenceSystem crs, boolean ignoreGeometriesUnderProperties,
+            int schemaSampleSize) throws IOException {
+        try (JsonParser parser = OM.getFactory().createParser(in)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            String type = null;
+            Features features = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (GeoJSON.TYPE.equals(field)) {
+                    type = parser.getValueAsString();
+                } else if (GeoJSON.FEATURES.equals(field)) {
+                    if (value != JsonToken.START_ARRAY) {
+                        throw new IllegalArgumentException(GeoJSON.FEATURES + " was not an array");
+                    }
+                    features = readFeatures(parser, crs, ignoreGeometriesUnderProperties, Math.max(1, schemaSampleSize));
+                } else {
+                    // crs, totalFeatures, links etc.
+                    parser.skipChildren();
+                }
+            }
+            if (!GeoJSON.FEATURE_COLLECTION.equals(type)) {
+                throw new IllegalArgumentException("type was not " + GeoJSON.FEATURE_COLLECTION);
+            }
+            if (features == null) {
+                throw new IllegalArgumentException("Missing " + GeoJSON.FEATURES);
+            }
+            if (features.list.isEmpty()) {
+                return new EmptyFeatureCollection(features.schema);
+            }
+            return new GeoJSONFeatureCollection(features.list, features.schema);
+        }
+    }
+
+    private static class Features {
+        private SimpleFeatureType schema;
+        private final List<SimpleFeature> list = new ArrayList<>();
+    }
+
+    private static Features readFeatures(JsonParser parser, CoordinateReferenceSystem crs,
+            boolean ignoreGeometriesUnderProperties, int schemaSampleSize) throws IOException {
+        Features features = new Features();
+        List<Object> sample = new ArrayList<>();
+        SimpleFeatureBuilder builder = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            Map<String, Object> feature = parser.readValueAs(TYPE_REF);
+            if (builder != null) {
+                GeoJSONSchemaDetector.toGeometries(feature, ignoreGeometriesUnderProperties);
+                features.list.add(toFeature(feature, builder));
+                continue;
+            }
+            sample.add(feature);
+            if (sample.size() >= schemaSampleSize) {
+                builder = detectSchema(features, sample, crs, ignoreGeometriesUnderProperties);
+            }
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new IllegalArgumentException(GeoJSON.FEATURES + " should only contain objects");
+        }
+        if (builder == null && !sample.isEmpty()) {
+            detectSchema(features, sample, crs, ignoreGeometriesUnderProperties);
+        }
+        return features;
+    }
+
+    /**
+     * Detects the schema from sampled features, converts them to SimpleFeatures and clears the sample.
+     * @return builder for the rest of the features or null if the schema could not be detected
+     */
+    @SuppressWarnings("unchecked")
+    private static SimpleFeatureBuilder detectSchema(Features features, List<Object> sample,
+            CoordinateReferenceSystem crs, boolean ignoreGeometriesUnderProperties) {
+        Map<String, Object> collection = new HashMap<>();
+        collection.put(GeoJSON.TYPE, GeoJSON.FEATURE_COLLECTION);
+        collection.put(GeoJSON.FEATURES, sample);
+        features.schema = GeoJSONSchemaDetector.getSchema(collection, crs, ignoreGeometriesUnderProperties);
+        if (features.schema == null) {
+            // No geometries or properties to detect a schema from
+            sample.clear();
+            return null;
+        }
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(features.schema);
+        for (Object f : sample) {
+            features.list.add(toFeature((Map<String, Object>) f, builder));
+        }
+        sample.clear();
+        return builder;
+    }
+
+    private static SimpleFeature toFeature(Map<String, Object> json, SimpleFeatureBuilder builder) {
+        try {
+            return GeoJSONReader2.toFeature(json, builder, null);
+        } catch (MismatchedDimensionException | TransformException ignore) {
+            // These can't occur because we don't transform anything
+            throw new RuntimeException("Something bad happened");
+        }
+    }
+
+}
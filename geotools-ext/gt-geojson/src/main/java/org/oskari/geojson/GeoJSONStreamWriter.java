@@ -0,0 +1,380 @@
+package org.oskari.geojson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.temporal.TemporalAccessor;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+import org.geotools.api.feature.GeometryAttribute;
+import org.geotools.api.feature.Property;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.type.Name;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryCollection;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes GeoTools SimpleFeature(Collection)s and JTS geometries as GeoJSON directly to an OutputStream.
+ * Unlike GeoJSONWriter no org.json tree is built and nothing is buffered apart from the generator's
+ * own buffer so the memory needed doesn't depend on the number of features. Coordinates are written
+ * with a fixed maximum number of decimals (see getNumDecimals()) without creating Strings for them.
+ *
+ * Property values: numbers, booleans and strings as is, geometries as GeoJSON geometries, dates as
+ * ISO-8601 strings, Maps and Collections as JSON objects/arrays and everything else with toString().
+ *
+ * Single GeoJSONStreamWriter is not threadsafe
+ */
+public class GeoJSONStreamWriter implements Closeable {
+
+    // For WGS84: 11.132mm precision at equator, more precise elsewhere, max error 5.5mm
+    public static final int NUM_DECIMAL_PLACES_DEGREE = 7;
+    // For metric projections: 10mm precision, max error 5mm
+    public static final int NUM_DECIMAL_PLACES_OTHER = 2;
+
+    private static final ObjectMapper OM = new ObjectMapper();
+    private static final long[] POW10 = new long[19];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final JsonGenerator json;
+    private final int decimals;
+    private final double scale;
+    // Coordinate values are formatted here, long needs max 20 chars + separator + decimals
+    private final char[] buf = new char[40];
+
+    /**
+     * @param out stream to write to, closed when this writer is closed
+     * @param decimals max number of decimals for coordinates (0-15)
+     */
+    public GeoJSONStreamWriter(OutputStream out, int decimals) throws IOException {
+        if (decimals < 0 || decimals > 15) {
+            throw new IllegalArgumentException("decimals must be between 0 and 15");
+        }
+        this.json = OM.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        // If writing fails midway the output must stay incomplete, closing the writer
+        // must not add the missing end markers and make the output look like valid JSON
+        this.json.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+        this.decimals = decimals;
+        this.scale = POW10[decimals];
+    }
+
+    /**
+     * Get number of decimal places to use (maximum) when writing out coordinates.
+     * The goal is to reduce the size of the output while maintaining a precision that
+     * still far exceedes the needs for our purposes
+     *
+     * @return number of decimal places to use, the number depends on the unit of measure
+     * of the axes of the coordinate system:
+     * - NUM_DECIMAL_PLACES_DEGREE for degrees
+     * - NUM_DECIMAL_PLACES_OTHER for others (metres, feet, what have you)
+     */
+    public static int getNumDecimals(CoordinateReferenceSystem crs) {
+        boolean degrees = "°".equals(crs.getCoordinateSystem().getAxis(0).getUnit().toString());
+        return degrees ? NUM_DECIMAL_PLACES_DEGREE : NUM_DECIMAL_PLACES_OTHER;
+    }
+
+    /**
+     * For writing non-standard members, use the write* methods of this class for GeoJSON content
+     */
+    public JsonGenerator getGenerator() {
+        return json;
+    }
+
+    public void writeFeatureCollection(SimpleFeatureCollection fc) throws IOException {
+        writeStartFeatureCollection(null);
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                writeFeature(it.next());
+            }
+        }
+        writeEndFeatureCollection();
+    }
+
+    /**
+     * Starts a FeatureCollection, call writeFeature() for each feature and finish with writeEndFeatureCollection()
+     * @param srsName written as a named "crs" member if not null
+     */
+    public void writeStartFeatureCollection(String srsName) throws IOException {
+        json.writeStartObject();
+        json.writeStringField(GeoJSON.TYPE, GeoJSON.FEATURE_COLLECTION);
+        if (srsName != null) {
+            json.writeObjectFieldStart("crs");
+            json.writeStringField(GeoJSON.TYPE, "name");
+            json.writeObjectFieldStart(GeoJSON.PROPERTIES);
+            json.writeStringField("name", srsName);
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        json.writeArrayFieldStart(GeoJSON.FEATURES);
+    }
+
+    public void writeEndFeatureCollection() throws IOException {
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    public void writeFeature(SimpleFeature f) throws IOException {
+        json.writeStartObject();
+        json.writeStringField(GeoJSON.TYPE, GeoJSON.FEATURE);
+
+        String id = f.getID();
+        if (id != null && !id.isEmpty()) {
+            json.writeStringField(GeoJSON.ID, id);
+        }
+
+        GeometryAttribute ga = f.getDefaultGeometryProperty();
+        Name gaName = null;
+        json.writeFieldName(GeoJSON.GEOMETRY);
+        if (ga != null && ga.getValue() != null) {
+            gaName = ga.getName();
+            writeGeometry((Geometry) ga.getValue());
+        } else {
+            if (ga != null) {
+                gaName = ga.getName();
+            }
+            json.writeNull();
+        }
+
+        json.writeObjectFieldStart(GeoJSON.PROPERTIES);
+        for (Property p : f.getProperties()) {
+            Name name = p.getName();
+            if (name.equals(gaName)) {
+                continue;
+            }
+            writeProperty(name.getLocalPart(), p.getValue());
+        }
+        json.writeEndObject();
+
+        json.writeEndObject();
+    }
+
+    public void writeProperty(String name, Object value) throws IOException {
+        json.writeFieldName(name);
+        writeValue(value);
+    }
+
+    private void writeValue(Object value) throws IOException {
+        if (value == null) {
+            json.writeNull();
+        } else if (value instanceof String) {
+            json.writeString((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            json.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                json.writeNull();
+            } else {
+                json.writeNumber(d);
+            }
+        } else if (value instanceof BigDecimal) {
+            json.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            json.writeNumber((BigInteger) value);
+        } else if (value instanceof Boolean) {
+            json.writeBoolean((Boolean) value);
+        } else if (value instanceof Geometry) {
+            writeGeometry((Geometry) value);
+        } else if (value instanceof java.sql.Date || value instanceof java.sql.Time) {
+            json.writeString(value.toString());
+        } else if (value instanceof Date) {
+            json.writeString(Instant.ofEpochMilli(((Date) value).getTime()).toString());
+        } else if (value instanceof TemporalAccessor) {
+            json.writeString(value.toString());
+        } else if (value instanceof Map) {
+            json.writeStartObject();
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                writeProperty(String.valueOf(e.getKey()), e.getValue());
+            }
+            json.writeEndObject();
+        } else if (value instanceof Collection) {
+            json.writeStartArray();
+            for (Object o : (Collection<?>) value) {
+                writeValue(o);
+            }
+            json.writeEndArray();
+        } else {
+            json.writeString(value.toString());
+        }
+    }
+
+    public void writeGeometry(Geometry geom) throws IOException {
+        if (geom instanceof Point) {
+            writeGeometry(GeoJSON.POINT);
+            writeCoordinate(((Point) geom).getCoordinateSequence(), 0);
+        } else if (geom instanceof LineString) {
+            writeGeometry(GeoJSON.LINESTRING);
+            writeCoordinateSequence(((LineString) geom).getCoordinateSequence());
+        } else if (geom instanceof Polygon) {
+            writeGeometry(GeoJSON.POLYGON);
+            writePolygonCoordinates((Polygon) geom);
+        } else if (geom instanceof MultiPoint) {
+            writeGeometry(GeoJSON.MULTI_POINT);
+            json.writeStartArray();
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                writeCoordinate(((Point) geom.getGeometryN(i)).getCoordinateSequence(), 0);
+            }
+            json.writeEndArray();
+        } else if (geom instanceof MultiLineString) {
+            writeGeometry(GeoJSON.MULTI_LINESTRING);
+            json.writeStartArray();
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                writeCoordinateSequence(((LineString) geom.getGeometryN(i)).getCoordinateSequence());
+            }
+            json.writeEndArray();
+        } else if (geom instanceof MultiPolygon) {
+            writeGeometry(GeoJSON.MULTI_POLYGON);
+            json.writeStartArray();
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                writePolygonCoordinates((Polygon) geom.getGeometryN(i));
+            }
+            json.writeEndArray();
+        } else if (geom instanceof GeometryCollection) {
+            json.writeStartObject();
+            json.writeStringField(GeoJSON.TYPE, GeoJSON.GEOMETRY_COLLECTION);
+            json.writeArrayFieldStart(GeoJSON.GEOMETRIES);
+            for (int i = 0; i < geom.getNumGeometries(); i++) {
+                writeGeometry(geom.getGeometryN(i));
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+            return;
+        } else {
+            throw new IllegalArgumentException("Invalid geometry type");
+        }
+        // close the geometry object
+        json.writeEndObject();
+    }
+
+    /**
+     * Starts a geometry object leaving it waiting for the coordinates
+     */
+    private void writeGeometry(String type) throws IOException {
+        json.writeStartObject();
+        json.writeStringField(GeoJSON.TYPE, type);
+        json.writeFieldName(GeoJSON.COORDINATES);
+    }
+
+    private void writePolygonCoordinates(Polygon polygon) throws IOException {
+        json.writeStartArray();
+        writeCoordinateSequence(polygon.getExteriorRing().getCoordinateSequence());
+        for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+            writeCoordinateSequence(polygon.getInteriorRingN(i).getCoordinateSequence());
+        }
+        json.writeEndArray();
+    }
+
+    private void writeCoordinateSequence(CoordinateSequence cs) throws IOException {
+        json.writeStartArray();
+        for (int i = 0; i < cs.size(); i++) {
+            writeCoordinate(cs, i);
+        }
+        json.writeEndArray();
+    }
+
+    private void writeCoordinate(CoordinateSequence cs, int i) throws IOException {
+        json.writeStartArray();
+        writeOrdinate(cs.getX(i));
+        writeOrdinate(cs.getY(i));
+        if (cs.hasZ()) {
+            double z = cs.getZ(i);
+            if (!Double.isNaN(z)) {
+                writeOrdinate(z);
+            }
+        }
+        json.writeEndArray();
+    }
+
+    private void writeOrdinate(double v) throws IOException {
+        if (Double.isNaN(v) || Double.isInfinite(v)) {
+            json.writeNull();
+            return;
+        }
+        double scaled = v * scale;
+        if (Math.abs(scaled) >= Long.MAX_VALUE) {
+            // Not a coordinate we can round with a long, shouldn't happen in practice
+            json.writeNumber(v);
+            return;
+        }
+        json.writeNumber(buf, 0, format(Math.round(scaled), decimals, buf));
+    }
+
+    /**
+     * Writes value / 10^decimals to buf as a plain decimal number without trailing zeros
+     * @return number of chars written
+     */
+    static int format(long value, int decimals, char[] buf) {
+        boolean negative = value < 0;
+        long abs = negative ? -value : value;
+        long integerPart = abs / POW10[decimals];
+        long fraction = abs % POW10[decimals];
+        int len = 0;
+        if (negative && (integerPart != 0 || fraction != 0)) {
+            buf[len++] = '-';
+        }
+        len = appendDigits(integerPart, buf, len);
+        if (fraction != 0) {
+            int digits = decimals;
+            // drop trailing zeros
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                digits--;
+            }
+            buf[len++] = '.';
+            // leading zeros of the fraction
+            for (int i = digits - 1; i > 0 && fraction < POW10[i]; i--) {
+                buf[len++] = '0';
+            }
+            len = appendDigits(fraction, buf, len);
+        }
+        return len;
+    }
+
+    private static int appendDigits(long v, char[] buf, int off) {
+        int start = off;
+        do {
+            buf[off++] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+        // digits were written in reverse order
+        for (int i = start, j = off - 1; i < j; i++, j--) {
+            char tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+        return off;
+    }
+
+    public void flush() throws IOException {
+        json.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        json.close();
+    }
+
+}
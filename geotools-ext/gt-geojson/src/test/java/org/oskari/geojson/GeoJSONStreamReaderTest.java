@@ -0,0 +1,79 @@
+package org.oskari.geojson;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.referencing.CRS;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Point;
+
+public class GeoJSONStreamReaderTest {
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSameResultAsGeoJSONReader2() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        try (InputStream in = getClass().getResourceAsStream("featureCollectionComplex.json")) {
+            SimpleFeatureCollection fc = GeoJSONStreamReader.toFeatureCollection(in, crs84, true);
+            Assertions.assertEquals(2, fc.size());
+            try (SimpleFeatureIterator it = fc.features()) {
+                SimpleFeature f1 = it.next();
+                SimpleFeature f2 = it.next();
+                Assertions.assertEquals("P_10000001", f1.getID());
+                Assertions.assertEquals("P_10000002", f2.getID());
+                Assertions.assertEquals(10000001, f1.getAttribute("placeId"));
+                Assertions.assertTrue(f1.getDefaultGeometry() instanceof Point);
+            }
+        }
+    }
+
+    @Test
+    public void testFeaturesAfterSchemaSample() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        String json = "{\"totalFeatures\":3,\"features\":["
+                + "{\"type\":\"Feature\",\"id\":\"a.1\",\"properties\":{\"name\":\"first\"},\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]}},"
+                + "{\"type\":\"Feature\",\"id\":\"a.2\",\"properties\":{\"name\":\"second\",\"other\":{\"type\":\"Point\",\"coordinates\":[1,2]}},\"geometry\":{\"type\":\"Point\",\"coordinates\":[3,4]}},"
+                + "{\"type\":\"Feature\",\"id\":\"a.3\",\"properties\":{\"name\":\"third\",\"notInSchema\":1},\"geometry\":null}"
+                + "],\"crs\":{\"type\":\"name\",\"properties\":{\"name\":\"EPSG:4326\"}},\"type\":\"FeatureCollection\"}";
+        // Detect schema from the first feature only
+        SimpleFeatureCollection fc = GeoJSONStreamReader.toFeatureCollection(toStream(json), crs84, true, 1);
+        Assertions.assertEquals(3, fc.size());
+        Assertions.assertEquals(2, fc.getSchema().getAttributeCount(), "Schema should only have geometry and name");
+        try (SimpleFeatureIterator it = fc.features()) {
+            it.next();
+            SimpleFeature f2 = it.next();
+            SimpleFeature f3 = it.next();
+            Assertions.assertEquals("second", f2.getAttribute("name"));
+            Assertions.assertEquals(3.0, ((Point) f2.getDefaultGeometry()).getX());
+            Assertions.assertEquals("a.3", f3.getID());
+            Assertions.assertNull(f3.getDefaultGeometry());
+        }
+    }
+
+    @Test
+    public void testEmptyFeatureCollection() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        String json = "{\"type\":\"FeatureCollection\",\"features\":[]}";
+        SimpleFeatureCollection fc = GeoJSONStreamReader.toFeatureCollection(toStream(json), crs84, true);
+        Assertions.assertTrue(fc.isEmpty());
+    }
+
+    @Test
+    public void testInvalidInput() throws Exception {
+        CoordinateReferenceSystem crs84 = CRS.decode("EPSG:4326", true);
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> GeoJSONStreamReader.toFeatureCollection(toStream("{\"type\":\"Feature\"}"), crs84, true));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> GeoJSONStreamReader.toFeatureCollection(toStream("[1,2]"), crs84, true));
+    }
+
+}
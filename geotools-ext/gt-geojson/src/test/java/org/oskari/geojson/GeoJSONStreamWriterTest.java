@@ -0,0 +1,84 @@
+package org.oskari.geojson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import fi.nls.oskari.util.JSONHelper;
+import fi.nls.test.util.ResourceHelper;
+
+public class GeoJSONStreamWriterTest {
+
+    @Test
+    public void testSameAsGeoJSONWriter() throws JSONException, IOException {
+        for (String resource : new String[] { "point.json", "linestring.json", "polygon.json" }) {
+            SimpleFeature f = GeoJSONReader.toFeature(ResourceHelper.readJSONResource(resource, this));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (GeoJSONStreamWriter w = new GeoJSONStreamWriter(baos, 7)) {
+                w.writeFeature(f);
+            }
+            assertSameJSON(new GeoJSONWriter().writeFeature(f), baos, resource);
+        }
+        for (String resource : new String[] { "multipoint.json", "multilinestring.json", "multipolygon.json", "geometrycollection.json" }) {
+            Geometry geom = GeoJSONReader.toGeometry(ResourceHelper.readJSONResource(resource, this));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (GeoJSONStreamWriter w = new GeoJSONStreamWriter(baos, 7)) {
+                w.writeGeometry(geom);
+            }
+            assertSameJSON(new GeoJSONWriter().writeGeometry(geom), baos, resource);
+        }
+    }
+
+    private static void assertSameJSON(JSONObject expected, ByteArrayOutputStream actual, String msg) throws JSONException {
+        // compare parsed values so number types don't matter
+        JSONObject a = new JSONObject(expected.toString());
+        JSONObject b = new JSONObject(new String(actual.toByteArray(), StandardCharsets.UTF_8));
+        Assertions.assertTrue(JSONHelper.isEqual(a, b), msg);
+    }
+
+    @Test
+    public void testDecimals() throws IOException {
+        GeometryFactory gf = new GeometryFactory();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GeoJSONStreamWriter w = new GeoJSONStreamWriter(baos, 2)) {
+            w.writeGeometry(gf.createLineString(new Coordinate[] {
+                    new Coordinate(6947066.665, -0.001),
+                    new Coordinate(-20037508.342789244, 0.05),
+                    new Coordinate(1.5, 2, 3.256)
+            }));
+        }
+        String expected = "{\"type\":\"LineString\",\"coordinates\":[[6947066.67,0],[-20037508.34,0.05],[1.5,2,3.26]]}";
+        Assertions.assertEquals(expected, new String(baos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFormat() {
+        char[] buf = new char[40];
+        Assertions.assertEquals("249384568", new String(buf, 0, GeoJSONStreamWriter.format(249384568L, 0, buf)));
+        Assertions.assertEquals("24.9384568", new String(buf, 0, GeoJSONStreamWriter.format(249384568L, 7, buf)));
+        Assertions.assertEquals("-0.0000001", new String(buf, 0, GeoJSONStreamWriter.format(-1L, 7, buf)));
+        Assertions.assertEquals("100", new String(buf, 0, GeoJSONStreamWriter.format(1000000000L, 7, buf)));
+        Assertions.assertEquals("0", new String(buf, 0, GeoJSONStreamWriter.format(0L, 7, buf)));
+    }
+
+    @Test
+    public void testCloseDoesNotCompleteOutput() throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (GeoJSONStreamWriter w = new GeoJSONStreamWriter(baos, 2)) {
+            w.writeStartFeatureCollection(null);
+            // writing fails here, f.ex. the connection to the WFS service is lost
+        }
+        String expected = "{\"type\":\"FeatureCollection\",\"features\":[";
+        Assertions.assertEquals(expected, new String(baos.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+}
@@ -10,6 +10,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.ToLongFunction;
 
 /**
  * Simple generic in memory cache
@@ -32,11 +33,62 @@ public class Cache<T> {
     private String name;
     private boolean cacheSizeConfigured = false;
     private boolean cacheMissDebugEnabled = false;
+    private final CacheStats stats = new CacheStats();
+    private volatile ToLongFunction<T> sizeEstimator;
 
     public void setCacheMissDebugEnabled(boolean enabled) {
         cacheMissDebugEnabled = enabled;
     }
 
+    /**
+     * Returns usage statistics for the cache
+     * @return
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Function to estimate the memory used by a cached value in bytes. Without one String and byte[] values
+     * are estimated by their length, other values are not estimated. Set it in the supplier given to
+     * CacheManager so it's in place before any items are cached.
+     * @param sizeEstimator
+     */
+    public void setSizeEstimator(ToLongFunction<T> sizeEstimator) {
+        this.sizeEstimator = sizeEstimator;
+        stats.setBytesEstimated(sizeEstimator != null);
+    }
+
+    protected long estimateBytes(T value) {
+        if (value == null) {
+            return 0;
+        }
+        final ToLongFunction<T> estimator = sizeEstimator;
+        if (estimator != null) {
+            return estimator.applyAsLong(value);
+        }
+        final long estimate = estimateDefault(value);
+        if (estimate < 0) {
+            return 0;
+        }
+        stats.setBytesEstimated(true);
+        return estimate;
+    }
+
+    /**
+     * @return estimate for String and byte[] values, -1 for other values
+     */
+    private static long estimateDefault(Object value) {
+        if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        }
+        if (value instanceof String) {
+            // two bytes per char unless the JVM can use compact strings
+            return 2L * ((String) value).length();
+        }
+        return -1;
+    }
+
     public String getName() {
         return name;
     }
@@ -58,7 +110,7 @@ public class Cache<T> {
         }
     }
 
-    private String getLimitPropertyName() {
+    protected String getLimitPropertyName() {
         return PROPERTY_LIMIT_PREFIX + getName();
     }
 
@@ -115,16 +167,34 @@ public class Cache<T> {
         return lastFlush;
     }
 
+    protected void setLastFlush(long lastFlush) {
+        this.lastFlush = lastFlush;
+    }
+
     public T get(final String name) {
         flush(false);
-        T value = items.get(name);
+        T value = lookup(name);
 
-        if(cacheMissDebugEnabled && value == null) {
+        if (value != null) {
+            stats.recordHit();
+            return value;
+        }
+        stats.recordMiss();
+        if(cacheMissDebugEnabled) {
             LOG.debug("Cache", getName(), "miss for name", name);
         }
         return value;
     }
 
+    /**
+     * Returns the cached value without checking for expiration or recording statistics
+     * @param name
+     * @return
+     */
+    protected T lookup(final String name) {
+        return items.get(name);
+    }
+
     public T remove(final String name) {
         notifyRemoval(name);
         return removeSilent(name);
@@ -139,6 +209,7 @@ public class Cache<T> {
         }
         T value = items.remove(name);
         keys.remove(name);
+        stats.addBytes(-estimateBytes(value));
         LOG.debug("Removed cached item:", name, getName());
         return value;
     }
@@ -157,10 +228,12 @@ public class Cache<T> {
             LOG.info("Configure larger limit for cache by setting the property:", getLimitPropertyName());
             final String key = keys.poll();
             if(key != null) {
-                items.remove(key);
+                stats.addBytes(-estimateBytes(items.remove(key)));
+                stats.recordEviction();
             }
         }
         T existing = items.put(name, item);
+        stats.addBytes(estimateBytes(item) - estimateBytes(existing));
         if (existing != null) {
             // if we had it in cache, notify cluster it was updated
             notifyRemoval(name);
@@ -188,8 +261,12 @@ public class Cache<T> {
         if (force || isTimeToFlush(now)) {
             // flushCache
             LOG.info("Flushing cache! Cache:", getName(), "Forced: ", force, getName());
+            if (!force) {
+                stats.recordExpirations(items.size());
+            }
             items.clear();
             keys.clear();
+            stats.resetBytes();
             lastFlush = now;
             return true;
         }
@@ -204,7 +281,7 @@ public class Cache<T> {
         return expiration - (currentTime() - lastFlush);
     }
 
-    private static long currentTime() {
+    protected static long currentTime() {
         return System.nanoTime() / 1000000L;
     }
 
@@ -230,10 +307,10 @@ public class Cache<T> {
         LOG.warn("Received unrecognized cluster msg:", data);
     }
 
-    private void notifyRemoval(String key) {
+    protected void notifyRemoval(String key) {
         notifyCluster(CLUSTER_CMD_REMOVE_PREFIX + key);
     }
-    private void notifyFlush() {
+    protected void notifyFlush() {
         notifyCluster(CLUSTER_CMD_FLUSH);
     }
 
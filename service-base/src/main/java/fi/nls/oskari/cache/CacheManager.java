@@ -1,14 +1,24 @@
 package fi.nls.oskari.cache;
 
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * Generic cache factory for Oskari.
- * TODO: make Cache implementation parametrizable via PropertyUtil. Same as logger and UserService.
+ * The implementation used by {@link #getCache(String)} can be changed with property oskari.cache.class
+ * (fully qualified name of a class extending {@link Cache}), for example:
+ * oskari.cache.class=fi.nls.oskari.cache.SegmentedLRUCache
  * Usage:
  * <pre>
  * {@code
@@ -29,7 +39,11 @@ import java.util.function.Supplier;
  */
 public class CacheManager {
 
+    public static final String PROPERTY_CACHE_CLASS = "oskari.cache.class";
+
+    private static final Logger LOG = LogFactory.getLogger(CacheManager.class);
     private static final ConcurrentMap<String, Cache> CACHE_STORE = new ConcurrentHashMap<>();
+    private static final List<Consumer<Cache<?>>> LISTENERS = new CopyOnWriteArrayList<>();
 
     /**
      * Returns a cache matching name or creates one if it doesn't exist.
@@ -39,7 +53,27 @@ public class CacheManager {
      * @return
      */
     public static <T> Cache<T> getCache(final String name) {
-        return getCache(name, () -> new Cache<>());
+        return getCache(name, () -> createCache());
+    }
+
+    /**
+     * Creates an instance of the class configured with property oskari.cache.class.
+     * Defaults to {@link Cache} if not configured or the class can't be instantiated.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Cache<T> createCache() {
+        final String className = PropertyUtil.getOptional(PROPERTY_CACHE_CLASS);
+        if (className == null || className.isEmpty()) {
+            return new Cache<>();
+        }
+        try {
+            return (Cache<T>) Class.forName(className).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            LOG.error(e, "Couldn't create cache of type:", className,
+                    "- Check that property", PROPERTY_CACHE_CLASS, "has a fully qualified name for class extending",
+                    Cache.class.getName(), ". Using default implementation.");
+        }
+        return new Cache<>();
     }
 
     /**
@@ -55,11 +89,49 @@ public class CacheManager {
     public static <T1 extends Cache<T2>, T2> T1 getCache(final String name, final Supplier<T1> supplier) {
         Objects.requireNonNull(name);
         Objects.requireNonNull(supplier);
-        return (T1) CACHE_STORE.computeIfAbsent(name, __ -> {
-            Cache<T2> cache = supplier.get();
-            cache.setName(name);
-            return cache;
+        final AtomicBoolean created = new AtomicBoolean(false);
+        T1 cache = (T1) CACHE_STORE.computeIfAbsent(name, __ -> {
+            Cache<T2> newCache = supplier.get();
+            newCache.setName(name);
+            created.set(true);
+            return newCache;
         });
+        if (created.get()) {
+            // notify outside computeIfAbsent() so listeners can access the manager
+            notifyListeners(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Registers a listener that is called for each cache registered to the manager.
+     * The listener is called immediately for caches that have already been registered.
+     * Can be used to publish cache statistics for example.
+     *
+     * @param listener function to call with the cache
+     */
+    public static void addCacheListener(final Consumer<Cache<?>> listener) {
+        Objects.requireNonNull(listener);
+        LISTENERS.add(listener);
+        CACHE_STORE.values().forEach(listener::accept);
+    }
+
+    /**
+     * Removes a listener registered with addCacheListener()
+     * @param listener
+     */
+    public static void removeCacheListener(final Consumer<Cache<?>> listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static void notifyListeners(final Cache<?> cache) {
+        for (Consumer<Cache<?>> listener : LISTENERS) {
+            try {
+                listener.accept(cache);
+            } catch (Exception e) {
+                LOG.warn(e, "Cache listener failed for cache:", cache.getName());
+            }
+        }
     }
 
     /**
@@ -81,6 +153,7 @@ public class CacheManager {
         }
         cache.setName(name);
         CACHE_STORE.put(name, cache);
+        notifyListeners(cache);
         return true;
     }
 
@@ -0,0 +1,112 @@
+package fi.nls.oskari.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Usage statistics for a cache. Used to find out how well the cache limits match the actual usage.
+ */
+public class CacheStats {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadTimeNanos = new LongAdder();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private volatile boolean bytesEstimated = false;
+
+    public void recordHit() {
+        hits.increment();
+    }
+
+    public void recordMiss() {
+        misses.increment();
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordExpirations(long count) {
+        expirations.add(count);
+    }
+
+    /**
+     * Records the time it took to compute a missing value
+     * @param nanos
+     */
+    public void recordLoad(long nanos) {
+        loads.increment();
+        loadTimeNanos.add(nanos);
+    }
+
+    public void addBytes(long bytes) {
+        estimatedBytes.addAndGet(bytes);
+    }
+
+    public void resetBytes() {
+        estimatedBytes.set(0);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long h = getHits();
+        long total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getTotalLoadTimeMs() {
+        return TimeUnit.NANOSECONDS.toMillis(loadTimeNanos.sum());
+    }
+
+    public double getAverageLoadTimeMs() {
+        long count = getLoads();
+        return count == 0 ? 0 : (double) loadTimeNanos.sum() / count / 1_000_000d;
+    }
+
+    void setBytesEstimated(boolean bytesEstimated) {
+        this.bytesEstimated = bytesEstimated;
+    }
+
+    /**
+     * Returns true if the cache has a size estimator or has cached String/byte[] values
+     * and getEstimatedBytes() can be used
+     * @return
+     */
+    public boolean isBytesEstimated() {
+        return bytesEstimated;
+    }
+
+    /**
+     * Returns the estimated memory used by the cached values as reported by the size estimator of the cache.
+     * @return -1 if the cache doesn't have a size estimator and values can't be estimated by default
+     */
+    public long getEstimatedBytes() {
+        if (!bytesEstimated) {
+            return -1;
+        }
+        return Math.max(0, estimatedBytes.get());
+    }
+}
@@ -4,6 +4,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
 public class ComputeOnceCache<T> extends Cache<T> {
 
@@ -23,6 +24,14 @@ public class ComputeOnceCache<T> extends Cache<T> {
     }
 
     public T get(final String key, final Function<String, T> mappingFunction) {
+        return get(key, mappingFunction, __ -> true);
+    }
+
+    /**
+     * Like get(key, mappingFunction) but the computed value is only cached if it matches cacheable.
+     * Concurrent callers waiting for the same key still get the computed value.
+     */
+    public T get(final String key, final Function<String, T> mappingFunction, final Predicate<T> cacheable) {
         T value = super.get(key);
         if (value != null) {
             return value;
@@ -33,18 +42,25 @@ public class ComputeOnceCache<T> extends Cache<T> {
             // Re-check the cache - maybe someone just completed this
             // and executed the if (b.get()) {}-block after we
             // had already finished the first cache.get(key) call;
-            T val = super.get(k);
+            T val = lookup(k);
             if (val != null) {
                 return val;
             }
             b.set(true);
-            return mappingFunction.apply(k);
+            final long start = System.nanoTime();
+            try {
+                return mappingFunction.apply(k);
+            } finally {
+                getStats().recordLoad(System.nanoTime() - start);
+            }
         });
 
         if (b.get()) {
             // I was the one to do the computation
             // Add the value to the actual cache
-            super.put(key, value);
+            if (value != null && cacheable.test(value)) {
+                super.put(key, value);
+            }
             // And remove the value from the computation map
             tmp.remove(key);
             // Do this after and not within the computeIfAbsent() call since
@@ -0,0 +1,386 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.oskari.cluster.ClusterManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Second tier cache for ready-made (for example gzipped) tiles that are stored as files on disk
+ * so they survive restarts and don't take heap space. Tiles are stored under:
+ * [oskari.tilecache.dir]/[cache name]/[layer id]/[tile key]
+ *
+ * The cache is disabled unless oskari.tilecache.dir is configured. The size of each cache is limited with
+ * oskari.tilecache.limit.mb.[cache name] (defaults to 1024). When the limit is reached the oldest tiles are removed
+ * on a background thread so requests writing tiles don't wait for the cache directory to be scanned.
+ * Tiles expire based on the time-to-live given when reading so layers can have different TTLs.
+ *
+ * Usage:
+ * <pre>
+ * {@code
+ *  FileTileCache cache = FileTileCache.getCache("mvt");
+ *  FileTileCache.Tile tile = cache.get(layerId, "EPSG_3067/8/100/120", ttlMs);
+ *  if (tile == null) {
+ *      tile = cache.put(layerId, "EPSG_3067/8/100/120", createTile());
+ *  }
+ *  tile.writeTo(out);
+ * }
+ * </pre>
+ */
+public class FileTileCache {
+
+    public static final String PROPERTY_DIR = "oskari.tilecache.dir";
+    public static final String PROPERTY_LIMIT_PREFIX = "oskari.tilecache.limit.mb.";
+
+    private static final Logger LOG = LogFactory.getLogger(FileTileCache.class);
+    private static final ConcurrentMap<String, FileTileCache> CACHES = new ConcurrentHashMap<>();
+    private static final String CLUSTER_CHANNEL_PREFIX = "tiles.";
+    private static final String CLUSTER_CMD_REMOVE_LAYER_PREFIX = "REM: ";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final long DEFAULT_LIMIT_MB = 1024;
+    // remove tiles until this share of the limit is used when the limit is reached
+    private static final double CLEANUP_RATIO = 0.9;
+    // shared by all caches, daemon thread so it doesn't prevent shutting down the webapp
+    private static final Executor CLEANUP_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "oskari-tilecache-cleanup");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String name;
+    private final Path dir;
+    private final long limitBytes;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicBoolean cleanupRunning = new AtomicBoolean(false);
+    private final Executor cleanupExecutor;
+
+    /**
+     * Information about a cached tile
+     */
+    public static class Tile {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private Tile(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Tiles are never modified in place so modification time and size identify the content
+         * @return value for ETag header
+         */
+        public String getETag() {
+            return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"";
+        }
+
+        /**
+         * Writes the tile content from disk without reading it to heap first
+         * @param out
+         * @throws IOException
+         */
+        public void writeTo(OutputStream out) throws IOException {
+            Files.copy(path, out);
+        }
+
+        public byte[] readBytes() throws IOException {
+            return Files.readAllBytes(path);
+        }
+    }
+
+    /**
+     * Returns a cache matching name or creates one if it doesn't exist.
+     * @param name name of the cache
+     * @return
+     */
+    public static FileTileCache getCache(final String name) {
+        Objects.requireNonNull(name);
+        return CACHES.computeIfAbsent(name, __ -> new FileTileCache(name));
+    }
+
+    /**
+     * Removes tiles for the layer from all tile caches. Should be called when a layer is modified.
+     * @param layerId
+     */
+    public static void flushLayer(final String layerId) {
+        if (getBaseDir() == null) {
+            return;
+        }
+        // go through the directories so tiles are removed even if the cache hasn't been used after startup
+        try (Stream<Path> dirs = Files.list(getBaseDir())) {
+            dirs.filter(Files::isDirectory)
+                    .map(p -> getCache(p.getFileName().toString()))
+                    .forEach(cache -> cache.removeLayer(layerId));
+        } catch (NoSuchFileException ignored) {
+            // nothing cached yet
+        } catch (IOException e) {
+            LOG.warn(e, "Error removing cached tiles for layer:", layerId);
+        }
+    }
+
+    private static Path getBaseDir() {
+        String baseDir = PropertyUtil.getOptional(PROPERTY_DIR);
+        if (baseDir == null || baseDir.isEmpty()) {
+            return null;
+        }
+        return Paths.get(baseDir);
+    }
+
+    protected FileTileCache(final String name) {
+        this(name, CLEANUP_EXECUTOR);
+    }
+
+    /**
+     * @param name name of the cache
+     * @param cleanupExecutor runs the removal of old tiles when the cache is over the limit
+     */
+    protected FileTileCache(final String name, final Executor cleanupExecutor) {
+        this.name = name;
+        this.cleanupExecutor = Objects.requireNonNull(cleanupExecutor);
+        Path baseDir = getBaseDir();
+        dir = baseDir == null ? null : baseDir.resolve(sanitize(name));
+        limitBytes = PropertyUtil.getOptional(PROPERTY_LIMIT_PREFIX + name, (int) DEFAULT_LIMIT_MB) * 1024L * 1024L;
+        if (dir == null) {
+            LOG.debug("Tile cache disabled:", name, "- Configure", PROPERTY_DIR, "to enable it.");
+            return;
+        }
+        size.set(calculateSize());
+        LOG.info("Tile cache", name, "using", dir, "- size:", size.get() / 1024 / 1024, "MB");
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .addListener(CLUSTER_CHANNEL_PREFIX + name, this::handleClusterMsg);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Returns total size of cached tiles in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    public long getLimit() {
+        return limitBytes;
+    }
+
+    /**
+     * Returns the tile if it's cached and not older than ttlMs
+     * @param layerId
+     * @param tileKey path-like key for the tile like "EPSG_3067/8/100/120"
+     * @param ttlMs time-to-live for tiles of this layer in milliseconds
+     * @return null if tile is not cached, has expired or the cache is disabled
+     */
+    public Tile get(final String layerId, final String tileKey, final long ttlMs) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Path path = getPath(layerId, tileKey);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // not cached
+            return null;
+        }
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (lastModified + ttlMs < System.currentTimeMillis()) {
+            delete(path);
+            return null;
+        }
+        return new Tile(path, attrs.size(), lastModified);
+    }
+
+    /**
+     * Writes the tile to the cache.
+     * @return the cached tile or null if writing failed or the cache is disabled
+     */
+    public Tile put(final String layerId, final String tileKey, final byte[] data) {
+        if (!isEnabled() || data == null) {
+            return null;
+        }
+        Path path = getPath(layerId, tileKey);
+        Path tmp = null;
+        try {
+            Files.createDirectories(path.getParent());
+            // unique name so concurrent writers of the same tile don't write to the same file
+            tmp = Files.createTempFile(path.getParent(), path.getFileName() + ".", TMP_SUFFIX);
+            Files.write(tmp, data);
+            long previousSize = Files.exists(path) ? Files.size(path) : 0;
+            // readers either see the previous or the new tile, never a partially written one
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            size.addAndGet(data.length - previousSize);
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            Tile tile = new Tile(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+            if (size.get() > limitBytes) {
+                scheduleCleanup();
+            }
+            return tile;
+        } catch (IOException e) {
+            LOG.warn(e, "Couldn't write tile to cache:", path);
+            if (tmp != null) {
+                delete(tmp);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Removes cached tiles for the layer on all nodes of a clustered environment.
+     * @param layerId
+     */
+    public void removeLayer(final String layerId) {
+        removeLayerSilent(layerId);
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .sendMessage(CLUSTER_CHANNEL_PREFIX + name, CLUSTER_CMD_REMOVE_LAYER_PREFIX + layerId);
+        }
+    }
+
+    protected void removeLayerSilent(final String layerId) {
+        if (!isEnabled()) {
+            return;
+        }
+        Path layerDir = dir.resolve(sanitize(layerId));
+        if (!Files.exists(layerDir)) {
+            return;
+        }
+        LOG.debug("Removing cached tiles for layer:", layerId, "from cache:", name);
+        try (Stream<Path> files = Files.walk(layerDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(this::delete);
+        } catch (IOException e) {
+            LOG.warn(e, "Error removing cached tiles for layer:", layerId);
+        }
+    }
+
+    protected void handleClusterMsg(String data) {
+        if (data != null && data.startsWith(CLUSTER_CMD_REMOVE_LAYER_PREFIX)) {
+            removeLayerSilent(data.substring(CLUSTER_CMD_REMOVE_LAYER_PREFIX.length()));
+        }
+    }
+
+    private Path getPath(String layerId, String tileKey) {
+        Path path = dir.resolve(sanitize(layerId));
+        for (String part : tileKey.split("/")) {
+            path = path.resolve(sanitize(part));
+        }
+        return path;
+    }
+
+    /**
+     * Only allow simple characters in file names so keys can't point outside the cache directory
+     */
+    private static String sanitize(String part) {
+        String value = part.replaceAll("[^A-Za-z0-9_\\-.]", "_");
+        if (value.isEmpty() || value.chars().allMatch(c -> c == '.')) {
+            return "_" + value;
+        }
+        return value;
+    }
+
+    private void delete(Path path) {
+        try {
+            if (!Files.isDirectory(path)) {
+                long fileSize = Files.size(path);
+                if (Files.deleteIfExists(path) && !path.toString().endsWith(TMP_SUFFIX)) {
+                    size.addAndGet(-fileSize);
+                }
+            } else {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ignored) {
+            // removed by someone else or a directory that is not empty
+        }
+    }
+
+    private long calculateSize() {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        } catch (IOException e) {
+            LOG.warn(e, "Couldn't calculate size for tile cache:", dir);
+            return 0;
+        }
+    }
+
+    /**
+     * Starts removing old tiles in the background unless a cleanup is already queued or running
+     */
+    private void scheduleCleanup() {
+        if (!cleanupRunning.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            cleanupExecutor.execute(this::cleanup);
+        } catch (RejectedExecutionException e) {
+            LOG.warn(e, "Couldn't start cleanup for tile cache:", name);
+            cleanupRunning.set(false);
+        }
+    }
+
+    /**
+     * Removes the least recently written tiles until the cache is below the limit
+     */
+    private void cleanup() {
+        try {
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.filter(Files::isRegularFile).forEach(files::add);
+            }
+            files.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+            long target = (long) (limitBytes * CLEANUP_RATIO);
+            int removed = 0;
+            for (Path file : files) {
+                if (size.get() <= target) {
+                    break;
+                }
+                delete(file);
+                removed++;
+            }
+            LOG.info("Tile cache", name, "reached the limit of", limitBytes / 1024 / 1024,
+                    "MB. Removed", removed, "tiles. Configure limit with property:", PROPERTY_LIMIT_PREFIX + name);
+        } catch (IOException e) {
+            LOG.warn(e, "Error cleaning up tile cache:", name);
+        } finally {
+            cleanupRunning.set(false);
+        }
+    }
+}
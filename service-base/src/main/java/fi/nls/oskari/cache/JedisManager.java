@@ -8,8 +8,17 @@ import fi.nls.oskari.util.PropertyUtil;
 import redis.clients.jedis.*;
 import redis.clients.jedis.exceptions.JedisConnectionException;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Manages Jedis connections using JedisPool (connection pool)
@@ -30,6 +39,18 @@ public class JedisManager {
     private static final String KEY_REDIS_PORT = "redis.port";
     private static final String KEY_REDIS_POOL_SIZE = "redis.pool.size";
     private static Boolean isClustered = null;
+    private static final List<RedisOperationListener> LISTENERS = new CopyOnWriteArrayList<>();
+
+    /**
+     * Created on first use so the cache (that might use Redis for cluster messaging) isn't initialized
+     * with the JedisManager class
+     */
+    private static class NearCache {
+        private static final Cache<String> CACHE = CacheManager.getCache(JedisManager.class.getName() + ".near");
+        static {
+            CACHE.setExpiration(PropertyUtil.getOptional("redis.nearcache.seconds", 30) * 1000L);
+        }
+    }
 
     /**
      * Blocking construction of instances from other classes by making constructor private
@@ -86,14 +107,15 @@ public class JedisManager {
             return;
         }
         final JedisPoolConfig poolConfig = new JedisPoolConfig();
-        poolConfig.setTestOnBorrow(true);
-        poolConfig.setTestOnReturn(true);
+        // Testing on borrow/return costs a PING round trip for each operation. Broken connections are
+        // discarded by Jedis when a command fails and idle connections are tested by the evictor instead.
+        poolConfig.setTestOnBorrow(PropertyUtil.getOptional("redis.pool.testOnBorrow", false));
+        poolConfig.setTestOnReturn(PropertyUtil.getOptional("redis.pool.testOnReturn", false));
         poolConfig.setTestWhileIdle(true);
         poolConfig.setMaxIdle(poolSize / 2);
         poolConfig.setMinIdle(1);
         poolConfig.setMaxTotal(poolSize);
-        poolConfig.setTimeBetweenEvictionRunsMillis(-1);
-        poolConfig.setTestOnBorrow(true);
+        poolConfig.setTimeBetweenEvictionRunsMillis(PropertyUtil.getOptional("redis.pool.evictionRunMs", 30000));
         poolConfig.setBlockWhenExhausted(getBlockWhenExhausted());
         final JedisPool oldPool = pool;
         pool = new JedisPool(poolConfig, host, port, getConnectionTimeoutMs(), getUser(), getPassword(), getUseSSL());
@@ -117,6 +139,16 @@ public class JedisManager {
         }
     }
 
+    /**
+     * Replaces the connection pool, used by tests to inject a mocked pool
+     * @return the previous pool
+     */
+    static JedisPool setPool(JedisPool newPool) {
+        JedisPool oldPool = pool;
+        pool = newPool;
+        return oldPool;
+    }
+
     public static void shutdown() {
         if (pool != null) {
             // close calls destroy()
@@ -162,6 +194,97 @@ public class JedisManager {
         return null;
     }
 
+    /**
+     * Registers a listener that is notified after each Redis operation. Can be used to publish latency metrics.
+     */
+    public static void addOperationListener(RedisOperationListener listener) {
+        LISTENERS.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Removes a listener registered with addOperationListener()
+     */
+    public static void removeOperationListener(RedisOperationListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static void notifyListeners(String operation, long durationNanos, boolean success) {
+        for (RedisOperationListener listener : LISTENERS) {
+            try {
+                listener.operationCompleted(operation, durationNanos, success);
+            } catch (Exception e) {
+                log.debug(e, "Redis operation listener failed");
+            }
+        }
+    }
+
+    /**
+     * Runs the command with a pooled connection, logs errors and notifies listeners about the operation.
+     * @param operation name of the operation for logging and metrics
+     * @param key key(s) the operation targets for logging
+     * @param fallback value to return if Redis is not available or the command fails
+     */
+    private static <T> T call(String operation, Object key, T fallback, Function<Jedis, T> command) {
+        final long start = System.nanoTime();
+        boolean success = false;
+        try (Jedis jedis = instance.getJedis()) {
+            if (jedis == null) {
+                return fallback;
+            }
+            T result = command.apply(jedis);
+            success = true;
+            return result;
+        } catch(JedisConnectionException e) {
+            log.error("Failed to", operation, describe(key));
+        } catch (Exception e) {
+            log.error("Redis", operation, "for", describe(key), "failed:", e.getMessage());
+        } finally {
+            notifyListeners(operation, System.nanoTime() - start, success);
+        }
+        return fallback;
+    }
+
+    private static void pipelined(String operation, Object keys, Consumer<Pipeline> commands) {
+        call(operation, keys, null, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            commands.accept(pipeline);
+            pipeline.sync();
+            return null;
+        });
+    }
+
+    private static String describe(Object key) {
+        if (key instanceof byte[]) {
+            return new String((byte[]) key, StandardCharsets.UTF_8);
+        }
+        if (key instanceof byte[][]) {
+            return ((byte[][]) key).length + " keys";
+        }
+        if (key instanceof Object[]) {
+            return Arrays.toString((Object[]) key);
+        }
+        if (key instanceof Collection) {
+            return ((Collection<?>) key).size() + " keys";
+        }
+        return String.valueOf(key);
+    }
+
+    /**
+     * Sends the commands to Redis in a single round trip. Use Response objects returned by the pipeline
+     * to access the results after this returns.
+     *
+     * @param commands adds commands to the pipeline
+     * @return false if Redis is not available or the commands failed
+     */
+    public static boolean pipelined(Consumer<Pipeline> commands) {
+        return call("pipeline", "pipeline", false, jedis -> {
+            Pipeline pipeline = jedis.pipelined();
+            commands.accept(pipeline);
+            pipeline.sync();
+            return true;
+        });
+    }
+
     /**
      * Thread-safe String GET for Redis
      *
@@ -189,11 +312,15 @@ public class JedisManager {
      * @return string
      */
     public static String get(String key, boolean throwException) {
+        final long start = System.nanoTime();
+        boolean success = false;
         try (Jedis jedis = instance.getJedis(throwException)) {
             if (jedis == null) {
                 return null;
             }
-            return jedis.get(key);
+            String value = jedis.get(key);
+            success = true;
+            return value;
         } catch (JedisConnectionException e) {
             log.error("Failed to get", key);
             if (throwException) {
@@ -208,6 +335,8 @@ public class JedisManager {
                         e.getCause(), ERROR_REDIS_COMMUNICATION_FAILURE);
             }
             return null;
+        } finally {
+            notifyListeners("get", System.nanoTime() - start, success);
         }
     }
 
@@ -218,19 +347,7 @@ public class JedisManager {
      * @return bytes
      */
 	public static byte[] get(byte[] key) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-			return jedis.get(key);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to get", key);
-            log.error("Broken connection closed");
-            return null;
-        } catch (Exception e) {
-            log.error("Getting", key, "from Redis failed:", e.getMessage());
-            return null;
-        }
+        return call("get", key, null, jedis -> jedis.get(key));
 	}
 
     /**
@@ -242,19 +359,7 @@ public class JedisManager {
      * @return string
      */
     public static String setex(String key, int seconds, String value) {
-
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            return jedis.setex(key, seconds, value);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to set", key);
-            return null;
-        } catch (Exception e) {
-            log.error("Setting", key, "to Redis failed:", e.getMessage());
-            return null;
-        }
+        return call("setex", key, null, jedis -> jedis.setex(key, seconds, value));
     }
 
     /**
@@ -266,18 +371,101 @@ public class JedisManager {
      * @return string
      */
     public static String setex(byte[] key, int seconds, byte[] value) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            return jedis.setex(key, seconds, value);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to set", key);
-            return null;
-        } catch (Exception e) {
-            log.error("Setting", key, "to Redis failed:", e.getMessage());
-            return null;
+        return call("setex", key, null, jedis -> jedis.setex(key, seconds, value));
+    }
+
+    /**
+     * Thread-safe byte[] MGET for Redis. Gets multiple values with one round trip.
+     *
+     * @param keys
+     * @return values in the same order as keys with null for missing keys (all null if Redis is not available)
+     */
+    public static List<byte[]> mget(byte[]... keys) {
+        if (keys.length == 0) {
+            return Collections.emptyList();
         }
+        return call("mget", keys, Arrays.asList(new byte[keys.length][]), jedis -> jedis.mget(keys));
+    }
+
+    /**
+     * Thread-safe byte[] SETEX for multiple values. The commands are pipelined so this takes one round trip.
+     *
+     * @param values key -> value
+     * @param seconds
+     */
+    public static void msetex(Map<byte[], byte[]> values, int seconds) {
+        pipelined("msetex", values.keySet(), pipeline -> values.forEach((key, value) -> pipeline.setex(key, seconds, value)));
+    }
+
+    /**
+     * Thread-safe String MGET for Redis. Gets multiple values with one round trip.
+     *
+     * @param keys
+     * @return values in the same order as keys with null for missing keys (all null if Redis is not available)
+     */
+    public static List<String> mget(String... keys) {
+        if (keys.length == 0) {
+            return Collections.emptyList();
+        }
+        return call("mget", keys, Arrays.asList(new String[keys.length]), jedis -> jedis.mget(keys));
+    }
+
+    /**
+     * Thread-safe String SETEX for multiple values. The commands are pipelined so this takes one round trip.
+     *
+     * @param values key -> value
+     * @param seconds
+     */
+    public static void setex(Map<String, String> values, int seconds) {
+        if (values.isEmpty()) {
+            return;
+        }
+        pipelined("msetex", values.keySet(), pipeline -> values.forEach((key, value) -> pipeline.setex(key, seconds, value)));
+    }
+
+    /**
+     * GET through an in-memory near-cache. Values are cached for redis.nearcache.seconds (default 30) and
+     * invalidated on all nodes in a cluster when written with setexNearCached() or removed with delNearCached().
+     * Use for values that are read often and written rarely.
+     *
+     * @param key
+     * @return string
+     */
+    public static String getNearCached(String key) {
+        String value = NearCache.CACHE.get(key);
+        if (value != null) {
+            return value;
+        }
+        value = get(key);
+        if (value != null) {
+            NearCache.CACHE.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * SETEX that also updates the near-cache, see getNearCached()
+     */
+    public static String setexNearCached(String key, int seconds, String value) {
+        String result = setex(key, seconds, value);
+        if (result != null) {
+            // invalidate only after the write so other nodes can't reload the old value from Redis,
+            // remove() notifies other nodes to drop their copy
+            NearCache.CACHE.remove(key);
+            NearCache.CACHE.put(key, value);
+        }
+        return result;
+    }
+
+    /**
+     * DEL that also removes the keys from the near-cache, see getNearCached()
+     */
+    public static Long delNearCached(String... keys) {
+        Long result = del(keys);
+        for (String key : keys) {
+            NearCache.CACHE.remove(key);
+        }
+        return result;
     }
 
     /**
@@ -308,18 +496,7 @@ public class JedisManager {
      * @return set of string
      */
 	public static Set<String> hkeys(String key) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return Collections.emptySet();
-            }
-			return jedis.hkeys(key);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to hkeys", key);
-            return null;
-        } catch (Exception e) {
-            log.error("Getting HKEYS", key + "on Redis failed:", e.getMessage());
-            return null;
-        }
+        return call("hkeys", key, Collections.emptySet(), jedis -> jedis.hkeys(key));
 	}
 
     /**
@@ -330,18 +507,7 @@ public class JedisManager {
      * @return string
      */
 	public static String hget(String key, String field) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-			return jedis.hget(key, field);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to hget", key);
-            return null;
-        } catch (Exception e) {
-            log.error("Getting HGET", key + "on Redis failed:", e.getMessage());
-            return null;
-        }
+        return call("hget", key, null, jedis -> jedis.hget(key, field));
 	}
 
     /**
@@ -353,18 +519,21 @@ public class JedisManager {
      * @return Long or null when there was an exception
      */
     public static Long hset(String key, String field, String value) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            return jedis.hset(key, field, value);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to hset", key);
-            return null;
-        } catch (Exception e) {
-            log.error("Setting", key, "failed miserably");
-            return null;
+        return call("hset", key, null, jedis -> jedis.hset(key, field, value));
+    }
+
+    /**
+     * Thread-safe HSET for multiple fields with one command
+     *
+     * @param key
+     * @param values field -> value
+     * @return number of fields that were added or null when there was an exception
+     */
+    public static Long hset(String key, Map<String, String> values) {
+        if (values.isEmpty()) {
+            return 0L;
         }
+        return call("hset", key, null, jedis -> jedis.hset(key, values));
     }
 
     /**
@@ -375,18 +544,7 @@ public class JedisManager {
      * @return Long or null when there was an exception
      */
     public static Long hdel(String key, String... fields) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            return jedis.hdel(key, fields);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to hdel", key);
-            return null;
-        } catch (Exception e) {
-            log.error("Removing", key, "with fields:", fields, "failed miserably");
-            return null;
-        }
+        return call("hdel", key, null, jedis -> jedis.hdel(key, fields));
     }
 
     /**
@@ -397,18 +555,7 @@ public class JedisManager {
      * @return Long or null when there was an exception
      */
     public static Long hincrBy(String key, String field, long increment) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            return jedis.hincrBy(key, field, increment);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to hincrBy", key, field);
-            return null;
-        } catch (Exception e) {
-            log.error("Incrementing", key, field, "failed miserably");
-            return null;
-        }
+        return call("hincrBy", key, null, jedis -> jedis.hincrBy(key, field, increment));
     }
 
     /**
@@ -418,18 +565,7 @@ public class JedisManager {
      * @return long
      */
     public static Long del(String... keys) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            return jedis.del(keys);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to delete", keys);
-            return null;
-        } catch (Exception e) {
-            log.error("Deleting", keys, "failed miserably");
-            return null;
-        }
+        return call("del", keys, null, jedis -> jedis.del(keys));
     }
 
     /**
@@ -484,17 +620,7 @@ public class JedisManager {
      * @return
      */
     public static long pushToList(String key, String ...values) {
-        try (Jedis jedis = instance.getJedis()){
-            if (jedis == null) {
-                return -1;
-            }
-            return jedis.rpush(key, values);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to rpush", key);
-        } catch (Exception e) {
-            log.error("Adding to list", key + " failed miserably");
-        }
-        return -1;
+        return call("rpush", key, -1L, jedis -> jedis.rpush(key, values));
     }
 
     /**
@@ -538,6 +664,48 @@ public class JedisManager {
         return null;
     }
 
+    /**
+     * Returns the elements of the list between start and end (inclusive, negative values count from the end).
+     * Empty list if the key doesn't exist or Redis is not available.
+     * @param key
+     * @param start
+     * @param end
+     * @return
+     */
+    public static List<String> lrange(String key, long start, long end) {
+        return call("lrange", key, Collections.emptyList(), jedis -> jedis.lrange(key, start, end));
+    }
+
+    /**
+     * Thread-safe HMGET for Redis. Returns the values in the same order as the fields with null for missing fields.
+     * @param key
+     * @param fields
+     * @return values or null if Redis is not available
+     */
+    public static List<String> hmget(String key, String... fields) {
+        return call("hmget", key, null, jedis -> jedis.hmget(key, fields));
+    }
+
+    /**
+     * Renames the key replacing the value of newKey if it exists (atomic in Redis).
+     * @param oldKey
+     * @param newKey
+     * @return false if the key didn't exist or Redis is not available
+     */
+    public static boolean rename(String oldKey, String newKey) {
+        return call("rename", oldKey, false, jedis -> "OK".equals(jedis.rename(oldKey, newKey)));
+    }
+
+    /**
+     * Sets the time to live for the key
+     * @param key
+     * @param seconds
+     * @return false if the key doesn't exist or Redis is not available
+     */
+    public static boolean expire(String key, int seconds) {
+        return call("expire", key, false, jedis -> jedis.expire(key, seconds) == 1);
+    }
+
     /**
      * Thread-safe PUBLISH
      *
@@ -546,19 +714,8 @@ public class JedisManager {
      * @return long
      */
     public static Long publish(final String channel, final String message) {
-        try (Jedis jedis = instance.getJedis()) {
-            if (jedis == null) {
-                return null;
-            }
-            log.debug("Sending to", PUBSUB_CHANNEL_PREFIX + channel, "msg:", message);
-            return jedis.publish(PUBSUB_CHANNEL_PREFIX + channel, message);
-        } catch(JedisConnectionException e) {
-            log.error("Failed to publish on:", channel);
-            return null;
-        } catch (Exception e) {
-            log.error("Publishing on:", channel, "failed miserably");
-            return null;
-        }
+        log.debug("Sending to", PUBSUB_CHANNEL_PREFIX + channel, "msg:", message);
+        return call("publish", channel, null, jedis -> jedis.publish(PUBSUB_CHANNEL_PREFIX + channel, message));
     }
 
     public static boolean isClusterEnv() {
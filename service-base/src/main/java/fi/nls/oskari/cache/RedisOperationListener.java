@@ -0,0 +1,16 @@
+package fi.nls.oskari.cache;
+
+/**
+ * Gets notified about operations made with JedisManager.
+ * Can be used to publish latency statistics for Redis.
+ */
+public interface RedisOperationListener {
+
+    /**
+     * Called after each operation
+     * @param operation name of the operation (Redis command like "get" or "pipeline")
+     * @param durationNanos how long the operation took including getting a connection from the pool
+     * @param success false if the operation failed or Redis was not available
+     */
+    void operationCompleted(String operation, long durationNanos, boolean success);
+}
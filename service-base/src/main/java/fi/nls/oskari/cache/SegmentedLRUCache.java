@@ -0,0 +1,299 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.ConversionHelper;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * Bounded in memory cache using segmented LRU eviction and per-entry expiration.
+ *
+ * New items go to a probationary segment and are promoted to a protected segment when they are
+ * requested again so one-off items can't push frequently used items out of the cache.
+ * Items expire individually after {@link #getExpiration()} instead of the whole cache being
+ * flushed at once. All operations are O(1) apart from the periodical purge of expired items.
+ *
+ * Can be used as the default implementation for CacheManager.getCache(name) with property:
+ * oskari.cache.class=fi.nls.oskari.cache.SegmentedLRUCache
+ *
+ * The total weight of items can be limited in addition to item count with
+ * oskari.cache.weight.limit.[cache name] and {@link #setWeigher(ToLongFunction)}.
+ */
+public class SegmentedLRUCache<T> extends Cache<T> {
+
+    public static final String PROPERTY_WEIGHT_LIMIT_PREFIX = "oskari.cache.weight.limit.";
+
+    private static final Logger LOG = LogFactory.getLogger(SegmentedLRUCache.class);
+    // share of the limit reserved for items that have been requested more than once
+    private static final double PROTECTED_RATIO = 0.8;
+
+    private final Object lock = new Object();
+    // insertion ordered maps, items are moved to the tail (most recently used) by removing and re-adding
+    private final LinkedHashMap<String, Entry<T>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<String, Entry<T>> protectedItems = new LinkedHashMap<>();
+    private volatile long maxWeight = Long.MAX_VALUE;
+    private volatile ToLongFunction<T> weigher = value -> 1L;
+    private long weight = 0;
+
+    private static class Entry<T> {
+        final T value;
+        final long weight;
+        final long expires;
+
+        Entry(T value, long weight, long expires) {
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return expires < now;
+        }
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        long configuredWeight = ConversionHelper.getLong(PropertyUtil.getOptional(getWeightLimitPropertyName()), -1);
+        if (configuredWeight > 0) {
+            maxWeight = configuredWeight;
+        }
+    }
+
+    private String getWeightLimitPropertyName() {
+        return PROPERTY_WEIGHT_LIMIT_PREFIX + getName();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Maximum total weight of items to hold in cache. Unbounded by default.
+     * @param maxWeight
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Function to calculate weight for cached items in bytes. Defaults to 1 per item.
+     * The weigher is also used as the size estimator of the cache.
+     * @param weigher
+     */
+    public void setWeigher(ToLongFunction<T> weigher) {
+        if (weigher != null) {
+            this.weigher = weigher;
+            setSizeEstimator(weigher);
+        }
+    }
+
+    /**
+     * Returns the total weight of cached items
+     * @return
+     */
+    public long getWeight() {
+        synchronized (lock) {
+            return weight;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (lock) {
+            return probation.size() + protectedItems.size();
+        }
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        synchronized (lock) {
+            Set<String> keys = new HashSet<>(probation.keySet());
+            keys.addAll(protectedItems.keySet());
+            return keys;
+        }
+    }
+
+    @Override
+    protected T lookup(final String name) {
+        final long now = currentTime();
+        synchronized (lock) {
+            Entry<T> entry = protectedItems.remove(name);
+            if (entry == null) {
+                entry = probation.remove(name);
+            }
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(now)) {
+                weight -= entry.weight;
+                getStats().addBytes(-estimateBytes(entry.value));
+                getStats().recordExpirations(1);
+                return null;
+            }
+            // requested again -> move to the tail of protected segment
+            protectedItems.put(name, entry);
+            demoteOverflow();
+            return entry.value;
+        }
+    }
+
+    @Override
+    protected T removeSilent(final String name) {
+        flush(false);
+        Entry<T> entry;
+        synchronized (lock) {
+            entry = removeEntry(name);
+        }
+        LOG.debug("Removed cached item:", name, getName());
+        if (entry == null || entry.isExpired(currentTime())) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    private Entry<T> removeEntry(final String name) {
+        Entry<T> entry = protectedItems.remove(name);
+        if (entry == null) {
+            entry = probation.remove(name);
+        }
+        if (entry != null) {
+            weight -= entry.weight;
+            getStats().addBytes(-estimateBytes(entry.value));
+        }
+        return entry;
+    }
+
+    @Override
+    public boolean put(final String name, final T item) {
+        flush(false);
+        if (item == null) {
+            // can't save null value -> handle as removal
+            remove(name);
+            return false;
+        }
+        final Entry<T> entry = new Entry<>(item, weigher.applyAsLong(item), currentTime() + getExpiration());
+        boolean overflowing;
+        Entry<T> existing;
+        synchronized (lock) {
+            existing = protectedItems.remove(name);
+            if (existing != null) {
+                // keep the segment of the previous value
+                protectedItems.put(name, entry);
+            } else {
+                existing = probation.remove(name);
+                probation.put(name, entry);
+            }
+            if (existing != null) {
+                weight -= existing.weight;
+                getStats().addBytes(-estimateBytes(existing.value));
+            }
+            weight += entry.weight;
+            getStats().addBytes(estimateBytes(item));
+            overflowing = evictOverflow();
+            demoteOverflow();
+        }
+        if (existing != null) {
+            // if we had it in cache, notify cluster it was updated
+            notifyRemoval(name);
+        }
+        if (overflowing) {
+            LOG.warn("Cache", getName(), "overflowing! Limit is", getLimit(), "- max weight is", maxWeight);
+            LOG.info("Configure larger limit for cache by setting the property:", getLimitPropertyName());
+        }
+        LOG.debug("Cached item:", name, getName());
+        return overflowing;
+    }
+
+    /**
+     * Removes least recently used items until cache is within limits.
+     * Items are evicted from probation first. Expects lock to be held.
+     * @return true if items were evicted
+     */
+    private boolean evictOverflow() {
+        boolean evicted = false;
+        while ((probation.size() + protectedItems.size() > getLimit() || weight > maxWeight)
+                && !(probation.isEmpty() && protectedItems.isEmpty())) {
+            Map<String, Entry<T>> segment = probation.isEmpty() ? protectedItems : probation;
+            Iterator<Entry<T>> it = segment.values().iterator();
+            Entry<T> eldest = it.next();
+            it.remove();
+            weight -= eldest.weight;
+            getStats().addBytes(-estimateBytes(eldest.value));
+            getStats().recordEviction();
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    /**
+     * Moves least recently used items from protected segment to probation if protected segment is full.
+     * Expects lock to be held.
+     */
+    private void demoteOverflow() {
+        final int protectedLimit = Math.max(1, (int) (getLimit() * PROTECTED_RATIO));
+        while (protectedItems.size() > protectedLimit) {
+            Iterator<Map.Entry<String, Entry<T>>> it = protectedItems.entrySet().iterator();
+            Map.Entry<String, Entry<T>> eldest = it.next();
+            it.remove();
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * Items expire individually so the cache is only cleared when forced.
+     * Expired items are purged when the expiration time has passed since the last purge.
+     */
+    @Override
+    protected boolean flushSilent(final boolean force) {
+        final long now = currentTime();
+        if (force) {
+            LOG.info("Flushing cache! Cache:", getName(), "Forced: ", force);
+            synchronized (lock) {
+                probation.clear();
+                protectedItems.clear();
+                weight = 0;
+                getStats().resetBytes();
+            }
+            setLastFlush(now);
+            return true;
+        }
+        if (isTimeToFlush(now)) {
+            setLastFlush(now);
+            purgeExpired(now);
+        }
+        return false;
+    }
+
+    private void purgeExpired(final long now) {
+        int purged = 0;
+        synchronized (lock) {
+            purged += purgeExpired(probation, now);
+            purged += purgeExpired(protectedItems, now);
+        }
+        getStats().recordExpirations(purged);
+        LOG.debug("Purged", purged, "expired items from cache:", getName());
+    }
+
+    private int purgeExpired(Map<String, Entry<T>> segment, long now) {
+        int purged = 0;
+        Iterator<Entry<T>> it = segment.values().iterator();
+        while (it.hasNext()) {
+            Entry<T> entry = it.next();
+            if (entry.isExpired(now)) {
+                weight -= entry.weight;
+                getStats().addBytes(-estimateBytes(entry.value));
+                it.remove();
+                purged++;
+            }
+        }
+        return purged;
+    }
+}
@@ -90,10 +90,14 @@ public class MyPlace {
 
     public void setGeometry(Geometry geometry) {
         this.geometry = geometry;
-        this.wkt = geometry.toText();
+        // written lazily as it's only needed for inserts/updates
+        this.wkt = null;
     }
 
     public String getWkt() {
+        if (wkt == null && geometry != null) {
+            wkt = geometry.toText();
+        }
         return wkt;
     }
 
@@ -2,6 +2,7 @@ package fi.nls.oskari.domain.map.userlayer;
 
 
 import org.json.JSONObject;
+import org.locationtech.jts.geom.Geometry;
 
 import java.time.OffsetDateTime;
 
@@ -15,6 +16,8 @@ public class UserLayerData {
     private String  geometry;
 
     private String wkt;
+    // geometry read from the database (the String geometry above is GeoJSON for inserting)
+    private Geometry geom;
     private int databaseSRID;
     private OffsetDateTime created;
     private OffsetDateTime updated;
@@ -80,6 +83,14 @@ public class UserLayerData {
         this.wkt = wkt;
     }
 
+    public Geometry getGeom() {
+        return geom;
+    }
+
+    public void setGeom(Geometry geom) {
+        this.geom = geom;
+    }
+
     public OffsetDateTime getCreated() {
         return created;
     }
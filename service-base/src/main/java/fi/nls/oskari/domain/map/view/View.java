@@ -265,6 +265,26 @@ public class View implements Serializable {
         return view;
     }
 
+    /**
+     * Clones the view including id, oldId, uuid and the other database fields so a cached view
+     * can be handed out without sharing mutable bundles.
+     * @return cloned object with bundles
+     */
+    public View copy() {
+        View view = cloneBasicInfo();
+        view.setId(getId());
+        view.setOldId(getOldId());
+        view.setUuid(getUuid());
+        view.setOnlyForUuId(isOnlyForUuId());
+        view.setCreator(getCreator());
+        view.setCreated(getCreated());
+        view.setUpdated(getUpdated());
+        for (Bundle bundle : view.getBundles()) {
+            bundle.setViewId(getId());
+        }
+        return view;
+    }
+
     public JSONObject getMapOptions() {
         Bundle mapfull = getBundleByName("mapfull");
         if (mapfull == null) {
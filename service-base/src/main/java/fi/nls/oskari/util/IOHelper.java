@@ -58,7 +58,7 @@ public class IOHelper {
     public static int getReadTimeoutMs() {
         return PropertyUtil.getOptional("oskari.read.timeout", 60000);
     }
-    private static boolean getTrustAllCerts() {
+    static boolean getTrustAllCerts() {
         return "true".equals(PropertyUtil.getOptional("oskari.trustAllCerts"));
     }
     private static boolean getTrustAllHosts() {
@@ -215,10 +215,28 @@ public class IOHelper {
      * @throws IOException
      */
     public static void readBytesTo(HttpURLConnection conn, OutputStream out) throws IOException {
-        try (InputStream in = conn.getInputStream()) {
-            try (InputStream inner = isResponseGZIPd(conn) ? new GZIPInputStream(in) : in) {
-                copy(inner, out);
-            }
+        try (InputStream in = getDecodedInputStream(conn)) {
+            copy(in, out);
+        }
+    }
+
+    /**
+     * Returns the InputStream of HttpURLConnection decoding gzip encoding if the response is gzipped.
+     * Use this when the response should be processed as a stream instead of reading it to memory first.
+     * The caller is responsible for closing the stream.
+     * @param conn used to get inputstream and detect possible gzip encoding
+     * @throws IOException
+     */
+    public static InputStream getDecodedInputStream(HttpURLConnection conn) throws IOException {
+        InputStream in = conn.getInputStream();
+        if (!isResponseGZIPd(conn)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
         }
     }
 
@@ -864,33 +882,40 @@ public class IOHelper {
     }
     private static SSLSocketFactory getTrustedFactory() throws IOException {
         if (TRUSTED_FACTORY == null) {
-            final TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
+            TRUSTED_FACTORY = getTrustAllContext().getSocketFactory();
+        }
 
-                public X509Certificate[] getAcceptedIssuers() {
-                    return new X509Certificate[0];
-                }
+        return TRUSTED_FACTORY;
+    }
 
-                public void checkClientTrusted(X509Certificate[] chain, String authType) {
-                    // Intentionally left blank
-                }
+    /**
+     * SSLContext that accepts any certificate. Used when oskari.trustAllCerts=true
+     */
+    static SSLContext getTrustAllContext() throws IOException {
+        final TrustManager[] trustAllCerts = new TrustManager[] { new X509TrustManager() {
 
-                public void checkServerTrusted(X509Certificate[] chain, String authType) {
-                    // Intentionally left blank
-                }
-            } };
-            try {
-                SSLContext context = SSLContext.getInstance("TLS");
-                context.init(null, trustAllCerts, new SecureRandom());
-                TRUSTED_FACTORY = context.getSocketFactory();
-            } catch (Exception e) {
-                IOException ioException = new IOException(
-                        "Security exception configuring SSL context");
-                ioException.initCause(e);
-                throw ioException;
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
             }
-        }
 
-        return TRUSTED_FACTORY;
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // Intentionally left blank
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // Intentionally left blank
+            }
+        } };
+        try {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustAllCerts, new SecureRandom());
+            return context;
+        } catch (Exception e) {
+            IOException ioException = new IOException(
+                    "Security exception configuring SSL context");
+            ioException.initCause(e);
+            throw ioException;
+        }
     }
 
     private static HostnameVerifier getTrustedVerifier() {
@@ -0,0 +1,363 @@
+package fi.nls.oskari.util;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Shared non-blocking HTTP client for requests to backing services (WFS, tiles, print etc).
+ * Wraps a single java.net.http.HttpClient so connections are pooled per host and reused over HTTP/2
+ * when the service supports it (HTTP/1.1 keep-alive otherwise). Requests made with sendAsync() don't hold
+ * a thread while waiting for the service to respond so the number of concurrent requests isn't limited
+ * by the size of a thread pool.
+ *
+ * Requests are built with the same defaults as IOHelper.getConnection():
+ * - oskari.connection.timeout for connecting
+ * - oskari.read.timeout as the default deadline for receiving the response headers and as the
+ *   timeout for each read of the response body (like HttpURLConnection.setReadTimeout())
+ * - basic auth, User-Agent/Referer and Accept-Charset headers
+ * - oskari.trustAllCerts (note! oskari.trustAllHosts is not supported by HttpClient, see MigrationGuide.md)
+ * Gzip is requested from the service and decoded by getDecodedInputStream()/readBytes().
+ */
+public class OskariHttpClient {
+
+    private static final Logger LOG = LogFactory.getLogger(OskariHttpClient.class);
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static volatile HttpClient client;
+
+    private OskariHttpClient() {}
+
+    public static HttpClient getClient() {
+        if (client == null) {
+            synchronized (OskariHttpClient.class) {
+                if (client == null) {
+                    client = createClient();
+                }
+            }
+        }
+        return client;
+    }
+
+    private static HttpClient createClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofMillis(IOHelper.getConnectionTimeoutMs()))
+                .executor(createExecutor());
+        // HttpURLConnection uses the system proxy settings by default, HttpClient doesn't
+        ProxySelector proxy = ProxySelector.getDefault();
+        if (proxy != null) {
+            builder.proxy(proxy);
+        }
+        if (IOHelper.getTrustAllCerts()) {
+            try {
+                builder.sslContext(IOHelper.getTrustAllContext());
+            } catch (IOException e) {
+                LOG.warn(e, "Couldn't setup SSL context for trusting all certificates");
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * The executor only runs the (short) tasks of completing responses. Daemon threads so it doesn't
+     * prevent shutting down the webapp.
+     */
+    private static Executor createExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "oskari-http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Request builder for GET request with Oskari defaults
+     * @param url url to call
+     * @param user optional username for basic auth
+     * @param pass optional password for basic auth
+     */
+    public static HttpRequest.Builder newRequest(String url, String user, String pass) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(IOHelper.getReadTimeoutMs()))
+                .header(IOHelper.HEADER_ACCEPT_CHARSET, IOHelper.CHARSET_UTF8)
+                .header(IOHelper.HEADER_ACCEPT_ENCODING, IOHelper.ENCODING_GZIP)
+                .header(IOHelper.HEADER_USERAGENT, IOHelper.getUserAgent())
+                .header(IOHelper.HEADER_REFERER, IOHelper.getMyDomain());
+        if (url.startsWith("http:")) {
+            // HTTP/2 is only negotiated with TLS, the h2c upgrade headers confuse some services
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        if (user != null && !user.isEmpty()) {
+            String auth = IOHelper.encode64(user + ":" + (pass == null ? "" : pass));
+            builder.header(IOHelper.HEADER_AUTHORIZATION, "Basic " + auth);
+        }
+        return builder;
+    }
+
+    /**
+     * Request builder for GET request with Oskari defaults, query parameters and extra request headers
+     */
+    public static HttpRequest.Builder newRequest(String url, String user, String pass,
+            Map<String, String> query, Map<String, String> headers) {
+        HttpRequest.Builder builder = newRequest(IOHelper.constructUrl(url, query), user, pass);
+        if (headers != null) {
+            headers.forEach(builder::setHeader);
+        }
+        return builder;
+    }
+
+    /**
+     * Sends the request without blocking. The future completes when the response headers have been
+     * received and the body can be read as a stream with getDecodedInputStream(). Reading the stream blocks
+     * until the service sends the data so it should be done outside the thread completing the future
+     * (for example with thenApplyAsync()).
+     */
+    public static CompletableFuture<HttpResponse<InputStream>> sendAsync(HttpRequest request) {
+        LOG.debug("Requesting", request.uri());
+        return getClient().sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    /**
+     * Sends the request without blocking and reads the whole body to memory.
+     * @param deadline time limit for the whole request including the body,
+     *                 the future completes exceptionally with TimeoutException when the deadline is reached
+     */
+    public static CompletableFuture<HttpResponse<byte[]>> sendAsync(HttpRequest request, Duration deadline) {
+        LOG.debug("Requesting", request.uri());
+        CompletableFuture<HttpResponse<byte[]>> future = getClient().sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        return future.copy()
+                .orTimeout(deadline.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((r, e) -> {
+                    if (e != null) {
+                        // cancelling the future returned by HttpClient aborts the request
+                        future.cancel(true);
+                    }
+                });
+    }
+
+    /**
+     * Blocking counterpart of sendAsync() for callers that process the response synchronously anyway.
+     */
+    public static HttpResponse<InputStream> send(HttpRequest request) throws IOException {
+        LOG.debug("Requesting", request.uri());
+        try {
+            return getClient().send(request, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while requesting " + request.uri());
+        }
+    }
+
+    /**
+     * Returns the body of the response decoding gzip encoding if the response is gzipped.
+     * The caller is responsible for closing the stream.
+     * HttpRequest.timeout() only applies to receiving the response headers so reading the body fails with
+     * SocketTimeoutException if the service doesn't send anything for the request timeout (oskari.read.timeout
+     * by default).
+     */
+    public static InputStream getDecodedInputStream(HttpResponse<InputStream> response) throws IOException {
+        return getDecodedInputStream(response, null);
+    }
+
+    /**
+     * Same as getDecodedInputStream(response) but reading the body also fails with SocketTimeoutException
+     * when the deadline passes even if the service keeps sending data slowly.
+     * @param deadline time limit for reading the whole body, null for no limit
+     */
+    public static InputStream getDecodedInputStream(HttpResponse<InputStream> response, Duration deadline) throws IOException {
+        long readTimeoutMs = response.request().timeout()
+                .map(Duration::toMillis)
+                .orElse((long) IOHelper.getReadTimeoutMs());
+        InputStream in = new TimedInputStream(response.body(), readTimeoutMs, deadline == null ? -1 : deadline.toMillis());
+        if (!isResponseGZIPd(response)) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the body of the response decoding gzip encoding if the response is gzipped.
+     */
+    public static byte[] readBytes(HttpResponse<byte[]> response) throws IOException {
+        if (!isResponseGZIPd(response)) {
+            return response.body();
+        }
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            return IOHelper.readBytes(in);
+        }
+    }
+
+    /**
+     * Closes the body of a response that isn't going to be read.
+     */
+    public static void discard(HttpResponse<InputStream> response) {
+        IOHelper.close(response.body());
+    }
+
+    public static String getContentType(HttpResponse<?> response) {
+        return response.headers().firstValue(IOHelper.HEADER_CONTENTTYPE).orElse(null);
+    }
+
+    private static boolean isResponseGZIPd(HttpResponse<?> response) {
+        return response.headers()
+                .firstValue(HEADER_CONTENT_ENCODING)
+                .map(IOHelper.ENCODING_GZIP::equalsIgnoreCase)
+                .orElse(false);
+    }
+
+    /**
+     * Closes the body stream when the service hasn't sent anything within the read timeout or when the deadline
+     * passes. Closing the stream releases a thread blocked on reading it and the read fails with
+     * SocketTimeoutException.
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+        private final long readTimeoutNanos;
+        private final long deadlineNanos;
+        private volatile long lastRead;
+        private volatile boolean timedOut;
+        private boolean closed;
+        private ScheduledFuture<?> check;
+
+        private TimedInputStream(InputStream in, long readTimeoutMs, long deadlineMs) {
+            super(in);
+            lastRead = System.nanoTime();
+            readTimeoutNanos = readTimeoutMs > 0 ? TimeUnit.MILLISECONDS.toNanos(readTimeoutMs) : Long.MAX_VALUE;
+            deadlineNanos = deadlineMs > 0 ? lastRead + TimeUnit.MILLISECONDS.toNanos(deadlineMs) : Long.MAX_VALUE;
+            check();
+        }
+
+        private void check() {
+            long now = System.nanoTime();
+            long idleLeft = readTimeoutNanos == Long.MAX_VALUE ? Long.MAX_VALUE : lastRead + readTimeoutNanos - now;
+            long deadlineLeft = deadlineNanos == Long.MAX_VALUE ? Long.MAX_VALUE : deadlineNanos - now;
+            long left = Math.min(idleLeft, deadlineLeft);
+            if (left == Long.MAX_VALUE) {
+                return;
+            }
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                if (left > 0) {
+                    check = TimerHolder.TIMER.schedule(this::check, left, TimeUnit.NANOSECONDS);
+                    return;
+                }
+                timedOut = true;
+            }
+            IOHelper.close(in);
+        }
+
+        private void completed() throws SocketTimeoutException {
+            if (timedOut) {
+                // closed stream might report end of stream instead of failing
+                throw new SocketTimeoutException("Reading response body timed out");
+            }
+            lastRead = System.nanoTime();
+        }
+
+        private IOException failed(IOException e) {
+            if (timedOut) {
+                SocketTimeoutException timeout = new SocketTimeoutException("Reading response body timed out");
+                timeout.initCause(e);
+                return timeout;
+            }
+            return e;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int read = super.read();
+                completed();
+                return read;
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int read = super.read(b, off, len);
+                completed();
+                return read;
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            try {
+                long skipped = super.skip(n);
+                completed();
+                return skipped;
+            } catch (SocketTimeoutException e) {
+                throw e;
+            } catch (IOException e) {
+                throw failed(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                closed = true;
+                if (check != null) {
+                    check.cancel(false);
+                }
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Created on first use so the thread isn't started unless responses are read
+     */
+    private static final class TimerHolder {
+        private static final ScheduledThreadPoolExecutor TIMER = createTimer();
+
+        private static ScheduledThreadPoolExecutor createTimer() {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread t = new Thread(r, "oskari-http-timeout");
+                t.setDaemon(true);
+                return t;
+            });
+            // most checks are cancelled as the body is read before the timeout
+            timer.setRemoveOnCancelPolicy(true);
+            return timer;
+        }
+    }
+}
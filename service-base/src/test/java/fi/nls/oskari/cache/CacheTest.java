@@ -6,14 +6,24 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
 /**
  * Simple tests for cache.
  */
 public class CacheTest {
 
+    private Consumer<Cache<?>> listener;
+
     @AfterEach
     public void teardown() {
         PropertyUtil.clearProperties();
+        if (listener != null) {
+            CacheManager.removeCacheListener(listener);
+            listener = null;
+        }
     }
 
     @Test
@@ -78,4 +88,77 @@ public class CacheTest {
         Assertions.assertTrue(cache.isTimeToFlush(last + expiration + 10), "Cache lastFlush + expiration + 10 should be cleared for flush");
     }
 
+    @Test
+    public void testStats() {
+        final Cache<String> cache = CacheManager.getCache("Stats");
+        cache.setLimit(2);
+        Assertions.assertEquals(-1, cache.getStats().getEstimatedBytes(), "Bytes are not estimated before values are cached");
+        cache.setSizeEstimator(String::length);
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        cache.put("c", "1234");
+        Assertions.assertNull(cache.get("a"));
+        Assertions.assertEquals("1234", cache.get("b"));
+        CacheStats stats = cache.getStats();
+        Assertions.assertEquals(1, stats.getHits());
+        Assertions.assertEquals(1, stats.getMisses());
+        Assertions.assertEquals(1, stats.getEvictions());
+        Assertions.assertEquals(8, stats.getEstimatedBytes());
+        cache.flush(true);
+        Assertions.assertEquals(0, stats.getEstimatedBytes());
+    }
+
+    @Test
+    public void testDefaultSizeEstimate() {
+        final Cache<byte[]> bytes = new Cache<>();
+        Assertions.assertFalse(bytes.getStats().isBytesEstimated());
+        bytes.put("a", new byte[10]);
+        Assertions.assertEquals(10, bytes.getStats().getEstimatedBytes(), "byte[] should be estimated by length");
+
+        final Cache<String> strings = new Cache<>();
+        strings.put("a", "1234");
+        Assertions.assertEquals(8, strings.getStats().getEstimatedBytes(), "String should be estimated by length");
+        strings.remove("a");
+        Assertions.assertEquals(0, strings.getStats().getEstimatedBytes());
+
+        final Cache<Object> other = new Cache<>();
+        other.put("a", new Object());
+        Assertions.assertEquals(-1, other.getStats().getEstimatedBytes(), "Other values are not estimated by default");
+    }
+
+    @Test
+    public void testComputeOnceLoadStats() {
+        final ComputeOnceCache<String> cache = CacheManager.getCache("LoadStats", () -> new ComputeOnceCache<>(10));
+        Assertions.assertEquals("value", cache.get("key", k -> "value"));
+        Assertions.assertEquals("value", cache.get("key", k -> "other"));
+        CacheStats stats = cache.getStats();
+        Assertions.assertEquals(1, stats.getLoads());
+        Assertions.assertEquals(1, stats.getHits());
+        Assertions.assertEquals(1, stats.getMisses());
+    }
+
+    @Test
+    public void testComputeOnceNotCacheable() {
+        final ComputeOnceCache<String> cache = new ComputeOnceCache<>(10);
+        Assertions.assertEquals("partial", cache.get("key", k -> "partial", v -> !v.equals("partial")));
+        Assertions.assertEquals("complete", cache.get("key", k -> "complete", v -> !v.equals("partial")),
+                "Value not matching the predicate shouldn't be cached");
+        Assertions.assertEquals("complete", cache.get("key", k -> "other"));
+    }
+
+    @Test
+    public void testCacheListener() {
+        final Set<String> notified = new HashSet<>();
+        CacheManager.getCache("ListenerExisting");
+        listener = cache -> notified.add(cache.getName());
+        CacheManager.addCacheListener(listener);
+        Assertions.assertTrue(notified.contains("ListenerExisting"), "Listener should be called for existing caches");
+        CacheManager.getCache("ListenerNew");
+        Assertions.assertTrue(notified.contains("ListenerNew"), "Listener should be called for new caches");
+
+        CacheManager.removeCacheListener(listener);
+        CacheManager.getCache("ListenerRemoved");
+        Assertions.assertFalse(notified.contains("ListenerRemoved"), "Removed listener shouldn't be called");
+    }
+
 }
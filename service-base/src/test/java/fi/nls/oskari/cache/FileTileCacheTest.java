@@ -0,0 +1,106 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FileTileCacheTest {
+
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void teardown() {
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testDisabledWithoutDir() {
+        FileTileCache cache = new FileTileCache("disabled");
+        Assertions.assertFalse(cache.isEnabled());
+        Assertions.assertNull(cache.put("1", "EPSG_3067/8/1/2", new byte[] { 1, 2, 3 }));
+        Assertions.assertNull(cache.get("1", "EPSG_3067/8/1/2", TTL));
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_DIR, dir.toString());
+        FileTileCache cache = new FileTileCache("tiles");
+        byte[] data = new byte[] { 1, 2, 3 };
+        FileTileCache.Tile written = cache.put("1", "EPSG:3067/8/1/2", data);
+        Assertions.assertNotNull(written);
+        Assertions.assertEquals(3, cache.getSize());
+
+        FileTileCache.Tile tile = cache.get("1", "EPSG:3067/8/1/2", TTL);
+        Assertions.assertNotNull(tile);
+        Assertions.assertEquals(written.getETag(), tile.getETag());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        tile.writeTo(out);
+        Assertions.assertArrayEquals(data, out.toByteArray());
+        Assertions.assertNull(cache.get("1", "EPSG:3067/8/1/3", TTL));
+        Assertions.assertNull(cache.get("1", "EPSG:3067/8/1/2", -1), "Tile should have expired");
+        Assertions.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testKeysStayInsideCacheDir() throws Exception {
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_DIR, dir.resolve("cache").toString());
+        FileTileCache cache = new FileTileCache("tiles");
+        cache.put("..", "../../escape", new byte[] { 1 });
+        Assertions.assertFalse(Files.exists(dir.resolve("escape")));
+        Assertions.assertNotNull(cache.get("..", "../../escape", TTL));
+    }
+
+    @Test
+    public void testFlushLayer() throws Exception {
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_DIR, dir.toString());
+        FileTileCache cache = FileTileCache.getCache("flush");
+        cache.put("1", "EPSG_3067/8/1/2", new byte[] { 1, 2, 3 });
+        cache.put("2", "EPSG_3067/8/1/2", new byte[] { 1, 2, 3 });
+        FileTileCache.flushLayer("1");
+        Assertions.assertNull(cache.get("1", "EPSG_3067/8/1/2", TTL));
+        Assertions.assertNotNull(cache.get("2", "EPSG_3067/8/1/2", TTL));
+        Assertions.assertEquals(3, cache.getSize());
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_DIR, dir.toString());
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_LIMIT_PREFIX + "limited", "1");
+        // run cleanup on the calling thread so it has completed when put() returns
+        FileTileCache cache = new FileTileCache("limited", Runnable::run);
+        byte[] data = new byte[400 * 1024];
+        for (int i = 0; i < 5; i++) {
+            cache.put("1", "EPSG_3067/8/1/" + i, data);
+        }
+        Assertions.assertTrue(cache.getSize() <= cache.getLimit(), "Cache should be cleaned up when limit is reached");
+    }
+
+    @Test
+    public void testCleanupDoesNotBlockPut() throws Exception {
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_DIR, dir.toString());
+        PropertyUtil.addProperty(FileTileCache.PROPERTY_LIMIT_PREFIX + "queued", "1");
+        List<Runnable> queued = new ArrayList<>();
+        FileTileCache cache = new FileTileCache("queued", queued::add);
+        byte[] data = new byte[400 * 1024];
+        for (int i = 0; i < 5; i++) {
+            Assertions.assertNotNull(cache.put("1", "EPSG_3067/8/1/" + i, data));
+        }
+        Assertions.assertEquals(1, queued.size(), "Cleanup should be scheduled once while pending");
+        Assertions.assertTrue(cache.getSize() > cache.getLimit(), "put() shouldn't clean up on the calling thread");
+
+        queued.get(0).run();
+        Assertions.assertTrue(cache.getSize() <= cache.getLimit(), "Cache should be cleaned up when the task runs");
+    }
+}
@@ -0,0 +1,152 @@
+package fi.nls.oskari.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs JedisManager operations against a mocked connection pool so no Redis server is needed.
+ */
+public class JedisManagerOperationsTest {
+
+    private JedisPool originalPool;
+    private Jedis jedis;
+    private Pipeline pipeline;
+    private final List<String> operations = new ArrayList<>();
+    private final List<Boolean> results = new ArrayList<>();
+    private final RedisOperationListener listener = (operation, durationNanos, success) -> {
+        operations.add(operation);
+        results.add(success);
+    };
+
+    @BeforeEach
+    public void setUp() {
+        jedis = mock(Jedis.class);
+        pipeline = mock(Pipeline.class);
+        when(jedis.pipelined()).thenReturn(pipeline);
+        JedisPool pool = mock(JedisPool.class);
+        when(pool.getResource()).thenReturn(jedis);
+        originalPool = JedisManager.setPool(pool);
+        JedisManager.addOperationListener(listener);
+    }
+
+    @AfterEach
+    public void teardown() {
+        JedisManager.removeOperationListener(listener);
+        JedisManager.setPool(originalPool);
+    }
+
+    @Test
+    public void testPipelined() {
+        Assertions.assertTrue(JedisManager.pipelined(p -> {
+            p.setex("a", 60, "1");
+            p.expire("b", 60);
+        }));
+        verify(pipeline).setex("a", 60, "1");
+        verify(pipeline).expire("b", 60);
+        verify(pipeline).sync();
+        Assertions.assertEquals(Arrays.asList("pipeline"), operations);
+        Assertions.assertEquals(Arrays.asList(true), results);
+    }
+
+    @Test
+    public void testPipelinedFails() {
+        Mockito.doThrow(new JedisConnectionException("Connection lost")).when(pipeline).sync();
+        Assertions.assertFalse(JedisManager.pipelined(p -> p.setex("a", 60, "1")));
+        Assertions.assertEquals(Arrays.asList(false), results, "Listener should be told about the failure");
+    }
+
+    @Test
+    public void testSetexMultiple() {
+        Map<String, String> values = new LinkedHashMap<>();
+        values.put("a", "1");
+        values.put("b", "2");
+        JedisManager.setex(values, 60);
+        verify(pipeline).setex("a", 60, "1");
+        verify(pipeline).setex("b", 60, "2");
+        verify(pipeline).sync();
+        verify(jedis, Mockito.never()).setex(anyString(), anyLong(), anyString());
+        Assertions.assertEquals(Arrays.asList("msetex"), operations);
+    }
+
+    @Test
+    public void testMget() {
+        when(jedis.mget("a", "not-there")).thenReturn(Arrays.asList("1", null));
+        Assertions.assertEquals(Arrays.asList("1", null), JedisManager.mget("a", "not-there"));
+
+        when(jedis.mget("a", "b")).thenThrow(new JedisConnectionException("Connection lost"));
+        Assertions.assertEquals(Arrays.asList(null, null), JedisManager.mget("a", "b"),
+                "Should get null for each key when Redis fails");
+        Assertions.assertEquals(Arrays.asList("mget", "mget"), operations);
+        Assertions.assertEquals(Arrays.asList(true, false), results);
+    }
+
+    @Test
+    public void testNearCacheHit() {
+        String key = "JedisManagerOperationsTest.hit";
+        when(jedis.get(key)).thenReturn("1");
+        Assertions.assertEquals("1", JedisManager.getNearCached(key));
+        Assertions.assertEquals("1", JedisManager.getNearCached(key));
+        verify(jedis, times(1)).get(key);
+        Assertions.assertEquals(Arrays.asList("get"), operations, "Second get should be served from the near-cache");
+        JedisManager.delNearCached(key);
+    }
+
+    @Test
+    public void testNearCacheInvalidation() {
+        String key = "JedisManagerOperationsTest.invalidation";
+        when(jedis.get(key)).thenReturn("1");
+        when(jedis.setex(key, 60, "2")).thenReturn("OK");
+        Assertions.assertEquals("1", JedisManager.getNearCached(key));
+
+        Assertions.assertEquals("OK", JedisManager.setexNearCached(key, 60, "2"));
+        Assertions.assertEquals("2", JedisManager.getNearCached(key), "Written value should be near-cached");
+        verify(jedis, times(1)).get(key);
+
+        JedisManager.delNearCached(key);
+        verify(jedis).del(new String[] { key });
+        Assertions.assertEquals("1", JedisManager.getNearCached(key), "Deleted key should be read from Redis");
+        verify(jedis, times(2)).get(key);
+        JedisManager.delNearCached(key);
+    }
+
+    @Test
+    public void testNearCacheKeptWhenWriteFails() {
+        String key = "JedisManagerOperationsTest.failedWrite";
+        when(jedis.get(key)).thenReturn("1");
+        when(jedis.setex(key, 60, "2")).thenThrow(new JedisConnectionException("Connection lost"));
+        Assertions.assertEquals("1", JedisManager.getNearCached(key));
+
+        Assertions.assertNull(JedisManager.setexNearCached(key, 60, "2"));
+        // Redis still has the old value so the near-cached one is still valid
+        Assertions.assertEquals("1", JedisManager.getNearCached(key));
+        verify(jedis, times(1)).get(key);
+        JedisManager.delNearCached(key);
+    }
+
+    @Test
+    public void testRemovedListenerIsNotNotified() {
+        JedisManager.removeOperationListener(listener);
+        JedisManager.del("a");
+        Assertions.assertTrue(operations.isEmpty());
+    }
+}
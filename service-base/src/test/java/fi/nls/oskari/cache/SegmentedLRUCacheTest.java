@@ -0,0 +1,93 @@
+package fi.nls.oskari.cache;
+
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class SegmentedLRUCacheTest {
+
+    @AfterEach
+    public void teardown() {
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testCacheClassProperty() throws Exception {
+        PropertyUtil.addProperty(CacheManager.PROPERTY_CACHE_CLASS, SegmentedLRUCache.class.getName());
+        Cache<String> cache = CacheManager.getCache("SegmentedLRUProperty");
+        Assertions.assertTrue(cache instanceof SegmentedLRUCache, "Cache class should be configurable");
+    }
+
+    @Test
+    public void testInvalidCacheClassProperty() throws Exception {
+        PropertyUtil.addProperty(CacheManager.PROPERTY_CACHE_CLASS, "not.a.Cache");
+        Cache<String> cache = CacheManager.getCache("SegmentedLRUInvalidProperty");
+        Assertions.assertEquals(Cache.class, cache.getClass(), "Should fallback to default cache");
+    }
+
+    @Test
+    public void testFrequentlyUsedItemsAreKept() {
+        SegmentedLRUCache<String> cache = new SegmentedLRUCache<>();
+        cache.setName("SegmentedLRUFrequent");
+        cache.setLimit(10);
+        cache.put("hot", "value");
+        Assertions.assertEquals("value", cache.get("hot"));
+        for (int i = 0; i < 50; i++) {
+            cache.put("test" + i, "testing" + i);
+        }
+        Assertions.assertEquals(10, cache.getSize(), "Cache size should be limited");
+        Assertions.assertEquals("value", cache.get("hot"), "Item requested again should survive one-off items");
+        Assertions.assertNull(cache.get("test0"), "Oldest one-off item should have been evicted");
+        Assertions.assertEquals("testing49", cache.get("test49"));
+    }
+
+    @Test
+    public void testWeightLimit() throws Exception {
+        final String cacheName = "SegmentedLRUWeight";
+        PropertyUtil.addProperty(SegmentedLRUCache.PROPERTY_WEIGHT_LIMIT_PREFIX + cacheName, "10");
+        SegmentedLRUCache<String> cache = new SegmentedLRUCache<>();
+        cache.setName(cacheName);
+        cache.setWeigher(String::length);
+        Assertions.assertEquals(10, cache.getMaxWeight());
+
+        Assertions.assertFalse(cache.put("a", "1234"));
+        Assertions.assertFalse(cache.put("b", "1234"));
+        Assertions.assertEquals(8, cache.getWeight());
+        Assertions.assertTrue(cache.put("c", "1234"), "Should evict when weight limit is reached");
+        Assertions.assertEquals(8, cache.getWeight());
+        Assertions.assertNull(cache.get("a"));
+        // replacing value should update weight
+        cache.put("b", "12");
+        Assertions.assertEquals(6, cache.getWeight());
+        cache.remove("c");
+        Assertions.assertEquals(2, cache.getWeight());
+        Assertions.assertEquals(2, cache.getStats().getEstimatedBytes(), "Weigher should be used as size estimator");
+    }
+
+    @Test
+    public void testItemsExpireIndividually() throws Exception {
+        SegmentedLRUCache<String> cache = new SegmentedLRUCache<>();
+        cache.setName("SegmentedLRUExpiration");
+        cache.setExpiration(200);
+        cache.put("first", "value");
+        Thread.sleep(120);
+        cache.put("second", "value");
+        Thread.sleep(120);
+        Assertions.assertNull(cache.get("first"), "First item should have expired");
+        Assertions.assertEquals("value", cache.get("second"), "Second item should not have expired");
+    }
+
+    @Test
+    public void testClusterMsgRemove() {
+        SegmentedLRUCache<String> cache = new SegmentedLRUCache<>();
+        cache.setName("SegmentedLRUCluster");
+        cache.put("key", "value");
+        cache.put("other", "value");
+        cache.handleClusterMsg(Cache.CLUSTER_CMD_REMOVE_PREFIX + "key");
+        Assertions.assertNull(cache.get("key"));
+        Assertions.assertEquals(1, cache.getSize());
+        cache.handleClusterMsg(Cache.CLUSTER_CMD_FLUSH);
+        Assertions.assertEquals(0, cache.getSize());
+    }
+}
@@ -47,4 +47,19 @@ public class ViewTest {
         Bundle bundle = view.getBundleByName(bundleName);
         Assertions.assertNull(bundle, "Bundle should be null after removal");
     }
+
+    @Test
+    public void testCopy() throws Exception {
+        View view = getView();
+        view.setId(5);
+        view.setUuid("test-uuid");
+        View copy = view.copy();
+        Assertions.assertEquals(5, copy.getId());
+        Assertions.assertEquals("test-uuid", copy.getUuid());
+        Assertions.assertEquals(20, copy.getBundles().size());
+        copy.getBundleByName("bundle_3").setState("{\"modified\":true}");
+        copy.removeBundle("bundle_4");
+        Assertions.assertNotEquals(copy.getBundleByName("bundle_3").getState(), view.getBundleByName("bundle_3").getState(), "Copy should not share bundles");
+        Assertions.assertEquals(20, view.getBundles().size(), "Original should keep its bundles");
+    }
 }
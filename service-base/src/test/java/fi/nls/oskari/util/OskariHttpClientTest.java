@@ -0,0 +1,125 @@
+package fi.nls.oskari.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OskariHttpClientTest {
+
+    private static final String BODY = "Hello from the service";
+    private static HttpServer server;
+    private static String baseUrl;
+
+    @BeforeAll
+    public static void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/gzip", exchange -> {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (OutputStream gz = new GZIPOutputStream(baos)) {
+                gz.write(BODY.getBytes(StandardCharsets.UTF_8));
+            }
+            String auth = exchange.getRequestHeaders().getFirst(IOHelper.HEADER_AUTHORIZATION);
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.getResponseHeaders().add("X-Auth", String.valueOf(auth));
+            exchange.sendResponseHeaders(200, baos.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(baos.toByteArray());
+            }
+        });
+        server.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException ignored) {}
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/stall", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(BODY.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(2000);
+            } catch (InterruptedException | IOException ignored) {}
+        });
+        server.createContext("/drip", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 20; i++) {
+                    out.write('a');
+                    out.flush();
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException | IOException ignored) {}
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @AfterAll
+    public static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testGzipIsDecoded() throws Exception {
+        HttpResponse<InputStream> response = OskariHttpClient.send(OskariHttpClient.newRequest(baseUrl + "/gzip", "user", "pass").build());
+        assertEquals(200, response.statusCode());
+        assertEquals("Basic " + IOHelper.encode64("user:pass"), response.headers().firstValue("X-Auth").orElse(null));
+        try (InputStream in = OskariHttpClient.getDecodedInputStream(response)) {
+            assertEquals(BODY, IOHelper.readString(in));
+        }
+
+        HttpResponse<byte[]> bytes = OskariHttpClient.sendAsync(OskariHttpClient.newRequest(baseUrl + "/gzip", null, null).build(), Duration.ofSeconds(5)).get();
+        assertEquals(BODY, new String(OskariHttpClient.readBytes(bytes), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testDeadline() {
+        CompletableFuture<HttpResponse<byte[]>> future = OskariHttpClient.sendAsync(OskariHttpClient.newRequest(baseUrl + "/slow", null, null).build(), Duration.ofMillis(200));
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof TimeoutException, "Should complete with TimeoutException");
+    }
+
+    @Test
+    public void testStalledBodyTimesOut() throws Exception {
+        HttpResponse<InputStream> response = OskariHttpClient.send(OskariHttpClient.newRequest(baseUrl + "/stall", null, null)
+                .timeout(Duration.ofMillis(300)).build());
+        long start = System.currentTimeMillis();
+        try (InputStream in = OskariHttpClient.getDecodedInputStream(response)) {
+            assertThrows(SocketTimeoutException.class, () -> IOHelper.readBytes(in));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500, "Should fail on the read timeout");
+    }
+
+    @Test
+    public void testBodyDeadline() throws Exception {
+        HttpResponse<InputStream> response = OskariHttpClient.send(OskariHttpClient.newRequest(baseUrl + "/drip", null, null)
+                .timeout(Duration.ofMillis(1000)).build());
+        long start = System.currentTimeMillis();
+        try (InputStream in = OskariHttpClient.getDecodedInputStream(response, Duration.ofMillis(500))) {
+            assertThrows(SocketTimeoutException.class, () -> IOHelper.readBytes(in));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1500, "Should fail on the deadline while data is still coming");
+    }
+}
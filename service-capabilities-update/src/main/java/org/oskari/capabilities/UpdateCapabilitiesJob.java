@@ -4,6 +4,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -17,6 +19,7 @@ import fi.nls.oskari.map.view.ViewService;
 import fi.nls.oskari.map.view.AppSetupServiceMybatisImpl;
 import fi.nls.oskari.map.view.util.ViewHelper;
 import fi.nls.oskari.service.ServiceException;
+import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.worker.ScheduledJob;
 
 /**
@@ -24,11 +27,18 @@ import fi.nls.oskari.worker.ScheduledJob;
  * <ul>
  * <li>Updates oskari_maplayer capabilities column</li>
  * </ul>
+ * Services are updated in parallel (capabilities.update.threads, default 4) with at most
+ * capabilities.update.maxPerHost (default 2) services from the same host at a time.
+ * Layers of services that haven't been updated after capabilities.update.timeout seconds
+ * (default 3600) are left for the next run.
  */
 @Oskari("UpdateCapabilitiesJob")
 public class UpdateCapabilitiesJob extends ScheduledJob {
 
     private static final Logger LOG = LogFactory.getLogger(UpdateCapabilitiesJob.class);
+    private static final int THREADS = PropertyUtil.getOptional("capabilities.update.threads", 4);
+    private static final int MAX_PER_HOST = PropertyUtil.getOptional("capabilities.update.maxPerHost", 2);
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(PropertyUtil.getOptional("capabilities.update.timeout", 3600));
 
     private final OskariLayerService layerService;
     private final ViewService viewService;
@@ -60,18 +70,23 @@ public class UpdateCapabilitiesJob extends ScheduledJob {
                 .filter(layer -> shouldUpdate(layer))
                 .collect(Collectors.toList());
 
-        List<CapabilitiesUpdateResult> result = CapabilitiesService.updateCapabilities(layersToUpdate, systemCRSs);
-        List<String> updatedLayers = result.stream()
+        List<CapabilitiesUpdateResult> result;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, THREADS));
+        try {
+            result = CapabilitiesService.updateCapabilities(layersToUpdate, systemCRSs, executor, MAX_PER_HOST, TIMEOUT_MS);
+        } finally {
+            executor.shutdownNow();
+        }
+        Set<String> updatedLayers = result.stream()
                 .filter(res -> res.getErrorMessage() == null)
                 .map(l -> l.getLayerId())
-                .collect(Collectors.toList());
+                .collect(Collectors.toSet());
 
-        for (OskariLayer layer : layersToUpdate) {
-            if (!updatedLayers.contains("" + layer.getId())) {
-                continue;
-            }
-            layerService.update(layer);
-        }
+        List<OskariLayer> layersToSave = layersToUpdate.stream()
+                .filter(layer -> updatedLayers.contains("" + layer.getId()))
+                .collect(Collectors.toList());
+        layerService.update(layersToSave);
+        LOG.info("Updated capabilities for", layersToSave.size(), "/", layersToUpdate.size(), "layers");
     }
 
     protected static boolean shouldUpdate(OskariLayer layer) {
@@ -10,7 +10,11 @@ import fi.nls.oskari.util.PropertyUtil;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public abstract class CapabilitiesParser extends OskariComponent {
 
@@ -23,6 +27,13 @@ public abstract class CapabilitiesParser extends OskariComponent {
         // we don't need to have a large cache since the layers from same domain _should_ be queried sequentially/in a row.
         XML_CACHE.setLimit(10);
     }
+    // ETag/Last-Modified and digest of the previous responses (without the document) for conditional requests
+    private static final Cache<RawCapabilitiesResponse> VALIDATOR_CACHE = CacheManager.getCache(CapabilitiesParser.class.getName() + ".validators");
+    static {
+        // a week, the capabilities update job runs daily by default
+        VALIDATOR_CACHE.setExpiration(7L * 24L * 60L * 60L * 1000L);
+        VALIDATOR_CACHE.setLimit(1000);
+    }
 
     /**
      * Returns all layer capabilities for all layers found on the service.
@@ -33,6 +44,25 @@ public abstract class CapabilitiesParser extends OskariComponent {
      */
     public abstract Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) throws IOException, ServiceException;
 
+    /**
+     * Returns layer capabilities for the given layers found on the service. Parsers can override this to skip
+     * parsing the layers that are not needed. The base method parses all layers and filters the result.
+     * @param src connection info to the service
+     * @param layerNames names of the layers we are interested in, null for all layers
+     * @return
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src, Set<String> layerNames) throws IOException, ServiceException {
+        Map<String, LayerCapabilities> layers = getLayersFromService(src);
+        if (layerNames == null) {
+            return layers;
+        }
+        return layers.entrySet().stream()
+                .filter(e -> layerNames.contains(e.getKey()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    }
+
     /**
      * For WMS and WMTS it's more efficient to parse the layers as a group from the same service.
      * For WFS it's more efficient to only parse layers that we are interested in/have saved on the database since
@@ -72,10 +102,34 @@ public abstract class CapabilitiesParser extends OskariComponent {
         if (layer == null || layer.isEmpty()) {
             throw new ServiceException("No layer specified");
         }
-        Map<String, LayerCapabilities> layers = getLayersFromService(src);
+        Map<String, LayerCapabilities> layers = getLayersFromService(src, Collections.singleton(layer));
         return layers.get(layer);
     }
 
+    /**
+     * Returns a digest of the current capabilities document of the service. Used to skip parsing
+     * when the document hasn't changed since the last update. The request is conditional
+     * (If-None-Match/If-Modified-Since) when we have seen the document before and
+     * a Not Modified response returns the previous digest without downloading the document.
+     * @param src connection info to the service
+     * @return digest of the document or null if not supported for the service
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public String getCapabilitiesDigest(ServiceConnectInfo src) throws IOException, ServiceException {
+        return null;
+    }
+
+    protected String fetchCapabilitiesDigest(String capabilitiesUrl, String user, String pass, String expectedContentType) throws IOException, ServiceException {
+        String cacheKey = capabilitiesUrl + "_" + user;
+        RawCapabilitiesResponse response = XML_CACHE.get(cacheKey);
+        if (response != null) {
+            return response.getDigest();
+        }
+        RawCapabilitiesResponse previous = VALIDATOR_CACHE.get(cacheKey);
+        return request(capabilitiesUrl, user, pass, expectedContentType, previous).getDigest();
+    }
+
     /**
      * Returns raw capabilities from the service as is.
      * @param capabilitiesUrl full url to the capabilties document
@@ -92,12 +146,34 @@ public abstract class CapabilitiesParser extends OskariComponent {
         if (response != null) {
             return response;
         }
+        return request(capabilitiesUrl, user, pass, expectedContentType, null);
+    }
+
+    /**
+     * Makes the request and caches the response.
+     * @param previous earlier response for the same url to make a conditional request, null for a normal request
+     * @return the response or previous if the service responded with Not Modified
+     */
+    private RawCapabilitiesResponse request(String capabilitiesUrl, String user, String pass, String expectedContentType,
+                                            RawCapabilitiesResponse previous) throws IOException, ServiceException {
+        String cacheKey = capabilitiesUrl + "_" + user;
+        Map<String, String> headers = new HashMap<>();
+        if (previous != null && previous.getETag() != null) {
+            headers.put("If-None-Match", previous.getETag());
+        }
+        if (previous != null && previous.getLastModified() != null) {
+            headers.put("If-Modified-Since", previous.getLastModified());
+        }
         HttpURLConnection conn = IOHelper.getConnection(capabilitiesUrl, user, pass);
         IOHelper.addIdentifierHeaders(conn);
-        conn = IOHelper.followRedirect(conn, user, pass, 5);
+        headers.forEach(conn::setRequestProperty);
+        conn = IOHelper.followRedirect(conn, user, pass, null, headers, 5);
         conn.setReadTimeout(TIMEOUT_MS);
 
         int sc = conn.getResponseCode();
+        if (sc == HttpURLConnection.HTTP_NOT_MODIFIED && !headers.isEmpty()) {
+            return previous;
+        }
         if (sc == HttpURLConnection.HTTP_FORBIDDEN || sc == HttpURLConnection.HTTP_UNAUTHORIZED) {
             throw new ServiceUnauthorizedException("Wrong credentials for service on " + capabilitiesUrl);
         }
@@ -110,11 +186,14 @@ public abstract class CapabilitiesParser extends OskariComponent {
         if (contentType != null && expectedContentType != null && contentType.toLowerCase().indexOf(expectedContentType) == -1) {
             throw new ServiceException("Unexpected Content-Type: " + contentType + " from: " + capabilitiesUrl);
         }
-        response = new RawCapabilitiesResponse(conn.getURL().toString());
+        RawCapabilitiesResponse response = new RawCapabilitiesResponse(conn.getURL().toString());
         response.setContentType(contentType);
+        response.setETag(conn.getHeaderField("ETag"));
+        response.setLastModified(conn.getHeaderField("Last-Modified"));
         String encoding = IOHelper.getCharset(conn);
         response.setResponse(IOHelper.readBytes(conn), encoding);
         XML_CACHE.put(cacheKey, response);
+        VALIDATOR_CACHE.put(cacheKey, response.withoutResponse());
         return response;
     }
 }
@@ -2,6 +2,8 @@ package org.oskari.capabilities;
 
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -13,7 +15,14 @@ import org.json.JSONObject;
 import org.oskari.capabilities.ogc.OGCCapabilitiesParser;
 
 import java.io.IOException;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static java.util.stream.Collectors.groupingBy;
@@ -24,6 +33,15 @@ public class CapabilitiesService {
     static {
         MAPPER.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     }
+    // deserialized capabilities per layer, see fromLayer()
+    private static final Cache<CachedCapabilities> CAPABILITIES_CACHE = CacheManager.getCache(CapabilitiesService.class.getName() + ".objects");
+    // layer -> digest of the capabilities document and system CRSs the layer capabilities were last parsed from
+    private static final Cache<String> PARSED_VERSIONS = CacheManager.getCache(CapabilitiesService.class.getName() + ".parsed");
+    static {
+        // a week, the capabilities update job runs daily by default
+        PARSED_VERSIONS.setExpiration(7L * 24L * 60L * 60L * 1000L);
+        PARSED_VERSIONS.setLimit(10000);
+    }
 
     /**
      * Returns all layer capabilities for all layers found on the service.
@@ -41,6 +59,23 @@ public class CapabilitiesService {
         return parser.getLayersFromService(connectInfo);
     }
 
+    /**
+     * Returns layer capabilities for the named layers found on the service.
+     * @param connectInfo
+     * @param layerNames layers we are interested in
+     * @return
+     * @throws IOException
+     * @throws ServiceException
+     */
+    public static Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo connectInfo, Set<String> layerNames) throws IOException, ServiceException {
+        String layerType = connectInfo.getType();
+        CapabilitiesParser parser = getParser(layerType);
+        if (parser == null) {
+            throw new ServiceException("Unrecognized type: " + layerType);
+        }
+        return parser.getLayersFromService(connectInfo, layerNames);
+    }
+
     /**
      * Returns a single layer capabilities from the service.
      * @param connectInfo
@@ -94,8 +129,72 @@ public class CapabilitiesService {
      */
     public static List<CapabilitiesUpdateResult> updateCapabilities(List<OskariLayer> layers, Set<String> systemCRSs) {
         List<CapabilitiesUpdateResult> results = new ArrayList<>(layers.size());
+        Map<ServiceConnectInfo, List<OskariLayer>> layersByUTV = groupByService(layers, results);
+        for (ServiceConnectInfo utv : layersByUTV.keySet()) {
+            results.addAll(updateCapabilities(utv, layersByUTV.get(utv), systemCRSs));
+        }
+        return results;
+    }
+
+    /**
+     * Updates capabilities for a collection of layers with services updated in parallel on the executor.
+     * Services on the same host are divided to at most maxPerHost queues that are processed one service at a time
+     * so a single server doesn't get more than maxPerHost concurrent requests from us.
+     * Layers of services that haven't been updated when timeoutMs has passed get an error result.
+     * @param layers
+     * @param systemCRSs
+     * @param executor used to run the updates
+     * @param maxPerHost max number of services updated concurrently from one host
+     * @param timeoutMs max time to wait for the whole update
+     * @return
+     */
+    public static List<CapabilitiesUpdateResult> updateCapabilities(List<OskariLayer> layers, Set<String> systemCRSs,
+            ExecutorService executor, int maxPerHost, long timeoutMs) {
+        Queue<CapabilitiesUpdateResult> results = new ConcurrentLinkedQueue<>();
+        List<CapabilitiesUpdateResult> unsupported = new ArrayList<>();
+        Map<ServiceConnectInfo, List<OskariLayer>> layersByUTV = groupByService(layers, unsupported);
+        results.addAll(unsupported);
 
-        Map<ServiceConnectInfo, List<OskariLayer>> layersByUTV = layers.stream()
+        List<List<ServiceConnectInfo>> queues = getQueuesPerHost(layersByUTV.keySet(), maxPerHost);
+        List<Future<?>> futures = new ArrayList<>(queues.size());
+        for (List<ServiceConnectInfo> queue : queues) {
+            futures.add(executor.submit(() -> {
+                for (ServiceConnectInfo utv : queue) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    results.addAll(updateCapabilities(utv, layersByUTV.get(utv), systemCRSs));
+                }
+            }));
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                LOG.warn(e.getCause(), "Unexpected error updating capabilities");
+            }
+        }
+
+        List<CapabilitiesUpdateResult> list = new ArrayList<>(results);
+        Set<String> handled = list.stream()
+                .map(CapabilitiesUpdateResult::getLayerId)
+                .collect(Collectors.toSet());
+        layersByUTV.forEach((utv, layersFromOneService) -> layersFromOneService.stream()
+                .filter(layer -> !handled.contains(Integer.toString(layer.getId())))
+                .forEach(layer -> list.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_TIMEOUT + "/" + utv.getUrl()))));
+        return list;
+    }
+
+    private static Map<ServiceConnectInfo, List<OskariLayer>> groupByService(List<OskariLayer> layers, List<CapabilitiesUpdateResult> results) {
+        return layers.stream()
                 .filter(layer -> {
                     boolean hasParser = getParser(layer.getType()) != null;
                     if (!hasParser) {
@@ -104,48 +203,153 @@ public class CapabilitiesService {
                     return hasParser;
                 })
                 .collect(groupingBy(layer -> ServiceConnectInfo.fromLayer(layer)));
+    }
 
-        for (ServiceConnectInfo utv : layersByUTV.keySet()) {
-            List<OskariLayer> layersFromOneService = layersByUTV.get(utv);
-            Map<String, LayerCapabilities> serviceCaps;
-            try {
-                if (getParser(utv.getType()).isPreferSingleLayer()) {
-                    // WFS-layers are faster to update per layer since they make additional requests per featuretype
-                    serviceCaps = new HashMap<>(layersFromOneService.size());
-                    for (OskariLayer layer : layersFromOneService) {
-                        String name = layer.getName();
-                        serviceCaps.put(name, getLayerFromService(utv, name));
-                    }
+    /**
+     * Splits services to queues so that services on the same host are spread to at most maxPerHost queues
+     */
+    protected static List<List<ServiceConnectInfo>> getQueuesPerHost(Collection<ServiceConnectInfo> services, int maxPerHost) {
+        Map<String, List<ServiceConnectInfo>> byHost = services.stream()
+                .collect(groupingBy(utv -> getHost(utv.getUrl())));
+        List<List<ServiceConnectInfo>> queues = new ArrayList<>();
+        for (List<ServiceConnectInfo> servicesOnHost : byHost.values()) {
+            int count = Math.max(1, Math.min(maxPerHost, servicesOnHost.size()));
+            List<List<ServiceConnectInfo>> hostQueues = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                hostQueues.add(new ArrayList<>());
+            }
+            for (int i = 0; i < servicesOnHost.size(); i++) {
+                hostQueues.get(i % count).add(servicesOnHost.get(i));
+            }
+            queues.addAll(hostQueues);
+        }
+        return queues;
+    }
+
+    private static String getHost(String url) {
+        try {
+            String host = new URI(url).getHost();
+            return host != null ? host.toLowerCase() : url;
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
+    /**
+     * Updates the layers of one service. Layers that were updated from the same version of the capabilities
+     * document (and for the same system CRSs) earlier are only marked as updated without parsing.
+     */
+    private static List<CapabilitiesUpdateResult> updateCapabilities(ServiceConnectInfo utv, List<OskariLayer> layersFromOneService, Set<String> systemCRSs) {
+        List<CapabilitiesUpdateResult> results = new ArrayList<>(layersFromOneService.size());
+        CapabilitiesParser parser = getParser(utv.getType());
+        String version;
+        List<OskariLayer> layersToParse = new ArrayList<>(layersFromOneService.size());
+        Map<String, LayerCapabilities> serviceCaps;
+        try {
+            String digest = parser.getCapabilitiesDigest(utv);
+            version = digest == null ? null : digest + "/" + new TreeSet<>(systemCRSs);
+            for (OskariLayer layer : layersFromOneService) {
+                if (version != null && layer.getCapabilities() != null && layer.getCapabilities().length() > 0
+                        && version.equals(PARSED_VERSIONS.get(getParsedVersionKey(layer)))) {
+                    LOG.debug("Capabilities unchanged for layer:", layer.getId(), "- skipping parsing");
+                    layer.setCapabilitiesLastUpdated(new Date());
+                    results.add(CapabilitiesUpdateResult.ok(layer));
                 } else {
-                    serviceCaps = getLayersFromService(utv);
+                    layersToParse.add(layer);
                 }
-            } catch (IOException | ServiceException e) {
-                layersFromOneService.stream().forEach(layer -> {
-                    if (e instanceof IOException) {
-                        results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_FETCH_CAPABILITIES + "/" + utv.getUrl()));
-                    } else {
-                        results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_PARSE_CAPABILITIES + "/" + e.getMessage()));
-                    }
-                });
-                continue;
             }
-
-            layersFromOneService.stream().forEach(layer -> {
-                LayerCapabilities capsForSingleLayer = serviceCaps.get(layer.getName());
-                if (capsForSingleLayer == null) {
-                    LOG.warn("Error finding layer with name:", layer.getName(), "from Capabilities for service, url:", utv.getUrl(),
-                            "type:", utv.getType(), "version:", utv.getVersion());
-                    results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_LAYER_NOT_FOUND_IN_CAPABILITIES+ "/" + layer.getName() + " from " + utv.getUrl()));
-                    return;
+            if (layersToParse.isEmpty()) {
+                return results;
+            }
+            if (parser.isPreferSingleLayer()) {
+                // WFS-layers are faster to update per layer since they make additional requests per featuretype
+                serviceCaps = new HashMap<>(layersToParse.size());
+                for (OskariLayer layer : layersToParse) {
+                    String name = layer.getName();
+                    serviceCaps.put(name, getLayerFromService(utv, name));
+                }
+            } else {
+                // only parse the layers we are updating
+                Set<String> names = layersToParse.stream()
+                        .map(OskariLayer::getName)
+                        .collect(Collectors.toSet());
+                serviceCaps = getLayersFromService(utv, names);
+            }
+        } catch (IOException | ServiceException e) {
+            // layersToParse is empty if we failed before comparing versions
+            List<OskariLayer> failed = layersToParse.isEmpty() ? layersFromOneService : layersToParse;
+            failed.stream().forEach(layer -> {
+                if (e instanceof IOException) {
+                    results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_FETCH_CAPABILITIES + "/" + utv.getUrl()));
+                } else {
+                    results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_FAILED_TO_PARSE_CAPABILITIES + "/" + e.getMessage()));
                 }
-                layer.setCapabilities(toJSON(capsForSingleLayer, systemCRSs));
-                layer.setCapabilitiesLastUpdated(new Date());
-                results.add(CapabilitiesUpdateResult.ok(layer));
             });
+            return results;
         }
+
+        layersToParse.stream().forEach(layer -> {
+            LayerCapabilities capsForSingleLayer = serviceCaps.get(layer.getName());
+            if (capsForSingleLayer == null) {
+                LOG.warn("Error finding layer with name:", layer.getName(), "from Capabilities for service, url:", utv.getUrl(),
+                        "type:", utv.getType(), "version:", utv.getVersion());
+                results.add(CapabilitiesUpdateResult.err(layer, CapabilitiesUpdateResult.ERR_LAYER_NOT_FOUND_IN_CAPABILITIES+ "/" + layer.getName() + " from " + utv.getUrl()));
+                return;
+            }
+            layer.setCapabilities(toJSON(capsForSingleLayer, systemCRSs));
+            layer.setCapabilitiesLastUpdated(new Date());
+            if (version != null) {
+                PARSED_VERSIONS.put(getParsedVersionKey(layer), version);
+            }
+            results.add(CapabilitiesUpdateResult.ok(layer));
+        });
         return results;
     }
 
+    /**
+     * Returns the capabilities of the layer as an object. The object is cached by layer id and type and reused
+     * until the capabilities of the layer are updated so hot request paths don't need to deserialize the JSON
+     * on every request. Layers that haven't been saved are not cached. The returned object is shared between requests and must not be modified.
+     * @param layer layer with capabilities
+     * @param type layer type to deserialize as
+     * @return
+     */
+    public static <T extends LayerCapabilities> T fromLayer(OskariLayer layer, String type) {
+        JSONObject json = layer.getCapabilities();
+        if (json == null) {
+            return null;
+        }
+        Date lastUpdated = layer.getCapabilitiesLastUpdated();
+        if (lastUpdated == null || layer.getId() <= 0) {
+            // no way to tell if the capabilities have changed or the layer hasn't been saved
+            // and doesn't have an id that would be unique
+            return fromJSON(json.toString(), type);
+        }
+        String key = layer.getId() + "_" + type;
+        String version = lastUpdated.getTime() + "_" + (layer.getUpdated() == null ? 0 : layer.getUpdated().getTime());
+        CachedCapabilities cached = CAPABILITIES_CACHE.get(key);
+        if (cached != null && cached.version.equals(version)) {
+            return (T) cached.capabilities;
+        }
+        T caps = fromJSON(json.toString(), type);
+        CAPABILITIES_CACHE.put(key, new CachedCapabilities(version, caps));
+        return caps;
+    }
+
+    private static class CachedCapabilities {
+        private final String version;
+        private final LayerCapabilities capabilities;
+
+        private CachedCapabilities(String version, LayerCapabilities capabilities) {
+            this.version = version;
+            this.capabilities = capabilities;
+        }
+    }
+
+    private static String getParsedVersionKey(OskariLayer layer) {
+        return layer.getId() + "_" + layer.getName();
+    }
+
     /**
      * Serializes LayerCapabilities to JSON that can be saved in oskari_maplayer.capabilities.
      * @param caps
@@ -8,6 +8,7 @@ public class CapabilitiesUpdateResult {
     protected static final String ERR_FAILED_TO_FETCH_CAPABILITIES = "Failed to get Capabilities data";
     protected static final String ERR_LAYER_NOT_FOUND_IN_CAPABILITIES = "Could not find layer from Capabilities";
     protected static final String ERR_FAILED_TO_PARSE_CAPABILITIES = "Failed to parse Capabilities";
+    protected static final String ERR_TIMEOUT = "Timed out updating Capabilities";
 
     private final String layerId;
     private final String errorMessage;
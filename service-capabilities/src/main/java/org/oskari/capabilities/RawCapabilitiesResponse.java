@@ -1,6 +1,9 @@
 package org.oskari.capabilities;
 
 import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
 public class RawCapabilitiesResponse implements Serializable {
 
@@ -8,6 +11,9 @@ public class RawCapabilitiesResponse implements Serializable {
     private byte[] response;
     private String encoding;
     private String contentType;
+    private String etag;
+    private String lastModified;
+    private String digest;
 
     public RawCapabilitiesResponse(String url) {
         this.url = url;
@@ -37,6 +43,59 @@ public class RawCapabilitiesResponse implements Serializable {
     public void setResponse(byte[] resp, String encoding) {
         this.response = resp;
         this.encoding = encoding;
+        this.digest = null;
+    }
+
+    /**
+     * ETag header of the response if the service sent one
+     */
+    public String getETag() {
+        return etag;
+    }
+
+    public void setETag(String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * Last-Modified header of the response if the service sent one
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * SHA-256 of the response bytes as hex. Can be used to detect if the document has changed
+     * since the last time it was parsed.
+     */
+    public String getDigest() {
+        if (digest == null && response != null) {
+            try {
+                digest = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(response));
+            } catch (NoSuchAlgorithmException e) {
+                // every JVM is required to support SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Returns a copy without the response bytes. Used to remember the validators of a response
+     * for conditional requests without keeping the document in memory.
+     */
+    public RawCapabilitiesResponse withoutResponse() {
+        RawCapabilitiesResponse copy = new RawCapabilitiesResponse(url);
+        copy.contentType = contentType;
+        copy.encoding = encoding;
+        copy.etag = etag;
+        copy.lastModified = lastModified;
+        copy.digest = getDigest();
+        return copy;
     }
 
     @Override
@@ -45,6 +104,7 @@ public class RawCapabilitiesResponse implements Serializable {
         sb.append('{');
         sb.append(",url=").append(url);
         sb.append(",bytes=").append(response != null ? response.length : -1);
+        sb.append(",etag=").append(etag);
         sb.append('}');
         return sb.toString();
     }
@@ -10,6 +10,7 @@ import org.oskari.capabilities.ServiceConnectInfo;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public abstract class OGCCapabilitiesParser extends CapabilitiesParser {
 
@@ -38,11 +39,23 @@ public abstract class OGCCapabilitiesParser extends CapabilitiesParser {
     }
 
     public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src) throws IOException, ServiceException {
+        return readLayersFromService(src, null);
+    }
+
+    public String getCapabilitiesDigest(ServiceConnectInfo src) throws IOException, ServiceException {
+        String capabilitiesUrl = contructCapabilitiesUrl(src.getUrl(), src.getVersion());
+        return fetchCapabilitiesDigest(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()));
+    }
 
+    /**
+     * Fetches the capabilities and parses the layers with parseLayers(capabilities, version, src, layerNames).
+     * Parsers that can skip unneeded layers override getLayersFromService(src, layerNames) to call this.
+     */
+    protected Map<String, LayerCapabilities> readLayersFromService(ServiceConnectInfo src, Set<String> layerNames) throws IOException, ServiceException {
         String capabilitiesUrl = contructCapabilitiesUrl(src.getUrl(), src.getVersion());
         RawCapabilitiesResponse response = fetchCapabilities(capabilitiesUrl, src.getUser(), src.getPass(), getExpectedContentType(src.getVersion()));
         String validResponse = validateResponse(response, src.getVersion());
-        Map<String, LayerCapabilities> layers = parseLayers(validResponse, src.getVersion(), src);
+        Map<String, LayerCapabilities> layers = parseLayers(validResponse, src.getVersion(), src, layerNames);
         layers.values().stream().forEach(l -> {
             l.setUrl(response.getUrl());
             // parser name == layer type
@@ -63,6 +76,11 @@ public abstract class OGCCapabilitiesParser extends CapabilitiesParser {
         return parseLayers(capabilities, version);
     }
 
+    // allow parsing only the layers we are interested in, layerNames is null when all layers are requested
+    protected Map<String, LayerCapabilities> parseLayers(String capabilities, String version, ServiceConnectInfo src, Set<String> layerNames) throws ServiceException {
+        return parseLayers(capabilities, version, src);
+    }
+
     public String contructCapabilitiesUrl(String url, String version) {
         String urlLC = url.toLowerCase();
 
@@ -66,6 +66,12 @@ public class WFSCapabilitiesParser extends OGCCapabilitiesParser {
         return super.getLayersFromService(src);
     }
 
+    public String getCapabilitiesDigest(ServiceConnectInfo src) throws IOException, ServiceException {
+        // Layers are enhanced with DescribeFeatureType (or OGC API collection) responses that can change
+        // without the capabilities document changing so the capabilities digest isn't enough, always parse
+        return null;
+    }
+
     /*
      Optimization for older WFS versions that require multiple requests/layer.
      Services that have several featureTypes in them are very slow to parse with each featureType requiring additional HTTP requests.
@@ -4,11 +4,14 @@ import fi.nls.oskari.annotation.Oskari;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.service.ServiceException;
 import org.oskari.capabilities.LayerCapabilities;
+import org.oskari.capabilities.ServiceConnectInfo;
 import org.oskari.capabilities.ogc.wmts.WMTSCapabilities;
 import org.oskari.capabilities.ogc.wmts.WMTSCapabilitiesParserHelper;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Oskari(OskariLayer.TYPE_WMTS)
@@ -22,9 +25,26 @@ public class WMTSCapabilitiesParser extends OGCCapabilitiesParser {
     }
     protected String getDefaultVersion() { return "1.0.0"; }
 
+    /**
+     * WMTS capabilities can be tens of megabytes so skip the layers that we are not interested in
+     */
+    @Override
+    public Map<String, LayerCapabilities> getLayersFromService(ServiceConnectInfo src, Set<String> layerNames) throws IOException, ServiceException {
+        return readLayersFromService(src, layerNames);
+    }
+
+    @Override
+    protected Map<String, LayerCapabilities> parseLayers(String capabilities, String version, ServiceConnectInfo src, Set<String> layerNames) throws ServiceException {
+        return parseLayersByName(capabilities, layerNames);
+    }
+
     protected Map<String, LayerCapabilities> parseLayers(String capabilities) throws ServiceException {
+        return parseLayersByName(capabilities, null);
+    }
+
+    protected Map<String, LayerCapabilities> parseLayersByName(String capabilities, Set<String> layerNames) throws ServiceException {
         try {
-            WMTSCapabilities caps = WMTSCapabilitiesParserHelper.parseCapabilities(capabilities);
+            WMTSCapabilities caps = WMTSCapabilitiesParserHelper.parseCapabilities(capabilities, layerNames);
             Map<String, LayerCapabilities> layers = new HashMap<>();
             caps.getLayers().stream().map(layer -> {
                 LayerCapabilitiesWMTS l = new LayerCapabilitiesWMTS(layer.getId(), layer.getTitle());
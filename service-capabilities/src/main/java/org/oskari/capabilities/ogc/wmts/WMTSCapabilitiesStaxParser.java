@@ -0,0 +1,389 @@
+package org.oskari.capabilities.ogc.wmts;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.ConversionHelper;
+import org.oskari.capabilities.ogc.LayerStyle;
+import org.oskari.xml.XmlHelper;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Pull parser for WMTS GetCapabilities documents. Reads the document without building a DOM tree in memory.
+ * When a set of layer identifiers is given the subtrees of other layers are skipped after their
+ * Identifier has been read which makes updating a few layers from a large service much cheaper.
+ * All TileMatrixSets are parsed since layers usually refer to ones that are listed after them.
+ */
+class WMTSCapabilitiesStaxParser {
+
+    private static final Logger LOG = LogFactory.getLogger(WMTSCapabilitiesStaxParser.class);
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+    static {
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        // we match elements by local name, don't fail on missing namespace declarations
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, true);
+    }
+
+    private final Set<String> layerIds;
+    private final Map<String, TileMatrixSet> tileMatrixSets = new HashMap<>();
+    private final List<RawLayer> layers = new ArrayList<>();
+
+    private WMTSCapabilitiesStaxParser(Set<String> layerIds) {
+        this.layerIds = layerIds;
+    }
+
+    /**
+     * @param xml capabilities document
+     * @param layerIds identifiers of layers to parse, null to parse all layers
+     */
+    static WMTSCapabilities parse(String xml, Set<String> layerIds)
+            throws IllegalArgumentException, XMLStreamException {
+        if (xml == null) {
+            throw new XMLStreamException("Failed to parse XML");
+        }
+        XMLStreamReader r = FACTORY.createXMLStreamReader(new StringReader(XmlHelper.removeDocType(xml.trim())));
+        try {
+            return new WMTSCapabilitiesStaxParser(layerIds).parse(r);
+        } finally {
+            r.close();
+        }
+    }
+
+    private WMTSCapabilities parse(XMLStreamReader r) throws XMLStreamException {
+        r.nextTag();
+        boolean contentsFound = false;
+        while (nextChild(r)) {
+            if (!"Contents".equals(localName(r))) {
+                skip(r);
+                continue;
+            }
+            contentsFound = true;
+            parseContents(r);
+            // nothing we need after Contents
+            break;
+        }
+        if (!contentsFound) {
+            throw new IllegalArgumentException("Couldn't find Contents from capabilities");
+        }
+        Map<String, WMTSCapabilitiesLayer> result = new HashMap<>();
+        for (RawLayer layer : layers) {
+            WMTSCapabilitiesLayer l = layer.resolve(tileMatrixSets);
+            result.put(l.getId(), l);
+        }
+        return new WMTSCapabilities(tileMatrixSets, result);
+    }
+
+    private void parseContents(XMLStreamReader r) throws XMLStreamException {
+        while (nextChild(r)) {
+            switch (localName(r)) {
+                case "TileMatrixSet":
+                    TileMatrixSet tms = parseTileMatrixSet(r);
+                    tileMatrixSets.put(tms.getId(), tms);
+                    break;
+                case "Layer":
+                    RawLayer layer = parseLayer(r);
+                    if (layer != null) {
+                        layers.add(layer);
+                    }
+                    break;
+                default:
+                    skip(r);
+            }
+        }
+    }
+
+    private static TileMatrixSet parseTileMatrixSet(XMLStreamReader r) throws XMLStreamException {
+        String identifier = null;
+        String crs = null;
+        // Keep a Set of TileMatrix id's we've encountered so far - don't allow duplicates
+        Set<String> ids = new HashSet<>();
+        List<TileMatrix> tileMatrises = new ArrayList<>();
+        while (nextChild(r)) {
+            switch (localName(r)) {
+                case "Identifier":
+                    identifier = firstValue(identifier, r);
+                    break;
+                case "SupportedCRS":
+                    crs = firstValue(crs, r);
+                    break;
+                case "TileMatrix":
+                    TileMatrix tm = parseTileMatrix(r);
+                    if (!ids.add(tm.getId())) {
+                        LOG.error("TileMatrix with id:", tm.getId(), "is specified multiple times!");
+                        break;
+                    }
+                    tileMatrises.add(tm);
+                    break;
+                default:
+                    skip(r);
+            }
+        }
+        return new TileMatrixSet(identifier, crs, tileMatrises);
+    }
+
+    private static TileMatrix parseTileMatrix(XMLStreamReader r) throws XMLStreamException {
+        Map<String, String> values = readChildValues(r);
+        return new TileMatrix(values.get("Identifier"),
+                Double.parseDouble(values.get("ScaleDenominator")),
+                WMTSCapabilitiesParserHelper.parseTopLeftCorner(values.get("TopLeftCorner")),
+                Integer.parseInt(values.get("TileWidth")),
+                Integer.parseInt(values.get("TileHeight")),
+                Integer.parseInt(values.get("MatrixWidth")),
+                Integer.parseInt(values.get("MatrixHeight")));
+    }
+
+    /**
+     * @return null if the layer was skipped
+     */
+    private RawLayer parseLayer(XMLStreamReader r) throws XMLStreamException {
+        RawLayer layer = new RawLayer();
+        while (nextChild(r)) {
+            switch (localName(r)) {
+                case "Identifier":
+                    layer.identifier = firstValue(layer.identifier, r);
+                    if (layerIds != null && !layerIds.contains(layer.identifier)) {
+                        skip(r);
+                        return null;
+                    }
+                    break;
+                case "Title":
+                    layer.title = firstValue(layer.title, r);
+                    break;
+                case "Style":
+                    layer.styles.add(parseStyle(r));
+                    break;
+                case "Format":
+                    layer.formats.add(readText(r));
+                    break;
+                case "InfoFormat":
+                    layer.infoFormats.add(readText(r));
+                    break;
+                case "ResourceURL":
+                    layer.resourceUrls.add(new ResourceUrl(attribute(r, "format"),
+                            attribute(r, "resourceType"), attribute(r, "template")));
+                    skip(r);
+                    break;
+                case "TileMatrixSetLink":
+                    layer.links.add(parseLink(r));
+                    break;
+                default:
+                    skip(r);
+            }
+        }
+        if (layerIds != null && (layer.identifier == null || !layerIds.contains(layer.identifier))) {
+            // no Identifier on layer
+            return null;
+        }
+        return layer;
+    }
+
+    private static LayerStyle parseStyle(XMLStreamReader r) throws XMLStreamException {
+        String isDefault = attribute(r, "isDefault");
+        String identifier = readChildValues(r).get("Identifier");
+        LayerStyle style = new LayerStyle();
+        style.setTitle(identifier);
+        style.setName(identifier);
+        style.setDefault(ConversionHelper.getBoolean(isDefault, false));
+        return style;
+    }
+
+    private static RawLink parseLink(XMLStreamReader r) throws XMLStreamException {
+        RawLink link = new RawLink();
+        while (nextChild(r)) {
+            switch (localName(r)) {
+                case "TileMatrixSet":
+                    link.tileMatrixSet = firstValue(link.tileMatrixSet, r);
+                    break;
+                case "TileMatrixSetLimits":
+                    if (link.limits != null) {
+                        skip(r);
+                        break;
+                    }
+                    link.limits = new ArrayList<>();
+                    while (nextChild(r)) {
+                        if ("TileMatrixLimits".equals(localName(r))) {
+                            link.limits.add(readChildValues(r));
+                        } else {
+                            skip(r);
+                        }
+                    }
+                    break;
+                default:
+                    skip(r);
+            }
+        }
+        return link;
+    }
+
+    private static class RawLayer {
+        private String identifier;
+        private String title;
+        private final List<LayerStyle> styles = new ArrayList<>();
+        private final Set<String> formats = new HashSet<>();
+        private final Set<String> infoFormats = new HashSet<>();
+        private final List<ResourceUrl> resourceUrls = new ArrayList<>();
+        private final List<RawLink> links = new ArrayList<>();
+
+        private WMTSCapabilitiesLayer resolve(Map<String, TileMatrixSet> tileMatrixSets) {
+            String defaultStyle = styles.stream()
+                    .filter(LayerStyle::isDefault)
+                    .map(LayerStyle::getName)
+                    .findFirst()
+                    .orElse(null);
+            List<TileMatrixLink> tileMatrixLinks = new ArrayList<>(links.size());
+            for (RawLink link : links) {
+                TileMatrixSet tms = tileMatrixSets.get(link.tileMatrixSet);
+                if (tms == null) {
+                    LOG.warn("Referred TileMatrixSet", link.tileMatrixSet, "does not appear in this GetCapabilities response");
+                    continue;
+                }
+                tileMatrixLinks.add(new TileMatrixLink(tms, link.resolveLimits(tms)));
+            }
+            return new WMTSCapabilitiesLayer(identifier, title, styles, defaultStyle,
+                    formats, infoFormats, resourceUrls, tileMatrixLinks);
+        }
+    }
+
+    private static class RawLink {
+        private String tileMatrixSet;
+        // <TileMatrixSetLimits> might not exist
+        private List<Map<String, String>> limits;
+
+        private List<TileMatrixLimits> resolveLimits(TileMatrixSet tms) {
+            if (limits == null) {
+                return null;
+            }
+            List<TileMatrixLimits> result = new ArrayList<>(limits.size());
+            for (Map<String, String> values : limits) {
+                String ref = values.get("TileMatrix");
+                TileMatrix tm = WMTSCapabilitiesParserHelper.findTileMatrix(tms, ref);
+                if (tm == null) {
+                    LOG.warn("Referred TileMatrix", ref, "does not appear in specified TileMatrixSet", tms.getId());
+                    continue;
+                }
+                result.add(new TileMatrixLimits(tm,
+                        Integer.parseInt(values.get("MinTileRow")),
+                        Integer.parseInt(values.get("MaxTileRow")),
+                        Integer.parseInt(values.get("MinTileCol")),
+                        Integer.parseInt(values.get("MaxTileCol"))));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Moves to the next child element of the current element.
+     * Expects the reader to be on the START_ELEMENT of the parent or on the END_ELEMENT of the previous child.
+     * @return false when the END_ELEMENT of the parent is reached
+     */
+    private static boolean nextChild(XMLStreamReader r) throws XMLStreamException {
+        while (r.hasNext()) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                return true;
+            }
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips the rest of the current element. Works both on the START_ELEMENT of the element
+     * and after having read some of its children. Leaves the reader on the END_ELEMENT of the element.
+     */
+    private static void skip(XMLStreamReader r) throws XMLStreamException {
+        int depth = 0;
+        while (r.hasNext()) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    return;
+                }
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Reads the text content of the current element like Element.getTextContent(),
+     * leaves the reader on its END_ELEMENT
+     */
+    private static String readText(XMLStreamReader r) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder();
+        int depth = 0;
+        while (r.hasNext()) {
+            int event = r.next();
+            switch (event) {
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    sb.append(r.getText());
+                    break;
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (depth == 0) {
+                        return sb.toString();
+                    }
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Keeps the first value like XmlHelper.getChildValue() does. Always consumes the current element.
+     */
+    private static String firstValue(String current, XMLStreamReader r) throws XMLStreamException {
+        String value = readText(r);
+        return current != null ? current : value;
+    }
+
+    /**
+     * Reads the text contents of the child elements of the current element keyed by local name.
+     * The first one wins if a child is repeated.
+     */
+    private static Map<String, String> readChildValues(XMLStreamReader r) throws XMLStreamException {
+        Map<String, String> values = new HashMap<>();
+        while (nextChild(r)) {
+            String name = localName(r);
+            String value = readText(r);
+            values.putIfAbsent(name, value);
+        }
+        return values;
+    }
+
+    private static String attribute(XMLStreamReader r, String localName) {
+        for (int i = 0; i < r.getAttributeCount(); i++) {
+            if (localName.equals(stripPrefix(r.getAttributeLocalName(i)))) {
+                return r.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+
+    private static String localName(XMLStreamReader r) {
+        return stripPrefix(r.getLocalName());
+    }
+
+    // without namespace awareness the name might include the prefix
+    private static String stripPrefix(String name) {
+        int i = name.indexOf(':');
+        return i < 0 ? name : name.substring(i + 1);
+    }
+}
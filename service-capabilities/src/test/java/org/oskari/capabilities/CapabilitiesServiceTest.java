@@ -1,6 +1,7 @@
 package org.oskari.capabilities;
 
 import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.util.JSONHelper;
 import fi.nls.test.util.ResourceHelper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -9,7 +10,10 @@ import org.oskari.capabilities.ogc.LayerCapabilitiesWMTS;
 import org.oskari.capabilities.ogc.wfs.FeaturePropertyType;
 import org.oskari.capabilities.ogc.wmts.ResourceUrl;
 
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CapabilitiesServiceTest {
@@ -33,6 +37,22 @@ public class CapabilitiesServiceTest {
 
         Assertions.assertEquals("EPSG:3067", CapabilitiesService.shortSyntaxEpsg("http://www.opengis.net/def/crs/EPSG/0/3067"), "Should parse from url");
     }
+    @Test
+    public void testQueuesPerHost() {
+        List<ServiceConnectInfo> services = Arrays.asList(
+                new ServiceConnectInfo("https://a.example.com/wms", "wmslayer", "1.3.0"),
+                new ServiceConnectInfo("https://A.example.com/other/wms", "wmslayer", "1.3.0"),
+                new ServiceConnectInfo("https://a.example.com/wmts", "wmtslayer", "1.0.0"),
+                new ServiceConnectInfo("https://b.example.com/wms", "wmslayer", "1.3.0"));
+
+        List<List<ServiceConnectInfo>> queues = CapabilitiesService.getQueuesPerHost(services, 2);
+        Assertions.assertEquals(3, queues.size(), "Host a should get 2 queues and host b one");
+        Assertions.assertEquals(4, queues.stream().mapToInt(List::size).sum(), "All services should be queued");
+
+        Assertions.assertEquals(1, CapabilitiesService.getQueuesPerHost(services.subList(0, 3), 1).size(),
+                "Services on one host should be queued sequentially");
+    }
+
     @Test
     public void testDeserializationWFS_2_0_0()  {
         String json = ResourceHelper.readStringResource("Capabilities_WFS_2_0_0.json", this);
@@ -68,6 +88,33 @@ public class CapabilitiesServiceTest {
         Assertions.assertNotNull(url, "Should have tile url");
         Assertions.assertEquals("https://karttamoottori.maanmittauslaitos.fi/maasto/wmts/1.0.0/taustakartta/default/{TileMatrixSet}/{TileMatrix}/{TileRow}/{TileCol}.png", url.getTemplate());
     }
+    @Test
+    public void testFromLayerIsCachedUntilUpdated()  {
+        OskariLayer layer = new OskariLayer();
+        layer.setId(123);
+        layer.setType(OskariLayer.TYPE_WMTS);
+        layer.setCapabilities(JSONHelper.createJSONObject(ResourceHelper.readStringResource("Capabilities_WMTS.json", this)));
+        layer.setCapabilitiesLastUpdated(new Date(1000));
+
+        LayerCapabilitiesWMTS caps = CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS);
+        Assertions.assertEquals(15, caps.getTileMatrixLinks().size());
+        Assertions.assertSame(caps, CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS), "Should reuse parsed capabilities");
+
+        layer.setCapabilitiesLastUpdated(new Date(2000));
+        Assertions.assertNotSame(caps, CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS), "Should parse updated capabilities");
+    }
+
+    @Test
+    public void testFromLayerIsNotCachedForUnsavedLayer()  {
+        OskariLayer layer = new OskariLayer();
+        layer.setType(OskariLayer.TYPE_WMTS);
+        layer.setCapabilities(JSONHelper.createJSONObject(ResourceHelper.readStringResource("Capabilities_WMTS.json", this)));
+        layer.setCapabilitiesLastUpdated(new Date(1000));
+
+        LayerCapabilitiesWMTS caps = CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS);
+        Assertions.assertNotSame(caps, CapabilitiesService.fromLayer(layer, OskariLayer.TYPE_WMTS), "Unsaved layers don't have an unique id");
+    }
+
     @Test
     public void testDeserializationWMTSWithLimits()  {
         String json = ResourceHelper.readStringResource("ogc/WMTSCapabilitiesParserTest-Vayla-expected.json", this);
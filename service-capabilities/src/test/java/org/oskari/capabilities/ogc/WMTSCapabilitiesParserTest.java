@@ -10,6 +10,7 @@ import org.junit.jupiter.api.Test;
 import org.oskari.capabilities.CapabilitiesService;
 import org.oskari.capabilities.LayerCapabilities;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -130,6 +131,22 @@ public class WMTSCapabilitiesParserTest {
         Assertions.assertEquals(1, caps.getTileMatrixLinks().size(), "Only one tilematrix after filtering against CRS list for system");
     }
 
+    @Test
+    public void testParseOnlyRequestedLayers() throws Exception {
+        String xml = ResourceHelper.readStringResource("WMTSCapabilitiesParserTest-NLS-input.xml", this);
+        String expected = ResourceHelper.readStringResource("WMTSCapabilitiesParserTest-NLS-expected.json", this);
+
+        WMTSCapabilitiesParser parser = new WMTSCapabilitiesParser();
+        parser.init();
+        Map<String, LayerCapabilities> layers = parser.parseLayersByName(xml, Collections.singleton("taustakartta"));
+        Assertions.assertEquals(1, layers.size(), "Should only parse the requested layer");
+
+        JSONObject json = CapabilitiesService.toJSON(layers.get("taustakartta"), SYSTEM_CRS);
+        Assertions.assertTrue(JSONHelper.isEqual(json, JSONHelper.createJSONObject(expected)), "JSON should match");
+
+        Assertions.assertTrue(parser.parseLayersByName(xml, Collections.singleton("not-there")).isEmpty(), "Should not find unknown layer");
+    }
+
     @Test
     public void testAsJSON_Tampere() throws Exception {
         String xml = ResourceHelper.readStringResource("WMTSCapabilitiesParserTest-tampere-input.xml", this);
@@ -1,15 +1,21 @@
 package fi.nls.oskari.control;
 
-import com.codahale.metrics.Meter;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.PropertyUtil;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Router for Ajax Requests made by the Oskari Map Framework.
@@ -23,6 +29,8 @@ public class ActionControl {
     private static final Logger LOG = LogFactory.getLogger(ActionControl.class);
 	private static final ConcurrentMap<String, ActionHandler> actions = new ConcurrentHashMap<String, ActionHandler>();
     private static final String METRICS_PREFIX = "Oskari.ActionControl";
+    private static final String METRICS_PREFIX_CACHE = "Oskari.Cache";
+    private static final String METRICS_PREFIX_REDIS = "Oskari.Redis";
     static final String PROPERTY_BLACKLIST = "actioncontrol.blacklist";
     static final String PROPERTY_WHITELIST = "actioncontrol.whitelist";
 
@@ -33,10 +41,32 @@ public class ActionControl {
 
     private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
 
+    static {
+        if (GATHER_METRICS) {
+            CacheManager.addCacheListener(ActionControl::registerCacheMetrics);
+            JedisManager.addOperationListener(ActionControl::recordRedisOperation);
+        }
+    }
+
     public static MetricRegistry getMetrics() {
         return METRIC_REGISTRY;
     }
 
+    private static void registerCacheMetrics(final Cache<?> cache) {
+        try {
+            METRIC_REGISTRY.registerAll(MetricRegistry.name(METRICS_PREFIX_CACHE, cache.getName()), new CacheMetricSet(cache));
+        } catch (IllegalArgumentException e) {
+            LOG.debug("Metrics already registered for cache:", cache.getName());
+        }
+    }
+
+    private static void recordRedisOperation(String operation, long durationNanos, boolean success) {
+        METRIC_REGISTRY.timer(MetricRegistry.name(METRICS_PREFIX_REDIS, operation)).update(durationNanos, TimeUnit.NANOSECONDS);
+        if (!success) {
+            METRIC_REGISTRY.meter(MetricRegistry.name(METRICS_PREFIX_REDIS, operation, "failed")).mark();
+        }
+    }
+
     /**
      * Adds an action route handler with given route key
      * @param action route key
@@ -121,23 +151,38 @@ public class ActionControl {
 		    addDefaultControls();
 		}
         if (actions.containsKey(action)) {
-            Timer.Context actionTimer = null;
-            if(GATHER_METRICS) {
-                final Meter actionMeter = getMetrics().meter(METRICS_PREFIX);
-                actionMeter.mark();
-                final com.codahale.metrics.Timer timer = METRIC_REGISTRY.timer(METRICS_PREFIX + "." + action);
-                actionTimer = timer.time();
+            if (!GATHER_METRICS) {
+                handleAction(action, params);
+                return;
             }
-
+            final String routePrefix = MetricRegistry.name(METRICS_PREFIX, action);
+            getMetrics().meter(METRICS_PREFIX).mark();
+            final Counter inFlight = METRIC_REGISTRY.counter(MetricRegistry.name(METRICS_PREFIX, "inflight"));
+            final Counter routeInFlight = METRIC_REGISTRY.counter(MetricRegistry.name(routePrefix, "inflight"));
+            final HttpServletResponse response = params.getResponse();
+            final ByteCountingResponse countingResponse = response == null ? null : new ByteCountingResponse(response);
+            if (countingResponse != null) {
+                params.setResponse(countingResponse);
+            }
+            inFlight.inc();
+            routeInFlight.inc();
+            final Timer.Context actionTimer = METRIC_REGISTRY.timer(routePrefix).time();
             try {
-                actions.get(action).handleAction(params);
+                handleAction(action, params);
             } catch (ActionException ex) {
+                // count by the original error for wrapped unhandled exceptions
+                Throwable error = ex.getCause() != null && ex.getClass() == ActionException.class ? ex.getCause() : ex;
+                METRIC_REGISTRY.meter(MetricRegistry.name(routePrefix, "errors", error.getClass().getSimpleName())).mark();
                 throw ex;
-            } catch (Exception ex) {
-                throw new ActionException("Unhandled exception occured", ex);
             } finally {
-                if(actionTimer != null) {
-                    actionTimer.stop();
+                actionTimer.stop();
+                routeInFlight.dec();
+                inFlight.dec();
+                if (countingResponse != null) {
+                    // errors are written by the caller to the original response
+                    params.setResponse(response);
+                    METRIC_REGISTRY.histogram(MetricRegistry.name(routePrefix, "responseBytes"))
+                            .update(countingResponse.getByteCount());
                 }
             }
         } else {
@@ -145,6 +190,16 @@ public class ActionControl {
         }
 	}
 
+    private static void handleAction(final String action, final ActionParameters params) throws ActionException {
+        try {
+            actions.get(action).handleAction(params);
+        } catch (ActionException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new ActionException("Unhandled exception occured", ex);
+        }
+    }
+
     /**
      * Convenient way to check if we have an implementation for the route registered
      * @param action
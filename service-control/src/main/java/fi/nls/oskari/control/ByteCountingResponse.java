@@ -0,0 +1,137 @@
+package fi.nls.oskari.control;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * Counts the bytes an ActionHandler writes to the response. Writes are passed through to the wrapped
+ * response as is so buffering, commit and getWriter()/getOutputStream() semantics are not changed.
+ * Characters written with getWriter() are counted as their UTF-8 encoded length.
+ */
+class ByteCountingResponse extends HttpServletResponseWrapper {
+
+    private long count = 0;
+    private ServletOutputStream out;
+    private PrintWriter writer;
+
+    ByteCountingResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    long getByteCount() {
+        return count;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = new CountingOutputStream(super.getOutputStream());
+        }
+        return out;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            writer = new PrintWriter(new CountingWriter(super.getWriter()));
+        }
+        return writer;
+    }
+
+    private static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800 || Character.isSurrogate(c)) {
+            // a surrogate pair is 4 bytes
+            return 2;
+        }
+        return 3;
+    }
+
+    private class CountingOutputStream extends ServletOutputStream {
+        private final ServletOutputStream delegate;
+
+        CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+
+    private class CountingWriter extends Writer {
+        private final Writer delegate;
+
+        CountingWriter(Writer delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            delegate.write(c);
+            count += utf8Length((char) c);
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            delegate.write(cbuf, off, len);
+            for (int i = off; i < off + len; i++) {
+                count += utf8Length(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            delegate.write(str, off, len);
+            for (int i = off; i < off + len; i++) {
+                count += utf8Length(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package fi.nls.oskari.control;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheStats;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes usage statistics of a cache created by CacheManager as gauges.
+ * Estimated bytes are -1 for caches that can't estimate the size of their values.
+ */
+public class CacheMetricSet implements MetricSet {
+
+    private final Cache<?> cache;
+
+    public CacheMetricSet(Cache<?> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        final CacheStats stats = cache.getStats();
+        final Map<String, Metric> gauges = new HashMap<>();
+        gauges.put("size", (Gauge<Long>) cache::getSize);
+        gauges.put("limit", (Gauge<Integer>) cache::getLimit);
+        gauges.put("hits", (Gauge<Long>) stats::getHits);
+        gauges.put("misses", (Gauge<Long>) stats::getMisses);
+        gauges.put("hitRatio", (Gauge<Double>) stats::getHitRatio);
+        gauges.put("evictions", (Gauge<Long>) stats::getEvictions);
+        gauges.put("expirations", (Gauge<Long>) stats::getExpirations);
+        gauges.put("loads", (Gauge<Long>) stats::getLoads);
+        gauges.put("loadTimeMs.mean", (Gauge<Double>) stats::getAverageLoadTimeMs);
+        // registered for all caches as the default estimate is only known once values have been cached
+        gauges.put("estimatedBytes", (Gauge<Long>) stats::getEstimatedBytes);
+        return gauges;
+    }
+}
@@ -0,0 +1,128 @@
+package fi.nls.oskari.control;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the metrics of a MetricRegistry in the Prometheus text exposition format (version 0.0.4).
+ * Metric names are the registry names with characters not allowed by Prometheus replaced by '_'
+ * (f.ex. Oskari.ActionControl.GetLayerTile -> Oskari_ActionControl_GetLayerTile).
+ *
+ * - gauges and counters are written as gauges
+ * - meters are written as counters with a _total suffix
+ * - histograms and timers are written as summaries with quantiles and _count, timers in seconds
+ *   with a _seconds suffix
+ */
+public class PrometheusMetricsWriter {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double[] QUANTILES = { 0.5, 0.75, 0.95, 0.98, 0.99, 0.999 };
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private PrometheusMetricsWriter() {}
+
+    public static void write(MetricRegistry registry, Writer out) throws IOException {
+        for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+            Double value = toDouble(entry.getValue().getValue());
+            if (value != null) {
+                writeValue(out, sanitize(entry.getKey()), "gauge", value);
+            }
+        }
+        for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+            writeValue(out, sanitize(entry.getKey()), "gauge", entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Meter> entry : registry.getMeters().entrySet()) {
+            writeValue(out, sanitize(entry.getKey()) + "_total", "counter", entry.getValue().getCount());
+        }
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            Histogram histogram = entry.getValue();
+            writeSummary(out, sanitize(entry.getKey()), histogram.getSnapshot(), histogram.getCount(), 1);
+        }
+        for (Map.Entry<String, Timer> entry : registry.getTimers().entrySet()) {
+            Timer timer = entry.getValue();
+            writeSummary(out, sanitize(entry.getKey()) + "_seconds", timer.getSnapshot(), timer.getCount(), NANOS_PER_SECOND);
+        }
+        out.flush();
+    }
+
+    static String sanitize(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        if (!name.isEmpty() && Character.isDigit(name.charAt(0))) {
+            // names can't start with a digit
+            sb.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == ':';
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private static Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1d : 0d;
+        }
+        // non-numeric gauges can't be exported
+        return null;
+    }
+
+    private static void writeValue(Writer out, String name, String type, double value) throws IOException {
+        writeType(out, name, type);
+        out.write(name);
+        out.write(' ');
+        out.write(format(value));
+        out.write('\n');
+    }
+
+    private static void writeSummary(Writer out, String name, Snapshot snapshot, long count, double divisor) throws IOException {
+        writeType(out, name, "summary");
+        for (double quantile : QUANTILES) {
+            out.write(name);
+            out.write("{quantile=\"");
+            out.write(Double.toString(quantile));
+            out.write("\"} ");
+            out.write(format(snapshot.getValue(quantile) / divisor));
+            out.write('\n');
+        }
+        out.write(name);
+        out.write("_count ");
+        out.write(Long.toString(count));
+        out.write('\n');
+    }
+
+    private static void writeType(Writer out, String name, String type) throws IOException {
+        out.write("# TYPE ");
+        out.write(name);
+        out.write(' ');
+        out.write(type);
+        out.write('\n');
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
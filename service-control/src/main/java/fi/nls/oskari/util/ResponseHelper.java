@@ -11,6 +11,10 @@ import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Convenience methods for writing a response.
@@ -20,6 +24,7 @@ public class ResponseHelper {
     public static final String CONTENT_TYPE_JSON_UTF8 = "application/json;charset=UTF-8";
 
     private static final Logger LOG = LogFactory.getLogger(ResponseHelper.class);
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
 
     /**
      * Writes out the given response
@@ -99,6 +104,115 @@ public class ResponseHelper {
         }
     }
 
+    /**
+     * Prepares the response for writing the body directly to the returned stream instead of
+     * buffering it. The body is gzipped on the fly if the client accepts gzip encoding.
+     * Content length is not known beforehand. The caller must close the stream.
+     *
+     * @param params reference to ActionParams
+     * @param sc HTTP Status Code to send
+     * @param contentType of the response
+     * @return stream for writing the response body
+     */
+    public static final OutputStream getOutputStream(ActionParameters params, int sc, String contentType)
+            throws IOException {
+        final HttpServletResponse resp = params.getResponse();
+        resp.setStatus(sc);
+        resp.setContentType(contentType);
+        if (!acceptsGzip(params.getHttpHeader(IOHelper.HEADER_ACCEPT_ENCODING))) {
+            return resp.getOutputStream();
+        }
+        resp.setHeader("Content-Encoding", IOHelper.ENCODING_GZIP);
+        resp.addHeader("Vary", IOHelper.HEADER_ACCEPT_ENCODING);
+        return new GZIPOutputStream(resp.getOutputStream(), 8192);
+    }
+
+    protected static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (IOHelper.ENCODING_GZIP.equalsIgnoreCase(parts[0].trim())) {
+                // gzip;q=0 means not acceptable
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the If-None-Match headers of the request against the entity-tag of the response.
+     *
+     * @param params reference to ActionParams
+     * @param etag entity-tag of the response like {@code "abc"} or {@code W/"abc"}
+     * @return true if the client already has the current representation and 304 Not Modified can be sent
+     */
+    public static final boolean isNotModified(ActionParameters params, String etag) {
+        Enumeration<String> headers = params.getRequest().getHeaders(HEADER_IF_NONE_MATCH);
+        if (headers == null || etag == null) {
+            return false;
+        }
+        // multiple header lines are the same as one line with comma separated values
+        List<String> values = Collections.list(headers);
+        return !values.isEmpty() && matchesIfNoneMatch(String.join(",", values), etag);
+    }
+
+    /**
+     * Matches an If-None-Match header value as specified in RFC 9110 section 13.1.2. The value is either "*"
+     * or a comma separated list of entity-tags that are compared with the weak comparison so W/ prefixes are ignored.
+     */
+    protected static boolean matchesIfNoneMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        final String header = ifNoneMatch.trim();
+        if ("*".equals(header)) {
+            return true;
+        }
+        final String opaqueTag = getOpaqueTag(etag);
+        if (opaqueTag == null) {
+            // not a valid entity-tag, the best we can do is an exact match
+            return etag.equals(header);
+        }
+        int i = 0;
+        while (i < header.length()) {
+            char c = header.charAt(i);
+            if (c == ',' || c == ' ' || c == '\t') {
+                i++;
+                continue;
+            }
+            if (header.startsWith("W/", i)) {
+                i += 2;
+            }
+            if (i >= header.length() || header.charAt(i) != '"') {
+                // malformed list
+                return false;
+            }
+            // entity-tags can contain commas but not quotes
+            int end = header.indexOf('"', i + 1);
+            if (end == -1) {
+                return false;
+            }
+            if (end + 1 - i == opaqueTag.length() && header.startsWith(opaqueTag, i)) {
+                return true;
+            }
+            i = end + 1;
+        }
+        return false;
+    }
+
+    private static String getOpaqueTag(String etag) {
+        String tag = etag.trim();
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+        if (tag.length() < 2 || tag.charAt(0) != '"' || tag.indexOf('"', 1) != tag.length() - 1) {
+            return null;
+        }
+        return tag;
+    }
+
     /**
      * Writes out the given response.
      *
@@ -150,6 +264,11 @@ public class ResponseHelper {
      * @param options   JSON written as part of the error message to provide more info
      */
     public static final void writeError(ActionParameters params, final String message, final int errorCode, final JSONObject options) {
+        if (params.getResponse().isCommitted()) {
+            // f.ex. a streamed response failed midway, status and headers have already been sent
+            LOG.info("Response already committed, couldn't write error:", message);
+            return;
+        }
         try {
             final JSONObject error = new JSONObject();
             JSONHelper.putValue(error, "error", message);
@@ -161,7 +280,8 @@ public class ResponseHelper {
             // tomcat catches sendError and writes an error page with the given message
             // we dont want that 
             //params.getResponse().sendError(errorCode, error.toString());
-        } catch (IOException e) {
+        } catch (IOException | IllegalStateException e) {
+            // IllegalStateException if getOutputStream() has already been called
             LOG.info("Couldn't write answer:", e.getMessage());
             LOG.debug(e);
         }
@@ -1,10 +1,20 @@
 package fi.nls.oskari.control;
 
+import com.codahale.metrics.MetricRegistry;
 import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.util.ResponseHelper;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
 /**
  * Created by SMAKINEN on 13.8.2015.
  */
@@ -66,4 +76,38 @@ public class ActionControlTest {
         Assertions.assertTrue(ActionControl.hasAction("white1") && ActionControl.hasAction("white32") && ActionControl.hasAction("dummy2"), "Should have whitelisted and forced actions");
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRouteMetrics()
+            throws Exception {
+        ActionControl.addAction("metrics", new ActionHandler() {
+            @Override
+            public void handleAction(ActionParameters params) throws ActionException {
+                ResponseHelper.writeResponse(params, "\u00e4bc");
+            }
+        });
+        ActionControl.addAction("metricsError", new ActionHandler() {
+            @Override
+            public void handleAction(ActionParameters params) {
+                throw new IllegalStateException("fail");
+            }
+        });
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        StringWriter body = new StringWriter();
+        doReturn(new PrintWriter(body)).when(response).getWriter();
+        ActionParameters params = new ActionParameters();
+        params.setResponse(response);
+        ActionControl.routeAction("metrics", params);
+
+        MetricRegistry metrics = ActionControl.getMetrics();
+        Assertions.assertEquals("\u00e4bc", body.toString());
+        Assertions.assertSame(response, params.getResponse(), "Original response should be restored");
+        Assertions.assertEquals(4, metrics.histogram("Oskari.ActionControl.metrics.responseBytes").getSnapshot().getMax());
+        Assertions.assertEquals(0, metrics.counter("Oskari.ActionControl.metrics.inflight").getCount());
+        Assertions.assertEquals(1, metrics.timer("Oskari.ActionControl.metrics").getCount());
+
+        Assertions.assertThrows(ActionException.class, () -> ActionControl.routeAction("metricsError", params));
+        Assertions.assertEquals(1, metrics.meter("Oskari.ActionControl.metricsError.errors.IllegalStateException").getCount());
+        Assertions.assertEquals(0, metrics.counter("Oskari.ActionControl.inflight").getCount());
+    }
+}
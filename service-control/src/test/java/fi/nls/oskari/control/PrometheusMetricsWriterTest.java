@@ -0,0 +1,41 @@
+package fi.nls.oskari.control;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+public class PrometheusMetricsWriterTest {
+
+    @Test
+    public void testSanitize() {
+        Assertions.assertEquals("Oskari_GetLayerTile_123", PrometheusMetricsWriter.sanitize("Oskari.GetLayerTile.123"));
+        Assertions.assertEquals("_1_layer", PrometheusMetricsWriter.sanitize("1-layer"));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        MetricRegistry registry = new MetricRegistry();
+        registry.counter("Oskari.ActionControl.inflight").inc(2);
+        registry.meter("Oskari.ActionControl.Test.errors.ActionException").mark();
+        registry.histogram("Oskari.ActionControl.Test.responseBytes").update(1024);
+        registry.timer("Oskari.ActionControl.Test").update(250, TimeUnit.MILLISECONDS);
+        registry.register("Oskari.Cache.test.size", (com.codahale.metrics.Gauge<Long>) () -> 5L);
+        registry.register("Oskari.Cache.test.name", (com.codahale.metrics.Gauge<String>) () -> "skipped");
+
+        StringWriter out = new StringWriter();
+        PrometheusMetricsWriter.write(registry, out);
+        String text = out.toString();
+
+        Assertions.assertTrue(text.contains("# TYPE Oskari_ActionControl_inflight gauge\nOskari_ActionControl_inflight 2\n"), text);
+        Assertions.assertTrue(text.contains("# TYPE Oskari_ActionControl_Test_errors_ActionException_total counter\nOskari_ActionControl_Test_errors_ActionException_total 1\n"), text);
+        Assertions.assertTrue(text.contains("Oskari_ActionControl_Test_responseBytes{quantile=\"0.5\"} 1024\n"), text);
+        Assertions.assertTrue(text.contains("# TYPE Oskari_ActionControl_Test_seconds summary\n"), text);
+        Assertions.assertTrue(text.contains("Oskari_ActionControl_Test_seconds{quantile=\"0.99\"} 0.25\n"), text);
+        Assertions.assertTrue(text.contains("Oskari_ActionControl_Test_seconds_count 1\n"), text);
+        Assertions.assertTrue(text.contains("Oskari_Cache_test_size 5\n"), text);
+        Assertions.assertFalse(text.contains("Oskari_Cache_test_name"), "Non-numeric gauges should be skipped");
+    }
+}
@@ -0,0 +1,32 @@
+package fi.nls.oskari.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ResponseHelperTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        Assertions.assertFalse(ResponseHelper.acceptsGzip(null));
+        Assertions.assertFalse(ResponseHelper.acceptsGzip("deflate, br"));
+        Assertions.assertTrue(ResponseHelper.acceptsGzip("gzip"));
+        Assertions.assertTrue(ResponseHelper.acceptsGzip("deflate, GZIP;q=0.5"));
+        Assertions.assertFalse(ResponseHelper.acceptsGzip("br, gzip;q=0"));
+        Assertions.assertFalse(ResponseHelper.acceptsGzip("gzip; q=0.0"));
+    }
+
+    @Test
+    public void testMatchesIfNoneMatch() {
+        String etag = "\"abc-1\"";
+        Assertions.assertFalse(ResponseHelper.matchesIfNoneMatch(null, etag));
+        Assertions.assertTrue(ResponseHelper.matchesIfNoneMatch("\"abc-1\"", etag));
+        Assertions.assertTrue(ResponseHelper.matchesIfNoneMatch("*", etag));
+        Assertions.assertTrue(ResponseHelper.matchesIfNoneMatch("\"xyz\", \"abc-1\"", etag), "Should match any tag in a list");
+        Assertions.assertTrue(ResponseHelper.matchesIfNoneMatch("W/\"abc-1\"", etag), "Should use weak comparison");
+        Assertions.assertTrue(ResponseHelper.matchesIfNoneMatch("\"abc-1\"", "W/" + etag), "Should use weak comparison");
+        Assertions.assertTrue(ResponseHelper.matchesIfNoneMatch("\"a,b\",W/\"abc-1\"", etag), "Tags can contain commas");
+        Assertions.assertFalse(ResponseHelper.matchesIfNoneMatch("\"abc\"", etag));
+        Assertions.assertFalse(ResponseHelper.matchesIfNoneMatch("\"abc-1", etag), "Unterminated tag shouldn't match");
+        Assertions.assertFalse(ResponseHelper.matchesIfNoneMatch("\"abc-12\"", etag));
+    }
+}
@@ -80,6 +80,17 @@ public class OskariLayerWorker {
      */
     public static JSONObject getListOfMapLayers(final List<OskariLayer> layers, final User user,
             final String lang, final String crs, final boolean isPublished, final boolean isSecure) {
+        return getListOfMapLayers(layers, user, lang, isSecure, crs, isPublished, getPermissionSet(layers, user));
+    }
+
+    /**
+     * Loads permissions for the given layers
+     *
+     * @param layers layers to get the permissions for
+     * @param user   User
+     * @return PermissionSet that can be used to filter the layers and create permission JSON
+     */
+    public static PermissionSet getPermissionSet(final List<OskariLayer> layers, final User user) {
         List<Resource> resources;
         if (layers.size() < 20) {
             // usually the case with loading the default app setup
@@ -94,7 +105,7 @@ public class OskariLayerWorker {
             // more than 20 layers, just get all the permissions
             resources = permissionService.findResourcesByUser(user, ResourceType.maplayer);
         }
-        return getListOfMapLayers(layers, user, lang, isSecure, crs, isPublished, new PermissionSet(resources));
+        return new PermissionSet(resources);
     }
 
     public static List<OskariLayer> getLayersForUser(User user, boolean isPublished) {
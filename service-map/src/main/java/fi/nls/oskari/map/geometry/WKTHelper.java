@@ -204,6 +204,37 @@ public class WKTHelper {
         return featureTypeBuilder;
     }
 
+    /**
+     * Same as getFeatureTypeBuilder(Geometry) but with the geometry attribute bound to the given class.
+     * Used when all features of a collection share the same feature type.
+     */
+    public static SimpleFeatureTypeBuilder getFeatureTypeBuilder(Class<? extends Geometry> binding) {
+        SimpleFeatureTypeBuilder featureTypeBuilder = new SimpleFeatureTypeBuilder();
+        featureTypeBuilder.setName("userdata");
+        featureTypeBuilder.setNamespaceURI("http://oskari.org");
+        featureTypeBuilder.setDefaultGeometry(GEOM_ATTRIBUTE);
+        featureTypeBuilder.add(GEOM_ATTRIBUTE, binding);
+        return featureTypeBuilder;
+    }
+
+    /**
+     * @return class shared by all the geometries or Geometry.class if they have different types
+     */
+    public static Class<? extends Geometry> getCommonBinding(Iterable<? extends Geometry> geometries) {
+        Class<? extends Geometry> binding = null;
+        for (Geometry geometry : geometries) {
+            if (geometry == null) {
+                continue;
+            }
+            if (binding == null) {
+                binding = geometry.getClass();
+            } else if (binding != geometry.getClass()) {
+                return Geometry.class;
+            }
+        }
+        return binding != null ? binding : Geometry.class;
+    }
+
     private static void setFeatureTypeBuilderGeometry(SimpleFeatureTypeBuilder featureTypeBuilder, Geometry geometry) {
         if (geometry != null) {
             featureTypeBuilder.setDefaultGeometry(GEOM_ATTRIBUTE);
@@ -19,6 +19,15 @@ public abstract class OskariLayerService extends OskariComponent {
     public abstract Map<String, List<Integer>> findNamesAndIdsByUrl(final String url, final String type);
     public abstract int insert(final OskariLayer layer);
     public abstract void update(final OskariLayer layer);
+
+    /**
+     * Updates several layers. Implementations can override this to write the layers in a batch.
+     */
+    public void update(final List<OskariLayer> layers) {
+        for (OskariLayer layer : layers) {
+            update(layer);
+        }
+    }
     public abstract void delete(final int layerId);
 
 }
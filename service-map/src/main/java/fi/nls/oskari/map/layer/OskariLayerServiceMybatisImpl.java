@@ -15,6 +15,7 @@ import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
@@ -384,6 +385,42 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         }
     }
 
+    @Override
+    public void update(final List<OskariLayer> layers) {
+        if (layers == null || layers.isEmpty()) {
+            return;
+        }
+        LOG.debug("update", layers.size(), "layers");
+        try (SqlSession session = factory.openSession(ExecutorType.BATCH, false)) {
+            final OskariLayerMapper mapper = session.getMapper(OskariLayerMapper.class);
+            for (OskariLayer layer : layers) {
+                mapper.update(layer);
+            }
+            session.commit();
+        } catch (Exception e) {
+            // the batch is rolled back as a whole, update one by one so a single bad layer doesn't prevent updating the others
+            LOG.warn(e, "Batch update failed, updating", layers.size(), "layers one by one");
+            updateOneByOne(layers);
+            return;
+        }
+        layers.forEach(layer -> flushFromCache(layer.getId()));
+    }
+
+    private void updateOneByOne(final List<OskariLayer> layers) {
+        int failed = 0;
+        for (OskariLayer layer : layers) {
+            try {
+                update(layer);
+            } catch (Exception e) {
+                LOG.warn(e, "Failed to update layer:", layer.getId());
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            throw new RuntimeException("Failed to update " + failed + "/" + layers.size() + " layers");
+        }
+    }
+
     public synchronized int insert(final OskariLayer layer) {
         LOG.debug("insert new layer");
         final SqlSession session = factory.openSession();
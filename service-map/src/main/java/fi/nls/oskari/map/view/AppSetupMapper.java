@@ -91,6 +91,12 @@ public interface AppSetupMapper {
             " WHERE id=#{id}")
     void updateUsage(long id);
 
+    @Update("UPDATE oskari_appsetup SET " +
+            " used=now()," +
+            " usagecount=usagecount + #{count} " +
+            " WHERE id=#{id}")
+    void addUsage(@Param("id") long id, @Param("count") long count);
+
     @Insert("INSERT INTO oskari_appsetup_bundles (appsetup_id, bundle_id, seqno, state, config, bundleinstance)" +
             " VALUES ( #{viewId}, #{bundleId}, #{seqNo}, #{state}, #{config}, #{bundleinstance})")
     void addBundle(Bundle bundle);
@@ -1,6 +1,8 @@
 package fi.nls.oskari.map.view;
 
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.db.DatasourceHelper;
 import org.oskari.user.Role;
 import org.oskari.user.User;
@@ -14,12 +16,17 @@ import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 
 import javax.sql.DataSource;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Oskari
 public class AppSetupServiceMybatisImpl extends ViewService {
@@ -29,6 +36,20 @@ public class AppSetupServiceMybatisImpl extends ViewService {
     private static final String PROP_VIEW_DEFAULT = "view.default";
     private static final String PROP_VIEW_DEFAULT_ROLES = "view.default.roles";
 
+    // Loaded views are cached for a short while since embedded maps load the same views constantly.
+    // Any change to views flushes the whole cache (on all cluster nodes), set to 0 to disable caching.
+    private static final long VIEW_CACHE_SECONDS = PropertyUtil.getOptional("view.cache.seconds", 300);
+    private static final Cache<View> VIEW_CACHE = CacheManager.getCache(AppSetupServiceMybatisImpl.class.getName());
+    static {
+        VIEW_CACHE.setExpiration(TimeUnit.SECONDS.toMillis(VIEW_CACHE_SECONDS));
+    }
+    // View usage is counted in memory and written in batches, set to 0 to update usage on each call
+    private static final long USAGE_FLUSH_SECONDS = PropertyUtil.getOptional("view.usage.flush.seconds", 60);
+
+    private final Map<Long, Long> usageCounts = new ConcurrentHashMap<>();
+    // started on first usage update, shut down in teardown()
+    private ScheduledExecutorService usageFlusher;
+
     private final Map<String, Long> roleToDefaultViewId;
     private final String[] defaultViewRoles;
     private final long defaultViewId;
@@ -146,9 +167,13 @@ public class AppSetupServiceMybatisImpl extends ViewService {
         if (viewId < 1) {
             return null;
         }
+        View cached = getCachedView("id:" + viewId);
+        if (cached != null) {
+            return cached;
+        }
         try (final SqlSession session = factory.openSession()) {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
-            return mapper.getViewWithConfByViewId(viewId);
+            return cacheView(mapper.getViewWithConfByViewId(viewId));
         } catch (Exception e) {
             LOG.warn(e, "Exception while getting view with conf by view id: " + viewId);
         }
@@ -159,6 +184,10 @@ public class AppSetupServiceMybatisImpl extends ViewService {
         if (uuId == null) {
             return null;
         }
+        View cached = getCachedView("uuid:" + uuId);
+        if (cached != null) {
+            return cached;
+        }
 
         try (final SqlSession session = factory.openSession()) {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
@@ -166,13 +195,47 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             if (view != null) {
                 view.setBundles(mapper.getBundlesByViewId(view.getId()));
             }
-            return view;
+            return cacheView(view);
         } catch (Exception e) {
             LOG.warn(e, "Exception while getting view with config by uuid: " + uuId);
         }
         return null;
     }
 
+    private View getCachedView(String key) {
+        if (VIEW_CACHE_SECONDS <= 0) {
+            return null;
+        }
+        View view = VIEW_CACHE.get(key);
+        // callers are free to modify the view so don't hand out the cached instance
+        return view == null ? null : view.copy();
+    }
+
+    /**
+     * Caches the view by id and uuid
+     * @return a copy of the view for the caller
+     */
+    private View cacheView(View view) {
+        if (view == null || VIEW_CACHE_SECONDS <= 0) {
+            return view;
+        }
+        VIEW_CACHE.put("id:" + view.getId(), view);
+        if (view.getUuid() != null) {
+            VIEW_CACHE.put("uuid:" + view.getUuid(), view);
+        }
+        return view.copy();
+    }
+
+    /**
+     * Views are only modified by admins and users saving their own views so just drop everything
+     * instead of trying to find all the keys of modified views. Notifies other nodes in a cluster.
+     */
+    private void flushViewCache() {
+        if (VIEW_CACHE_SECONDS > 0) {
+            VIEW_CACHE.flush(true);
+        }
+    }
+
     public View getViewWithConfByOldId(long oldId) {
         LOG.debug("Get view with conf by old id");
         if (oldId < 1) {
@@ -224,6 +287,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
                 mapper.addBundle(bundle);
             }
             session.commit();
+            flushViewCache();
             return id;
         } catch (Exception e) {
             LOG.warn(e, "Exception while adding a new view");
@@ -238,6 +302,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.updateAccessFlag(view);
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             LOG.warn(e, "Exception while updating access flag");
         }
@@ -253,6 +318,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             mapper.deleteBundleByView(id);
             mapper.deleteView(id);
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             throw new DeleteViewException("Error deleting a view with id:" + id, e);
         }
@@ -265,6 +331,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.deleteViewByUser(userId);
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             throw new DeleteViewException("Error deleting a view with user id:" + userId, e);
         }
@@ -277,6 +344,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.resetUsersDefaultViews(userId);
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             LOG.warn(e, "Exception while resetting users default views");
         }
@@ -289,6 +357,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.update(view);
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             LOG.warn(e, "Exception while updating view");
         }
@@ -296,7 +365,11 @@ public class AppSetupServiceMybatisImpl extends ViewService {
 
     public void updateViewUsage(View view) {
         LOG.debug("Update view usage");
-
+        if (USAGE_FLUSH_SECONDS > 0) {
+            usageCounts.merge(view.getId(), 1L, Long::sum);
+            scheduleUsageFlush();
+            return;
+        }
         try (final SqlSession session = factory.openSession()) {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.updateUsage(view.getId());
@@ -306,6 +379,66 @@ public class AppSetupServiceMybatisImpl extends ViewService {
         }
     }
 
+    private synchronized void scheduleUsageFlush() {
+        if (usageFlusher != null) {
+            return;
+        }
+        usageFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oskari-view-usage");
+            t.setDaemon(true);
+            return t;
+        });
+        usageFlusher.scheduleWithFixedDelay(this::flushViewUsage, USAGE_FLUSH_SECONDS, USAGE_FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the scheduled flush and writes the usage that hasn't been written yet
+     */
+    @Override
+    public void teardown() {
+        ScheduledExecutorService executor;
+        synchronized (this) {
+            executor = usageFlusher;
+            usageFlusher = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                // let a flush that is already running complete before the final one
+                executor.awaitTermination(USAGE_FLUSH_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushViewUsage();
+    }
+
+    /**
+     * Writes the usage counted in memory to the database in one batch
+     */
+    public void flushViewUsage() {
+        Map<Long, Long> counts = new HashMap<>();
+        for (Long id : usageCounts.keySet()) {
+            Long count = usageCounts.remove(id);
+            if (count != null) {
+                counts.put(id, count);
+            }
+        }
+        if (counts.isEmpty()) {
+            return;
+        }
+        try (final SqlSession session = factory.openSession(ExecutorType.BATCH, false)) {
+            final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
+            counts.forEach(mapper::addUsage);
+            session.commit();
+            LOG.debug("Updated usage for", counts.size(), "views");
+        } catch (Exception e) {
+            LOG.warn(e, "Exception while updating view usage");
+            // try again on next flush
+            counts.forEach((id, count) -> usageCounts.merge(id, count, Long::sum));
+        }
+    }
+
     public void updatePublishedView(final View view) throws ViewException {
         LOG.debug("Update published view");
         long id = view.getId();
@@ -319,6 +452,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
                 mapper.addBundle(bundle);
             }
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             throw new ViewException("Error updating a view with id:" + id, e);
         }
@@ -335,6 +469,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
                 throw new ViewException("Failed to update - bundle not found in view?");
             }
             session.commit();
+            flushViewCache();
         } catch (Exception e) {
             throw new ViewException("Failed to update", e);
         }
@@ -12,6 +12,8 @@ import org.json.JSONObject;
 import org.geotools.api.filter.Filter;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
+import java.util.Optional;
+
 public abstract class UserLayerService extends OskariComponent {
     //public abstract void getLayers(User user) throws ServiceException;
     //public abstract void getLayer(String layerId, User user) throws ServiceException;
@@ -45,4 +47,21 @@ public abstract class UserLayerService extends OskariComponent {
     }
 
     public abstract SimpleFeatureCollection getFeatures(String layerId, OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs) throws ServiceException;
+
+    /**
+     * Returns the features of the layer as a finished MVT tile (not gzipped) if the service can create it
+     * without loading the features to the JVM (for example with PostGIS ST_AsMVT). Empty means the caller
+     * should use getFeatures() and encode the tile itself.
+     * @param layerId user content layer id
+     * @param mvtLayer name of the layer inside the tile
+     * @param bbox tile extent as [minX, minY, maxX, maxY] in crs
+     * @param crs crs of the tile
+     * @param extent tile extent in MVT units
+     * @param buffer clip buffer in MVT units
+     * @param pointBuffer clip buffer for point geometries in MVT units
+     */
+    public Optional<byte[]> getMVT(String layerId, String mvtLayer, double[] bbox, CoordinateReferenceSystem crs,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        return Optional.empty();
+    }
 }
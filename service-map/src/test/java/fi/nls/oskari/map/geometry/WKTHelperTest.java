@@ -3,9 +3,13 @@ package fi.nls.oskari.map.geometry;
 import org.junit.jupiter.api.Assertions;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.Point;
 import org.junit.jupiter.api.Test;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
+import java.util.Arrays;
+import java.util.Collections;
+
 public class WKTHelperTest {
 
     final String PROJ_INVALID = "asdf & qwerty";
@@ -72,5 +76,13 @@ public class WKTHelperTest {
         Assertions.assertEquals(WKT_POINT, str, "Should have same WKT");
     }
 
+    @Test
+    public void testGetCommonBinding() throws Exception {
+        Geometry point = WKTHelper.parseWKT(WKT_POINT);
+        Geometry polygon = WKTHelper.parseWKT(WKT_POLYGON);
+        Assertions.assertEquals(Point.class, WKTHelper.getCommonBinding(Arrays.asList(point, null, point)));
+        Assertions.assertEquals(Geometry.class, WKTHelper.getCommonBinding(Arrays.asList(point, polygon)));
+        Assertions.assertEquals(Geometry.class, WKTHelper.getCommonBinding(Collections.emptyList()));
+    }
 
 }
@@ -0,0 +1,63 @@
+package fi.nls.oskari.mybatis;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.apache.ibatis.type.MappedJdbcTypes;
+import org.apache.ibatis.type.MappedTypes;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Moves geometries as (E)WKB between the database and JTS. Select geometries with ST_AsEWKB(geometry)
+ * (or ST_AsBinary) and refer to this handler in the result mapping. Compared to ST_AsText() + WKT parsing
+ * the binary format is smaller and faster to parse. SRID is set to the geometry if the input is EWKB.
+ * Not registered by default, refer to it with typeHandler in the mappings that need it.
+ */
+@MappedTypes({Geometry.class})
+@MappedJdbcTypes({JdbcType.BINARY, JdbcType.VARBINARY, JdbcType.BLOB})
+public class GeometryWKBTypeHandler extends BaseTypeHandler<Geometry> {
+    private final static Logger log = LogFactory.getLogger(GeometryWKBTypeHandler.class);
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, Geometry parameter, JdbcType jdbcType) throws SQLException {
+        // write EWKB so the SRID is included
+        ps.setBytes(i, new WKBWriter(2, parameter.getSRID() != 0).write(parameter));
+    }
+
+    @Override
+    public Geometry getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return valueOf(rs.getBytes(columnName));
+    }
+
+    @Override
+    public Geometry getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return valueOf(rs.getBytes(columnIndex));
+    }
+
+    @Override
+    public Geometry getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return valueOf(cs.getBytes(columnIndex));
+    }
+
+    public Geometry valueOf(byte[] wkb) {
+        if (wkb == null || wkb.length == 0) {
+            return null;
+        }
+        try {
+            // WKBReader isn't thread-safe, but it's cheap to create
+            return new WKBReader().read(wkb);
+        } catch (ParseException e) {
+            log.info("Couldn't parse DB bytes to Geometry:", e.getMessage());
+            return null;
+        }
+    }
+}
@@ -2,11 +2,13 @@ package fi.nls.oskari.mybatis;
 
 import org.apache.ibatis.mapping.Environment;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 import org.apache.ibatis.transaction.TransactionFactory;
 import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
 import javax.sql.DataSource;
+import java.sql.SQLException;
 
 public class MyBatisHelper {
 
@@ -46,4 +48,32 @@ public class MyBatisHelper {
     public static SqlSessionFactory build(Configuration config) {
         return new SqlSessionFactoryBuilder().build(config);
     }
+
+    /**
+     * Used to select database specific queries (like PostGIS functions) that are not
+     * available on HSQLDB/H2 used in tests.
+     * @return true if the factory is connected to a PostgreSQL database
+     */
+    public static boolean isPostgreSQL(SqlSessionFactory factory) {
+        try (SqlSession session = factory.openSession()) {
+            String product = session.getConnection().getMetaData().getDatabaseProductName();
+            return "PostgreSQL".equalsIgnoreCase(product);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the exception was caused by calling a function the database doesn't have
+     * (for example PostGIS version that is too old)
+     */
+    public static boolean isUndefinedFunction(Throwable e) {
+        while (e != null) {
+            if (e instanceof SQLException && "42883".equals(((SQLException) e).getSQLState())) {
+                return true;
+            }
+            e = e.getCause();
+        }
+        return false;
+    }
 }
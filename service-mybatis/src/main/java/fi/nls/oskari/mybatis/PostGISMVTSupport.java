@@ -0,0 +1,57 @@
+package fi.nls.oskari.mybatis;
+
+import org.apache.ibatis.session.SqlSessionFactory;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks if MVT tiles can be created in the database with PostGIS ST_AsMVT. The database is checked
+ * on first use and support is turned off if the functions turn out to be missing so the callers can
+ * fall back to encoding the tiles in the JVM. Safe to share between threads.
+ */
+public class PostGISMVTSupport {
+
+    private final SqlSessionFactory factory;
+    // null until checked
+    private final AtomicReference<Boolean> supported = new AtomicReference<>();
+
+    public PostGISMVTSupport(SqlSessionFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * @return false if the database isn't PostgreSQL (tests) or PostGIS doesn't have the needed functions
+     */
+    public boolean isSupported() {
+        Boolean value = supported.get();
+        if (value == null) {
+            supported.compareAndSet(null, factory != null && MyBatisHelper.isPostgreSQL(factory));
+            value = supported.get();
+        }
+        return value;
+    }
+
+    /**
+     * Turns off support if creating the tile failed because PostGIS doesn't have the functions
+     * @return true if the caller should fall back to encoding the tile in the JVM
+     */
+    public boolean disableIfUndefined(Throwable e) {
+        if (!MyBatisHelper.isUndefinedFunction(e)) {
+            return false;
+        }
+        supported.set(false);
+        return true;
+    }
+
+    /**
+     * Features are selected from the tile extent expanded with the larger of the buffers, ST_AsMVTGeom clips them.
+     * @param bbox tile extent as [minX, minY, maxX, maxY]
+     * @param extent tile extent in tile coordinate space
+     * @param buffer buffer in tile coordinate space
+     * @param pointBuffer buffer for point geometries in tile coordinate space
+     * @return margin in the units of bbox
+     */
+    public static double getMargin(double[] bbox, int extent, int buffer, int pointBuffer) {
+        return (double) Math.max(buffer, pointBuffer) / extent * Math.max(bbox[2] - bbox[0], bbox[3] - bbox[1]);
+    }
+}
@@ -28,7 +28,7 @@ public interface MyPlaceMapper {
             " place_desc, " +
             " link, " +
             " image_url, " +
-            " ST_ASTEXT(geometry) as wkt, "+
+            " ST_AsEWKB(geometry) as geom, "+
             " ST_SRID(geometry) as srid "+
             " FROM my_places " +
             " WHERE "+
@@ -47,7 +47,7 @@ public interface MyPlaceMapper {
             " place_desc, " +
             " link, " +
             " image_url, " +
-            " ST_ASTEXT(geometry) as wkt, "+
+            " ST_AsEWKB(geometry) as geom, "+
             " ST_SRID(geometry) as srid "+
             " FROM my_places " +
             " WHERE "+
@@ -66,7 +66,7 @@ public interface MyPlaceMapper {
             " place_desc, " +
             " link, " +
             " image_url, " +
-            " ST_ASTEXT(geometry) as wkt, "+
+            " ST_AsEWKB(geometry) as geom, "+
             " ST_SRID(geometry) as srid "+
             " FROM my_places " +
             " WHERE "+
@@ -85,7 +85,7 @@ public interface MyPlaceMapper {
             " place_desc, " +
             " link, " +
             " image_url, " +
-            " ST_ASTEXT(geometry) as wkt, " +
+            " ST_AsEWKB(geometry) as geom, " +
             " ST_SRID(geometry) as srid " +
             " FROM my_places " +
             " WHERE "+
@@ -100,6 +100,45 @@ public interface MyPlaceMapper {
                                 @Param("maxX") double maxX,
                                 @Param("maxY") double maxY,
                                 @Param("srid") int srid);
+
+    /**
+     * Returns places of the category intersecting the tile as a MVT tile created with PostGIS ST_AsMVT.
+     * @param margin places are selected from the tile extent expanded by this (crs units)
+     * @param nativeSrid srid of the stored geometries
+     */
+    @Select("SELECT ST_AsMVT(tile, #{mvtLayer}, #{extent}, 'geom') FROM (" +
+            " SELECT " +
+            "  CAST(id AS text) AS \"_oid\", " +
+            "  name, " +
+            "  place_desc, " +
+            "  attention_text, " +
+            "  link, " +
+            "  image_url, " +
+            "  ST_AsMVTGeom(" +
+            "    ST_Transform(geometry, #{srid}), " +
+            "    ST_MakeEnvelope(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), " +
+            "    #{extent}, " +
+            "    CASE WHEN GeometryType(geometry) IN ('POINT', 'MULTIPOINT') THEN #{pointBuffer} ELSE #{buffer} END, " +
+            "    true) AS geom " +
+            " FROM my_places " +
+            " WHERE " +
+            " category_id = #{categoryId} " +
+            " AND " +
+            " geometry && ST_Transform(ST_Expand(ST_MakeEnvelope(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), #{margin}), #{nativeSrid})" +
+            ") AS tile")
+    byte[] getMVT(@Param("categoryId") int categoryId,
+                  @Param("mvtLayer") String mvtLayer,
+                  @Param("extent") int extent,
+                  @Param("buffer") int buffer,
+                  @Param("pointBuffer") int pointBuffer,
+                  @Param("minX") double minX,
+                  @Param("minY") double minY,
+                  @Param("maxX") double maxX,
+                  @Param("maxY") double maxY,
+                  @Param("srid") int srid,
+                  @Param("margin") double margin,
+                  @Param("nativeSrid") int nativeSrid);
+
     MyPlace findPlace(long id);
     MyPlaceCategory find(long categoryId);
     @Update("update categories set " +
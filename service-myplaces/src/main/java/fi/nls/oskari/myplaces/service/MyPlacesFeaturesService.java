@@ -7,7 +7,11 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.json.JSONObject;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Optional;
 
 public interface MyPlacesFeaturesService {
 
@@ -19,8 +23,52 @@ public interface MyPlacesFeaturesService {
     public JSONObject getFeaturesByUserId(String uuid, String crs) throws ServiceException;
     public JSONObject getFeaturesByMyPlaceId(long[] ids, String crs) throws ServiceException;
 
+    /**
+     * Writes a GeoJSON FeatureCollection that has already been fetched to the given stream.
+     * The stream is not closed.
+     */
+    @FunctionalInterface
+    public interface FeatureCollectionWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Fetches the features of getFeaturesByCategoryId() so they can be written to a stream afterwards.
+     * Any query errors are thrown here before anything has been written. Implementations should write
+     * the features one by one instead of building the JSON in memory.
+     * @return empty if there are no features
+     */
+    public default Optional<FeatureCollectionWriter> getFeatureWriterByCategoryId(long categoryId, String crs) throws ServiceException {
+        return toWriter(getFeaturesByCategoryId(categoryId, crs));
+    }
+
+    /**
+     * Fetches the features of getFeaturesByUserId(). See getFeatureWriterByCategoryId()
+     */
+    public default Optional<FeatureCollectionWriter> getFeatureWriterByUserId(String uuid, String crs) throws ServiceException {
+        return toWriter(getFeaturesByUserId(uuid, crs));
+    }
+
+    private static Optional<FeatureCollectionWriter> toWriter(JSONObject featureCollection) {
+        if (featureCollection == null) {
+            return Optional.empty();
+        }
+        byte[] json = featureCollection.toString().getBytes(StandardCharsets.UTF_8);
+        return Optional.of(out -> out.write(json));
+    }
+
     public SimpleFeatureCollection getFeatures(int categoryId, ReferencedEnvelope bbox, CoordinateReferenceSystem crs) throws ServiceException;
 
+    /**
+     * Returns places of the category as a MVT tile if the database can create one.
+     * See UserLayerService.getMVT() for the parameters.
+     * @return empty if not supported
+     */
+    public default Optional<byte[]> getMVT(int categoryId, String mvtLayer, double[] bbox, int srid,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        return Optional.empty();
+    }
+
     /**
      * Returns ids of inserted features
      * TODO: Just set the ids for the existing objects
@@ -9,6 +9,7 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.mybatis.MyBatisHelper;
+import fi.nls.oskari.mybatis.PostGISMVTSupport;
 import fi.nls.oskari.myplaces.MyPlaceMapper;
 import fi.nls.oskari.myplaces.service.MyPlacesFeaturesService;
 import fi.nls.oskari.service.ServiceException;
@@ -34,23 +35,32 @@ import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.referencing.operation.MathTransform;
 import org.oskari.geojson.GeoJSON;
+import org.oskari.geojson.GeoJSONStreamWriter;
 import org.oskari.geojson.GeoJSONWriter;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+
 import javax.sql.DataSource;
+import java.io.IOException;
 import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
 import static fi.nls.oskari.map.geometry.WKTHelper.GEOM_ATTRIBUTE;
-import static fi.nls.oskari.map.geometry.WKTHelper.parseWKT;
 
 public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesService {
     private static final Logger LOG = LogFactory.getLogger(
             MyPlacesFeaturesServiceMybatisImpl.class);
 
     private static final GeoJSONWriter geojsonWriter = new GeoJSONWriter();
+    // feature types by geometry binding
+    private static final Map<Class<? extends Geometry>, SimpleFeatureType> FEATURE_TYPES = new ConcurrentHashMap<>();
     private SqlSessionFactory factory = null;
+    private final PostGISMVTSupport mvt;
 
     public MyPlacesFeaturesServiceMybatisImpl() {
         final DatasourceHelper helper = DatasourceHelper.getInstance();
@@ -61,6 +71,7 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         else {
             LOG.error("Couldn't get datasource for myplaces");
         }
+        mvt = new PostGISMVTSupport(factory);
     }
 
     private SqlSessionFactory initializeMyBatis(final DataSource dataSource) {
@@ -99,6 +110,32 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         }
     }
 
+    @Override
+    public Optional<FeatureCollectionWriter> getFeatureWriterByCategoryId(long categoryId, String crs) throws ServiceException {
+        List<MyPlace> places;
+        try (SqlSession session = factory.openSession()) {
+            LOG.debug("getFeatureWriter by category id: ", categoryId, crs);
+            places = session.getMapper(MyPlaceMapper.class).findAllByCategoryId(categoryId);
+        } catch (Exception e) {
+            LOG.warn(e, "Exception when trying to get MyPlaces ");
+            throw new ServiceException(e.getMessage());
+        }
+        return toFeatureCollectionWriter(places, crs);
+    }
+
+    @Override
+    public Optional<FeatureCollectionWriter> getFeatureWriterByUserId(String uuid, String crs) throws ServiceException {
+        List<MyPlace> places;
+        try (SqlSession session = factory.openSession()) {
+            LOG.debug("getFeatureWriter by user id: ", uuid, crs);
+            places = session.getMapper(MyPlaceMapper.class).findAllByUuId(uuid);
+        } catch (Exception e) {
+            LOG.warn(e, "Exception when trying to get myplaces by uuid ", uuid);
+            throw new ServiceException(e.getMessage());
+        }
+        return toFeatureCollectionWriter(places, crs);
+    }
+
     @Override
     public JSONObject getFeaturesByMyPlaceId(long[] ids, String crs) throws ServiceException {
         try (SqlSession session = factory.openSession()) {
@@ -129,16 +166,48 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         }
     }
 
+    /**
+     * Creates the tile with PostGIS so places don't need to be parsed from WKT and encoded in the JVM.
+     * Returns empty if the database isn't PostgreSQL (tests) or PostGIS doesn't have the needed functions.
+     */
+    @Override
+    public Optional<byte[]> getMVT(int categoryId, String mvtLayer, double[] bbox, int srid,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        if (!mvt.isSupported()) {
+            return Optional.empty();
+        }
+        double margin = PostGISMVTSupport.getMargin(bbox, extent, buffer, pointBuffer);
+        int nativeSrid = getSRID(PropertyUtil.get("oskari.native.srs", "EPSG:3857"));
+        try (SqlSession session = factory.openSession()) {
+            final MyPlaceMapper mapper = session.getMapper(MyPlaceMapper.class);
+            byte[] tile = mapper.getMVT(categoryId, mvtLayer, extent, buffer, pointBuffer,
+                    bbox[0], bbox[1], bbox[2], bbox[3], srid, margin, nativeSrid);
+            return Optional.of(tile != null ? tile : new byte[0]);
+        } catch (Exception e) {
+            if (mvt.disableIfUndefined(e)) {
+                LOG.warn("PostGIS doesn't support ST_AsMVT, encoding myplaces tiles in the JVM:", e.getMessage());
+                return Optional.empty();
+            }
+            LOG.warn(e, "Failed to create MVT tile for category:", categoryId);
+            throw new ServiceException("Failed to create MVT tile", e);
+        }
+    }
+
     private SimpleFeatureCollection toSimpleFeatureCollection(List<MyPlace> features) throws ServiceException {
         try {
             if (features == null || features.isEmpty()) {
                 return new EmptyFeatureCollection(null);
             }
 
+            // all features share the same type
+            Class<? extends Geometry> binding = WKTHelper.getCommonBinding(features.stream()
+                    .map(MyPlace::getGeometry)
+                    .collect(Collectors.toList()));
+            SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(getFeatureType(binding));
             DefaultFeatureCollection collection = new DefaultFeatureCollection();
             for (MyPlace feature: features) {
-                if (feature.getWkt() != null) {
-                    collection.add(toSimpleFeature(feature));
+                if (feature.getGeometry() != null) {
+                    collection.add(toSimpleFeature(feature, featureBuilder));
                 }
             }
 
@@ -148,12 +217,8 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         }
     }
 
-    private SimpleFeature toSimpleFeature(MyPlace feature) {
-        Geometry geom = parseWKT(feature.getWkt());
-        SimpleFeatureTypeBuilder featureTypeBuilder = getFeatureTypeBuilder(geom);
-        SimpleFeatureType simpleFeatureType = featureTypeBuilder.buildFeatureType();
-        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(simpleFeatureType);
-        featureBuilder.set(GEOM_ATTRIBUTE, geom);
+    private SimpleFeature toSimpleFeature(MyPlace feature, SimpleFeatureBuilder featureBuilder) {
+        featureBuilder.set(GEOM_ATTRIBUTE, feature.getGeometry());
 
         featureBuilder.set("id", feature.getId());
         featureBuilder.set("uuid", feature.getUuid());
@@ -168,19 +233,21 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         return featureBuilder.buildFeature(Long.valueOf(feature.getId()).toString());
     }
 
-    private SimpleFeatureTypeBuilder getFeatureTypeBuilder(Geometry geometry) {
-        SimpleFeatureTypeBuilder featureTypeBuilder = WKTHelper.getFeatureTypeBuilder(geometry);
-        featureTypeBuilder.add("id", Long.class);
-        featureTypeBuilder.add("uuid", String.class);
-        featureTypeBuilder.add("categoryId", Long.class);
-        featureTypeBuilder.add("name", String.class);
-        featureTypeBuilder.add("attention_text", String.class);
-        featureTypeBuilder.add("created", OffsetDateTime.class);
-        featureTypeBuilder.add("updated", OffsetDateTime.class);
-        featureTypeBuilder.add("place_desc", String.class);
-        featureTypeBuilder.add("link", String.class);
-        featureTypeBuilder.add("image_url", String.class);
-        return featureTypeBuilder;
+    private static SimpleFeatureType getFeatureType(Class<? extends Geometry> binding) {
+        return FEATURE_TYPES.computeIfAbsent(binding, b -> {
+            SimpleFeatureTypeBuilder featureTypeBuilder = WKTHelper.getFeatureTypeBuilder(b);
+            featureTypeBuilder.add("id", Long.class);
+            featureTypeBuilder.add("uuid", String.class);
+            featureTypeBuilder.add("categoryId", Long.class);
+            featureTypeBuilder.add("name", String.class);
+            featureTypeBuilder.add("attention_text", String.class);
+            featureTypeBuilder.add("created", OffsetDateTime.class);
+            featureTypeBuilder.add("updated", OffsetDateTime.class);
+            featureTypeBuilder.add("place_desc", String.class);
+            featureTypeBuilder.add("link", String.class);
+            featureTypeBuilder.add("image_url", String.class);
+            return featureTypeBuilder.buildFeatureType();
+        });
     }
 
     @Override
@@ -266,6 +333,66 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
         return null;
     }
 
+    /**
+     * Same output as toGeoJSONFeatureCollection() but written feature by feature to the stream
+     * with coordinates rounded to the precision of the CRS
+     */
+    private Optional<FeatureCollectionWriter> toFeatureCollectionWriter(List<MyPlace> places, String targetSRSName) throws ServiceException {
+        if (places == null || places.isEmpty()) {
+            return Optional.empty();
+        }
+        int decimals;
+        try {
+            decimals = GeoJSONStreamWriter.getNumDecimals(CRS.decode(targetSRSName));
+        } catch (Exception e) {
+            throw new ServiceException("Invalid " + ActionConstants.PARAM_SRS + ": " + targetSRSName);
+        }
+        return Optional.of(out -> {
+            GeoJSONStreamWriter writer = new GeoJSONStreamWriter(out, decimals);
+            writer.writeStartFeatureCollection(targetSRSName);
+            for (MyPlace place : places) {
+                writeGeoJSONFeature(writer, place, targetSRSName);
+            }
+            writer.writeEndFeatureCollection();
+            writer.flush();
+        });
+    }
+
+    private void writeGeoJSONFeature(GeoJSONStreamWriter writer, MyPlace place, String targetSRSName) throws IOException {
+        JsonGenerator json = writer.getGenerator();
+        json.writeStartObject();
+        json.writeNumberField(GeoJSON.ID, place.getId());
+        json.writeStringField("geometry_name", GeoJSON.GEOMETRY);
+        json.writeStringField(GeoJSON.TYPE, GeoJSON.FEATURE);
+
+        String sourceSRSName = "EPSG:" + place.getDatabaseSRID();
+        Geometry transformed = WKTHelper.transform(place.getGeometry(), sourceSRSName, targetSRSName);
+        if (transformed != null) {
+            json.writeFieldName(GeoJSON.GEOMETRY);
+            writer.writeGeometry(transformed);
+        }
+
+        json.writeObjectFieldStart(GeoJSON.PROPERTIES);
+        // null values are left out like in toGeoJSONFeature()
+        writeProperty(writer, "attention_text", place.getAttentionText());
+        writeProperty(writer, "category_id", place.getCategoryId());
+        writeProperty(writer, "created", place.getCreated());
+        writeProperty(writer, "image_url", place.getImageUrl());
+        writeProperty(writer, "link", place.getLink());
+        writeProperty(writer, "name", place.getName());
+        writeProperty(writer, "place_desc", place.getDesc());
+        writeProperty(writer, "updated", place.getUpdated());
+        json.writeEndObject();
+
+        json.writeEndObject();
+    }
+
+    private static void writeProperty(GeoJSONStreamWriter writer, String name, Object value) throws IOException {
+        if (value != null) {
+            writer.writeProperty(name, value);
+        }
+    }
+
      private JSONObject toGeoJSONFeatureCollection(List<MyPlace> places, String targetSRSName) throws ServiceException {
         if (places == null || places.isEmpty()) {
             return null;
@@ -294,7 +421,7 @@ public class MyPlacesFeaturesServiceMybatisImpl implements MyPlacesFeaturesServi
             feature.put(GeoJSON.TYPE, GeoJSON.FEATURE);
 
             String sourceSRSName = "EPSG:" + place.getDatabaseSRID();
-            Geometry transformed = WKTHelper.transform(parseWKT(place.getWkt()), sourceSRSName, targetSRSName);
+            Geometry transformed = WKTHelper.transform(place.getGeometry(), sourceSRSName, targetSRSName);
             JSONObject geoJsonGeometry = geojsonWriter.writeGeometry(transformed);
             feature.put(GeoJSON.GEOMETRY, geoJsonGeometry);
 
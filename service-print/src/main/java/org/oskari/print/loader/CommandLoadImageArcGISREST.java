@@ -11,7 +11,16 @@ public class CommandLoadImageArcGISREST {
             int height,
             double[] bbox,
             String srsName) {
-        final String request = new ArcGISMapExportBuilder()
+        final String request = getRequestURL(layer, width, height, bbox, srsName);
+        return PrintLoader.loadImageFromURL(request, layer.getUsername(), layer.getPassword());
+    }
+
+    public static String getRequestURL(PrintLayer layer,
+            int width,
+            int height,
+            double[] bbox,
+            String srsName) {
+        return new ArcGISMapExportBuilder()
                 .endPoint(layer.getUrl())
                 .layer(layer.getName())
                 .bbox(bbox)
@@ -20,6 +29,5 @@ public class CommandLoadImageArcGISREST {
                 .height(height)
                 .transparent(true)
                 .build();
-        return PrintLoader.loadImageFromURL(request, layer.getUsername(), layer.getPassword());
     }
 }
@@ -15,7 +15,17 @@ public class CommandLoadImageWMS {
             double[] bbox,
             String srsName,
             String time) {
-        final String request = new GetMapBuilder().endPoint(layer.getUrl())
+        final String request = getRequestURL(layer, width, height, bbox, srsName, time);
+        return PrintLoader.loadImageFromURL(request, layer.getUsername(), layer.getPassword());
+    }
+
+    public static String getRequestURL(PrintLayer layer,
+            int width,
+            int height,
+            double[] bbox,
+            String srsName,
+            String time) {
+        return new GetMapBuilder().endPoint(layer.getUrl())
                 .version(layer.getVersion())
                 .layer(layer.getName(), layer.getStyle())
                 .bbox(bbox)
@@ -26,6 +36,5 @@ public class CommandLoadImageWMS {
                 .transparent(true)
                 .time(time)
                 .toKVP();
-        return PrintLoader.loadImageFromURL(request, layer.getUsername(), layer.getPassword());
     }
 }
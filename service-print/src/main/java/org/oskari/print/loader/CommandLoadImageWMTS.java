@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Future;
-import java.util.function.Supplier;
 
 import fi.nls.oskari.domain.map.OskariLayer;
 import org.oskari.capabilities.CapabilitiesService;
@@ -122,9 +121,8 @@ public class CommandLoadImageWMTS {
                 }
                 requestBuilder.tileCol(c);
                 String uri = requestBuilder.build();
-                Supplier<BufferedImage> supplier = () -> PrintLoader.loadImageFromURL(uri, layer.getUsername(), layer.getPassword());
                 String commandKey = Integer.toString(layer.getId());
-                futureTiles.add(loader.runImageSupplier(commandKey, supplier));
+                futureTiles.add(loader.loadImage(commandKey, uri, layer.getUsername(), layer.getPassword()));
             }
         }
 
@@ -171,9 +169,9 @@ public class CommandLoadImageWMTS {
     private static LayerCapabilitiesWMTS getLayerCapabilities(PrintLayer layer) throws IllegalArgumentException {
         OskariLayer oskariLayer = layer.getOskariLayer();
         if (oskariLayer != null) {
-            JSONObject capabilies = layer.getOskariLayer().getCapabilities();
-            if (capabilies != null) {
-                return CapabilitiesService.fromJSON(layer.getOskariLayer().getCapabilities().toString(), OskariLayer.TYPE_WMTS);
+            LayerCapabilitiesWMTS caps = CapabilitiesService.fromLayer(oskariLayer, OskariLayer.TYPE_WMTS);
+            if (caps != null) {
+                return caps;
             }
         }
         throw new IllegalArgumentException("Could not find layer from Capabilities");
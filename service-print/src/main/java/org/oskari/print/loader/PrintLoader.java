@@ -2,14 +2,18 @@ package org.oskari.print.loader;
 
 import java.awt.image.BufferedImage;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -18,8 +22,11 @@ import java.util.function.Supplier;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.service.ServiceRuntimeException;
-import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.OskariHttpClient;
 import fi.nls.oskari.util.PropertyUtil;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
 import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
@@ -54,7 +61,10 @@ public class PrintLoader {
     private final RetryRegistry retryRegistry;
     private final TimeLimiter timeLimiter;
     private final ThreadPoolBulkhead bulkhead;
+    private final Bulkhead imageBulkhead;
+    private final ExecutorService decoder;
     private final ScheduledExecutorService executor;
+    private final Duration requestTimeout;
 
     public PrintLoader() {
         int failRequests = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".failrequests", 5);
@@ -90,9 +100,25 @@ public class PrintLoader {
         ThreadPoolBulkheadRegistry registry = ThreadPoolBulkheadRegistry.of(bulkheadConfig);
         bulkhead = registry.bulkhead(GROUP_KEY);
 
+        int timeout = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.timeoutms", 15000);
+        requestTimeout = Duration.ofMillis(timeout);
+
+        // Images are requested without holding a thread while waiting for the service,
+        // the number of concurrent requests is limited with a semaphore instead.
+        // Large prints can have more tiles than the limit so wait for a permit instead of failing.
+        BulkheadConfig imageBulkheadConfig = BulkheadConfig.custom()
+                .maxConcurrentCalls(poolLimit)
+                .maxWaitDuration(requestTimeout)
+                .build();
+        imageBulkhead = BulkheadRegistry.of(imageBulkheadConfig).bulkhead(GROUP_KEY + ".images");
+        decoder = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread t = new Thread(r, "oskari-" + GROUP_KEY + "-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+
         executor = Executors.newScheduledThreadPool(3);
 
-        int timeout = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.timeoutms", 15000);
         TimeLimiterConfig timeLimiterConfig = TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(timeout)).build();
         timeLimiter = TimeLimiterRegistry.of(timeLimiterConfig).timeLimiter(GROUP_KEY);
     }
@@ -111,21 +137,22 @@ public class PrintLoader {
         final String srsName = request.getSrsName();
 
         for (PrintLayer layer : requestedLayers) {
-            Supplier<BufferedImage> supplier = null;
-            switch (layer.getType()) { 
+            final String commandKey = layer.getLayerId();
+            switch (layer.getType()) {
             case OskariLayer.TYPE_WMS:
-                supplier = () -> CommandLoadImageWMS.loadImage(layer, width, height, bbox, srsName,request.getTime());
+                String wmsURL = CommandLoadImageWMS.getRequestURL(layer, width, height, bbox, srsName, request.getTime());
+                images.put(layer.getZIndex(), loadImage(commandKey, wmsURL, layer.getUsername(), layer.getPassword()));
                 break;
             case OskariLayer.TYPE_WMTS:
-                supplier = () -> CommandLoadImageWMTS.loadImage(layer, width, height, bbox, srsName, request.getResolution(), this);
+                // tiles are loaded with loadImage(), the supplier just waits for them and combines them
+                Supplier<BufferedImage> supplier = () -> CommandLoadImageWMTS.loadImage(layer, width, height, bbox, srsName, request.getResolution(), this);
+                images.put(layer.getZIndex(), runImageSupplier(commandKey, supplier));
                 break;
             case OskariLayer.TYPE_ARCGIS93:
-                supplier = () -> CommandLoadImageArcGISREST.loadImage(layer, width, height, bbox, srsName);
+                String arcgisURL = CommandLoadImageArcGISREST.getRequestURL(layer, width, height, bbox, srsName);
+                images.put(layer.getZIndex(), loadImage(commandKey, arcgisURL, layer.getUsername(), layer.getPassword()));
                 break;
             }
-            if (supplier != null) {
-                images.put(layer.getZIndex(), runImageSupplier(layer.getLayerId(), supplier));
-            }
         }
 
         return images;
@@ -175,15 +202,50 @@ public class PrintLoader {
                 .get().toCompletableFuture();
     }
 
+    /**
+     * Loads an image without blocking a thread while waiting for the service to respond.
+     * Runs with the same time limiter, circuit breaker and retry as runImageSupplier().
+     * @return future that completes with the image or null if the image couldn't be loaded
+     */
+    public Future<BufferedImage> loadImage(String commandKey, String uri, String user, String pass) {
+        return Decorators.ofCompletionStage(() -> loadImageFromURLAsync(uri, user, pass))
+                .withBulkhead(imageBulkhead)
+                .withTimeLimiter(timeLimiter, executor)
+                .withCircuitBreaker(circuitBreakerRegistry.circuitBreaker(commandKey))
+                .withRetry(retryRegistry.retry(commandKey), executor)
+                .withFallback(throwable -> null)
+                .get().toCompletableFuture();
+    }
+
+    private CompletableFuture<BufferedImage> loadImageFromURLAsync(String uri, String user, String pass) {
+        LOG.debug("Loading print content from:", uri);
+        HttpRequest request = OskariHttpClient.newRequest(uri, user, pass).build();
+        return OskariHttpClient.sendAsync(request, requestTimeout)
+                .thenApplyAsync(PrintLoader::readImage, decoder);
+    }
+
+    private static BufferedImage readImage(HttpResponse<byte[]> response) {
+        if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            // short-circuit 404 as we get these a lot in the log
+            throw new ServiceRuntimeException("Not found");
+        }
+        try (InputStream in = new ByteArrayInputStream(OskariHttpClient.readBytes(response))) {
+            return ImageIO.read(in);
+        } catch (IOException e) {
+            throw new ServiceRuntimeException(e.getMessage(), e);
+        }
+    }
+
     public static BufferedImage loadImageFromURL(String uri, String user, String pass) {
         LOG.debug("Loading print content from:", uri);
         try {
-            HttpURLConnection conn = IOHelper.getConnection(uri, user, pass);
-            if (conn.getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+            HttpResponse<InputStream> response = OskariHttpClient.send(OskariHttpClient.newRequest(uri, user, pass).build());
+            if (response.statusCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                OskariHttpClient.discard(response);
                 // short-circuit 404 as we get these a lot in the log
                 throw new ServiceRuntimeException("Not found");
             }
-            try (InputStream in = new BufferedInputStream(conn.getInputStream())) {
+            try (InputStream in = new BufferedInputStream(OskariHttpClient.getDecodedInputStream(response))) {
                 return ImageIO.read(in);
             }
         } catch (IOException e) {
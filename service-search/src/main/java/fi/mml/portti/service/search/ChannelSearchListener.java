@@ -0,0 +1,24 @@
+package fi.mml.portti.service.search;
+
+/**
+ * Gets notified about searches made to search channels.
+ * Can be used to publish statistics for search channels.
+ */
+public interface ChannelSearchListener {
+
+    /**
+     * Called when a search to a channel completes. This is called even if
+     * the search took longer than the timeout for the channel.
+     * @param channelId channel that was searched
+     * @param durationMs how long the search took
+     * @param success false if the search failed
+     */
+    void searchCompleted(String channelId, long durationMs, boolean success);
+
+    /**
+     * Called when the results of a channel were not waited for because the channel didn't respond
+     * in time or it was temporarily disabled after failing repeatedly.
+     * @param channelId channel that was searched
+     */
+    default void searchSkipped(String channelId) {}
+}
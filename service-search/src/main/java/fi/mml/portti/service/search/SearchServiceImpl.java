@@ -6,14 +6,31 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.search.channel.*;
 import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONArray;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
 import org.json.JSONObject;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 @Oskari
 public class SearchServiceImpl extends SearchService implements SearchChannelChangeListener {
@@ -21,6 +38,12 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
     /** logger */
     private static final Logger LOG = LogFactory.getLogger(SearchServiceImpl.class);
 
+    private static final String PROPERTY_PREFIX = "search.channels.";
+    private static final int DEFAULT_TIMEOUT_MS = 10000;
+    private static final CopyOnWriteArrayList<ChannelSearchListener> LISTENERS = new CopyOnWriteArrayList<>();
+    private static ExecutorService executor;
+    private static CircuitBreakerRegistry circuitBreakers;
+
     /** Available channels */
     private volatile Map<String, SearchableChannel> availableChannels = null;
 
@@ -158,11 +181,12 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         final Query query = new Query();
         query.setSearchCriteria(searchCriteria);
 
+        // start searches on all channels before waiting for any of them
+        Map<SearchableChannel, CompletableFuture<ChannelSearchResult>> searches = new LinkedHashMap<>();
         for (String channelId : searchCriteria.getChannels()) {
             if (!availableChannels.containsKey(channelId)) {
                 continue;
             }
-            long timeStart = System.currentTimeMillis();
             SearchableChannel channel = availableChannels.get(channelId);
             User user = searchCriteria.getUser();
             if(!channel.hasPermission(user)) {
@@ -181,18 +205,16 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
                 LOG.debug(e, "Skipping ", channel.getId(), "- criteria not valid");
                 continue;
             }
-            ChannelSearchResult result = handleChannelSearch(searchCriteria, channel);
-            int numResults = -1;
-            if(result != null) {
-                LOG.debug("Result", result);
-                result.setChannelId(channel.getId());
-                query.addChannelSearchResult(result);
-                numResults = result.getNumberOfResults();
-            }
-            long timeEnd = System.currentTimeMillis();
-            LOG.debug("Search query to", channel.getId(),
-                    "took", (timeEnd - timeStart), "ms",
-                    "- got", numResults, "results");
+            searches.put(channel, searchAsync(searchCriteria, channel));
+        }
+
+        for (Map.Entry<SearchableChannel, CompletableFuture<ChannelSearchResult>> search : searches.entrySet()) {
+            SearchableChannel channel = search.getKey();
+            ChannelSearchResult result = waitForResult(searchCriteria, channel, search.getValue(), fullQueryStartTime);
+            LOG.debug("Result", result);
+            result.setChannelId(channel.getId());
+            query.addChannelSearchResult(result);
+            LOG.debug("Search query to", channel.getId(), "got", result.getNumberOfResults(), "results");
         }
 
         long fullQueryEndTime = System.currentTimeMillis();
@@ -201,6 +223,66 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         return query;
     }
 
+    /**
+     * Runs the search on the shared executor. Channels that have failed repeatedly are skipped
+     * for a while by a circuit breaker so they don't hold up searches for other channels.
+     */
+    private CompletableFuture<ChannelSearchResult> searchAsync(SearchCriteria sc, SearchableChannel channel) {
+        final String channelId = channel.getId();
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(channelId);
+        final Supplier<ChannelSearchResult> search = CircuitBreaker.decorateSupplier(circuitBreaker, () -> {
+            long timeStart = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                ChannelSearchResult result = doChannelSearch(sc, channel);
+                success = !result.isQueryFailed();
+                return result;
+            } finally {
+                notifyCompleted(channelId, System.currentTimeMillis() - timeStart, success);
+            }
+        });
+        try {
+            return CompletableFuture.supplyAsync(search, getExecutor());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Waits for the result until the timeout of the channel (counted from the start of the whole query)
+     * @return the result or a failed result if the search failed or didn't complete in time
+     */
+    private ChannelSearchResult waitForResult(SearchCriteria sc, SearchableChannel channel,
+            CompletableFuture<ChannelSearchResult> future, long queryStartTime) {
+        final String channelId = channel.getId();
+        final long remaining = queryStartTime + getTimeoutMs(channelId) - System.currentTimeMillis();
+        try {
+            return future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // a search still waiting in the queue won't be started
+            future.cancel(true);
+            LOG.warn("Search query to", channelId, "timed out. Returning results without it.");
+            notifySkipped(channelId);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CallNotPermittedException) {
+                LOG.info("Search channel", channelId, "temporarily disabled after errors");
+                notifySkipped(channelId);
+            } else if (cause instanceof RejectedExecutionException) {
+                LOG.warn("Too many searches in progress, skipped channel:", channelId);
+                notifySkipped(channelId);
+            } else {
+                LOG.error(cause, "Search query to", channelId, "failed! Searchstring was '", sc.getSearchString(), "'");
+            }
+        }
+        final ChannelSearchResult result = new ChannelSearchResult();
+        result.setQueryFailed(true);
+        return result;
+    }
+
     @Override
     public JSONObject doSearchAutocomplete(SearchCriteria searchCriteria) {
         if (availableChannels == null) {
@@ -253,17 +335,17 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
     }
 
     /**
-     * Handles actual channel search and catches exceptions
+     * Handles actual channel search. Exceptions are thrown so the circuit breaker for the channel can see them.
      *
      * @param sc
      * @param channel
      * @return
      */
-    private ChannelSearchResult handleChannelSearch(
+    private ChannelSearchResult doChannelSearch(
             SearchCriteria sc, SearchableChannel channel)
     {
+        final ChannelSearchResult result;
         try {
-            final ChannelSearchResult result;
             if(sc.isReverseGeocode() && channel.getCapabilities().canGeocode()) {
                 result = channel.reverseGeocode(sc);
             } else if(channel.getCapabilities().canTextSearch()) {
@@ -272,19 +354,103 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
                 result = new ChannelSearchResult();
                 result.setQueryFailed(true);
             }
-            final List<SearchResultItem> items = result.getSearchResultItems();
-            // calculate zoom scales etc common fields if we have an annotated (non-legacy) channel
-            for(SearchResultItem item : items) {
-                channel.calculateCommonFields(item);
-            }
-            return result;
-        } catch (Exception e) {
-            LOG.error(e, "Search query to", channel.getId(), "failed! Searchstring was '", sc.getSearchString(), "'");
-            final ChannelSearchResult result = new ChannelSearchResult();
-            result.setChannelId(channel.getId());
-            result.setQueryFailed(true);
-            return result;
+        } catch (IllegalSearchCriteriaException e) {
+            throw new ServiceRuntimeException(e.getMessage(), e);
+        }
+        final List<SearchResultItem> items = result.getSearchResultItems();
+        // calculate zoom scales etc common fields if we have an annotated (non-legacy) channel
+        for(SearchResultItem item : items) {
+            channel.calculateCommonFields(item);
+        }
+        return result;
+    }
+
+    /**
+     * Registers a listener that is notified about searches on all channels.
+     * Can be used to publish statistics for search channels.
+     * Adding the same listener again has no effect.
+     *
+     * @param listener
+     */
+    public static void addChannelSearchListener(final ChannelSearchListener listener) {
+        LISTENERS.addIfAbsent(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Removes a listener registered with addChannelSearchListener()
+     *
+     * @param listener
+     */
+    public static void removeChannelSearchListener(final ChannelSearchListener listener) {
+        LISTENERS.remove(listener);
+    }
+
+    private static void notifyCompleted(String channelId, long durationMs, boolean success) {
+        for (ChannelSearchListener listener : LISTENERS) {
+            listener.searchCompleted(channelId, durationMs, success);
+        }
+    }
+
+    private static void notifySkipped(String channelId) {
+        for (ChannelSearchListener listener : LISTENERS) {
+            listener.searchSkipped(channelId);
+        }
+    }
+
+    /**
+     * Timeout can be configured per channel with search.channel.[channel id].timeoutms
+     * and for all channels with search.channels.timeoutms
+     */
+    private static long getTimeoutMs(String channelId) {
+        int defaultTimeout = PropertyUtil.getOptional(PROPERTY_PREFIX + "timeoutms", DEFAULT_TIMEOUT_MS);
+        return PropertyUtil.getOptional("search.channel." + channelId + ".timeoutms", defaultTimeout);
+    }
+
+    private static CircuitBreaker getCircuitBreaker(String channelId) {
+        CircuitBreakerRegistry registry = getCircuitBreakers();
+        // config is only built when the circuit breaker for the channel is created
+        // calls taking longer than the timeout count as failures
+        return registry.circuitBreaker(channelId, () -> CircuitBreakerConfig.from(registry.getDefaultConfig())
+                .slowCallDurationThreshold(Duration.ofMillis(getTimeoutMs(channelId)))
+                .build());
+    }
+
+    private static synchronized CircuitBreakerRegistry getCircuitBreakers() {
+        if (circuitBreakers == null) {
+            int failRequests = PropertyUtil.getOptional(PROPERTY_PREFIX + "failrequests", 5);
+            int rollingWindowMs = PropertyUtil.getOptional(PROPERTY_PREFIX + "rollingwindow", 100000);
+            int waitDuration = PropertyUtil.getOptional(PROPERTY_PREFIX + "sleepwindow", 20000);
+            CircuitBreakerConfig config = CircuitBreakerConfig.custom()
+                    .waitDurationInOpenState(Duration.ofMillis(waitDuration))
+                    .permittedNumberOfCallsInHalfOpenState(Math.max(1, failRequests / 2))
+                    .minimumNumberOfCalls(failRequests)
+                    .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.TIME_BASED)
+                    .slidingWindowSize(Math.max(1, rollingWindowMs / 1000))
+                    .build();
+            circuitBreakers = CircuitBreakerRegistry.of(config);
+        }
+        return circuitBreakers;
+    }
+
+    /**
+     * Executor shared by all instances of the service. Pool size can be configured
+     * with search.channels.pool.size and max number of queued searches with search.channels.pool.queue
+     */
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            int poolSize = PropertyUtil.getOptional(PROPERTY_PREFIX + "pool.size", 10);
+            int queueSize = PropertyUtil.getOptional(PROPERTY_PREFIX + "pool.queue", 100);
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(poolSize, poolSize,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(queueSize), r -> {
+                        Thread t = new Thread(r, "oskari-search-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
         }
+        return executor;
     }
 
     /**
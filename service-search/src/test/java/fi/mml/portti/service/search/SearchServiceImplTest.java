@@ -0,0 +1,108 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.search.channel.SearchChannel;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SearchServiceImplTest {
+
+    private static class SleepingChannel extends SearchChannel {
+        private final String id;
+        private final long sleepMs;
+
+        SleepingChannel(String id, long sleepMs) {
+            this.id = id;
+            this.sleepMs = sleepMs;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public boolean isValidSearchTerm(SearchCriteria criteria) {
+            return true;
+        }
+
+        @Override
+        public ChannelSearchResult doSearch(SearchCriteria searchCriteria) {
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            ChannelSearchResult result = new ChannelSearchResult();
+            SearchResultItem item = new SearchResultItem();
+            item.setTitle(id);
+            result.addItem(item);
+            return result;
+        }
+    }
+
+    private ChannelSearchListener listener;
+
+    @AfterEach
+    public void teardown() {
+        PropertyUtil.clearProperties();
+        if (listener != null) {
+            SearchServiceImpl.removeChannelSearchListener(listener);
+            listener = null;
+        }
+    }
+
+    @Test
+    public void testChannelsAreSearchedInParallel() {
+        SearchServiceImpl service = new SearchServiceImpl();
+        SearchCriteria sc = new SearchCriteria();
+        sc.setSearchString("test");
+        for (int i = 0; i < 4; i++) {
+            String id = "parallel" + i;
+            service.addChannel(id, new SleepingChannel(id, 300));
+            sc.addChannel(id);
+        }
+        long start = System.currentTimeMillis();
+        Query query = service.doSearch(sc);
+        long duration = System.currentTimeMillis() - start;
+        Assertions.assertEquals(4, query.getResults().size());
+        for (ChannelSearchResult result : query.getResults()) {
+            Assertions.assertFalse(result.isQueryFailed());
+            Assertions.assertEquals(1, result.getNumberOfResults());
+        }
+        Assertions.assertTrue(duration < 1000, "Searches should run in parallel, took " + duration + "ms");
+    }
+
+    @Test
+    public void testSlowChannelIsSkipped() throws Exception {
+        PropertyUtil.addProperty("search.channel.slow.timeoutms", "100");
+        List<String> skipped = new CopyOnWriteArrayList<>();
+        listener = new ChannelSearchListener() {
+            @Override
+            public void searchCompleted(String channelId, long durationMs, boolean success) {}
+
+            @Override
+            public void searchSkipped(String channelId) {
+                skipped.add(channelId);
+            }
+        };
+        SearchServiceImpl.addChannelSearchListener(listener);
+        SearchServiceImpl service = new SearchServiceImpl();
+        service.addChannel("fast", new SleepingChannel("fast", 0));
+        service.addChannel("slow", new SleepingChannel("slow", 1000));
+        SearchCriteria sc = new SearchCriteria();
+        sc.setSearchString("test");
+        sc.addChannel("fast");
+        sc.addChannel("slow");
+
+        Query query = service.doSearch(sc);
+        Assertions.assertFalse(query.findResult("fast").isQueryFailed());
+        Assertions.assertTrue(query.findResult("slow").isQueryFailed(), "Slow channel should time out");
+        Assertions.assertTrue(skipped.contains("slow"));
+        Assertions.assertFalse(skipped.contains("fast"));
+    }
+}
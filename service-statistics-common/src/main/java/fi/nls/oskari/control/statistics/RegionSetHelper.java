@@ -4,8 +4,10 @@ import java.io.*;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.geotools.wfs.GML;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -26,7 +28,10 @@ import org.geotools.api.referencing.operation.TransformException;
 import org.oskari.geojson.GeoJSON;
 import org.oskari.geojson.GeoJSONWriter;
 
+import org.locationtech.jts.coverage.CoverageSimplifier;
+import org.locationtech.jts.coverage.CoverageValidator;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.simplify.TopologyPreservingSimplifier;
 
 import fi.nls.oskari.control.statistics.db.RegionSet;
 import fi.nls.oskari.domain.geo.Point;
@@ -45,12 +50,65 @@ public class RegionSetHelper {
     private static final String RESOURCES_URL_PREFIX = "resources://";
     private static final FeatureJSON FJ = new FeatureJSON();
 
+    // Simplification tolerances are powers of two, these are the exponents of the smallest and largest ones
+    private static final int MIN_LEVEL_METRIC = 4;
+    private static final int MAX_LEVEL_METRIC = 12;
+    private static final int MIN_LEVEL_DEGREE = -13;
+    private static final int MAX_LEVEL_DEGREE = -5;
+
     public static List<Region> getRegions(RegionSet regionset, String requestedSRS)
             throws FactoryException, MismatchedDimensionException, TransformException, ServiceException, IOException {
+        return getRegions(regionset, requestedSRS, 0);
+    }
+
+    /**
+     * Returns regions with geometries simplified with the given tolerance (in units of requestedSRS).
+     * Regions are simplified as a coverage so borders shared by neighbouring regions stay shared
+     * and no gaps or overlaps are introduced. Use getSimplificationLevel() to snap a map resolution
+     * to one of the fixed tolerances so the results can be cached.
+     * @param tolerance simplification tolerance, 0 for full resolution geometries
+     */
+    public static List<Region> getRegions(RegionSet regionset, String requestedSRS, double tolerance)
+            throws FactoryException, MismatchedDimensionException, TransformException, ServiceException, IOException {
         SimpleFeatureCollection fc = getFeatureCollection(regionset, requestedSRS);
         final String propId = regionset.getIdProperty();
         final String propName = regionset.getNameProperty();
-        return parse(fc, propId, propName);
+        return parse(fc, propId, propName, tolerance);
+    }
+
+    /**
+     * Snaps a map resolution (map units per pixel) down to a power of two between the minimum and maximum
+     * tolerance of the SRS so each regionset has at most 9 simplified levels per SRS:
+     * - metric: 16 - 4096 meters
+     * - degrees: 2^-13 - 2^-5 degrees (roughly 14 meters - 3.5 km at the equator)
+     * Regions simplified with the returned tolerance are off by at most a pixel at the requested resolution.
+     * @return tolerance to use for simplification, 0 (no simplification) for resolutions below the minimum
+     * and the maximum tolerance for resolutions above it
+     */
+    public static double getSimplificationLevel(double resolution, String srs) {
+        if (!(resolution > 0)) {
+            return 0;
+        }
+        boolean degrees = isDegrees(srs);
+        int min = degrees ? MIN_LEVEL_DEGREE : MIN_LEVEL_METRIC;
+        int max = degrees ? MAX_LEVEL_DEGREE : MAX_LEVEL_METRIC;
+        if (resolution < Math.scalb(1.0, min)) {
+            return 0;
+        }
+        if (resolution >= Math.scalb(1.0, max)) {
+            return Math.scalb(1.0, max);
+        }
+        return Math.scalb(1.0, Math.getExponent(resolution));
+    }
+
+    private static boolean isDegrees(String srs) {
+        try {
+            CoordinateReferenceSystem crs = CRS.decode(srs);
+            return "°".equals(crs.getCoordinateSystem().getAxis(0).getUnit().toString());
+        } catch (Exception e) {
+            LOG.debug(e, "Unknown srs:", srs);
+            return false;
+        }
     }
 
     protected static SimpleFeatureCollection getFeatureCollection(RegionSet regionset, String requestedSRS)
@@ -155,8 +213,14 @@ public class RegionSetHelper {
 
     protected static List<Region> parse(SimpleFeatureCollection fc, String idProperty, String nameProperty)
             throws ServiceException {
-        final List<String> duplicateIdCheckList = new ArrayList<>();
-        final List<Region> result = new ArrayList<>();
+        return parse(fc, idProperty, nameProperty, 0);
+    }
+
+    protected static List<Region> parse(SimpleFeatureCollection fc, String idProperty, String nameProperty, double tolerance)
+            throws ServiceException {
+        final Set<String> ids = new HashSet<>();
+        final List<Region> regions = new ArrayList<>();
+        final List<Geometry> geometries = new ArrayList<>();
         try (SimpleFeatureIterator it = fc.features()){
             while (it.hasNext()) {
                 final SimpleFeature feature = it.next();
@@ -168,7 +232,7 @@ public class RegionSetHelper {
                             ") property for region. Properties are:", LOG.getAsString(feature.getProperties()));
                     continue;
                 }
-                if (duplicateIdCheckList.contains(id)) {
+                if (ids.contains(id)) {
                     LOG.info("Region with id (", id, ") and name(", name,
                             ") has duplicates on the regions listing. Using the first one.");
                     continue;
@@ -176,19 +240,53 @@ public class RegionSetHelper {
                 Region region = new Region(id, name);
                 try {
                     region.setPointOnSurface(getPointOnSurface(feature));
-                    region.setGeojson(toGeoJSON((Geometry) feature.getDefaultGeometry(), id, name));
-                    result.add(region);
-                    duplicateIdCheckList.add(id);
+                    regions.add(region);
+                    geometries.add((Geometry) feature.getDefaultGeometry());
+                    ids.add(id);
                 } catch (Exception ex) {
                     LOG.warn("Region had invalid geometry:", region, "Error:", ex.getMessage());
                 }
             }
-            if (result.isEmpty()) {
-                throw new ServiceException("Empty result, check configuration for region id-property=" +
-                        idProperty + " and name-property=" + nameProperty);
+        }
+        final Geometry[] simplified = simplify(geometries.toArray(new Geometry[0]), tolerance);
+        final List<Region> result = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            try {
+                region.setGeojson(toGeoJSON(simplified[i], region.getCode(), region.getName()));
+                result.add(region);
+            } catch (Exception ex) {
+                LOG.warn("Region had invalid geometry:", region, "Error:", ex.getMessage());
+            }
+        }
+        if (result.isEmpty()) {
+            throw new ServiceException("Empty result, check configuration for region id-property=" +
+                    idProperty + " and name-property=" + nameProperty);
+        }
+        return result;
+    }
+
+    /**
+     * Simplifies the regions as a coverage when possible so neighbouring regions keep their shared borders.
+     * Falls back to simplifying each geometry separately if the regions don't form a valid coverage.
+     */
+    protected static Geometry[] simplify(Geometry[] geometries, double tolerance) {
+        if (!(tolerance > 0) || geometries.length == 0) {
+            return geometries;
+        }
+        try {
+            if (CoverageValidator.isValid(geometries)) {
+                return CoverageSimplifier.simplify(geometries, tolerance);
             }
-            return result;
+            LOG.debug("Regions don't form a valid coverage, simplifying regions one by one");
+        } catch (Exception e) {
+            LOG.debug(e, "Failed to simplify regions as a coverage, simplifying regions one by one");
+        }
+        Geometry[] simplified = new Geometry[geometries.length];
+        for (int i = 0; i < geometries.length; i++) {
+            simplified[i] = TopologyPreservingSimplifier.simplify(geometries[i], tolerance);
         }
+        return simplified;
     }
 
     protected static JSONObject toGeoJSON(Geometry geom, String id, String name) throws JSONException {
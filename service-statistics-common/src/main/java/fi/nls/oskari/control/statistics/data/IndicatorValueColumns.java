@@ -0,0 +1,213 @@
+package fi.nls.oskari.control.statistics.data;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact representation of indicator values for a regionset. Region ids are interned per regionset
+ * and stored as int references so the same region id strings are shared by all cached indicators/selectors
+ * of the regionset. Values are stored in a primitive array with a type flag per value instead of
+ * boxed IndicatorValue objects. Integers are stored as is and floats as their IEEE 754 bits so integers
+ * above 2^53 keep their precision.
+ *
+ * toBytes()/fromBytes() is a binary encoding for storing the values in Redis without JSON parsing.
+ */
+public final class IndicatorValueColumns {
+
+    // first bytes of the binary encoding, the value cached previously as JSON starts with '{'
+    private static final byte MAGIC = (byte) 0xC1;
+    // version 1 stored integers as doubles
+    private static final byte FORMAT_VERSION = 2;
+
+    private static final byte TYPE_FLOAT = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+
+    private static final Map<Long, RegionIndex> REGIONS = new ConcurrentHashMap<>();
+
+    private final RegionIndex regions;
+    private final int[] regionRefs;
+    private final long[] values;
+    private final byte[] types;
+
+    private IndicatorValueColumns(RegionIndex regions, int[] regionRefs, long[] values, byte[] types) {
+        this.regions = regions;
+        this.regionRefs = regionRefs;
+        this.values = values;
+        this.types = types;
+    }
+
+    /**
+     * Null values are skipped as they wouldn't be written to JSON either.
+     */
+    public static IndicatorValueColumns from(long regionsetId, Map<String, IndicatorValue> data) {
+        RegionIndex regions = getRegionIndex(regionsetId);
+        int[] regionRefs = new int[data.size()];
+        long[] values = new long[data.size()];
+        byte[] types = new byte[data.size()];
+        int count = 0;
+        for (Map.Entry<String, IndicatorValue> entry : data.entrySet()) {
+            IndicatorValue value = entry.getValue();
+            if (value instanceof IndicatorValueFloat && ((IndicatorValueFloat) value).getDouble() != null) {
+                values[count] = Double.doubleToLongBits(((IndicatorValueFloat) value).getDouble());
+                types[count] = TYPE_FLOAT;
+            } else if (value instanceof IndicatorValueInteger && ((IndicatorValueInteger) value).getLong() != null) {
+                values[count] = ((IndicatorValueInteger) value).getLong();
+                types[count] = TYPE_INTEGER;
+            } else if (value instanceof IndicatorValueBoolean) {
+                values[count] = ((IndicatorValueBoolean) value).getBoolean() ? 1 : 0;
+                types[count] = TYPE_BOOLEAN;
+            } else {
+                continue;
+            }
+            regionRefs[count] = regions.intern(entry.getKey());
+            count++;
+        }
+        return new IndicatorValueColumns(regions,
+                Arrays.copyOf(regionRefs, count), Arrays.copyOf(values, count), Arrays.copyOf(types, count));
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public String getRegion(int index) {
+        return regions.get(regionRefs[index]);
+    }
+
+    public IndicatorValue getValue(int index) {
+        switch (types[index]) {
+            case TYPE_INTEGER:
+                return new IndicatorValueInteger(values[index]);
+            case TYPE_BOOLEAN:
+                return new IndicatorValueBoolean(values[index] != 0);
+            default:
+                return new IndicatorValueFloat(getDouble(index));
+        }
+    }
+
+    public Map<String, IndicatorValue> toMap() {
+        Map<String, IndicatorValue> map = new LinkedHashMap<>(size());
+        for (int i = 0; i < size(); i++) {
+            map.put(getRegion(i), getValue(i));
+        }
+        return map;
+    }
+
+    /**
+     * Same JSON as writing the values with IndicatorValue.putToJSONObject():
+     * { "[region id]": value, ... }
+     */
+    public JSONObject toJSON() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (int i = 0; i < size(); i++) {
+            switch (types[i]) {
+                case TYPE_INTEGER:
+                    json.put(getRegion(i), values[i]);
+                    break;
+                case TYPE_BOOLEAN:
+                    json.put(getRegion(i), values[i] != 0);
+                    break;
+                default:
+                    json.put(getRegion(i), getDouble(i));
+            }
+        }
+        return json;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(8 + size() * 24);
+        try (DataOutputStream out = new DataOutputStream(baos)) {
+            out.writeByte(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeInt(size());
+            for (int i = 0; i < size(); i++) {
+                out.writeUTF(getRegion(i));
+                out.writeByte(types[i]);
+                out.writeLong(values[i]);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return null if the bytes are not in the format written by toBytes() (f.ex. JSON cached by a previous version)
+     */
+    public static IndicatorValueColumns fromBytes(long regionsetId, byte[] bytes) {
+        if (bytes == null || bytes.length < 6 || bytes[0] != MAGIC || bytes[1] != FORMAT_VERSION) {
+            return null;
+        }
+        RegionIndex regions = getRegionIndex(regionsetId);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 2, bytes.length - 2))) {
+            int count = in.readInt();
+            int[] regionRefs = new int[count];
+            long[] values = new long[count];
+            byte[] types = new byte[count];
+            for (int i = 0; i < count; i++) {
+                regionRefs[i] = regions.intern(in.readUTF());
+                types[i] = in.readByte();
+                values[i] = in.readLong();
+            }
+            return new IndicatorValueColumns(regions, regionRefs, values, types);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private double getDouble(int index) {
+        return Double.longBitsToDouble(values[index]);
+    }
+
+    private static RegionIndex getRegionIndex(long regionsetId) {
+        return REGIONS.computeIfAbsent(regionsetId, id -> new RegionIndex());
+    }
+
+    /**
+     * Append-only list of region ids for a regionset. Regionsets have a fixed set of regions so this doesn't grow
+     * beyond the number of regions in the regionset.
+     */
+    private static final class RegionIndex {
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile String[] regions = new String[64];
+        private int size = 0;
+
+        private int intern(String region) {
+            Integer index = ids.get(region);
+            if (index != null) {
+                return index;
+            }
+            synchronized (this) {
+                index = ids.get(region);
+                if (index != null) {
+                    return index;
+                }
+                String[] current = regions;
+                if (size == current.length) {
+                    current = Arrays.copyOf(current, size * 2);
+                }
+                current[size] = region;
+                regions = current;
+                // published after the array so anyone who gets the index can read the region
+                ids.put(region, size);
+                return size++;
+            }
+        }
+
+        private String get(int index) {
+            return regions[index];
+        }
+    }
+}
@@ -7,17 +7,15 @@ import fi.nls.oskari.control.statistics.data.StatisticalIndicator;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
 /**
  * Used to preload and -process statistical indicator data from a datasource
  */
 public abstract class DataSourceUpdater implements Runnable {
 
     private static final Logger LOG = LogFactory.getLogger(DataSourceUpdater.class);
+    // skip f.ex. description and source when writing list
+    private static final ObjectMapper LIST_MAPPER = new ObjectMapper()
+            .addMixIn(StatisticalIndicator.class, JacksonIndicatorListMixin.class);
 
     protected StatisticalDatasourcePlugin plugin;
 
@@ -44,42 +42,29 @@ public abstract class DataSourceUpdater implements Runnable {
     }
 
     protected void updateCompleted() {
-        storeIndicatorList(getIndicators());
         DataStatus status = plugin.getStatus();
         status.finishUpdate();
-        JedisManager.setex(plugin.getStatusKey(), JedisManager.EXPIRY_TIME_DAY * 7, status.toString());
+        JedisManager.pipelined(pipeline -> {
+            pipeline.expire(plugin.getIndicatorListIndexKey(), JedisManager.EXPIRY_TIME_DAY * 7);
+            pipeline.expire(plugin.getIndicatorListItemsKey(), JedisManager.EXPIRY_TIME_DAY * 7);
+            pipeline.setex(plugin.getStatusKey(), JedisManager.EXPIRY_TIME_DAY * 7, status.toString());
+        });
     }
 
     /**
-     * Store the list of indicators to Redis as JSON
+     * Adds the indicator to the listing stored in given keys (see StatisticalDatasourcePlugin.getProcessedIndicators()).
+     * Only the indicator is written so the cost doesn't grow with the size of the list.
+     * Storing the same indicator again only updates the JSON. This might happen when multiple nodes in cluster
+     * process the list at the same time.
      */
-    protected void storeIndicatorList(List<StatisticalIndicator> indicators) {
-        if (indicators.isEmpty()) {
-            return;
-        }
-        // Make sure we don't store duplicates of indicators
-        // This might happen when multiple nodes in cluster processes the list at the same time.
-        // One node might be faster and store an indicator while another still has it in it's workqueue.
-        // When the slower one saves, it combines the processed from redis + workqueue on its memory
-        // where processed already might contain indicators that are in the workqueue of the node that is saving/adding it's queue
-        List<StatisticalIndicator> nonDuplicates = new ArrayList<>(indicators.size());
-        Set<String> indicatorIds = new HashSet<>(indicators.size());
-        indicators.stream().forEach(ind -> {
-            if (indicatorIds.contains(ind.getId())) {
-                return;
-            }
-            nonDuplicates.add(ind);
-            indicatorIds.add(ind.getId());
-        });
-
-
-        final ObjectMapper listMapper = new ObjectMapper();
-        // skip f.ex. description and source when writing list
-        listMapper.addMixIn(StatisticalIndicator.class, JacksonIndicatorListMixin.class);
-        // write new indicator list
+    protected void storeListItem(String indexKey, String itemsKey, StatisticalIndicator indicator) {
         try {
-            String result = listMapper.writeValueAsString(nonDuplicates);
-            JedisManager.setex(plugin.getIndicatorListKey(), JedisManager.EXPIRY_TIME_DAY * 7, result);
+            String json = LIST_MAPPER.writeValueAsString(indicator);
+            Long added = JedisManager.hset(itemsKey, indicator.getId(), json);
+            if (added != null && added > 0) {
+                // new field -> add to index to keep the order
+                JedisManager.pushToList(indexKey, indicator.getId());
+            }
         } catch (JsonProcessingException ex) {
             LOG.error(ex, "Error updating indicator list");
         }
@@ -87,6 +72,5 @@ public abstract class DataSourceUpdater implements Runnable {
 
     public abstract boolean isFullUpdate();
     protected abstract void addToWorkQueue(StatisticalIndicator indicator);
-    protected abstract List<StatisticalIndicator> getIndicators();
 
 }
@@ -1,7 +1,6 @@
 package fi.nls.oskari.control.statistics.plugins;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.control.statistics.data.*;
@@ -63,7 +62,8 @@ public abstract class StatisticalDatasourcePlugin {
     private static final ObjectMapper MAPPER = new ObjectMapper();
     // update at most 4 datasources at a time
     private static final ExecutorService UPDATE_SCHEDULER = Executors.newFixedThreadPool(4);
-    private static final String CACHE_KEY_LIST = "list";
+    private static final String CACHE_KEY_LIST_INDEX = "listindex";
+    private static final String CACHE_KEY_LIST_ITEMS = "listitems";
     private static final String CACHE_KEY_INDICATOR = "indicator";
     private static final String CACHE_KEY_STATUS = "status";
 
@@ -176,8 +176,31 @@ public abstract class StatisticalDatasourcePlugin {
     }
 
     public StatisticalIndicator getIndicator(User user, String indicatorId) {
+        StatisticalIndicator indicator = getCachedIndicator(indicatorId);
+        if (indicator == null) {
+            return null;
+        }
+        if (hasPermission(indicator, user)) {
+            // sort dimensions etc
+            try {
+                handleHints(indicator);
+            } catch (Exception ex) {
+                LOG.info("Problem handling hints for indicator");
+            }
+            return indicator;
+        }
+        LOG.error("User doesn't have permissions to indicator ", indicatorId);
+        return null;
+    }
+
+    /**
+     * Returns the indicator (with metadata) as it was stored by onIndicatorProcessed() without checking permissions.
+     * @return null if the indicator isn't cached
+     */
+    protected StatisticalIndicator getCachedIndicator(String indicatorId) {
         try {
-            String json = JedisManager.get(getIndicatorKey(indicatorId));
+            // read for each data/metadata request of the indicator
+            String json = JedisManager.getNearCached(getIndicatorKey(indicatorId));
             if (json == null) {
                 // someone requested an indicator we don't know about
                 // client might have a saved ref to id that is no longer available OR
@@ -185,17 +208,7 @@ public abstract class StatisticalDatasourcePlugin {
                 // either way, we don't need the stack trace from Jackson parsing a null value
                 return null;
             }
-            StatisticalIndicator indicator = MAPPER.readValue(json, StatisticalIndicator.class);
-            if (hasPermission(indicator, user)) {
-                // sort dimensions etc
-                try {
-                    handleHints(indicator);
-                } catch (Exception ex) {
-                    LOG.info("Problem handling hints for indicator");
-                }
-                return indicator;
-            }
-            LOG.error("User doesn't have permissions to indicator ", indicatorId);
+            return MAPPER.readValue(json, StatisticalIndicator.class);
         } catch (IOException ex) {
             LOG.error(ex, "Couldn't read indicator data for is:", indicatorId);
         }
@@ -247,34 +260,54 @@ public abstract class StatisticalDatasourcePlugin {
     private void writeToCache(StatisticalIndicator indicator) {
         try {
             String json = MAPPER.writeValueAsString(indicator);
-            JedisManager.setex(getIndicatorKey(indicator.getId()), JedisManager.EXPIRY_TIME_DAY * 7, json);
+            JedisManager.setexNearCached(getIndicatorKey(indicator.getId()), JedisManager.EXPIRY_TIME_DAY * 7, json);
         } catch (JsonProcessingException ex) {
             LOG.error(ex, "Error updating indicator metadata");
         }
     }
 
+    /**
+     * Reads the indicator listing stored by the updater. The listing is stored as a hash of indicator id -> JSON
+     * with a separate list of ids for keeping the order of the indicators.
+     */
     protected List<StatisticalIndicator> getProcessedIndicators() {
         final List<StatisticalIndicator> existingIndicators = new ArrayList<>();
-        final String cacheKey = getIndicatorListKey();
-        try {
-            String existingJSON = JedisManager.get(cacheKey);
-            if(existingJSON != null) {
-                List<StatisticalIndicator> list = MAPPER.readValue(existingJSON, new TypeReference<List<StatisticalIndicator>>(){});
-                existingIndicators.addAll(list);
+        List<String> ids = JedisManager.lrange(getIndicatorListIndexKey(), 0, -1);
+        if (ids.isEmpty()) {
+            return existingIndicators;
+        }
+        final String cacheKey = getIndicatorListItemsKey();
+        List<String> items = JedisManager.hmget(cacheKey, ids.toArray(new String[0]));
+        if (items == null) {
+            return existingIndicators;
+        }
+        for (String json : items) {
+            if (json == null) {
+                // index and items are swapped separately by the updater so they might be out of sync for a moment
+                continue;
+            }
+            try {
+                existingIndicators.add(MAPPER.readValue(json, StatisticalIndicator.class));
+            } catch (IOException ex) {
+                LOG.error(ex, "Couldn't read indicator data from existing list. Check redis with key", cacheKey);
             }
-        } catch (IOException ex) {
-            // Don't print out the content as it might be pretty long
-            LOG.error(ex, "Couldn't read indicator data from existing list queue. Check redis with key", cacheKey);
         }
         return existingIndicators;
     }
 
     /**
-     * Returns a Redis key that should hold client ready indicators as JSON
+     * Returns a Redis key that should hold the ids of listed indicators as a list (in listing order)
+     * @return
+     */
+    protected String getIndicatorListIndexKey() {
+        return CacheKeys.buildCacheKey(getSource().getId(), CACHE_KEY_LIST_INDEX);
+    }
+    /**
+     * Returns a Redis key that should hold client ready indicators for listing as a hash of id -> JSON
      * @return
      */
-    protected String getIndicatorListKey() {
-        return CacheKeys.buildCacheKey(getSource().getId(), CACHE_KEY_LIST);
+    protected String getIndicatorListItemsKey() {
+        return CacheKeys.buildCacheKey(getSource().getId(), CACHE_KEY_LIST_ITEMS);
     }
     /**
      * Returns a Redis key that should hold client ready indicators as JSON
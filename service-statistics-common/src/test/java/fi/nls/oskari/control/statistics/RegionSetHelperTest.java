@@ -82,6 +82,38 @@ public class RegionSetHelperTest {
         Assertions.assertEquals(16, regions.size());
     }
 
+    @Test
+    public void testSimplifiedRegions() throws MismatchedDimensionException, FactoryException, TransformException, ServiceException, IOException, JSONException {
+        RegionSet kunnatJSON = new RegionSet();
+        kunnatJSON.setId(-1);
+        kunnatJSON.setName("oskari:kunnat2013");
+        kunnatJSON.setSrs_name("EPSG:3067");
+        kunnatJSON.setAttributes(getAttributes("kuntakoodi", "kuntanimi", "resources://kunnat2013.json"));
+        List<Region> full = RegionSetHelper.getRegions(kunnatJSON, "EPSG:3067");
+        List<Region> simplified = RegionSetHelper.getRegions(kunnatJSON, "EPSG:3067", RegionSetHelper.getSimplificationLevel(1000, "EPSG:3067"));
+        Assertions.assertEquals(full.size(), simplified.size(), "Simplifying shouldn't drop regions");
+        Assertions.assertTrue(simplified.stream().mapToInt(r -> r.getGeojson().toString().length()).sum()
+                < full.stream().mapToInt(r -> r.getGeojson().toString().length()).sum(), "Simplified geometries should be smaller");
+    }
+
+    @Test
+    public void testSimplificationLevel() {
+        Assertions.assertEquals(0, RegionSetHelper.getSimplificationLevel(0, "EPSG:3067"));
+        Assertions.assertEquals(0, RegionSetHelper.getSimplificationLevel(Double.NaN, "EPSG:3067"));
+        Assertions.assertEquals(512, RegionSetHelper.getSimplificationLevel(1000, "EPSG:3067"));
+        Assertions.assertEquals(1024, RegionSetHelper.getSimplificationLevel(1024, "EPSG:3067"));
+        // below the smallest level -> full resolution
+        Assertions.assertEquals(0, RegionSetHelper.getSimplificationLevel(0.2, "EPSG:3067"));
+        Assertions.assertEquals(16, RegionSetHelper.getSimplificationLevel(16, "EPSG:3067"));
+        // above the largest level -> largest level
+        Assertions.assertEquals(4096, RegionSetHelper.getSimplificationLevel(1e9, "EPSG:3067"));
+        Assertions.assertEquals(4096, RegionSetHelper.getSimplificationLevel(Double.POSITIVE_INFINITY, "EPSG:3067"));
+        // degrees have their own range
+        Assertions.assertEquals(1.0 / 256, RegionSetHelper.getSimplificationLevel(0.005, "EPSG:4326"));
+        Assertions.assertEquals(0, RegionSetHelper.getSimplificationLevel(0.0001, "EPSG:4326"));
+        Assertions.assertEquals(1.0 / 32, RegionSetHelper.getSimplificationLevel(10, "EPSG:4326"));
+    }
+
     @Test
     public void testFeaturesUrl() throws MismatchedDimensionException, FactoryException, TransformException, ServiceException, IOException, JSONException {
         String endPoint = "https://my.domain";
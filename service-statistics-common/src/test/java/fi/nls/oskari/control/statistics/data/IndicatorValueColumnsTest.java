@@ -0,0 +1,72 @@
+package fi.nls.oskari.control.statistics.data;
+
+import fi.nls.oskari.util.JSONHelper;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class IndicatorValueColumnsTest {
+
+    private Map<String, IndicatorValue> getValues() {
+        Map<String, IndicatorValue> values = new HashMap<>();
+        values.put("091", new IndicatorValueFloat(12.5));
+        values.put("049", new IndicatorValueInteger(1234567L));
+        values.put("092", new IndicatorValueBoolean(true));
+        values.put("999", new IndicatorValueFloat(null));
+        return values;
+    }
+
+    @Test
+    public void testJSONMatchesIndicatorValues() throws Exception {
+        Map<String, IndicatorValue> values = getValues();
+        JSONObject expected = new JSONObject();
+        for (Map.Entry<String, IndicatorValue> entry : values.entrySet()) {
+            entry.getValue().putToJSONObject(expected, entry.getKey());
+        }
+        IndicatorValueColumns columns = IndicatorValueColumns.from(1, values);
+        Assertions.assertEquals(3, columns.size(), "Null values should be skipped");
+        Assertions.assertTrue(JSONHelper.isEqual(expected, columns.toJSON()), "JSON should match");
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        IndicatorValueColumns columns = IndicatorValueColumns.from(2, getValues());
+        IndicatorValueColumns decoded = IndicatorValueColumns.fromBytes(2, columns.toBytes());
+        Assertions.assertNotNull(decoded, "Should decode");
+        Assertions.assertTrue(JSONHelper.isEqual(columns.toJSON(), decoded.toJSON()), "Decoded values should match");
+        Assertions.assertEquals(1234567L, ((IndicatorValueInteger) decoded.toMap().get("049")).getLong());
+    }
+
+    @Test
+    public void testLargeIntegersKeepPrecision() throws Exception {
+        long large = (1L << 53) + 1;
+        Map<String, IndicatorValue> values = new HashMap<>();
+        values.put("091", new IndicatorValueInteger(large));
+        values.put("049", new IndicatorValueInteger(Long.MIN_VALUE));
+        IndicatorValueColumns columns = IndicatorValueColumns.from(4, values);
+        Assertions.assertEquals(large, columns.toJSON().getLong("091"));
+        IndicatorValueColumns decoded = IndicatorValueColumns.fromBytes(4, columns.toBytes());
+        Assertions.assertEquals(large, ((IndicatorValueInteger) decoded.toMap().get("091")).getLong());
+        Assertions.assertEquals(Long.MIN_VALUE, ((IndicatorValueInteger) decoded.toMap().get("049")).getLong());
+    }
+
+    @Test
+    public void testRegionIdsAreShared() {
+        IndicatorValueColumns first = IndicatorValueColumns.from(3, getValues());
+        IndicatorValueColumns second = IndicatorValueColumns.fromBytes(3, first.toBytes());
+        for (int i = 0; i < first.size(); i++) {
+            Assertions.assertSame(first.getRegion(i), second.getRegion(i), "Region ids should be interned per regionset");
+        }
+    }
+
+    @Test
+    public void testPreviousFormatIsIgnored() {
+        byte[] json = "{\"091\":12.5}".getBytes(StandardCharsets.UTF_8);
+        Assertions.assertNull(IndicatorValueColumns.fromBytes(1, json), "JSON cached by previous version should be a cache miss");
+        Assertions.assertNull(IndicatorValueColumns.fromBytes(1, null));
+    }
+}
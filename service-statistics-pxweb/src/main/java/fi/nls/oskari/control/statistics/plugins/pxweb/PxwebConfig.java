@@ -21,6 +21,7 @@ public class PxwebConfig {
     private Set<String> ignoredVariables = new HashSet<>();
     private String timeVariableId = null;
     private Map<String, MetadataItem> metadata;
+    private int maxRequestsPerHost = 4;
 
     public PxwebConfig(JSONObject json, long id) {
         datasourceId = id;
@@ -33,6 +34,8 @@ public class PxwebConfig {
 
         // allow override with db config
         timeVariableId = json.optString("timeVariable", timeVariableId);
+        // concurrent requests when crawling the indicators, lower this if the service rate limits requests
+        maxRequestsPerHost = Math.max(1, json.optInt("maxRequestsPerHost", maxRequestsPerHost));
         JSONArray ignored = json.optJSONArray("ignoredVariables");
         if (ignored != null) {
             for (int i = 0; i < ignored.length(); i++) {
@@ -77,6 +80,10 @@ public class PxwebConfig {
         return timeVariableId;
     }
 
+    public int getMaxRequestsPerHost() {
+        return maxRequestsPerHost;
+    }
+
     public MetadataItem getMetadata(String indicatorId) {
         if (metadata == null) {
             return null;
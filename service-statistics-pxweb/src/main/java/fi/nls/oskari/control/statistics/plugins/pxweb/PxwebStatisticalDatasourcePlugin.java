@@ -1,5 +1,6 @@
 package fi.nls.oskari.control.statistics.plugins.pxweb;
 
+import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.APIException;
 import fi.nls.oskari.control.statistics.plugins.StatisticalDatasourcePlugin;
@@ -7,6 +8,7 @@ import fi.nls.oskari.control.statistics.plugins.db.DatasourceLayer;
 import fi.nls.oskari.control.statistics.plugins.db.StatisticalDatasource;
 import fi.nls.oskari.control.statistics.plugins.pxweb.parser.PxwebIndicatorsParser;
 import fi.nls.oskari.control.statistics.plugins.pxweb.parser.ValueProcessor;
+import fi.nls.oskari.control.statistics.util.CacheKeys;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.service.ServiceRuntimeException;
@@ -17,6 +19,7 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,13 +29,15 @@ public class PxwebStatisticalDatasourcePlugin extends StatisticalDatasourcePlugi
     private static final Logger LOG = LogFactory.getLogger(PxwebStatisticalDatasourcePlugin.class);
     private PxwebIndicatorsParser indicatorsParser;
     private static final ValueProcessor DEFAULT_PROCESSOR = new ValueProcessor();
+    private static final String CACHE_KEY_TABLES = "tables";
     private Map<String, ValueProcessor> processors = new HashMap<>();
 
     private PxwebConfig config;
 
     @Override
     public void update() {
-        List<StatisticalIndicator> indicators = indicatorsParser.parse(getSource().getLayers());
+        IndicatorTableCache tables = new IndicatorTableCache();
+        List<StatisticalIndicator> indicators = indicatorsParser.parse(getSource().getLayers(), tables);
         int skippedIndicators = 0;
         for (StatisticalIndicator ind : indicators) {
             if(!ind.getDataModel().isHasRegionInfo()) {
@@ -46,6 +51,47 @@ public class PxwebStatisticalDatasourcePlugin extends StatisticalDatasourcePlugi
             LOG.info("Updated datasource:", config.getUrl(), "with", skippedIndicators,
                     "of", indicators.size(), "indicators skipped for not having region info.");
         }
+        JedisManager.expire(tables.key, JedisManager.EXPIRY_TIME_DAY * 7);
+    }
+
+    /**
+     * Remembers the ids of indicators parsed from each table with the "updated" value of the folder listing
+     * so tables that haven't changed don't need to be fetched on the next update. The indicators are read
+     * from the cache written by onIndicatorProcessed(). Missing ones (expired) cause the table to be parsed again.
+     */
+    private class IndicatorTableCache implements PxwebIndicatorsParser.TableCache {
+        private final String key = CacheKeys.buildCacheKey(getSource().getId(), CACHE_KEY_TABLES);
+
+        @Override
+        public List<StatisticalIndicator> getIndicators(String tablePath, String updated) {
+            String value = JedisManager.hget(key, tablePath);
+            JSONObject json = value == null ? null : JSONHelper.createJSONObject(value);
+            if (json == null || !updated.equals(json.optString("updated"))) {
+                return null;
+            }
+            JSONArray ids = JSONHelper.getEmptyIfNull(json.optJSONArray("ids"));
+            List<StatisticalIndicator> indicators = new ArrayList<>(ids.length());
+            for (int i = 0; i < ids.length(); i++) {
+                StatisticalIndicator ind = getCachedIndicator(ids.optString(i));
+                if (ind == null) {
+                    return null;
+                }
+                indicators.add(ind);
+            }
+            return indicators;
+        }
+
+        @Override
+        public void setIndicators(String tablePath, String updated, List<StatisticalIndicator> indicators) {
+            // only indicators with region info are written to cache by update()
+            JSONArray ids = new JSONArray();
+            indicators.stream()
+                    .filter(ind -> ind.getDataModel().isHasRegionInfo())
+                    .forEach(ind -> ids.put(ind.getId()));
+            JSONObject json = JSONHelper.createJSONObject("updated", updated);
+            JSONHelper.putValue(json, "ids", ids);
+            JedisManager.hset(key, tablePath, json.toString());
+        }
     }
 
     @Override
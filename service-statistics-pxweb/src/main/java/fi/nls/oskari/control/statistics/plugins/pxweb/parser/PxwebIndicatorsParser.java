@@ -15,124 +15,220 @@ import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
 
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PxwebIndicatorsParser {
     private final static Logger LOG = LogFactory.getLogger(PxwebIndicatorsParser.class);
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 1000;
+    // shared between datasources so services with several datasources configured aren't flooded.
+    // Keyed by host and maxRequestsPerHost so each datasource gets the limit it's configured with,
+    // datasources with the same host and limit share the permits.
+    private static final Map<String, Semaphore> HOST_PERMITS = new ConcurrentHashMap<>();
 
     private PxwebConfig config;
     private ObjectMapper mapper = new ObjectMapper();
 
+    /**
+     * Used to skip fetching and parsing tables that haven't been updated since the previous crawl.
+     */
+    public interface TableCache {
+        /**
+         * @param tablePath path of the table relative to configured url
+         * @param updated value of "updated" for the table in the folder listing
+         * @return indicators parsed from the table previously or null if the table needs to be parsed
+         */
+        List<StatisticalIndicator> getIndicators(String tablePath, String updated);
+        void setIndicators(String tablePath, String updated, List<StatisticalIndicator> indicators);
+    }
+
     public PxwebIndicatorsParser(PxwebConfig config) {
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
         this.config = config;
     }
 
     public List<StatisticalIndicator> parse(List<DatasourceLayer> layers) {
-        return parse(null, layers);
+        return parse(layers, null);
+    }
+
+    /**
+     * Crawls the service with concurrent requests (limited by config.getMaxRequestsPerHost() for each host).
+     * The indicators are returned in the same order as they are listed by the service.
+     * @param cache optional cache for skipping tables that haven't changed
+     */
+    public List<StatisticalIndicator> parse(List<DatasourceLayer> layers, TableCache cache) {
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(config.getMaxRequestsPerHost(), r -> {
+            Thread t = new Thread(r, "pxweb-crawler-" + config.getId() + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            return parse(null, layers, new Crawl(executor, cache));
+        } finally {
+            executor.shutdownNow();
+        }
     }
 
-    protected List<StatisticalIndicator> parse(String path, List<DatasourceLayer> layers) {
+    private List<StatisticalIndicator> parse(String path, List<DatasourceLayer> layers, Crawl crawl) {
         final String url = getUrl(path);
 
-        Collection<String> languages = getLanguages();
-        List<StatisticalIndicator> indicatorList;
+        CompletableFuture<List<StatisticalIndicator>> result;
         if(url.endsWith(".px")) {
             // No id for indicator, assume the service has a separate indicator key config.
-            indicatorList = parsePxFileToMultipleIndicators(path, languages);
+            result = parsePxFileToMultipleIndicators(path, crawl);
         } else {
-            indicatorList = parseStructuredService(path, languages);
+            result = parseStructuredService(path, crawl);
+        }
+        List<StatisticalIndicator> indicatorList = result.join();
+        if (indicatorList == null) {
+            return Collections.emptyList();
         }
         setupLayers(indicatorList, layers, url);
-        setupMetadata(indicatorList, languages);
+        setupMetadata(indicatorList, crawl.languages);
         return indicatorList;
     }
 
-    protected List<StatisticalIndicator> parseStructuredService(String path, Collection<String> languages) {
-        final String url = getUrl(path);
-        List<StatisticalIndicator> indicators = new ArrayList<>();
-        List<PxFolderItem> list = readFolderListing(url);
-        for(PxFolderItem item : list) {
-            if("l".equalsIgnoreCase(item.type)) {
-                // recurse to pxweb "folder"
-                indicators.addAll(parseStructuredService(getPath(path, item.id), languages));
-                continue;
-            }
-            if(!"t".equalsIgnoreCase(item.type)) {
+    private CompletableFuture<List<StatisticalIndicator>> parseStructuredService(String path, Crawl crawl) {
+        return crawl.load(getUrl(path)).thenCompose(json -> {
+            List<CompletableFuture<List<StatisticalIndicator>>> parts = new ArrayList<>();
+            for(PxFolderItem item : readFolderListing(json)) {
+                if("l".equalsIgnoreCase(item.type)) {
+                    // recurse to pxweb "folder"
+                    parts.add(parseStructuredService(getPath(path, item.id), crawl));
+                } else if("t".equalsIgnoreCase(item.type)) {
+                    parts.add(parseTable(path, item, crawl));
+                }
                 // only recognize l and t types
-                continue;
-            }
-            if(config.hasIndicatorKey()) {
-                // go to the px-file
-                indicators.addAll(parsePxFileToMultipleIndicators(getPath(path, item.id), languages));
-                continue;
             }
-            HashMap<String, StatisticalIndicator> indicatorMap = new HashMap<>();
-            languages.forEach(lang -> {
-                try {
-                    PxTableItem table = getPxTable(path, lang, item.id);
-                    String indicatorId = createIndicatorId(table);
-                    StatisticalIndicator ind = indicatorMap.get(indicatorId);
-                    if (ind == null) {
-                        ind = new StatisticalIndicator();
-                        ind.setId(indicatorId);
-                        indicatorMap.put(indicatorId, ind);
-                        indicators.add(ind);
-                        // only populate model for first (== primary) language as it doesn't support localized labels for variables/selectors
-                        ind.setDataModel(getModel(table));
-                    }
-                    ind.addName(lang, item.text);
-                    // TODO: add "mergeModels(lang, model)" that would populate localized labels for variable
-                } catch (IOException e) {
-                    LOG.error(e, "Error getting indicators from Pxweb datasource:", config.getUrl());
+            return flatten(parts);
+        });
+    }
+
+    private CompletableFuture<List<StatisticalIndicator>> parseTable(String path, PxFolderItem item, Crawl crawl) {
+        final String tablePath = getPath(path, item.id);
+        List<StatisticalIndicator> previous = crawl.getIndicators(tablePath, item.updated);
+        if (previous != null) {
+            return CompletableFuture.completedFuture(previous);
+        }
+        CompletableFuture<List<StatisticalIndicator>> result;
+        if(config.hasIndicatorKey()) {
+            // go to the px-file
+            result = parsePxFileToMultipleIndicators(tablePath, crawl);
+        } else {
+            // Only the primary language is fetched as the model doesn't support localized labels for variables/selectors
+            // and the name is taken from the folder listing
+            // TODO: add "mergeModels(lang, model)" that would populate localized labels for variable
+            result = crawl.load(getTableUrl(path, null, item.id)).thenApply(json -> {
+                PxTableItem table = readTable(json, path, item.id);
+                if (table == null) {
+                    return null;
                 }
+                StatisticalIndicator ind = new StatisticalIndicator();
+                ind.setId(createIndicatorId(table));
+                ind.setDataModel(getModel(table));
+                crawl.languages.forEach(lang -> ind.addName(lang, item.text));
+                return Collections.singletonList(ind);
             });
         }
-        return indicators;
+        return result.thenApply(indicators -> {
+            if (indicators != null) {
+                crawl.setIndicators(tablePath, item.updated, indicators);
+            }
+            return indicators;
+        });
     }
 
-    protected List<StatisticalIndicator> parsePxFileToMultipleIndicators(String path, Collection<String> languages) {
+    /**
+     * Completes with null if the table couldn't be read in any language
+     */
+    private CompletableFuture<List<StatisticalIndicator>> parsePxFileToMultipleIndicators(String path, Crawl crawl) {
 
         if(!config.hasIndicatorKey()) {
             LOG.warn("Tried to parse px-file as indicator list but missing indicator key configuration!");
-            return Collections.emptyList();
+            return CompletableFuture.completedFuture(Collections.emptyList());
         }
-        List<StatisticalIndicator> indicatorList = new ArrayList<>();
-        HashMap<String, StatisticalIndicator> indicatorMap = new HashMap<>();
-
-        languages.forEach(lang -> {
-            try {
-                PxTableItem table = getPxTable(path, lang);
-                List<StatisticalIndicator> indicators = readPxTableAsIndicators(table, lang);
-                indicators.stream().forEach(cur -> {
+        List<String> languages = new ArrayList<>(crawl.languages);
+        List<CompletableFuture<List<StatisticalIndicator>>> tables = new ArrayList<>(languages.size());
+        for (String lang : languages) {
+            String url = getUrl(path, lang);
+            if (!url.endsWith(".px")) {
+                tables.add(CompletableFuture.completedFuture(null));
+                continue;
+            }
+            String id = url.substring(url.lastIndexOf('/') + 1);
+            tables.add(crawl.load(getTableUrl(path, lang, id))
+                    .thenApply(json -> readPxTableAsIndicators(readTable(json, path, id), lang)));
+        }
+        return CompletableFuture.allOf(tables.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<StatisticalIndicator> indicatorList = null;
+            HashMap<String, StatisticalIndicator> indicatorMap = new HashMap<>();
+            for (int i = 0; i < languages.size(); i++) {
+                final String lang = languages.get(i);
+                List<StatisticalIndicator> indicators = tables.get(i).join();
+                if (indicators == null) {
+                    continue;
+                }
+                if (indicatorList == null) {
+                    indicatorList = new ArrayList<>();
+                }
+                for (StatisticalIndicator cur : indicators) {
                     StatisticalIndicator indicator = indicatorMap.get(cur.getId());
                     if (indicator == null) {
                         indicatorMap.put(cur.getId(), cur);
                         indicatorList.add(cur);
-                        return;
+                        continue;
                     }
                     indicator.addName(lang, cur.getName(lang));
                     indicator.addDescription(lang, cur.getDescription(lang));
-                });
-            } catch (IOException e) {
-                LOG.error(e, "Error getting indicators from Pxweb datasource:", config.getUrl());
+                }
             }
+            return indicatorList;
         });
-        return indicatorList;
     }
 
+    /**
+     * Combines the results keeping the order of the parts. Parts that failed (null) are skipped.
+     */
+    private CompletableFuture<List<StatisticalIndicator>> flatten(List<CompletableFuture<List<StatisticalIndicator>>> parts) {
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<StatisticalIndicator> indicators = new ArrayList<>();
+            for (CompletableFuture<List<StatisticalIndicator>> part : parts) {
+                List<StatisticalIndicator> list = part.join();
+                if (list != null) {
+                    indicators.addAll(list);
+                }
+            }
+            return indicators;
+        });
+    }
 
-    protected List<PxFolderItem> readFolderListing(String url) {
+    protected List<PxFolderItem> readFolderListing(String json) {
+        if (json == null) {
+            return Collections.emptyList();
+        }
         try {
-            String jsonResponse = loadUrl(url);
             List<PxFolderItem> list =
-                    mapper.readValue(jsonResponse, mapper.getTypeFactory().constructCollectionType(List.class, PxFolderItem.class));
+                    mapper.readValue(json, mapper.getTypeFactory().constructCollectionType(List.class, PxFolderItem.class));
             return list;
         } catch (IOException e) {
             LOG.error(e, "Error getting indicators from Pxweb datasource:", config.getUrl());
@@ -147,6 +243,8 @@ public class PxwebIndicatorsParser {
     }
 
     private void setupLayers(StatisticalIndicator ind, List<DatasourceLayer> layers, String baseUrl) {
+        // indicators reused from TableCache might have layers from previous crawl
+        ind.getLayers().clear();
         for(DatasourceLayer layer : layers) {
             StatisticalIndicatorLayer l = new StatisticalIndicatorLayer(layer.getMaplayerId(), ind.getId());
             l.addParam("baseUrl", baseUrl);
@@ -246,18 +344,7 @@ public class PxwebIndicatorsParser {
         return timeValues.subList(Math.max(0, startIndex), Math.min(endIndex, timeValues.size()));
     }
 
-    protected PxTableItem getPxTable(String path) throws IOException {
-        return getPxTable(path, null);
-    }
-    protected PxTableItem getPxTable(String path, String lang) throws IOException {
-        String url = getUrl(path, lang);
-        if(url.endsWith(".px")) {
-            String id = url.substring(url.lastIndexOf('/') + 1);
-            return getPxTable(path, lang, id);
-        }
-        return null;
-    }
-    protected PxTableItem getPxTable(String path, String lang, String tableId) throws IOException {
+    private String getTableUrl(String path, String lang, String tableId) {
         String url = getUrl(path, lang);
         if(!url.endsWith(tableId)) {
             if(!url.endsWith("/")) {
@@ -265,21 +352,32 @@ public class PxwebIndicatorsParser {
             }
             url = url + tableId;
         }
-        String json = loadUrl(url);
-        PxTableItem table = mapper.readValue(json, PxTableItem.class);
-        if(table == null) {
+        return url;
+    }
+
+    private PxTableItem readTable(String json, String path, String tableId) {
+        if (json == null) {
             return null;
         }
-        table.setId(tableId);
-        table.setPath(path);
-        return table;
+        try {
+            PxTableItem table = mapper.readValue(json, PxTableItem.class);
+            if(table == null) {
+                return null;
+            }
+            table.setId(tableId);
+            table.setPath(path);
+            return table;
+        } catch (IOException e) {
+            LOG.error(e, "Error reading table", tableId, "from Pxweb datasource:", config.getUrl());
+        }
+        return null;
     }
 
-    protected List<StatisticalIndicator> readPxTableAsIndicators(PxTableItem table, String lang) throws IOException {
-        List<StatisticalIndicator> list = new ArrayList<>();
+    protected List<StatisticalIndicator> readPxTableAsIndicators(PxTableItem table, String lang) {
         if(table == null) {
-            return list;
+            return null;
         }
+        List<StatisticalIndicator> list = new ArrayList<>();
         if (lang == null) {
             lang = PropertyUtil.getDefaultLanguage();
         }
@@ -366,11 +464,79 @@ public class PxwebIndicatorsParser {
 
     protected String loadUrl(String url) throws IOException {
         // make sure there's no spaces
-        return IOHelper.getURL(url.replaceAll(" ", "%20"));
+        HttpURLConnection con = IOHelper.getConnection(url.replaceAll(" ", "%20"));
+        int sc = con.getResponseCode();
+        if (sc != HttpURLConnection.HTTP_OK) {
+            throw new HttpStatusException(sc, url);
+        }
+        return IOHelper.readString(con);
     }
 
+    /**
+     * Response with unexpected HTTP status code
+     */
+    static class HttpStatusException extends IOException {
+        private final int statusCode;
+
+        HttpStatusException(int statusCode, String url) {
+            super("Got HTTP status " + statusCode + " from " + url);
+            this.statusCode = statusCode;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Only errors that can go away by waiting are retried: rate limiting (HTTP 429), server errors (HTTP 5xx)
+     * and connection errors. Retrying f.ex. 404 or a response that can't be read won't help.
+     */
+    static boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int sc = ((HttpStatusException) e).getStatusCode();
+            return sc == 429 || sc >= 500;
+        }
+        return e instanceof SocketException || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * Loads the url retrying on transient errors (f.ex. HTTP 429 when the service rate limits the crawler)
+     * @return null if the url couldn't be loaded
+     */
+    private String loadWithRetry(String url, Semaphore permits) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                permits.acquire();
+                try {
+                    return loadUrl(url);
+                } finally {
+                    permits.release();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                    LOG.error(e, "Error getting indicators from Pxweb datasource:", url);
+                    return null;
+                }
+                LOG.debug("Retrying", url, "after error:", e.getMessage());
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Primary language first as the model is parsed from the first language
+     */
     private Collection<String> getLanguages() {
-        HashSet<String> languages = new HashSet<>();
+        Set<String> languages = new LinkedHashSet<>();
         languages.add(PropertyUtil.getDefaultLanguage());
         if (serviceSupportsMultipleLanguages()) {
             languages.addAll(Arrays.asList(PropertyUtil.getSupportedLanguages()));
@@ -381,4 +547,52 @@ public class PxwebIndicatorsParser {
     private boolean serviceSupportsMultipleLanguages() {
         return config.getUrl().contains("{language}");
     }
+
+    /**
+     * State of a single parse() run
+     */
+    private class Crawl {
+        private final Executor executor;
+        private final TableCache cache;
+        private final Semaphore permits;
+        private final Collection<String> languages = getLanguages();
+
+        private Crawl(Executor executor, TableCache cache) {
+            this.executor = executor;
+            this.cache = cache;
+            final int maxRequests = config.getMaxRequestsPerHost();
+            this.permits = HOST_PERMITS.computeIfAbsent(getHost(config.getUrl()) + "#" + maxRequests,
+                    key -> new Semaphore(maxRequests));
+        }
+
+        /**
+         * Completes with null if the url couldn't be loaded
+         */
+        private CompletableFuture<String> load(String url) {
+            return CompletableFuture.supplyAsync(() -> loadWithRetry(url, permits), executor);
+        }
+
+        private List<StatisticalIndicator> getIndicators(String tablePath, String updated) {
+            if (cache == null || updated == null) {
+                return null;
+            }
+            return cache.getIndicators(tablePath, updated);
+        }
+
+        private void setIndicators(String tablePath, String updated, List<StatisticalIndicator> indicators) {
+            if (cache == null || updated == null) {
+                return;
+            }
+            cache.setIndicators(tablePath, updated, indicators);
+        }
+    }
+
+    private static String getHost(String url) {
+        try {
+            String host = URI.create(url.replace("{language}", "x").replace(" ", "%20")).getHost();
+            return host == null ? url : host;
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
 }
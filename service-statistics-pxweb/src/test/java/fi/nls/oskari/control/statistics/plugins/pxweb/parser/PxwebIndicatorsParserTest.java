@@ -17,14 +17,19 @@ import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 /**
  * Tests that pxweb config can point directly to a px-file.
@@ -154,6 +159,40 @@ public class PxwebIndicatorsParserTest {
         Assertions.assertEquals("Vuosi", indicators.get(0).getDataModel().getDimension("vuosi").getName(), "Should find dimension 'vuosi'");
     }
 
+    /**
+     * Tests that tables with the same "updated" value as on previous crawl are not fetched again
+     */
+    @Test
+    public void testParseSkipsUnchangedTables() throws Exception {
+        PxwebIndicatorsParser parser = getParser("config2folderstructWithIndicatorKey.json");
+        StatisticalIndicator previous = new StatisticalIndicator();
+        previous.setId("kuntien_avainluvut_2017_viimeisin.px::M408");
+        previous.setDataModel(new StatisticalIndicatorDataModel());
+        Map<String, List<StatisticalIndicator>> stored = new ConcurrentHashMap<>();
+        PxwebIndicatorsParser.TableCache cache = new PxwebIndicatorsParser.TableCache() {
+            @Override
+            public List<StatisticalIndicator> getIndicators(String tablePath, String updated) {
+                if ("kuntien_avainluvut_2017_viimeisin.px".equals(tablePath) && "2018-02-22T10:37:56".equals(updated)) {
+                    return Collections.singletonList(previous);
+                }
+                return null;
+            }
+
+            @Override
+            public void setIndicators(String tablePath, String updated, List<StatisticalIndicator> indicators) {
+                stored.put(tablePath, indicators);
+            }
+        };
+        List<StatisticalIndicator> indicators = parser.parse(getLayers(), cache);
+
+        Assertions.assertEquals(32, indicators.size(), "Should find indicators of changed table and the previous one");
+        Assertions.assertEquals("kuntien_avainluvut_2017_aikasarja.px::M408", indicators.get(0).getId(), "Should keep the listing order");
+        Assertions.assertSame(previous, indicators.get(31), "Should use previous indicators for unchanged table");
+        Assertions.assertEquals(1, previous.getLayers().size(), "Should setup layers for previous indicators");
+        Assertions.assertEquals(Collections.singleton("kuntien_avainluvut_2017_aikasarja.px"), stored.keySet(), "Should store parsed table");
+        verify(parser, never()).loadUrl("https://pxnet2.stat.fi/pxweb/api/v1/fi/Kuntien_avainluvut/2017/kuntien_avainluvut_2017_viimeisin.px");
+    }
+
     @Test
     public void testHKIModel() throws Exception {
         PxwebIndicatorsParser parser = getParser("config2folderstruct_hki.json");
@@ -195,6 +234,16 @@ public class PxwebIndicatorsParserTest {
     }
 
 
+    @Test
+    public void testIsRetryable() {
+        Assertions.assertTrue(PxwebIndicatorsParser.isRetryable(new PxwebIndicatorsParser.HttpStatusException(429, "url")));
+        Assertions.assertTrue(PxwebIndicatorsParser.isRetryable(new PxwebIndicatorsParser.HttpStatusException(503, "url")));
+        Assertions.assertTrue(PxwebIndicatorsParser.isRetryable(new ConnectException("Connection refused")));
+        Assertions.assertTrue(PxwebIndicatorsParser.isRetryable(new SocketTimeoutException("Read timed out")));
+        Assertions.assertFalse(PxwebIndicatorsParser.isRetryable(new PxwebIndicatorsParser.HttpStatusException(404, "url")));
+        Assertions.assertFalse(PxwebIndicatorsParser.isRetryable(new IOException("Invalid content")));
+    }
+
     private List<DatasourceLayer> getLayers() {
         DatasourceLayer layer = new DatasourceLayer();
         return Collections.singletonList(layer);
@@ -12,4 +12,20 @@ public interface FeatureCollectionParser {
     public SimpleFeatureCollection parse(File file, CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS) throws ServiceException;
     public String getSuffix();
 
+    /**
+     * Pass the features of the file to the handler while the file is open. Parsers backed by a DataStore
+     * give the handler a lazy collection that reads and transforms the features while it's iterated
+     * so large files don't need to fit in memory. The collection must not be used after the handler returns.
+     * By default the file is parsed to memory with parse(File, ...).
+     */
+    public default <T> T parse(File file, CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS,
+            FeatureCollectionHandler<T> handler) throws ServiceException {
+        return handler.handle(parse(file, sourceCRS, targetCRS));
+    }
+
+    @FunctionalInterface
+    public interface FeatureCollectionHandler<T> {
+        T handle(SimpleFeatureCollection fc) throws ServiceException;
+    }
+
 }
@@ -4,19 +4,14 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.api.data.SimpleFeatureSource;
 import org.geotools.feature.DefaultFeatureCollection;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.CRS;
-import org.geotools.api.feature.simple.SimpleFeature;
 import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.referencing.FactoryException;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.geotools.api.referencing.operation.MathTransform;
 import org.oskari.map.userlayer.service.UserLayerException;
 
-import org.locationtech.jts.geom.Geometry;
-
 import fi.nls.oskari.service.ServiceException;
 
 public class FeatureCollectionParsers {
@@ -63,26 +58,19 @@ public class FeatureCollectionParsers {
      */
     public static SimpleFeatureCollection read(SimpleFeatureSource src,
             CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS) throws ServiceException, UserLayerException {
-        MathTransform transform = getTransform(sourceCRS, targetCRS);
-        try {
-            SimpleFeatureType newSchema = SimpleFeatureTypeBuilder.retype(src.getSchema(), targetCRS);
-            SimpleFeatureBuilder b = new SimpleFeatureBuilder(newSchema);
-            DefaultFeatureCollection fc = new DefaultFeatureCollection(null, newSchema);
-            SimpleFeatureCollection sfc = src.getFeatures();
+        return read(transform(src, sourceCRS, targetCRS));
+    }
 
+    /**
+     * Read (lazy) features to memory
+     * @throws UserLayerException lots can go wrong
+     */
+    public static SimpleFeatureCollection read(SimpleFeatureCollection sfc) throws UserLayerException {
+        try {
+            DefaultFeatureCollection fc = new DefaultFeatureCollection(null, sfc.getSchema());
             try (SimpleFeatureIterator it = sfc.features()) {
                 while (it.hasNext()) {
-                    SimpleFeature f = it.next();
-                    for (int i = 0; i < f.getAttributeCount(); i++) {
-                        b.set(i, f.getAttribute(i));
-                    }
-                    SimpleFeature copy = b.buildFeature(f.getID());
-                    Object g = f.getDefaultGeometry();
-                    if (g != null) {
-                        Geometry transformed = JTS.transform((Geometry) g, transform);
-                        copy.setDefaultGeometry(transformed);
-                    }
-                    fc.add(copy);
+                    fc.add(it.next());
                 }
             }
             return fc;
@@ -92,6 +80,23 @@ public class FeatureCollectionParsers {
         }
     }
 
+    /**
+     * Wrap FeatureSource to a collection that transforms the geometries of the features
+     * from source projection to target projection while they are iterated. Nothing is read
+     * to memory so the DataStore must not be disposed before the collection has been consumed.
+     */
+    public static SimpleFeatureCollection transform(SimpleFeatureSource src,
+            CoordinateReferenceSystem sourceCRS, CoordinateReferenceSystem targetCRS) throws ServiceException, UserLayerException {
+        MathTransform transform = getTransform(sourceCRS, targetCRS);
+        try {
+            SimpleFeatureType newSchema = SimpleFeatureTypeBuilder.retype(src.getSchema(), targetCRS);
+            return new TransformingFeatureCollection(src.getFeatures(), newSchema, transform);
+        } catch (Exception e) {
+            throw new UserLayerException("Failed to read feature collection from source: " + e.getMessage(),
+                        UserLayerException.ErrorType.PARSER, UserLayerException.ErrorType.INVALID_FORMAT);
+        }
+    }
+
     public static MathTransform getTransform(
             CoordinateReferenceSystem sourceCRS,
             CoordinateReferenceSystem targetCRS) throws UserLayerException, ServiceException {
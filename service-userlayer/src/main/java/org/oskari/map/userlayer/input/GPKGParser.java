@@ -26,6 +26,12 @@ public class GPKGParser implements FeatureCollectionParser {
     @Override
     public SimpleFeatureCollection parse(File file, CoordinateReferenceSystem sourceCRS,
             CoordinateReferenceSystem targetCRS) throws ServiceException {
+        return parse(file, sourceCRS, targetCRS, FeatureCollectionParsers::read);
+    }
+
+    @Override
+    public <T> T parse(File file, CoordinateReferenceSystem sourceCRS,
+            CoordinateReferenceSystem targetCRS, FeatureCollectionHandler<T> handler) throws ServiceException {
         Map<String, Serializable> params = new HashMap<>();
         params.put("dbtype", "geopkg");
         params.put("database", file);
@@ -41,9 +47,9 @@ public class GPKGParser implements FeatureCollectionParser {
                 if (crs != null) {
                     sourceCRS = crs;
                 }
-                SimpleFeatureCollection collection = FeatureCollectionParsers.read(source, sourceCRS, targetCRS);
+                SimpleFeatureCollection collection = FeatureCollectionParsers.transform(source, sourceCRS, targetCRS);
                 if (!collection.isEmpty()) {
-                    return collection;
+                    return handler.handle(collection);
                 }
             }
             throw new UserLayerException("Failed to parse GPKG: Could not find non-empty feature collection",
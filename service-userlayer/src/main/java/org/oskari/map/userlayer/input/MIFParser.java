@@ -26,6 +26,12 @@ public class MIFParser implements FeatureCollectionParser {
     @Override
     public SimpleFeatureCollection parse(File file, CoordinateReferenceSystem sourceCRS,
             CoordinateReferenceSystem targetCRS) throws ServiceException {
+        return parse(file, sourceCRS, targetCRS, FeatureCollectionParsers::read);
+    }
+
+    @Override
+    public <T> T parse(File file, CoordinateReferenceSystem sourceCRS,
+            CoordinateReferenceSystem targetCRS, FeatureCollectionHandler<T> handler) throws ServiceException {
         URL url;
         try {
             url = file.toURI().toURL();
@@ -48,7 +54,7 @@ public class MIFParser implements FeatureCollectionParser {
             if (crs != null) {
                 sourceCRS = crs;
             }
-            return FeatureCollectionParsers.read(source, sourceCRS, targetCRS);
+            return handler.handle(FeatureCollectionParsers.transform(source, sourceCRS, targetCRS));
         } catch (ServiceException e) {
             // forward error on read: if in file UserLayerException. if in service ServiceException
             throw e;
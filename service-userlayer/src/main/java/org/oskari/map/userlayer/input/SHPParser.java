@@ -32,6 +32,12 @@ public class SHPParser implements FeatureCollectionParser {
     @Override
     public SimpleFeatureCollection parse(File file, CoordinateReferenceSystem sourceCRS,
             CoordinateReferenceSystem targetCRS) throws ServiceException {
+        return parse(file, sourceCRS, targetCRS, FeatureCollectionParsers::read);
+    }
+
+    @Override
+    public <T> T parse(File file, CoordinateReferenceSystem sourceCRS,
+            CoordinateReferenceSystem targetCRS, FeatureCollectionHandler<T> handler) throws ServiceException {
         ShapefileDataStore store = null;
         try {
             store = new ShapefileDataStore(file.toURI().toURL());
@@ -44,7 +50,7 @@ public class SHPParser implements FeatureCollectionParser {
             if (crs != null) {
                 sourceCRS = crs;
             }
-            return FeatureCollectionParsers.read(source, sourceCRS, targetCRS);
+            return handler.handle(FeatureCollectionParsers.transform(source, sourceCRS, targetCRS));
         } catch (ServiceException e) {
             // forward error on read: if in file UserLayerException. if in service ServiceException
             throw e;
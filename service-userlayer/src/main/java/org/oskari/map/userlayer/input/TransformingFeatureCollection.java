@@ -0,0 +1,84 @@
+package org.oskari.map.userlayer.input;
+
+import java.util.NoSuchElementException;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.referencing.operation.MathTransform;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.locationtech.jts.geom.Geometry;
+
+/**
+ * Lazy counterpart of FeatureCollectionParsers.read(). Features are copied to the target schema
+ * and their geometries transformed one at a time while iterating so the source is never read to memory
+ * as a whole. The source (DataStore) must stay open while this collection is being used.
+ * Failures to transform a geometry are thrown as IllegalArgumentExceptions from the iterator.
+ */
+class TransformingFeatureCollection extends BaseSimpleFeatureCollection {
+
+    private final SimpleFeatureCollection delegate;
+    private final MathTransform transform;
+
+    TransformingFeatureCollection(SimpleFeatureCollection delegate, SimpleFeatureType schema, MathTransform transform) {
+        super(schema);
+        this.delegate = delegate;
+        this.transform = transform;
+    }
+
+    @Override
+    public int size() {
+        // Don't iterate (and transform) everything just to count the features
+        return delegate.size();
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new TransformingFeatureIterator(delegate.features(), new SimpleFeatureBuilder(getSchema()), transform);
+    }
+
+    private static class TransformingFeatureIterator implements SimpleFeatureIterator {
+
+        private final SimpleFeatureIterator it;
+        private final SimpleFeatureBuilder b;
+        private final MathTransform transform;
+
+        private TransformingFeatureIterator(SimpleFeatureIterator it, SimpleFeatureBuilder b, MathTransform transform) {
+            this.it = it;
+            this.b = b;
+            this.transform = transform;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public SimpleFeature next() throws NoSuchElementException {
+            SimpleFeature f = it.next();
+            for (int i = 0; i < f.getAttributeCount(); i++) {
+                b.set(i, f.getAttribute(i));
+            }
+            SimpleFeature copy = b.buildFeature(f.getID());
+            Object g = f.getDefaultGeometry();
+            if (g != null) {
+                try {
+                    copy.setDefaultGeometry(JTS.transform((Geometry) g, transform));
+                } catch (Exception e) {
+                    throw new IllegalArgumentException("Failed to transform geometry of feature: " + f.getID(), e);
+                }
+            }
+            return copy;
+        }
+
+        @Override
+        public void close() {
+            it.close();
+        }
+    }
+
+}
@@ -68,7 +68,17 @@ public class UserLayerDataService {
         return userLayer;
     }
     public static UserLayer createUserLayer(SimpleFeatureCollection fc, String uuid, JSONObject locale, JSONObject style) {
-        final SimpleFeatureType ft = fc.getSchema();
+        final UserLayer userLayer = createUserLayer(fc.getSchema(), uuid, locale, style);
+        userLayer.setWkt(getWGS84ExtentAsWKT(fc.getBounds()));
+        return userLayer;
+    }
+
+    /**
+     * Creates the layer without the extent (wkt) so the features don't need to be read beforehand.
+     * UserLayerDbService.insertUserLayerAndData(UserLayer, SimpleFeatureCollection) sets the extent
+     * while the features are stored.
+     */
+    public static UserLayer createUserLayer(SimpleFeatureType ft, String uuid, JSONObject locale, JSONObject style) {
         final UserLayer userLayer = new UserLayer();
         userLayer.setUuid(uuid);
         userLayer.setLayer_name(ft.getTypeName());
@@ -76,14 +86,17 @@ public class UserLayerDataService {
         WFSLayerOptions wfsOptions = userLayer.getWFSLayerOptions();
         wfsOptions.setDefaultFeatureStyle(style);
         userLayer.setFields(parseFields(ft));
-        userLayer.setWkt(getWGS84ExtentAsWKT(fc));
         return userLayer;
     }
 
     private static String getWGS84ExtentAsWKT(SimpleFeatureCollection fc) {
+        return getWGS84ExtentAsWKT(fc.getBounds());
+    }
+
+    public static String getWGS84ExtentAsWKT(ReferencedEnvelope extent) {
         try {
             CoordinateReferenceSystem wgs84 = CRS.decode("EPSG:4326", true);
-            ReferencedEnvelope extentWGS84 = fc.getBounds().transform(wgs84, true);
+            ReferencedEnvelope extentWGS84 = extent.transform(wgs84, true);
             return WKTHelper.getBBOX(extentWGS84.getMinX(),
                     extentWGS84.getMinY(),
                     extentWGS84.getMaxX(),
@@ -137,7 +150,7 @@ public class UserLayerDataService {
                     continue;
                 }
                 userLayerDataList.add(toUserLayerData(f, uuid));
-                if (USERLAYER_MAX_FEATURES_COUNT != -1 && userLayerDataList.size() == USERLAYER_MAX_FEATURES_COUNT) {
+                if (isMaxFeaturesReached(userLayerDataList.size())) {
                     break;
                 }
             }
@@ -145,7 +158,14 @@ public class UserLayerDataService {
         return userLayerDataList;
     }
 
-    private static UserLayerData toUserLayerData(SimpleFeature f, String uuid) throws UserLayerException {
+    /**
+     * @return true if a layer with count features can't have any more features (userlayer.maxfeatures.count)
+     */
+    public static boolean isMaxFeaturesReached(int count) {
+        return USERLAYER_MAX_FEATURES_COUNT != -1 && count >= USERLAYER_MAX_FEATURES_COUNT;
+    }
+
+    public static UserLayerData toUserLayerData(SimpleFeature f, String uuid) throws UserLayerException {
         try {
             JSONObject geoJSON = new GeoJSONWriter().writeFeature(f);
             String id = geoJSON.optString(GeoJSON.ID);
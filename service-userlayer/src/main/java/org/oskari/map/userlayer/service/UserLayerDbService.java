@@ -9,11 +9,25 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
 import java.util.List;
+import java.util.Optional;
 
 public abstract class UserLayerDbService extends OskariComponent {
 
     //UserLayer related
     public abstract int insertUserLayerAndData(final UserLayer userlayer, final List<UserLayerData> userLayerDataList) throws UserLayerException;
+
+    /**
+     * Stores the layer and the features of the collection. Sets the extent (wkt) and features count/skipped
+     * of the layer. Implementations should iterate the collection only once and not keep the features in memory
+     * so the collection can be backed by a large file.
+     */
+    public int insertUserLayerAndData(final UserLayer userlayer, final SimpleFeatureCollection fc) throws UserLayerException {
+        List<UserLayerData> userLayerDataList = UserLayerDataService.createUserLayerData(fc, userlayer.getUuid());
+        userlayer.setWkt(UserLayerDataService.getWGS84ExtentAsWKT(fc.getBounds()));
+        userlayer.setFeatures_count(userLayerDataList.size());
+        userlayer.setFeatures_skipped(fc.size() - userLayerDataList.size());
+        return insertUserLayerAndData(userlayer, userLayerDataList);
+    }
     public abstract int updateUserLayer(final UserLayer userlayer) throws UserLayerException;
     public abstract UserLayer getUserLayerById(long id);
     public abstract List<UserLayer> getUserLayerByUuid(String uuid);
@@ -28,4 +42,14 @@ public abstract class UserLayerDbService extends OskariComponent {
 
     public abstract SimpleFeatureCollection getFeatures(int layerId, ReferencedEnvelope bbox, CoordinateReferenceSystem crs) throws ServiceException;
 
+    /**
+     * Returns features of the layer as a MVT tile if the database can create one.
+     * See UserLayerService.getMVT() for the parameters.
+     * @return empty if not supported
+     */
+    public Optional<byte[]> getMVT(int layerId, String mvtLayer, double[] bbox, int srid,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        return Optional.empty();
+    }
+
 }
@@ -11,6 +11,7 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.mybatis.MyBatisHelper;
+import fi.nls.oskari.mybatis.PostGISMVTSupport;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.PropertyUtil;
 import org.apache.ibatis.session.Configuration;
@@ -19,6 +20,7 @@ import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.data.store.EmptyFeatureCollection;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
@@ -32,11 +34,17 @@ import org.oskari.geojson.GeoJSONWriter;
 
 import javax.sql.DataSource;
 import java.time.OffsetDateTime;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import static fi.nls.oskari.map.geometry.ProjectionHelper.getSRID;
 import static fi.nls.oskari.map.geometry.WKTHelper.GEOM_ATTRIBUTE;
-import static fi.nls.oskari.map.geometry.WKTHelper.parseWKT;
 
 @Oskari
 public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
@@ -47,25 +55,36 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
     final int batchSize = PropertyUtil.getOptional(USERLAYER_MYBATIS_BATCH_SIZE, 1000);
     private final int srid;
     private final Cache<UserLayer> cache;
-    private SqlSessionFactory factory = null;
+    private final SqlSessionFactory factory;
+    private final PostGISMVTSupport mvt;
 
     private static final GeoJSONWriter geojsonWriter = new GeoJSONWriter();
+    // feature types by geometry binding, the attributes are the same for all layers
+    private static final Map<Class<? extends Geometry>, SimpleFeatureType> FEATURE_TYPES = new ConcurrentHashMap<>();
 
     public UserLayerDbServiceMybatisImpl() {
-        final DatasourceHelper helper = DatasourceHelper.getInstance();
-        final DataSource dataSource = helper.getDataSource(helper.getOskariDataSourceName("userlayer"));
+        this(initializeMyBatis());
+    }
 
-        if (dataSource != null) {
-            factory = initializeMyBatis(dataSource);
-        } else {
-            log.error("Couldn't get datasource for userlayer");
-        }
+    UserLayerDbServiceMybatisImpl(SqlSessionFactory factory) {
+        this.factory = factory;
         cache = CacheManager.getCache(getClass().getName());
         String epsg = PropertyUtil.get(NATIVE_SRS, "EPSG:4326");
         srid = Integer.parseInt(epsg.substring(epsg.indexOf(':') + 1));
+        mvt = new PostGISMVTSupport(factory);
     }
 
-    private SqlSessionFactory initializeMyBatis(final DataSource dataSource) {
+    private static SqlSessionFactory initializeMyBatis() {
+        final DatasourceHelper helper = DatasourceHelper.getInstance();
+        final DataSource dataSource = helper.getDataSource(helper.getOskariDataSourceName("userlayer"));
+        if (dataSource == null) {
+            log.error("Couldn't get datasource for userlayer");
+            return null;
+        }
+        return initializeMyBatis(dataSource);
+    }
+
+    private static SqlSessionFactory initializeMyBatis(final DataSource dataSource) {
         final Configuration configuration = MyBatisHelper.getConfig(dataSource);
         MyBatisHelper.addAliases(configuration, UserLayer.class, UserLayerData.class);
         MyBatisHelper.addMappers(configuration, UserLayerMapper.class);
@@ -73,9 +92,50 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
     }
 
     public int insertUserLayerAndData(final UserLayer userLayer, final List<UserLayerData> userLayerDataList) throws UserLayerException {
+        int count = insertUserLayerAndData(userLayer, userLayerDataList.iterator(), mapper -> {});
+        cache(userLayer);
+        return count;
+    }
+
+    /**
+     * Streams the features to the database in batches. Features are converted one at a time and the extent
+     * is calculated while iterating so the collection is only read once and never held in memory as a whole.
+     * The layer is inserted first and updated with the extent once all the features are stored.
+     */
+    @Override
+    public int insertUserLayerAndData(final UserLayer userLayer, final SimpleFeatureCollection fc) throws UserLayerException {
+        final int count;
+        final int read;
+        try {
+            final ReferencedEnvelope extent = new ReferencedEnvelope(fc.getSchema().getCoordinateReferenceSystem());
+            try (SimpleFeatureIterator it = fc.features()) {
+                FeatureDataIterator data = new FeatureDataIterator(it, userLayer.getUuid(), extent);
+                count = insertUserLayerAndData(userLayer, data, mapper -> {
+                    userLayer.setWkt(UserLayerDataService.getWGS84ExtentAsWKT(extent));
+                    mapper.updateUserLayer(userLayer);
+                });
+                read = data.getRead();
+            }
+        } catch (RuntimeException e) {
+            throw readError(e);
+        }
+        userLayer.setFeatures_count(count);
+        // don't read the rest of the features if the max count was reached, size() is cheap for DataStores
+        userLayer.setFeatures_skipped(Math.max(0, fc.size() - count));
+        log.info("Stored layer:", userLayer.getId(), "with", count, "features,", read - count, "without geometry");
+        cache(userLayer);
+        return count;
+    }
+
+    /**
+     * Inserts the layer and its data in one transaction flushing the data in batches
+     * @param beforeCommit called after the data has been stored, for example to update the layer
+     * @return number of stored rows
+     */
+    private int insertUserLayerAndData(final UserLayer userLayer, final Iterator<UserLayerData> data,
+                                       final Consumer<UserLayerMapper> beforeCommit) throws UserLayerException {
         validateUserLayer(userLayer);
         try (SqlSession session = factory.openSession(ExecutorType.BATCH)) {
-            int count = 0;
             final UserLayerMapper mapper = getMapper(session);
             mapper.insertUserLayer(userLayer);
             session.flushStatements();
@@ -83,30 +143,130 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
             final UserLayer inserted = mapper.findUserLayer(userLayerId);
             userLayer.setCreated(inserted.getCreated());
             log.debug("got layer id", userLayerId);
-            for (UserLayerData userLayerData : userLayerDataList) {
-                mapper.insertUserLayerData(userLayerData, userLayerId, srid);
+
+            int count = 0;
+            while (hasNext(data)) {
+                mapper.insertUserLayerData(next(data), userLayerId, srid);
                 count++;
                 // Flushes batch statements and clears local session cache
                 if (count % batchSize == 0) {
                     session.flushStatements();
                     session.clearCache();
+                    log.debug("Layer:", userLayerId, "stored:", count, "rows");
                 }
             }
             session.flushStatements();
             if (count == 0) throw new UserLayerException("UserLayer doesn't contain features", UserLayerException.ErrorType.NO_FEATURES);
             log.debug("stored:", count, "rows");
+            beforeCommit.accept(mapper);
             session.commit();
-            cache(userLayer);
             return count;
         } catch (Exception e) {
             log.error(e, "Rolling back, failed to insert userlayer with id:", +userLayer.getId());
             if(e instanceof UserLayerException){
-                throw e; // no features
+                throw e; // no features or invalid file
             }
             throw new UserLayerException("Failed to store features to database", UserLayerException.ErrorType.STORE);
         }
     }
 
+    private static boolean hasNext(Iterator<UserLayerData> it) throws UserLayerException {
+        try {
+            return it.hasNext();
+        } catch (RuntimeException e) {
+            throw readError(e);
+        }
+    }
+
+    private static UserLayerData next(Iterator<UserLayerData> it) throws UserLayerException {
+        try {
+            return it.next();
+        } catch (RuntimeException e) {
+            throw readError(e);
+        }
+    }
+
+    private static UserLayerException readError(RuntimeException e) {
+        if (e instanceof FeatureReadException) {
+            return ((FeatureReadException) e).getError();
+        }
+        // the collection can be backed by a file that is parsed while iterating
+        return new UserLayerException("Failed to read features: " + e.getMessage(),
+                UserLayerException.ErrorType.PARSER, UserLayerException.ErrorType.INVALID_FORMAT);
+    }
+
+    /**
+     * Converts features with a geometry to UserLayerData and expands the extent while iterating.
+     * Stops when the max features count is reached.
+     */
+    private static class FeatureDataIterator implements Iterator<UserLayerData> {
+        private final SimpleFeatureIterator it;
+        private final String uuid;
+        private final ReferencedEnvelope extent;
+        private UserLayerData nextData;
+        private int read;
+        private int returned;
+
+        FeatureDataIterator(SimpleFeatureIterator it, String uuid, ReferencedEnvelope extent) {
+            this.it = it;
+            this.uuid = uuid;
+            this.extent = extent;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextData == null && !UserLayerDataService.isMaxFeaturesReached(returned) && it.hasNext()) {
+                SimpleFeature f = it.next();
+                read++;
+                Geometry geom = (Geometry) f.getDefaultGeometry();
+                if (geom == null) {
+                    continue;
+                }
+                try {
+                    nextData = UserLayerDataService.toUserLayerData(f, uuid);
+                } catch (UserLayerException e) {
+                    throw new FeatureReadException(e);
+                }
+                extent.expandToInclude(geom.getEnvelopeInternal());
+            }
+            return nextData != null;
+        }
+
+        @Override
+        public UserLayerData next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            UserLayerData data = nextData;
+            nextData = null;
+            returned++;
+            return data;
+        }
+
+        /**
+         * @return number of features read including the ones without geometry
+         */
+        int getRead() {
+            return read;
+        }
+    }
+
+    /**
+     * Carries the checked exception of a feature that couldn't be converted through Iterator methods
+     */
+    private static class FeatureReadException extends RuntimeException {
+        private final UserLayerException error;
+
+        FeatureReadException(UserLayerException error) {
+            super(error.getMessage(), error);
+            this.error = error;
+        }
+
+        UserLayerException getError() {
+            return error;
+        }
+    }
+
     /**
      * update UserLayer table row field mapping
      *
@@ -285,16 +445,46 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
         }
     }
 
+    /**
+     * Creates the tile with PostGIS so features don't need to be parsed from WKT and encoded in the JVM.
+     * Returns empty if the database isn't PostgreSQL (tests) or PostGIS doesn't have the needed functions.
+     */
+    @Override
+    public Optional<byte[]> getMVT(int layerId, String mvtLayer, double[] bbox, int tileSrid,
+            int extent, int buffer, int pointBuffer) throws ServiceException {
+        if (!mvt.isSupported()) {
+            return Optional.empty();
+        }
+        double margin = PostGISMVTSupport.getMargin(bbox, extent, buffer, pointBuffer);
+        try (SqlSession session = factory.openSession()) {
+            byte[] tile = getMapper(session).getMVT(layerId, mvtLayer, extent, buffer, pointBuffer,
+                    bbox[0], bbox[1], bbox[2], bbox[3], tileSrid, margin, srid);
+            return Optional.of(tile != null ? tile : new byte[0]);
+        } catch (Exception e) {
+            if (mvt.disableIfUndefined(e)) {
+                log.warn("PostGIS doesn't support ST_AsMVT, encoding userlayer tiles in the JVM:", e.getMessage());
+                return Optional.empty();
+            }
+            log.warn(e, "Failed to create MVT tile for userlayer:", layerId);
+            throw new ServiceException("Failed to create MVT tile", e);
+        }
+    }
+
     private SimpleFeatureCollection toSimpleFeatureCollection(List<UserLayerData> features) throws ServiceException {
         try {
             if (features == null || features.isEmpty()) {
                 return new EmptyFeatureCollection(null);
             }
 
+            // all features share the same type
+            Class<? extends Geometry> binding = WKTHelper.getCommonBinding(features.stream()
+                    .map(UserLayerData::getGeom)
+                    .collect(Collectors.toList()));
+            SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(getFeatureType(binding));
             DefaultFeatureCollection collection = new DefaultFeatureCollection();
             for (UserLayerData feature: features) {
-                if (feature.getWkt() != null) {
-                    collection.add(toSimpleFeature(feature));
+                if (feature.getGeom() != null) {
+                    collection.add(toSimpleFeature(feature, featureBuilder));
                 }
             }
 
@@ -305,12 +495,8 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
         }
     }
 
-    private SimpleFeature toSimpleFeature(UserLayerData feature) {
-        Geometry geom = parseWKT(feature.getWkt());
-        SimpleFeatureTypeBuilder featureTypeBuilder = getFeatureTypeBuilder(geom);
-        SimpleFeatureType simpleFeatureType = featureTypeBuilder.buildFeatureType();
-        SimpleFeatureBuilder featureBuilder = new SimpleFeatureBuilder(simpleFeatureType);
-        featureBuilder.set(GEOM_ATTRIBUTE, geom);
+    private SimpleFeature toSimpleFeature(UserLayerData feature, SimpleFeatureBuilder featureBuilder) {
+        featureBuilder.set(GEOM_ATTRIBUTE, feature.getGeom());
         featureBuilder.set("id", feature.getId());
         featureBuilder.set("user_layer_id", feature.getUser_layer_id());
         featureBuilder.set("uuid", feature.getUuid());
@@ -322,17 +508,17 @@ public class UserLayerDbServiceMybatisImpl extends UserLayerDbService {
         return featureBuilder.buildFeature(Long.valueOf(feature.getId()).toString());
     }
 
-    private SimpleFeatureTypeBuilder getFeatureTypeBuilder(Geometry geometry) {
-        SimpleFeatureTypeBuilder featureTypeBuilder = WKTHelper.getFeatureTypeBuilder(geometry);
-        featureTypeBuilder.add("id", Long.class);
-        featureTypeBuilder.add("user_layer_id", String.class);
-        featureTypeBuilder.add("uuid", String.class);
-        featureTypeBuilder.add("feature_id", String.class);
-        featureTypeBuilder.add("property_json", String.class);
-        featureTypeBuilder.add("created", OffsetDateTime.class);
-        featureTypeBuilder.add("updated", OffsetDateTime.class);
-
-        return featureTypeBuilder;
-
+    private static SimpleFeatureType getFeatureType(Class<? extends Geometry> binding) {
+        return FEATURE_TYPES.computeIfAbsent(binding, b -> {
+            SimpleFeatureTypeBuilder featureTypeBuilder = WKTHelper.getFeatureTypeBuilder(b);
+            featureTypeBuilder.add("id", Long.class);
+            featureTypeBuilder.add("user_layer_id", String.class);
+            featureTypeBuilder.add("uuid", String.class);
+            featureTypeBuilder.add("feature_id", String.class);
+            featureTypeBuilder.add("property_json", String.class);
+            featureTypeBuilder.add("created", OffsetDateTime.class);
+            featureTypeBuilder.add("updated", OffsetDateTime.class);
+            return featureTypeBuilder.buildFeatureType();
+        });
     }
 }
@@ -43,7 +43,7 @@ public interface UserLayerMapper {
             " uuid, " +
             " feature_id, " +
             " property_json, " +
-            " ST_ASTEXT(geometry) as wkt, " +
+            " ST_AsEWKB(geometry) as geom, " +
             " ST_SRID(geometry) as srid, " +
             " created, " +
             " updated " +
@@ -81,7 +81,7 @@ public interface UserLayerMapper {
             " uuid, " +
             " feature_id, " +
             " property_json, " +
-            " ST_ASTEXT(geometry) as wkt, " +
+            " ST_AsEWKB(geometry) as geom, " +
             " ST_SRID(geometry) as srid, " +
             " created, " +
             " updated " +
@@ -97,4 +97,41 @@ public interface UserLayerMapper {
                                       @Param("maxY") double maxY,
                                       @Param("srid") int srid);
 
+    /**
+     * Returns features intersecting the tile as a MVT tile created with PostGIS ST_AsMVT.
+     * Properties from property_json are expanded as tile attributes and the id is written as _oid
+     * similar to SimpleFeaturesMVTEncoder.
+     * @param margin features are selected from the tile extent expanded by this (crs units)
+     * @param nativeSrid srid of the stored geometries
+     * @return tile or null/empty if there's no features
+     */
+    @Select("SELECT ST_AsMVT(tile, #{mvtLayer}, #{extent}, 'geom') FROM (" +
+            " SELECT " +
+            "  CAST(id AS text) AS \"_oid\", " +
+            "  CAST(property_json AS jsonb) AS properties, " +
+            "  ST_AsMVTGeom(" +
+            "    ST_Transform(geometry, #{srid}), " +
+            "    ST_MakeEnvelope(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), " +
+            "    #{extent}, " +
+            "    CASE WHEN GeometryType(geometry) IN ('POINT', 'MULTIPOINT') THEN #{pointBuffer} ELSE #{buffer} END, " +
+            "    true) AS geom " +
+            " FROM user_layer_data " +
+            " WHERE " +
+            " user_layer_id = #{layerId} " +
+            " AND " +
+            " geometry && ST_Transform(ST_Expand(ST_MakeEnvelope(#{minX}, #{minY}, #{maxX}, #{maxY}, #{srid}), #{margin}), #{nativeSrid})" +
+            ") AS tile")
+    byte[] getMVT(@Param("layerId") int layerId,
+                  @Param("mvtLayer") String mvtLayer,
+                  @Param("extent") int extent,
+                  @Param("buffer") int buffer,
+                  @Param("pointBuffer") int pointBuffer,
+                  @Param("minX") double minX,
+                  @Param("minY") double minY,
+                  @Param("maxX") double maxX,
+                  @Param("maxY") double maxY,
+                  @Param("srid") int srid,
+                  @Param("margin") double margin,
+                  @Param("nativeSrid") int nativeSrid);
+
 }
@@ -81,4 +81,23 @@ public class SHPParserTest {
         Assertions.assertEquals(70.09210, bounds.getMaxX(), 1e-5);
         Assertions.assertEquals(31.58671, bounds.getMaxY(), 1e-5);
     }
+
+    @Test
+    public void testParseWithHandler() throws ServiceException, URISyntaxException, NoSuchAuthorityCodeException, FactoryException {
+        File file = new File(SHPParserTest.class.getResource("SHP2017.shp").toURI());
+        SHPParser parser = new SHPParser();
+        CoordinateReferenceSystem wgs84 = CRS.decode("EPSG:4326");
+        ReferencedEnvelope expected = parser.parse(file, null, wgs84).getBounds();
+        // features are read and transformed while the handler iterates them
+        List<SimpleFeature> features = parser.parse(file, null, wgs84, fc -> {
+            Assertions.assertEquals(21, fc.size());
+            Assertions.assertEquals("EPSG:4326", CRS.toSRS(fc.getSchema().getCoordinateReferenceSystem()));
+            return collectToList(fc);
+        });
+        ReferencedEnvelope bounds = new ReferencedEnvelope(wgs84);
+        features.forEach(f -> bounds.expandToInclude(((Geometry) f.getDefaultGeometry()).getEnvelopeInternal()));
+        Assertions.assertEquals(21, features.size());
+        Assertions.assertEquals(expected.getMinX(), bounds.getMinX(), 1e-9);
+        Assertions.assertEquals(expected.getMaxY(), bounds.getMaxY(), 1e-9);
+    }
 }
@@ -0,0 +1,112 @@
+package org.oskari.map.userlayer.service;
+
+import fi.nls.oskari.service.ServiceException;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class UserLayerDbServiceMybatisImplTest {
+
+    private static final double[] BBOX = { 0, 0, 4096, 4096 };
+    private static final int EXTENT = 4096;
+    private static final int BUFFER = 256;
+    private static final int POINT_BUFFER = 1024;
+    private static final int SRID = 3067;
+
+    private SqlSessionFactory factory;
+    private DatabaseMetaData metadata;
+    private UserLayerMapper mapper;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        factory = mock(SqlSessionFactory.class);
+        SqlSession session = mock(SqlSession.class);
+        Connection connection = mock(Connection.class);
+        metadata = mock(DatabaseMetaData.class);
+        mapper = mock(UserLayerMapper.class);
+        when(factory.openSession()).thenReturn(session);
+        when(session.getConnection()).thenReturn(connection);
+        when(connection.getMetaData()).thenReturn(metadata);
+        when(metadata.getDatabaseProductName()).thenReturn("PostgreSQL");
+        when(session.getMapper(UserLayerMapper.class)).thenReturn(mapper);
+    }
+
+    private Optional<byte[]> getMVT(UserLayerDbServiceMybatisImpl service) throws ServiceException {
+        return service.getMVT(1, "layer", BBOX, SRID, EXTENT, BUFFER, POINT_BUFFER);
+    }
+
+    private void verifyGetMVT(int times) {
+        // features are selected with the larger buffer: 1024 / 4096 * 4096
+        verify(mapper, times(times)).getMVT(eq(1), eq("layer"), eq(EXTENT), eq(BUFFER), eq(POINT_BUFFER),
+                eq(0d), eq(0d), eq(4096d), eq(4096d), eq(SRID), eq(1024d), anyInt());
+    }
+
+    @Test
+    public void testGetMVT() throws Exception {
+        byte[] tile = { 1, 2, 3 };
+        when(mapper.getMVT(anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyInt(), anyDouble(), anyInt())).thenReturn(tile);
+        UserLayerDbServiceMybatisImpl service = new UserLayerDbServiceMybatisImpl(factory);
+
+        Assertions.assertArrayEquals(tile, getMVT(service).get());
+        verifyGetMVT(1);
+    }
+
+    @Test
+    public void testGetMVTNoFeatures() throws Exception {
+        UserLayerDbServiceMybatisImpl service = new UserLayerDbServiceMybatisImpl(factory);
+        Assertions.assertEquals(0, getMVT(service).get().length, "Tile without features should be empty");
+    }
+
+    @Test
+    public void testFallbackWhenFunctionIsUndefined() throws Exception {
+        SQLException undefined = new SQLException("function st_asmvt does not exist", "42883");
+        when(mapper.getMVT(anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyInt(), anyDouble(), anyInt()))
+                .thenThrow(new PersistenceException(undefined));
+        UserLayerDbServiceMybatisImpl service = new UserLayerDbServiceMybatisImpl(factory);
+
+        Assertions.assertFalse(getMVT(service).isPresent(), "Should fall back to encoding in the JVM");
+        Assertions.assertFalse(getMVT(service).isPresent());
+        // the database isn't asked again once the function is known to be missing
+        verifyGetMVT(1);
+    }
+
+    @Test
+    public void testOtherErrorsFail() {
+        when(mapper.getMVT(anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyInt(), anyDouble(), anyInt()))
+                .thenThrow(new PersistenceException(new SQLException("connection lost", "08006")));
+        UserLayerDbServiceMybatisImpl service = new UserLayerDbServiceMybatisImpl(factory);
+
+        Assertions.assertThrows(ServiceException.class, () -> getMVT(service));
+    }
+
+    @Test
+    public void testNotPostgreSQL() throws Exception {
+        when(metadata.getDatabaseProductName()).thenReturn("H2");
+        UserLayerDbServiceMybatisImpl service = new UserLayerDbServiceMybatisImpl(factory);
+
+        Assertions.assertFalse(getMVT(service).isPresent());
+        verify(mapper, never()).getMVT(anyInt(), anyString(), anyInt(), anyInt(), anyInt(),
+                anyDouble(), anyDouble(), anyDouble(), anyDouble(), anyInt(), anyDouble(), anyInt());
+    }
+}
@@ -1,48 +1,139 @@
 package org.oskari.service.wfs.client;
 
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import fi.nls.oskari.util.PropertyUtil;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.api.filter.Filter;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
-
 import org.locationtech.jts.geom.Envelope;
 
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.cache.ComputeOnceCache;
 import fi.nls.oskari.domain.map.OskariLayer;
 
+/**
+ * Caches features of tile requests per layer in spatially indexed WFSFeatureStores.
+ *
+ * Each layer has a store per tile size and grid origin. Only requests with a bbox that is exactly one cell
+ * of the grid are served from the store (tile requests for vector tiles) so the request sent to the service
+ * is the same as without the cache and maxFeatures limits the same area. Other requests, like the synchronous
+ * viewport requests of GetWFSFeatures, bypass the cache as fetching them through a grid would request a larger
+ * area and a response truncated by maxFeatures could miss features inside the requested bbox.
+ */
 public class CachingOskariWFSClient extends OskariWFSClient {
 
     private static final String CACHE_NAME = CachingOskariWFSClient.class.getName();
-    private static final int CACHE_SIZE_LIMIT = 10000;
+    // max number of layers/cell sizes to keep features for
+    private static final int CACHE_SIZE_LIMIT = 100;
     private static final long CACHE_EXPIRATION = TimeUnit.MINUTES.toMillis(5L);
+    private static final String PROPERTY_MAX_FEATURES_PER_LAYER = "oskari.wfs.cache.maxfeatures";
+    private static final int DEFAULT_MAX_FEATURES_PER_LAYER = 100000;
+    private static final String PROPERTY_MAX_FEATURES_TOTAL = "oskari.wfs.cache.maxfeatures.total";
+    private static final int DEFAULT_MAX_FEATURES_TOTAL = 500000;
+    // relative difference of width and height allowed for tiles
+    private static final double TILE_TOLERANCE = 1e-6;
+
+    // shared by all instances like the cache
+    private static final WFSFeatureBudget BUDGET = new WFSFeatureBudget(
+            PropertyUtil.getOptional(PROPERTY_MAX_FEATURES_TOTAL, DEFAULT_MAX_FEATURES_TOTAL));
 
     // Consider using Redis for caching (how much does serialization/deserialization to GeoJSON add?)
-    private final ComputeOnceCache<SimpleFeatureCollection> cache;
+    private final ComputeOnceCache<WFSFeatureStore> cache;
+    private final int maxFeaturesPerLayer;
 
     public CachingOskariWFSClient() {
         cache = CacheManager.getCache(CACHE_NAME, () -> new ComputeOnceCache<>(CACHE_SIZE_LIMIT, CACHE_EXPIRATION));
+        maxFeaturesPerLayer = PropertyUtil.getOptional(PROPERTY_MAX_FEATURES_PER_LAYER, DEFAULT_MAX_FEATURES_PER_LAYER);
     }
 
+    /**
+     * Synchronous requests are for arbitrary bboxes (f.ex. GetWFSFeatures) so they are not cached
+     */
     @Override
     public SimpleFeatureCollection getFeatures(OskariLayer layer,
             ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
-        if (filter != null) {
-            // Don't cache requests with a Filter
-            return super.getFeatures(layer, bbox, crs, filter);
+        return super.getFeatures(layer, bbox, crs, filter);
+    }
+
+    @Override
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter, Duration maxWait) {
+        Double tileSize = getTileSize(bbox);
+        if (filter != null || tileSize == null) {
+            // Don't cache requests with a Filter or requests that are not tiles
+            return super.getFeaturesAsync(layer, bbox, crs, filter, maxWait);
+        }
+        double originX = WFSFeatureStore.getOrigin(bbox.getMinX(), tileSize);
+        double originY = WFSFeatureStore.getOrigin(bbox.getMinY(), tileSize);
+        String key = getCacheKey(layer, crs, tileSize, originX, originY);
+        WFSFeatureStore store = cache.get(key, __ -> {
+            WFSFeatureStore created = new WFSFeatureStore(tileSize, originX, originY, maxFeaturesPerLayer);
+            BUDGET.register(created);
+            return created;
+        });
+        Envelope cell = store.getCell(bbox);
+        if (cell == null) {
+            // origin rounded to the same store but the bbox isn't a cell of its grid, don't serve a different area
+            return super.getFeaturesAsync(layer, bbox, crs, filter, maxWait);
+        }
+
+        int maxFeatures = getMaxFeatures(layer);
+        WFSFeatureStore.Claim claim = store.claim(cell);
+        for (WFSFeatureStore.Run run : claim.getMissing()) {
+            ReferencedEnvelope requestBbox = new ReferencedEnvelope(run.getEnvelope(), bbox.getCoordinateReferenceSystem());
+            super.getFeaturesAsync(layer, requestBbox, crs, filter, maxWait).whenComplete((fc, e) -> {
+                if (e != null) {
+                    store.failed(run, e);
+                    return;
+                }
+                try {
+                    // the service returned as many features as we asked for -> there might be more
+                    store.loaded(run, fc, fc.size() >= maxFeatures);
+                } catch (Exception ex) {
+                    store.failed(run, ex);
+                    return;
+                }
+                BUDGET.enforce();
+            });
         }
-        String key = getCacheKey(layer, bbox, crs);
-        return cache.get(key, __ -> super.getFeatures(layer, bbox, crs, filter));
+        CompletableFuture<SimpleFeatureCollection> result = CompletableFuture
+                .allOf(claim.getPending().toArray(new CompletableFuture[0]))
+                .thenApply(__ -> store.query(cell));
+        // cells can be evicted once the features have been queried (or the request failed)
+        result.whenComplete((fc, e) -> store.release(claim));
+        return result;
     }
 
-    private String getCacheKey(OskariLayer layer, Envelope bbox, CoordinateReferenceSystem crs) {
+    /**
+     * @return size of the bbox if it's a square like tiles are, null otherwise
+     */
+    private static Double getTileSize(ReferencedEnvelope bbox) {
+        if (bbox == null) {
+            return null;
+        }
+        double size = bbox.getWidth();
+        if (!(size > 0) || Math.abs(bbox.getHeight() - size) > size * TILE_TOLERANCE) {
+            return null;
+        }
+        return size;
+    }
+
+    private String getCacheKey(OskariLayer layer, CoordinateReferenceSystem crs, double tileSize, double originX, double originY) {
         String endPoint = layer.getUrl();
         String typeName = layer.getName();
-        String bboxStr = bbox != null ? bbox.toString() : "null";
         String crsStr = crs.getIdentifiers().iterator().next().toString();
-        return String.join(",", endPoint, typeName, bboxStr, crsStr);
+        // round so tiles of the same grid share a store even if their extents differ by floating point errors
+        return String.join(",", endPoint, typeName, crsStr,
+                round(tileSize), round(originX / tileSize), round(originY / tileSize));
+    }
+
+    private static String round(double value) {
+        return String.format(Locale.US, "%.6f", value);
     }
 
 }
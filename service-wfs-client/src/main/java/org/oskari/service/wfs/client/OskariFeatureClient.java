@@ -14,8 +14,10 @@ import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 import org.oskari.service.user.UserLayerService;
 import org.oskari.service.wfs3.CoordinateTransformer;
 
+import java.time.Duration;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public class OskariFeatureClient {
     public static final Logger LOG = LogFactory.getLogger(OskariFeatureClient.class);
@@ -60,11 +62,49 @@ public class OskariFeatureClient {
         }
 
         SimpleFeatureCollection features = getFeaturesNoTransform(id, layer, requestBbox, nativeCRS, processor);
+        return needsTransform ? transform(features, nativeCRS, targetCRS) : features;
+    }
+
+    /**
+     * Same as getFeatures() but WFS requests don't block the calling thread so multiple requests can be
+     * made in parallel. User content is read synchronously from the database.
+     * @return future that completes with the features or exceptionally with a ServiceRuntimeException
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(String id, OskariLayer layer, ReferencedEnvelope bbox,
+            CoordinateReferenceSystem targetCRS, Optional<UserLayerService> processor) {
+        return getFeaturesAsync(id, layer, bbox, targetCRS, processor, OskariWFSLoader.getPermitWait());
+    }
 
-        if (!needsTransform) {
-            return features;
+    /**
+     * @param maxWait max time to block the calling thread waiting for the limit of concurrent WFS requests
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(String id, OskariLayer layer, ReferencedEnvelope bbox,
+            CoordinateReferenceSystem targetCRS, Optional<UserLayerService> processor, Duration maxWait) {
+        if (processor.isPresent()) {
+            try {
+                return CompletableFuture.completedFuture(getFeatures(id, layer, bbox, targetCRS, processor));
+            } catch (ServiceRuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
         }
+        CoordinateReferenceSystem nativeCRS;
+        ReferencedEnvelope requestBbox;
+        try {
+            nativeCRS = getNativeCRS();
+            requestBbox = CRS.equalsIgnoreMetadata(nativeCRS, targetCRS) ? bbox : bbox.transform(nativeCRS, true);
+        } catch (ServiceRuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new ServiceRuntimeException(ERR_REPOJECTION_FAIL, e));
+        }
+        boolean needsTransform = requestBbox != bbox;
+        Filter filter = wfsClient.getWFSFilter(id, layer, requestBbox, processor);
+        return wfsClient.getFeaturesAsync(layer, requestBbox, nativeCRS, filter, maxWait)
+                .thenApply(features -> needsTransform ? transform(features, nativeCRS, targetCRS) : features);
+    }
 
+    private SimpleFeatureCollection transform(SimpleFeatureCollection features,
+            CoordinateReferenceSystem nativeCRS, CoordinateReferenceSystem targetCRS) {
         // Transform features to targetCRS
         try {
             CoordinateTransformer transformer = new CoordinateTransformer(nativeCRS, targetCRS);
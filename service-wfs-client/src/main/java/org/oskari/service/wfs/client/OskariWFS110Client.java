@@ -3,6 +3,8 @@ package org.oskari.service.wfs.client;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import fi.nls.oskari.util.JSONHelper;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -29,16 +31,33 @@ public class OskariWFS110Client {
      */
     public static SimpleFeatureCollection getFeatures(OskariLayer layer,
             ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
-        String endPoint = layer.getUrl();
-        String typeName = layer.getName();
         String user = layer.getUsername();
         String pass = layer.getPassword();
         boolean tryGeoJSON = OskariWFSClient.tryGeoJSON(layer);
+        Map<String, String> query = getLayerQueryParams(layer, bbox, crs, filter);
+        return OskariWFSClient.getFeatures(layer.getUrl(), user, pass, query, crs, tryGeoJSON, OSKARI_GML);
+    }
+
+    /**
+     * Same as getFeatures() but doesn't block while waiting for the service to respond
+     * @param parser executor for parsing the response
+     */
+    public static CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter, Executor parser) {
+        String user = layer.getUsername();
+        String pass = layer.getPassword();
+        boolean tryGeoJSON = OskariWFSClient.tryGeoJSON(layer);
+        Map<String, String> query = getLayerQueryParams(layer, bbox, crs, filter);
+        return OskariWFSClient.getFeaturesAsync(layer.getUrl(), user, pass, query, crs, tryGeoJSON, OSKARI_GML, parser);
+    }
+
+    private static Map<String, String> getLayerQueryParams(OskariLayer layer, ReferencedEnvelope bbox,
+            CoordinateReferenceSystem crs, Filter filter) {
         int maxFeatures = OskariWFSClient.getMaxFeatures(layer);
-        Map<String, String> query = getQueryParams(typeName, bbox, crs, maxFeatures, filter);
+        Map<String, String> query = getQueryParams(layer.getName(), bbox, crs, maxFeatures, filter);
         // attach any extra params added for layer (for example properties=[prop name we are interested in])
         query.putAll(JSONHelper.getObjectAsMap(layer.getParams()));
-        return OskariWFSClient.getFeatures(endPoint, user, pass, query, crs, tryGeoJSON, OSKARI_GML);
+        return query;
     }
 
     protected static Map<String, String> getQueryParams(String typeName, ReferencedEnvelope bbox,
@@ -1,34 +1,31 @@
 package org.oskari.service.wfs.client;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.domain.map.wfs.WFSLayerAttributes;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.OskariHttpClient;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.json.JSONObject;
-import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.filter.Filter;
 import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
 
 import fi.nls.oskari.service.ServiceRuntimeException;
-import org.oskari.geojson.GeoJSONReader2;
-import org.oskari.geojson.GeoJSONSchemaDetector;
+import org.oskari.geojson.GeoJSONStreamReader;
 import org.oskari.service.user.UserLayerService;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static fi.nls.oskari.service.capabilities.CapabilitiesConstants.KEY_FEATURE_OUTPUT_FORMATS;
 import static fi.nls.oskari.service.capabilities.CapabilitiesConstants.KEY_FORMATS;
@@ -38,9 +35,8 @@ public class OskariWFSClient {
 
     private static final Logger LOG = LogFactory.getLogger(OskariWFSClient.class);
     private static final String EXC_HANDLING_OUTPUTFORMAT = "outputformat";
-    private static final TypeReference<HashMap<String, Object>> TYPE_REF = new TypeReference<HashMap<String, Object>>() {};
-    private static final ObjectMapper OM = new ObjectMapper();
-    private static final int MAX_REDIRECTS = 5;
+    // how many bytes we might need to skip (whitespace) when detecting the response format
+    private static final int READ_AHEAD_LIMIT = 8192;
     private static final String PROPERTY_FORCE_GML = "forceGML";
     private static final String JSON_OUTPUT_FORMAT = "application/json";
     private static final int DEFAULT_MAX_FEATURES = 10000;
@@ -53,6 +49,19 @@ public class OskariWFSClient {
         return loader.getFeatures(layer, bbox, crs, filter);
     }
 
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        return getFeaturesAsync(layer, bbox, crs, filter, OskariWFSLoader.getPermitWait());
+    }
+
+    /**
+     * @param maxWait max time to wait for the limit of concurrent requests, see {@link OskariWFSLoader}
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter, Duration maxWait) {
+        return loader.getFeaturesAsync(layer, bbox, crs, filter, maxWait);
+    }
+
     // Common methods for WFS 1.1.0 and 2.0.0 clients
     protected static String getBBOX(ReferencedEnvelope bbox) {
         if (bbox == null) {
@@ -73,47 +82,22 @@ public class OskariWFSClient {
     protected static SimpleFeatureCollection getFeatures(String endPoint,
             String user, String pass, Map<String, String> query,
             CoordinateReferenceSystem crs, boolean tryGeoJSON, OskariGMLDecoder gmlDecoder) {
-        String url; // for debugging
-
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] response;
-        Map<String, String> responseHeaders;
         SimpleFeatureCollection fc;
 
         if (tryGeoJSON) {
             // First try GeoJSON
-            query.put("OUTPUTFORMAT", "application/json");
-            url = IOHelper.constructUrl(endPoint, query);
-            responseHeaders = OskariWFSClient.readResponseTo(endPoint, user, pass, query, baos);
-            response = baos.toByteArray();
-            if (response.length == 0) {
-                throw new ServiceRuntimeException("Empty response from " + url);
-            }
-            // TODO: Select parsing algorithm based on response headers (Content-Type)
-            fc = parseGeoJSON(response, crs, url);
+            query.put("OUTPUTFORMAT", JSON_OUTPUT_FORMAT);
+            fc = readFeatures(endPoint, user, pass, query, crs, gmlDecoder);
             if (fc != null) {
                 return fc;
             }
-            // Try to parse the same response as GML
-            fc = parseGML(response, crs, url, user, pass, gmlDecoder);
-            if (fc != null) {
-                LOG.info("Requested JSON but got GML. Possibly misconfigured service for", url);
-                return fc;
-            }
-            // Okay I guess it wasn't a GML FeatureCollection either - move on
-            LOG.warn("Requested JSON but didn't get a parseable result. Making a new request for GML. Possibly misconfigured service for", url);
+            LOG.warn("Requested JSON but didn't get a parseable result. Making a new request for GML. Possibly misconfigured service for",
+                    IOHelper.constructUrl(endPoint, query));
         }
 
         // Fallback to to requesting GML
         query.remove("OUTPUTFORMAT");
-        url = IOHelper.constructUrl(endPoint, query);
-        baos.reset();
-        responseHeaders = OskariWFSClient.readResponseTo(endPoint, user, pass, query, baos);
-        response = baos.toByteArray();
-        if (response.length == 0) {
-            throw new ServiceRuntimeException("Empty response from " + url);
-        }
-        fc = parseGML(response, crs, url, user, pass, gmlDecoder);
+        fc = readFeatures(endPoint, user, pass, query, crs, gmlDecoder);
         if (fc != null) {
             return fc;
         }
@@ -121,50 +105,132 @@ public class OskariWFSClient {
         throw new ServiceRuntimeException("Failed to get features");
     }
 
-    private static Map<String, String> readResponseTo(String endPoint,
-            String user, String pass, Map<String, String> query, OutputStream out) {
+    /**
+     * Same as getFeatures() but the thread is not blocked while waiting for the service to respond.
+     * The response is parsed with the given executor when the service starts sending it.
+     * @return future that completes with the features or exceptionally with a ServiceRuntimeException
+     */
+    protected static CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(String endPoint,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, boolean tryGeoJSON, OskariGMLDecoder gmlDecoder, Executor parser) {
+        if (!tryGeoJSON) {
+            return readGMLAsync(endPoint, user, pass, query, crs, gmlDecoder, parser);
+        }
+        Map<String, String> jsonQuery = new LinkedHashMap<>(query);
+        jsonQuery.put("OUTPUTFORMAT", JSON_OUTPUT_FORMAT);
+        return readFeaturesAsync(endPoint, user, pass, jsonQuery, crs, gmlDecoder, parser)
+                .thenCompose(fc -> {
+                    if (fc != null) {
+                        return CompletableFuture.completedFuture(fc);
+                    }
+                    LOG.warn("Requested JSON but didn't get a parseable result. Making a new request for GML. Possibly misconfigured service for",
+                            IOHelper.constructUrl(endPoint, jsonQuery));
+                    return readGMLAsync(endPoint, user, pass, query, crs, gmlDecoder, parser);
+                });
+    }
+
+    private static CompletableFuture<SimpleFeatureCollection> readGMLAsync(String endPoint,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, OskariGMLDecoder gmlDecoder, Executor parser) {
+        Map<String, String> gmlQuery = new LinkedHashMap<>(query);
+        gmlQuery.remove("OUTPUTFORMAT");
+        return readFeaturesAsync(endPoint, user, pass, gmlQuery, crs, gmlDecoder, parser)
+                .thenApply(fc -> {
+                    if (fc == null) {
+                        throw new ServiceRuntimeException("Failed to get features");
+                    }
+                    return fc;
+                });
+    }
+
+    /**
+     * Parses the response while it's being read instead of reading it to memory first.
+     * Parser is selected based on the Content-Type of the response. If the service doesn't tell
+     * the content type the first character of the response is used to detect JSON/XML.
+     * @return null if the response couldn't be parsed
+     */
+    private static SimpleFeatureCollection readFeatures(String endPoint,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, OskariGMLDecoder gmlDecoder) {
+        HttpRequest request = OskariHttpClient.newRequest(endPoint, user, pass, query, null).build();
         try {
-            HttpURLConnection conn = getConnection(endPoint, user, pass, query);
-            Map<String, String> responseHeaders = new HashMap<>();
-            conn.getHeaderFields().forEach((k, v) -> responseHeaders.put(k, v.get(0)));
-            IOHelper.readBytesTo(conn, out);
-            return responseHeaders;
+            return readResponse(OskariHttpClient.send(request), user, pass, query, crs, gmlDecoder);
         } catch (IOException e) {
             throw new ServiceRuntimeException("Unable to read response", e);
         }
     }
 
-    private static HttpURLConnection getConnection(String endPoint,
-                                                     String user, String pass, Map<String, String> query) throws IOException {
-        HttpURLConnection conn = IOHelper.getConnection(endPoint, user, pass, query);
-        conn = IOHelper.followRedirect(conn, user, pass, query, MAX_REDIRECTS);
-        int sc = conn.getResponseCode();
+    private static CompletableFuture<SimpleFeatureCollection> readFeaturesAsync(String endPoint,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, OskariGMLDecoder gmlDecoder, Executor parser) {
+        HttpRequest request = OskariHttpClient.newRequest(endPoint, user, pass, query, null).build();
+        return OskariHttpClient.sendAsync(request)
+                .thenApplyAsync(response -> readResponse(response, user, pass, query, crs, gmlDecoder), parser);
+    }
+
+    private static SimpleFeatureCollection readResponse(HttpResponse<InputStream> response,
+            String user, String pass, Map<String, String> query,
+            CoordinateReferenceSystem crs, OskariGMLDecoder gmlDecoder) {
+        String url = response.uri().toString(); // for debugging
+        int sc = response.statusCode();
         if (sc != 200) {
+            OskariHttpClient.discard(response);
             throw new ServiceRuntimeException("Unexpected status code " + sc, Integer.toString(sc));
         }
-        return conn;
+        try (InputStream in = new BufferedInputStream(OskariHttpClient.getDecodedInputStream(response, OskariWFSLoader.getTimeout()))) {
+            boolean json = isJSON(OskariHttpClient.getContentType(response), in, url);
+            if (json) {
+                return parseGeoJSON(in, crs, url);
+            }
+            SimpleFeatureCollection fc = parseGML(in, url, user, pass, gmlDecoder);
+            if (fc != null && JSON_OUTPUT_FORMAT.equals(query.get("OUTPUTFORMAT"))) {
+                LOG.info("Requested JSON but got GML. Possibly misconfigured service for", url);
+            }
+            return fc;
+        } catch (IOException e) {
+            throw new ServiceRuntimeException("Unable to read response", e);
+        }
+    }
+
+    private static boolean isJSON(String contentType, InputStream in, String url) throws IOException {
+        String type = contentType == null ? "" : contentType.toLowerCase(Locale.US);
+        if (type.contains("json")) {
+            return true;
+        }
+        if (type.contains("xml") || type.contains("gml")) {
+            return false;
+        }
+        // Unknown content type, peek at the first non-whitespace character
+        in.mark(READ_AHEAD_LIMIT);
+        try {
+            int b;
+            do {
+                b = in.read();
+            } while (b != -1 && Character.isWhitespace(b));
+            if (b == -1) {
+                throw new ServiceRuntimeException("Empty response from " + url);
+            }
+            return b == '{';
+        } finally {
+            in.reset();
+        }
     }
 
-    private static SimpleFeatureCollection parseGeoJSON(byte[] response, CoordinateReferenceSystem crs, String url) {
+    private static SimpleFeatureCollection parseGeoJSON(InputStream in, CoordinateReferenceSystem crs, String url) {
         try {
-            InputStream in = new ByteArrayInputStream(response);
-            Map<String, Object> geojson = OM.readValue(in, TYPE_REF);
             boolean ignoreGeometryProperties = true;
-            SimpleFeatureType schema = GeoJSONSchemaDetector.getSchema(geojson, crs, ignoreGeometryProperties);
-            return GeoJSONReader2.toFeatureCollection(geojson, schema);
+            return GeoJSONStreamReader.toFeatureCollection(in, crs, ignoreGeometryProperties);
         } catch (Exception e) {
             LOG.info(e, "Unable to parse GeoJSON from", url);
-            LOG.debug("Response from", url, "was:\n", new String(response, StandardCharsets.UTF_8));
             return null;
         }
     }
 
-    private static SimpleFeatureCollection parseGML(byte[] response, CoordinateReferenceSystem crs, String url, String user, String pass, OskariGMLDecoder gmlDecoder) {
+    private static SimpleFeatureCollection parseGML(InputStream in, String url, String user, String pass, OskariGMLDecoder gmlDecoder) {
         try {
-            return gmlDecoder.decodeFeatureCollection(new ByteArrayInputStream(response), user, pass);
+            return gmlDecoder.decodeFeatureCollection(in, user, pass);
         } catch (Exception e) {
             LOG.info(e, "Unable to parse GML from", url);
-            LOG.debug("Response from", url, "was:\n", new String(response, StandardCharsets.UTF_8));
             return null;
         }
     }
@@ -13,16 +13,19 @@ import org.oskari.service.wfs3.OskariWFS3Client;
 import io.github.resilience4j.decorators.Decorators;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
 import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
-import io.github.resilience4j.bulkhead.ThreadPoolBulkhead;
-import io.github.resilience4j.bulkhead.ThreadPoolBulkheadConfig;
-import io.github.resilience4j.bulkhead.ThreadPoolBulkheadRegistry;
 import io.github.resilience4j.timelimiter.TimeLimiter;
 import io.github.resilience4j.timelimiter.TimeLimiterConfig;
 import io.github.resilience4j.timelimiter.TimeLimiterRegistry;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
 
@@ -35,10 +38,14 @@ public class OskariWFSLoader {
     protected static final String ERR_SHORT_CIRCUIT = "Backing service disabled temporarily";
     protected static final String ERR_TIMEOUT = "Request to backing service timed out";
     protected static final String ERR_FAILED_TO_RETRIEVE_FEATURES = "Failed to retrieve features";
+    protected static final String ERR_TOO_MANY_REQUESTS = "Too many concurrent requests to backing services";
 
     private final CircuitBreakerRegistry circuitBreakerRegistry;
     private final TimeLimiter timeLimiter;
-    private final ThreadPoolBulkhead bulkhead;
+    private final Semaphore permits;
+    private final long permitWaitMs;
+    private final ExecutorService parser;
+    private final ExecutorService blocking;
     private final ScheduledExecutorService executor;
 
     public OskariWFSLoader() {
@@ -56,51 +63,144 @@ public class OskariWFSLoader {
                 .build();
         circuitBreakerRegistry = CircuitBreakerRegistry.of(circuitBreakerConfig);
 
+        // WFS 1.1.0 and 2.0.0 requests don't hold a thread while waiting for the service so the number of
+        // concurrent requests is limited with a semaphore and parser threads are only used for parsing responses.
+        // The OGC API Features (WFS 3) client pages through the results with blocking calls so those requests
+        // run on their own pool and hold a thread for the whole request without starving the parsers.
+        // When the limit is reached the caller waits for a permit (like PrintLoader) instead of failing
+        // right away so parallel requests for a vector tile are throttled rather than rejected.
+        // Callers with a deadline can limit the wait with getFeaturesAsync(..., maxWait).
         int poolSize = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.pool.size", 10);
         int poolLimit = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.pool.limit", 100);
-        int queueSize = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.pool.queue", 100);
-        ThreadPoolBulkheadConfig bulkheadConfig = ThreadPoolBulkheadConfig.custom()
-                .maxThreadPoolSize(poolSize)
-                .coreThreadPoolSize(poolSize/2)
-                .queueCapacity(queueSize)
-                .build();
-        ThreadPoolBulkheadRegistry registry = ThreadPoolBulkheadRegistry.of(bulkheadConfig);
-        bulkhead = registry.bulkhead(GROUP_KEY);
+        int blockingPoolSize = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.pool.size.oapif", 10);
+        permits = new Semaphore(poolLimit, true);
+        permitWaitMs = getPermitWait().toMillis();
+        parser = Executors.newFixedThreadPool(poolSize, r -> {
+            Thread t = new Thread(r, "oskari-" + GROUP_KEY + "-parser");
+            t.setDaemon(true);
+            return t;
+        });
+        blocking = Executors.newFixedThreadPool(blockingPoolSize, r -> {
+            Thread t = new Thread(r, "oskari-" + GROUP_KEY + "-oapif");
+            t.setDaemon(true);
+            return t;
+        });
 
         executor = Executors.newScheduledThreadPool(3);
 
-        int timeout = PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.timeoutms", 15000);
-        TimeLimiterConfig timeLimiterConfig = TimeLimiterConfig.custom().timeoutDuration(Duration.ofMillis(timeout)).build();
+        TimeLimiterConfig timeLimiterConfig = TimeLimiterConfig.custom().timeoutDuration(getTimeout()).build();
         timeLimiter = TimeLimiterRegistry.of(timeLimiterConfig).timeLimiter(GROUP_KEY);
     }
 
+    /**
+     * Time limit for a request. Also used as the deadline for reading the response body as the time limiter
+     * can't interrupt a thread that is blocked on reading.
+     */
+    static Duration getTimeout() {
+        return Duration.ofMillis(PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.timeoutms", 15000));
+    }
+
+    /**
+     * Max time to wait for a permit when the limit of concurrent requests has been reached.
+     * Defaults to the request timeout.
+     */
+    static Duration getPermitWait() {
+        return Duration.ofMillis(PropertyUtil.getOptional("oskari." + GROUP_KEY + ".job.pool.waitms", (int) getTimeout().toMillis()));
+    }
+
     public SimpleFeatureCollection getFeatures(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
         try {
-            return Decorators.ofSupplier(getSupplier(layer, bbox, crs, filter))
-                .withThreadPoolBulkhead(bulkhead)
+            return getFeaturesAsync(layer, bbox, crs, filter).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ServiceRuntimeException) {
+                throw (ServiceRuntimeException) e.getCause();
+            }
+            throw new ServiceRuntimeException(ERR_FAILED_TO_RETRIEVE_FEATURES, e);
+        }
+    }
+
+    /**
+     * Same as getFeatures() but doesn't block the calling thread while the request is running. Requests are
+     * run with the same concurrency limit, time limiter and circuit breaker so multiple requests can be
+     * started in parallel without overloading the backing service. WFS 1.1.0 and 2.0.0 requests don't hold
+     * a thread while waiting for the service to respond. WFS 3 requests are run on a separate pool of
+     * oskari.wfs.job.pool.size.oapif threads.
+     * @return future that completes with the features or exceptionally with a ServiceRuntimeException
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        return getFeaturesAsync(layer, bbox, crs, filter, getPermitWait());
+    }
+
+    /**
+     * @param maxWait max time to block the calling thread waiting for a permit when the limit of
+     *                concurrent requests has been reached, capped by oskari.wfs.job.pool.waitms.
+     *                The request fails if no permit is available in time.
+     */
+    public CompletableFuture<SimpleFeatureCollection> getFeaturesAsync(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter, Duration maxWait) {
+        CompletableFuture<SimpleFeatureCollection> future;
+        try {
+            future = Decorators.ofCompletionStage(withPermit(getSupplier(layer, bbox, crs, filter), maxWait))
                 .withTimeLimiter(timeLimiter, executor)
                 .withCircuitBreaker(circuitBreakerRegistry.circuitBreaker(layer.getUrl()))
-                .get().toCompletableFuture().join();
-        } catch (Exception e) { // CompletionException
-            Throwable cause = e.getCause();
-            if (cause instanceof TimeoutException) {
-                throw new ServiceRuntimeException(ERR_TIMEOUT);
+                .get().toCompletableFuture();
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(new ServiceRuntimeException(ERR_FAILED_TO_RETRIEVE_FEATURES, e));
+        }
+        return future.handle((fc, e) -> {
+            if (e == null) {
+                return fc;
             }
-            if (cause instanceof CallNotPermittedException) {
-                throw new ServiceRuntimeException(ERR_SHORT_CIRCUIT);
+            throw toServiceException(e);
+        });
+    }
+
+    /**
+     * Holds a permit until the request has completed. The time limiter only starts after a permit is acquired.
+     */
+    private Supplier<CompletionStage<SimpleFeatureCollection>> withPermit(
+            Supplier<CompletionStage<SimpleFeatureCollection>> request, Duration maxWait) {
+        return () -> {
+            try {
+                long waitMs = Math.max(0, Math.min(maxWait.toMillis(), permitWaitMs));
+                if (!permits.tryAcquire(waitMs, TimeUnit.MILLISECONDS)) {
+                    return CompletableFuture.failedFuture(new ServiceRuntimeException(ERR_TOO_MANY_REQUESTS));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(new ServiceRuntimeException(ERR_TOO_MANY_REQUESTS, e));
             }
-            throw new ServiceRuntimeException(ERR_FAILED_TO_RETRIEVE_FEATURES, e);
+            try {
+                return request.get().whenComplete((fc, e) -> permits.release());
+            } catch (RuntimeException e) {
+                permits.release();
+                throw e;
+            }
+        };
+    }
+
+    private static ServiceRuntimeException toServiceException(Throwable e) {
+        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+        if (cause instanceof ServiceRuntimeException) {
+            return (ServiceRuntimeException) cause;
+        }
+        if (cause instanceof TimeoutException) {
+            return new ServiceRuntimeException(ERR_TIMEOUT);
+        }
+        if (cause instanceof CallNotPermittedException) {
+            return new ServiceRuntimeException(ERR_SHORT_CIRCUIT);
         }
+        return new ServiceRuntimeException(ERR_FAILED_TO_RETRIEVE_FEATURES, cause);
     }
 
-    protected Supplier<SimpleFeatureCollection> getSupplier(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+    protected Supplier<CompletionStage<SimpleFeatureCollection>> getSupplier(OskariLayer layer, ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
         switch (layer.getVersion()) {
         case WFS_3_VERSION:
-            return () -> OskariWFS3Client.getFeatures(layer, bbox, crs, filter);
+            // OGC API client pages through the results synchronously
+            return () -> CompletableFuture.supplyAsync(() -> OskariWFS3Client.getFeatures(layer, bbox, crs, filter), blocking);
         case WFS_2_VERSION:
-            return () -> OskariWFS2Client.getFeatures(layer, bbox, crs, filter);
+            return () -> OskariWFS2Client.getFeaturesAsync(layer, bbox, crs, filter, parser);
         default:
-            return () -> OskariWFS110Client.getFeatures(layer, bbox, crs, filter);
+            return () -> OskariWFS110Client.getFeaturesAsync(layer, bbox, crs, filter, parser);
         }
     }
 }
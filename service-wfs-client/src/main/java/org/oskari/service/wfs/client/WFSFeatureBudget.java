@@ -0,0 +1,59 @@
+package org.oskari.service.wfs.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Limits the total number of features kept in memory by all WFSFeatureStores. Stores are referenced weakly
+ * so stores dropped from the cache are counted only until they are garbage collected.
+ */
+class WFSFeatureBudget {
+
+    private final int maxFeatures;
+    private final Set<WFSFeatureStore> stores = Collections.newSetFromMap(new WeakHashMap<>());
+
+    WFSFeatureBudget(int maxFeatures) {
+        this.maxFeatures = maxFeatures;
+    }
+
+    synchronized void register(WFSFeatureStore store) {
+        stores.add(store);
+    }
+
+    synchronized long getSize() {
+        long total = 0;
+        for (WFSFeatureStore store : stores) {
+            total += store.size();
+        }
+        return total;
+    }
+
+    /**
+     * Evicts features from the largest stores first until the total is within the budget
+     * or there is nothing left that can be evicted.
+     */
+    synchronized void enforce() {
+        long excess = getSize() - maxFeatures;
+        if (excess <= 0) {
+            return;
+        }
+        // sizes change while sorting so sort by a snapshot
+        Map<WFSFeatureStore, Integer> sizes = new HashMap<>();
+        stores.forEach(store -> sizes.put(store, store.size()));
+        List<WFSFeatureStore> largestFirst = new ArrayList<>(sizes.keySet());
+        largestFirst.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+        for (WFSFeatureStore store : largestFirst) {
+            if (excess <= 0) {
+                return;
+            }
+            int size = store.size();
+            excess -= store.evict((int) Math.max(0, size - excess));
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package org.oskari.service.wfs.client;
+
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.quadtree.Quadtree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Features of a single WFS layer indexed spatially. The area is divided into a grid and the store keeps
+ * track of cells it has already loaded so a request for a bbox only needs to fetch the cells that are missing.
+ * Features are stored once by their id even if they are part of multiple cells.
+ *
+ * Requests reference the cells they cover from claim() until release() so the cells they are about to query
+ * are not evicted. Unreferenced cells are evicted in least recently used order when the store has too many
+ * features.
+ */
+public class WFSFeatureStore {
+
+    // tolerance (in cells) for bbox edges that fall on cell edges
+    private static final double EPSILON = 1e-9;
+    // tolerance (in cells) for a bbox to be considered a cell of the grid
+    private static final double CELL_TOLERANCE = 1e-6;
+
+    private final double cellSize;
+    private final double originX;
+    private final double originY;
+    private final int maxFeatures;
+    private final Map<String, StoredFeature> features = new HashMap<>();
+    private final Quadtree index = new Quadtree();
+    // access ordered so iteration starts from the least recently used cell
+    private final LinkedHashMap<Long, Cell> cells = new LinkedHashMap<>(16, 0.75f, true);
+    private SimpleFeatureType schema;
+
+    /**
+     * @param cellSize size of a grid cell in CRS units
+     * @param originX x coordinate of a cell corner
+     * @param originY y coordinate of a cell corner
+     * @param maxFeatures unreferenced cells are evicted when the store has more features than this
+     */
+    public WFSFeatureStore(double cellSize, double originX, double originY, int maxFeatures) {
+        this.cellSize = cellSize;
+        this.originX = originX;
+        this.originY = originY;
+        this.maxFeatures = maxFeatures;
+    }
+
+    /**
+     * Grid origin that aligns the cells of given size with the bbox corner.
+     * For tile requests this aligns the grid with the tile grid.
+     */
+    public static double getOrigin(double coord, double cellSize) {
+        return coord - Math.floor(coord / cellSize) * cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    /**
+     * Returns the grid cell matching the bbox. Tile requests of a tile grid with the same cell size and
+     * origin map to exactly one cell. Small differences caused by floating point arithmetic are tolerated.
+     * @return envelope of the cell or null if the bbox is not a cell of this grid
+     */
+    public Envelope getCell(Envelope bbox) {
+        double x = (bbox.getMinX() - originX) / cellSize;
+        double y = (bbox.getMinY() - originY) / cellSize;
+        if (Math.abs(x - Math.rint(x)) > CELL_TOLERANCE
+                || Math.abs(y - Math.rint(y)) > CELL_TOLERANCE
+                || Math.abs(bbox.getWidth() / cellSize - 1) > CELL_TOLERANCE
+                || Math.abs(bbox.getHeight() / cellSize - 1) > CELL_TOLERANCE) {
+            return null;
+        }
+        double minX = originX + Math.rint(x) * cellSize;
+        double minY = originY + Math.rint(y) * cellSize;
+        return new Envelope(minX, minX + cellSize, minY, minY + cellSize);
+    }
+
+    /**
+     * References the cells covering the bbox and claims the ones that are not loaded or being loaded.
+     * The claimed cells are grouped to rectangular runs of adjacent cells that should be requested
+     * by the caller and passed to loaded() or failed(). release() must be called with the claim
+     * once the caller is done querying the store.
+     */
+    public synchronized Claim claim(Envelope bbox) {
+        long x1 = minIndex(bbox.getMinX(), originX);
+        long x2 = Math.max(x1, maxIndex(bbox.getMaxX(), originX));
+        long y1 = minIndex(bbox.getMinY(), originY);
+        long y2 = Math.max(y1, maxIndex(bbox.getMaxY(), originY));
+        int w = (int) (x2 - x1 + 1);
+        int h = (int) (y2 - y1 + 1);
+
+        Claim claim = new Claim();
+        boolean[][] missing = new boolean[h][w];
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                long key = cellKey(x1 + i, y1 + j);
+                Cell cell = cells.get(key);
+                if (cell == null) {
+                    cell = new Cell();
+                    cells.put(key, cell);
+                    missing[j][i] = true;
+                } else if (!cell.load.isDone()) {
+                    if (!claim.pending.contains(cell.load)) {
+                        claim.pending.add(cell.load);
+                    }
+                } else if (!cell.complete) {
+                    // previous load failed or was truncated by maxFeatures
+                    missing[j][i] = true;
+                }
+                cell.refs++;
+                claim.referenced.add(key);
+            }
+        }
+        for (int[] rect : getRuns(missing)) {
+            Run run = new Run(new Envelope(
+                    originX + (x1 + rect[0]) * cellSize, originX + (x1 + rect[2] + 1) * cellSize,
+                    originY + (y1 + rect[1]) * cellSize, originY + (y1 + rect[3] + 1) * cellSize));
+            for (int j = rect[1]; j <= rect[3]; j++) {
+                for (int i = rect[0]; i <= rect[2]; i++) {
+                    long key = cellKey(x1 + i, y1 + j);
+                    cells.get(key).load = run.load;
+                    run.cells.add(key);
+                }
+            }
+            claim.missing.add(run);
+            claim.pending.add(run.load);
+        }
+        return claim;
+    }
+
+    /**
+     * Groups missing cells to rectangles of adjacent cells: runs of consecutive cells on a row are merged
+     * with identical runs on the previous row.
+     * @return rectangles as [minCol, minRow, maxCol, maxRow]
+     */
+    static List<int[]> getRuns(boolean[][] missing) {
+        List<int[]> closed = new ArrayList<>();
+        List<int[]> open = new ArrayList<>();
+        for (int row = 0; row < missing.length; row++) {
+            List<int[]> next = new ArrayList<>();
+            int col = 0;
+            while (col < missing[row].length) {
+                if (!missing[row][col]) {
+                    col++;
+                    continue;
+                }
+                int start = col;
+                while (col < missing[row].length && missing[row][col]) {
+                    col++;
+                }
+                int end = col - 1;
+                int[] rect = null;
+                for (Iterator<int[]> it = open.iterator(); it.hasNext(); ) {
+                    int[] candidate = it.next();
+                    if (candidate[0] == start && candidate[2] == end) {
+                        it.remove();
+                        rect = candidate;
+                        rect[3] = row;
+                        break;
+                    }
+                }
+                next.add(rect != null ? rect : new int[] { start, row, end, row });
+            }
+            closed.addAll(open);
+            open = next;
+        }
+        closed.addAll(open);
+        return closed;
+    }
+
+    /**
+     * Adds features loaded for the run. Features with an id that is already in the store replace the previous ones.
+     * @param truncated true if the response had as many features as was requested so there might be more.
+     *                  Cells of a truncated response are not marked as loaded and are requested again when needed
+     */
+    public synchronized void loaded(Run run, SimpleFeatureCollection fc, boolean truncated) {
+        if (schema == null) {
+            schema = fc.getSchema();
+        }
+        Map<Long, Set<String>> idsByCell = new HashMap<>();
+        run.cells.forEach(key -> idsByCell.put(key, new HashSet<>()));
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                Geometry geom = (Geometry) f.getDefaultGeometry();
+                if (geom == null) {
+                    continue;
+                }
+                List<Long> keys = getCells(geom.getEnvelopeInternal(), run.cells);
+                if (keys.isEmpty()) {
+                    // on the edge of the requested bbox
+                    keys = Collections.singletonList(run.cells.get(0));
+                }
+                int added = 0;
+                for (Long key : keys) {
+                    // the same feature might be listed more than once in a response
+                    if (idsByCell.get(key).add(f.getID())) {
+                        added++;
+                    }
+                }
+                put(f, added);
+            }
+        }
+        for (Map.Entry<Long, Set<String>> entry : idsByCell.entrySet()) {
+            Cell cell = cells.get(entry.getKey());
+            if (cell == null || cell.load != run.load) {
+                // the feature references were added above, drop them
+                entry.getValue().forEach(this::unreference);
+                continue;
+            }
+            Set<String> previous = cell.ids;
+            cell.ids = entry.getValue();
+            cell.complete = !truncated;
+            previous.forEach(this::unreference);
+        }
+        evict(maxFeatures);
+        run.load.complete(null);
+    }
+
+    /**
+     * Marks the cells of the run as not loaded so they can be claimed again by the next request.
+     * Features from a previous truncated load are kept as requests might be about to query them.
+     */
+    public synchronized void failed(Run run, Throwable e) {
+        for (Long key : run.cells) {
+            Cell cell = cells.get(key);
+            if (cell == null || cell.load != run.load) {
+                continue;
+            }
+            if (cell.ids.isEmpty() && cell.refs == 0) {
+                cells.remove(key);
+            } else {
+                cell.load = CompletableFuture.completedFuture(null);
+                cell.complete = false;
+            }
+        }
+        run.load.completeExceptionally(e);
+    }
+
+    /**
+     * Releases the references of the claim so the cells can be evicted.
+     */
+    public synchronized void release(Claim claim) {
+        for (Long key : claim.referenced) {
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                continue;
+            }
+            cell.refs--;
+            if (cell.refs == 0 && cell.ids.isEmpty() && cell.load.isDone() && !cell.complete) {
+                // nothing to keep from a failed load
+                cells.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Evicts unreferenced cells in least recently used order until the store has at most maxSize features
+     * or there are no unreferenced cells left.
+     * @return number of features removed
+     */
+    public synchronized int evict(int maxSize) {
+        int before = features.size();
+        Iterator<Cell> it = cells.values().iterator();
+        while (features.size() > maxSize && it.hasNext()) {
+            Cell cell = it.next();
+            if (cell.refs > 0 || !cell.load.isDone()) {
+                continue;
+            }
+            it.remove();
+            cell.ids.forEach(this::unreference);
+        }
+        return before - features.size();
+    }
+
+    private List<Long> getCells(Envelope env, List<Long> candidates) {
+        long x1 = minIndex(env.getMinX(), originX);
+        long x2 = Math.max(x1, maxIndex(env.getMaxX(), originX));
+        long y1 = minIndex(env.getMinY(), originY);
+        long y2 = Math.max(y1, maxIndex(env.getMaxY(), originY));
+        List<Long> keys = new ArrayList<>(1);
+        for (long x = x1; x <= x2; x++) {
+            for (long y = y1; y <= y2; y++) {
+                Long key = cellKey(x, y);
+                if (candidates.contains(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    private void put(SimpleFeature f, int cellCount) {
+        StoredFeature previous = features.get(f.getID());
+        if (previous != null) {
+            index.remove(getEnvelope(previous.feature), previous.feature);
+            previous.feature = f;
+            previous.cells += cellCount;
+        } else {
+            features.put(f.getID(), new StoredFeature(f, cellCount));
+        }
+        index.insert(getEnvelope(f), f);
+    }
+
+    private void unreference(String id) {
+        StoredFeature stored = features.get(id);
+        if (stored == null) {
+            return;
+        }
+        stored.cells--;
+        if (stored.cells <= 0) {
+            features.remove(id);
+            index.remove(getEnvelope(stored.feature), stored.feature);
+        }
+    }
+
+    private static Envelope getEnvelope(SimpleFeature f) {
+        return ((Geometry) f.getDefaultGeometry()).getEnvelopeInternal();
+    }
+
+    /**
+     * @return features that intersect the bbox
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized SimpleFeatureCollection query(Envelope bbox) {
+        List<SimpleFeature> result = new ArrayList<>();
+        for (SimpleFeature f : (List<SimpleFeature>) index.query(bbox)) {
+            // query returns candidates so check the actual envelope
+            if (getEnvelope(f).intersects(bbox)) {
+                result.add(f);
+            }
+        }
+        return new ListFeatureCollection(schema, result);
+    }
+
+    public synchronized SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    public synchronized int size() {
+        return features.size();
+    }
+
+    private long minIndex(double coord, double origin) {
+        return (long) Math.floor((coord - origin) / cellSize + EPSILON);
+    }
+
+    private long maxIndex(double coord, double origin) {
+        return (long) Math.ceil((coord - origin) / cellSize - EPSILON) - 1;
+    }
+
+    private static long cellKey(long x, long y) {
+        return (x << 32) ^ (y & 0xFFFFFFFFL);
+    }
+
+    private static class StoredFeature {
+        private SimpleFeature feature;
+        // number of cells referencing the feature
+        private int cells;
+
+        private StoredFeature(SimpleFeature feature, int cells) {
+            this.feature = feature;
+            this.cells = cells;
+        }
+    }
+
+    private static class Cell {
+        // completed when loaded, failed loads are replaced with a completed future
+        private CompletableFuture<Void> load = new CompletableFuture<>();
+        // false until loaded with a response that wasn't truncated
+        private boolean complete;
+        private Set<String> ids = Collections.emptySet();
+        // number of requests that are about to query the cell
+        private int refs;
+    }
+
+    /**
+     * Cells a request needs: runs it should load and loads it should wait for.
+     */
+    public static final class Claim {
+        private final List<Run> missing = new ArrayList<>();
+        private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+        private final List<Long> referenced = new ArrayList<>();
+
+        public List<Run> getMissing() {
+            return missing;
+        }
+
+        /**
+         * @return loads of the runs in getMissing() and loads of other requests for the cells
+         */
+        public List<CompletableFuture<Void>> getPending() {
+            return pending;
+        }
+    }
+
+    /**
+     * Rectangle of adjacent cells to load with one request.
+     */
+    public static final class Run {
+        private final Envelope envelope;
+        private final List<Long> cells = new ArrayList<>();
+        private final CompletableFuture<Void> load = new CompletableFuture<>();
+
+        private Run(Envelope envelope) {
+            this.envelope = envelope;
+        }
+
+        public Envelope getEnvelope() {
+            return envelope;
+        }
+    }
+}
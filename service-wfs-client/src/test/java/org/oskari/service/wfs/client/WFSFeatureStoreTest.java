@@ -0,0 +1,184 @@
+package org.oskari.service.wfs.client;
+
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class WFSFeatureStoreTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+    private static final SimpleFeatureType TYPE;
+    static {
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("test");
+        b.add("geom", Point.class);
+        TYPE = b.buildFeatureType();
+    }
+
+    private static SimpleFeature point(String id, double x, double y) {
+        return SimpleFeatureBuilder.build(TYPE, new Object[] { GF.createPoint(new Coordinate(x, y)) }, id);
+    }
+
+    private static ListFeatureCollection collection(SimpleFeature... features) {
+        return new ListFeatureCollection(TYPE, Arrays.asList(features));
+    }
+
+    @Test
+    public void testGetCell() {
+        Assertions.assertEquals(288, WFSFeatureStore.getOrigin(-548576, 8192));
+        WFSFeatureStore store = new WFSFeatureStore(8192, 288, 0, 1000);
+        Envelope tile = new Envelope(-548576, -540384, 6291456, 6299648);
+        Assertions.assertEquals(tile, store.getCell(tile));
+        Assertions.assertEquals(tile, store.getCell(new Envelope(-548576.0000001, -540384, 6291456, 6299648.0000001)),
+                "Should tolerate floating point errors");
+        Assertions.assertNull(store.getCell(new Envelope(-548000, -539808, 6291456, 6299648)), "Not aligned with the grid");
+        Assertions.assertNull(store.getCell(new Envelope(-548576, -540384, 6291456, 6295552)), "Not the size of a cell");
+    }
+
+    @Test
+    public void testTileIsOneCell() {
+        // tile of the ETRS-TM35FIN tile grid
+        WFSFeatureStore store = new WFSFeatureStore(8192, 288, 0, 1000);
+        WFSFeatureStore.Claim claim = store.claim(new Envelope(-548576, -540384, 6291456, 6299648));
+        Assertions.assertEquals(1, claim.getMissing().size());
+        Assertions.assertEquals(new Envelope(-548576, -540384, 6291456, 6299648), claim.getMissing().get(0).getEnvelope());
+    }
+
+    @Test
+    public void testOnlyMissingCellsAreClaimed() {
+        WFSFeatureStore store = new WFSFeatureStore(10, 0, 0, 1000);
+
+        WFSFeatureStore.Claim first = store.claim(new Envelope(0, 20, 0, 10));
+        Assertions.assertEquals(1, first.getMissing().size(), "Adjacent cells should be loaded with one request");
+        Assertions.assertEquals(new Envelope(0, 20, 0, 10), first.getMissing().get(0).getEnvelope());
+
+        // overlapping request while the first one is loading
+        WFSFeatureStore.Claim second = store.claim(new Envelope(5, 25, 0, 9));
+        Assertions.assertEquals(1, second.getMissing().size());
+        Assertions.assertEquals(new Envelope(20, 30, 0, 10), second.getMissing().get(0).getEnvelope(),
+                "Should only need the cell not being loaded");
+        Assertions.assertEquals(2, second.getPending().size(), "Should wait for the first request and its own load");
+
+        store.loaded(first.getMissing().get(0), collection(), false);
+        store.loaded(second.getMissing().get(0), collection(), false);
+        store.release(first);
+        store.release(second);
+        WFSFeatureStore.Claim third = store.claim(new Envelope(1, 29, 1, 9));
+        Assertions.assertTrue(third.getMissing().isEmpty());
+        Assertions.assertTrue(third.getPending().isEmpty());
+    }
+
+    @Test
+    public void testMissingCellsAreRequestedInRuns() {
+        WFSFeatureStore store = new WFSFeatureStore(10, 0, 0, 1000);
+        WFSFeatureStore.Claim middle = store.claim(new Envelope(10, 20, 0, 10));
+        store.loaded(middle.getMissing().get(0), collection(), false);
+        store.release(middle);
+
+        // loaded cell in the middle shouldn't be requested again
+        WFSFeatureStore.Claim claim = store.claim(new Envelope(0, 30, 0, 10));
+        Assertions.assertEquals(2, claim.getMissing().size());
+        Assertions.assertEquals(new Envelope(0, 10, 0, 10), claim.getMissing().get(0).getEnvelope());
+        Assertions.assertEquals(new Envelope(20, 30, 0, 10), claim.getMissing().get(1).getEnvelope());
+    }
+
+    @Test
+    public void testRuns() {
+        boolean[][] missing = {
+                { true, true, false, true },
+                { true, true, false, true },
+                { false, true, false, true }
+        };
+        List<int[]> runs = WFSFeatureStore.getRuns(missing);
+        Assertions.assertEquals(3, runs.size());
+        Assertions.assertArrayEquals(new int[] { 0, 0, 1, 1 }, runs.get(0));
+        Assertions.assertArrayEquals(new int[] { 1, 2, 1, 2 }, runs.get(1));
+        Assertions.assertArrayEquals(new int[] { 3, 0, 3, 2 }, runs.get(2));
+    }
+
+    @Test
+    public void testFailedCellsCanBeClaimedAgain() {
+        WFSFeatureStore store = new WFSFeatureStore(10, 0, 0, 1000);
+        Envelope bbox = new Envelope(0, 9, 0, 9);
+        WFSFeatureStore.Claim claim = store.claim(bbox);
+        store.failed(claim.getMissing().get(0), new RuntimeException("failed"));
+        Assertions.assertTrue(claim.getPending().get(0).isCompletedExceptionally());
+        store.release(claim);
+        Assertions.assertEquals(1, store.claim(bbox).getMissing().size());
+    }
+
+    @Test
+    public void testTruncatedCellsAreNotLoaded() {
+        WFSFeatureStore store = new WFSFeatureStore(10, 0, 0, 1000);
+        Envelope bbox = new Envelope(0, 9, 0, 9);
+        WFSFeatureStore.Claim claim = store.claim(bbox);
+        store.loaded(claim.getMissing().get(0), collection(point("a", 1, 1)), true);
+        Assertions.assertEquals(1, store.query(bbox).size(), "Features should be available to the request");
+        store.release(claim);
+        Assertions.assertEquals(1, store.claim(bbox).getMissing().size(), "Truncated cell should be requested again");
+    }
+
+    @Test
+    public void testReferencedCellsAreNotEvicted() {
+        WFSFeatureStore store = new WFSFeatureStore(10, 0, 0, 1);
+        WFSFeatureStore.Claim first = store.claim(new Envelope(0, 10, 0, 10));
+        store.loaded(first.getMissing().get(0), collection(point("a", 1, 1)), false);
+
+        WFSFeatureStore.Claim second = store.claim(new Envelope(10, 20, 0, 10));
+        store.loaded(second.getMissing().get(0), collection(point("b", 15, 1)), false);
+        Assertions.assertEquals(1, store.query(new Envelope(0, 10, 0, 10)).size(),
+                "Cell referenced by the first request shouldn't be evicted");
+
+        store.release(first);
+        Assertions.assertEquals(1, store.evict(1), "Released cell should be evicted");
+        Assertions.assertEquals(0, store.query(new Envelope(0, 10, 0, 10)).size());
+        Assertions.assertEquals(1, store.query(new Envelope(10, 20, 0, 10)).size());
+    }
+
+    @Test
+    public void testFeaturesAreDeduplicatedAndQueriedByBbox() {
+        WFSFeatureStore store = new WFSFeatureStore(10, 0, 0, 1000);
+        WFSFeatureStore.Claim first = store.claim(new Envelope(0, 20, 0, 10));
+        store.loaded(first.getMissing().get(0), collection(point("a", 1, 1), point("b", 15, 1)), false);
+        WFSFeatureStore.Claim second = store.claim(new Envelope(10, 30, 0, 10));
+        store.loaded(second.getMissing().get(0), collection(point("b", 15, 1), point("c", 25, 1)), false);
+        Assertions.assertEquals(3, store.size());
+        Assertions.assertEquals(TYPE, store.getSchema());
+        Assertions.assertEquals(2, store.query(new Envelope(0, 20, 0, 10)).size());
+        Assertions.assertEquals(1, store.query(new Envelope(20, 30, 0, 10)).size());
+    }
+
+    @Test
+    public void testBudgetEvictsFromLargestStore() {
+        WFSFeatureBudget budget = new WFSFeatureBudget(2);
+        WFSFeatureStore small = new WFSFeatureStore(10, 0, 0, 1000);
+        WFSFeatureStore large = new WFSFeatureStore(10, 0, 0, 1000);
+        budget.register(small);
+        budget.register(large);
+
+        WFSFeatureStore.Claim claim = small.claim(new Envelope(0, 10, 0, 10));
+        small.loaded(claim.getMissing().get(0), collection(point("a", 1, 1)), false);
+        small.release(claim);
+        for (int i = 0; i < 3; i++) {
+            claim = large.claim(new Envelope(i * 10, i * 10 + 10, 0, 10));
+            large.loaded(claim.getMissing().get(0), collection(point("f" + i, i * 10 + 1, 1)), false);
+            large.release(claim);
+        }
+        Assertions.assertEquals(4, budget.getSize());
+        budget.enforce();
+        Assertions.assertEquals(2, budget.getSize());
+        Assertions.assertEquals(1, small.size());
+        Assertions.assertEquals(1, large.query(new Envelope(20, 30, 0, 10)).size(), "Most recently used cell should be kept");
+    }
+}
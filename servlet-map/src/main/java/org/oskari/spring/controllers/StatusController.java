@@ -1,15 +1,21 @@
 package org.oskari.spring.controllers;
 
+import fi.nls.oskari.control.ActionControl;
 import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.PrometheusMetricsWriter;
 import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.util.PropertyUtil;
 import org.oskari.spring.extension.OskariParam;
 import org.oskari.status.AppStatus;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
@@ -17,6 +23,9 @@ import java.util.Map;
 @Controller
 public class StatusController {
 
+    // allows scraping metrics without an admin session. Access should be restricted f.ex. on the proxy instead
+    private static final String PROPERTY_METRICS_PUBLIC = "metrics.prometheus.public";
+
     private Collection<AppStatus> getChecks() {
         Map<String, AppStatus> statuses = OskariComponentManager.getComponentsOfType(AppStatus.class);
         return statuses.values();
@@ -43,4 +52,19 @@ public class StatusController {
         return getChecks();
     }
 
+    /**
+     * ActionControl metrics (routes, layer proxies, caches, Redis) for scraping with Prometheus
+     */
+    @RequestMapping("/metrics")
+    public ResponseEntity<String> metrics(@OskariParam ActionParameters params) throws IOException {
+        if (!params.getUser().isAdmin() && !PropertyUtil.getOptional(PROPERTY_METRICS_PUBLIC, false)) {
+            return new ResponseEntity<>(HttpStatus.FORBIDDEN);
+        }
+        StringWriter out = new StringWriter();
+        PrometheusMetricsWriter.write(ActionControl.getMetrics(), out);
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_TYPE, PrometheusMetricsWriter.CONTENT_TYPE);
+        return new ResponseEntity<>(out.toString(), headers, HttpStatus.OK);
+    }
+
 }